@@ -0,0 +1,130 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+
+/**
+ * This class builds the native DESFire commands wrapped in an ISO 7816-4 APDU
+ * (0x90 || INS || 0x00 || 0x00 || Lc || Data || Le) in a reusable buffer instead of a new
+ * ByteArrayOutputStream for each command. The header is written at fixed offsets, the data is
+ * appended behind the Lc position and the Lc byte is filled in when the APDU gets finished.
+ * <p>
+ * As CardTransport.transceive (and the Android IsoDep.transceive method) needs an array of the
+ * exact APDU length the finished APDU is the only allocation for each command.
+ * <p>
+ * The buffer is used for the wrapped commands of wrapMessage and wrapMessageNoLe and for the frames
+ * of a chained command, the command data itself is still assembled by the command methods.
+ * <p>
+ * The static methods give access to the status bytes of a response without copying them out of
+ * the response array.
+ * <p>
+ * Note: an instance is not thread safe, each DesfireEv3 instance (one card session) uses its own buffer.
+ */
+
+public class ApduBuffer {
+
+    public static final int MAXIMUM_DATA_LENGTH = 255; // short APDU
+    private static final int OFFSET_CLA = 0;
+    private static final int OFFSET_INS = 1;
+    private static final int OFFSET_P1 = 2;
+    private static final int OFFSET_P2 = 3;
+    private static final int OFFSET_LC = 4;
+    private static final int OFFSET_DATA = 5;
+    private static final byte NATIVE_WRAPPED_CLA = (byte) 0x90;
+
+    private final byte[] buffer = new byte[OFFSET_DATA + MAXIMUM_DATA_LENGTH + 1]; // + Le
+    private int position = OFFSET_DATA;
+
+    /**
+     * starts a new APDU, any data of a previous APDU is discarded
+     *
+     * @param command | the native DESFire command
+     * @return this buffer
+     */
+    public ApduBuffer start(byte command) {
+        buffer[OFFSET_CLA] = NATIVE_WRAPPED_CLA;
+        buffer[OFFSET_INS] = command;
+        buffer[OFFSET_P1] = (byte) 0x00;
+        buffer[OFFSET_P2] = (byte) 0x00;
+        position = OFFSET_DATA;
+        return this;
+    }
+
+    public ApduBuffer put(byte value) throws IOException {
+        checkCapacity(1);
+        buffer[position++] = value;
+        return this;
+    }
+
+    public ApduBuffer put(byte[] data) throws IOException {
+        if (data == null) return this;
+        return put(data, 0, data.length);
+    }
+
+    /**
+     * appends a slice of the data, the slice is copied directly into the buffer
+     *
+     * @param data   | source array
+     * @param offset | start of the slice in data
+     * @param length | length of the slice
+     * @return this buffer
+     */
+    public ApduBuffer put(byte[] data, int offset, int length) throws IOException {
+        checkCapacity(length);
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * finishes the APDU
+     *
+     * @param withLc | true writes the Lc byte and the data, false builds a header only APDU
+     *               (any appended data is ignored)
+     * @param withLe | true appends Le = 0x00 (ISO 7816-4 case 2 or 4), false omits it (case 1 or 3)
+     * @return the complete APDU in an array of the exact length
+     */
+    public byte[] toApdu(boolean withLc, boolean withLe) {
+        int length = withLc ? position : OFFSET_LC;
+        if (withLc) {
+            buffer[OFFSET_LC] = (byte) (position - OFFSET_DATA);
+        }
+        if (withLe) {
+            buffer[length++] = (byte) 0x00;
+        }
+        byte[] apdu = new byte[length];
+        System.arraycopy(buffer, 0, apdu, 0, length);
+        return apdu;
+    }
+
+    private void checkCapacity(int length) throws IOException {
+        if (position + length > OFFSET_DATA + MAXIMUM_DATA_LENGTH) {
+            throw new IOException("APDU data exceeds " + MAXIMUM_DATA_LENGTH + " bytes");
+        }
+    }
+
+    /**
+     * section for zero copy response access
+     */
+
+    /**
+     * checks the status bytes (SW1 || SW2) at the end of a response without copying them
+     *
+     * @param response    | the complete response
+     * @param statusBytes | the expected 2 status bytes
+     * @return true if the response ends with the status bytes
+     */
+    public static boolean hasStatus(byte[] response, byte[] statusBytes) {
+        if ((response == null) || (response.length < 2)) return false;
+        return ((response[response.length - 2] == statusBytes[0]) && (response[response.length - 1] == statusBytes[1]));
+    }
+
+    /**
+     * @param response | the complete response
+     * @return the status word (SW1 SW2) as int or -1 if the response is too short
+     */
+    public static int getStatusWord(byte[] response) {
+        if ((response == null) || (response.length < 2)) return -1;
+        return ((response[response.length - 2] & 0xff) << 8) | (response[response.length - 1] & 0xff);
+    }
+
+}
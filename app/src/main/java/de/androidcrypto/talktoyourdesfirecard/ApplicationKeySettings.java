@@ -62,7 +62,7 @@ public class ApplicationKeySettings {
 
         // analyze byte 1
         numberOfKeys = Utils.byteToLowerNibbleInt(numberOfKeysByte);
-        keyType = Utils.byteToUpperNibbleInt(numberOfKeysByte);
+        keyType = Utils.byteToUpperNibbleInt(numberOfKeysByte) & 0x0C; // bit 5 = ISO file identifiers supported, bit 4 is RFU
         if (keyType == 0) {
             keyTypeName = "DES";
             isKeyTypeDes = true;
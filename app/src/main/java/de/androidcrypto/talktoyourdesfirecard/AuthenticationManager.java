@@ -0,0 +1,304 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class chooses the authentication method for a flow that uses several keys of the selected
+ * application, e.g. key 0 for the setup, key 1 for a read and key 2 for a write:
+ * - the first authentication in the application is an authenticateAesEv2First (new TI, CmdCounter 0)
+ * - a switch to another key within the active transaction is an authenticateAesEv2NonFirst, the TI and
+ * the CmdCounter are kept and the file settings of the application are not loaded again
+ * - no authentication is run when the authenticated key already has the access right to the file
+ * (see getAccessRightsR, getAccessRightsW and getAccessRightsRw of FileSettings) or the access is free (0x0E)
+ * <p>
+ * Usage (e.g. in onTagDiscovered, after selectApplicationByAid):
+ * AuthenticationManager authenticationManager = new AuthenticationManager(desfireEv3);
+ * authenticationManager.setKey((byte) 1, readKey);
+ * authenticationManager.setKey((byte) 2, writeKey);
+ * if (authenticationManager.authenticateForAccess(fileNumber, AuthenticationManager.Access.READ)) desfireEv3.readFromADataFile(...);
+ * if (authenticationManager.authenticateForAccess(fileNumber, AuthenticationManager.Access.WRITE)) desfireEv3.writeToADataFile(...);
+ * Note: the card drops the authentication on any error status, the manager runs an authenticateAesEv2First
+ * when the card answered the last command with an error status or did not answer (see isTransactionActive,
+ * a local failure of desfireEv3 without a card error keeps the transaction). An authenticateAesEv2NonFirst that fails is
+ * repeated once as authenticateAesEv2First. The keys are held in memory until clearKeys.
+ * <p>
+ * The class is not thread safe, use one manager per DesfireEv3 session.
+ */
+
+public class AuthenticationManager {
+
+    public static final byte ACCESS_FREE = (byte) 0x0E; // access without authentication
+    public static final byte ACCESS_NEVER = (byte) 0x0F; // access is denied
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+    private static final byte[] RESPONSE_MORE_DATA_AVAILABLE = new byte[]{(byte) 0x91, (byte) 0xAF};
+    private static final byte[] RESPONSE_ISO_OK = new byte[]{(byte) 0x90, (byte) 0x00};
+    private static final byte[] RESPONSE_PERMISSION_DENIED_ERROR = new byte[]{(byte) 0x91, (byte) 0x9D};
+    private static final byte[] RESPONSE_PARAMETER_ERROR = new byte[]{(byte) 0x91, (byte) 0xFC}; // failure because of wrong parameter
+
+    public enum Access {
+        READ, // ReadData, ReadRecords, GetValue and Debit (on a Value file the write key has read access as well)
+        WRITE, // WriteData, WriteRecord and LimitedCredit
+        READ_WRITE, // Credit and ClearRecordFile, the Read&Write key is needed
+        CHANGE_ACCESS_RIGHTS // ChangeFileSettings
+    }
+
+    public enum Method {
+        NONE, // no authentication is needed (free access) or the authenticated key has the access right
+        FIRST, // authenticateAesEv2First
+        NON_FIRST // authenticateAesEv2NonFirst
+    }
+
+    private final DesfireEv3 desfireEv3;
+    private final Map<Byte, byte[]> keys = new HashMap<>();
+    private Method lastMethod = Method.NONE;
+    private long numberOfFirst = 0;
+    private long numberOfNonFirst = 0;
+    private long numberOfSkipped = 0;
+    private byte[] errorCode = RESPONSE_OK.clone();
+    private String errorCodeReason = "";
+
+    /**
+     * @param desfireEv3 | the session of the tapped card, the application is selected by the caller
+     */
+    public AuthenticationManager(DesfireEv3 desfireEv3) {
+        this.desfireEv3 = desfireEv3;
+    }
+
+    /**
+     * sets the key for a key number of the selected application
+     *
+     * @param keyNumber | in range 0..13
+     * @param key       | AES key, 16 bytes
+     */
+    public void setKey(byte keyNumber, byte[] key) {
+        if ((keyNumber < 0) || (keyNumber > 13) || (key == null) || (key.length != 16)) return;
+        byte[] oldKey = keys.put(keyNumber, key.clone());
+        if (oldKey != null) Arrays.fill(oldKey, (byte) 0);
+    }
+
+    public boolean hasKey(byte keyNumber) {
+        return keys.containsKey(keyNumber);
+    }
+
+    /**
+     * removes all keys, e.g. after selecting another application
+     */
+    public void clearKeys() {
+        for (byte[] key : keys.values()) {
+            Arrays.fill(key, (byte) 0);
+        }
+        keys.clear();
+    }
+
+    /**
+     * authenticates with the key, an authenticateAesEv2NonFirst is used when a transaction is active and
+     * nothing is done when the key is already authenticated
+     *
+     * @param keyNumber | in range 0..13, the key is set with setKey
+     * @return TRUE on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticate(byte keyNumber) {
+        byte[] key = keys.get(keyNumber);
+        if (key == null) {
+            setError(RESPONSE_PARAMETER_ERROR, "there is no key for keyNumber " + keyNumber + ", use setKey");
+            return false;
+        }
+        return authenticate(keyNumber, key);
+    }
+
+    /**
+     * authenticates with the key, an authenticateAesEv2NonFirst is used when a transaction is active and
+     * nothing is done when the key is already authenticated
+     *
+     * @param keyNumber | in range 0..13
+     * @param key       | AES key, 16 bytes
+     * @return TRUE on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticate(byte keyNumber, byte[] key) {
+        if (desfireEv3 == null) {
+            setError(RESPONSE_PARAMETER_ERROR, "desfireEv3 is NULL");
+            return false;
+        }
+        if (!isTransactionActive()) {
+            return authenticateFirst(keyNumber, key);
+        }
+        if (desfireEv3.getKeyNumberUsedForAuthentication() == keyNumber) {
+            numberOfSkipped++;
+            lastMethod = Method.NONE;
+            setError(RESPONSE_OK, "keyNumber " + keyNumber + " is already authenticated");
+            return true;
+        }
+        lastMethod = Method.NON_FIRST;
+        numberOfNonFirst++;
+        if (desfireEv3.authenticateAesEv2NonFirst(keyNumber, key)) {
+            setError(RESPONSE_OK, "authenticateAesEv2NonFirst SUCCESS");
+            return true;
+        }
+        // the card ends in not authenticated state, a new transaction is started
+        return authenticateFirst(keyNumber, key);
+    }
+
+    /**
+     * authenticates with a key that has the access right to the file, nothing is done when the access is free
+     * or the authenticated key already has the access right. A key of the access right with a key set by
+     * setKey is chosen, the more specific right (e.g. the Read key for READ) comes before the Read&Write key.
+     *
+     * @param fileNumber | in range 0..31, the file settings are taken from getApplicationFileSettings
+     * @param access     | the access that the next command needs
+     * @return TRUE on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateForAccess(byte fileNumber, Access access) {
+        if ((desfireEv3 == null) || (access == null) || (fileNumber < 0) || (fileNumber > 31)) {
+            setError(RESPONSE_PARAMETER_ERROR, "desfireEv3 or access is NULL or fileNumber is out of range");
+            return false;
+        }
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) {
+            setError(RESPONSE_PARAMETER_ERROR, "the file settings of fileNumber " + fileNumber + " are not available");
+            return false;
+        }
+        byte[] keyNumbers = getAccessKeyNumbers(fileSettings, access);
+        for (byte keyNumber : keyNumbers) {
+            if (keyNumber == ACCESS_FREE) {
+                numberOfSkipped++;
+                lastMethod = Method.NONE;
+                setError(RESPONSE_OK, "the access is free");
+                return true;
+            }
+        }
+        if (isTransactionActive()) {
+            byte authenticatedKeyNumber = desfireEv3.getKeyNumberUsedForAuthentication();
+            for (byte keyNumber : keyNumbers) {
+                if (keyNumber == authenticatedKeyNumber) {
+                    numberOfSkipped++;
+                    lastMethod = Method.NONE;
+                    setError(RESPONSE_OK, "keyNumber " + keyNumber + " is already authenticated");
+                    return true;
+                }
+            }
+        }
+        for (byte keyNumber : keyNumbers) {
+            byte[] key = keys.get(keyNumber);
+            if (key != null) return authenticate(keyNumber, key);
+        }
+        if (keyNumbers.length == 0) {
+            setError(RESPONSE_PERMISSION_DENIED_ERROR, "there is no access " + access + " to fileNumber " + fileNumber);
+        } else {
+            setError(RESPONSE_PARAMETER_ERROR, "there is no key for the access " + access + " to fileNumber " + fileNumber + ", key numbers: " + bytesToHexNpeUpperCase(keyNumbers));
+        }
+        return false;
+    }
+
+    /**
+     * get the key numbers with the access right to the file, the more specific right comes first
+     *
+     * @return the key numbers (0x0E = free access) or an empty array if the access is denied
+     */
+    public static byte[] getAccessKeyNumbers(FileSettings fileSettings, Access access) {
+        if ((fileSettings == null) || (access == null)) return new byte[0];
+        byte r = (byte) fileSettings.getAccessRightsR();
+        byte w = (byte) fileSettings.getAccessRightsW();
+        byte rw = (byte) fileSettings.getAccessRightsRw();
+        byte car = (byte) fileSettings.getAccessRightsCar();
+        byte[] keyNumbers;
+        switch (access) {
+            case READ: {
+                if (fileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
+                    keyNumbers = new byte[]{r, w, rw};
+                } else {
+                    keyNumbers = new byte[]{r, rw};
+                }
+                break;
+            }
+            case WRITE: {
+                keyNumbers = new byte[]{w, rw};
+                break;
+            }
+            case READ_WRITE: {
+                keyNumbers = new byte[]{rw};
+                break;
+            }
+            case CHANGE_ACCESS_RIGHTS: {
+                keyNumbers = new byte[]{car};
+                break;
+            }
+            default:
+                return new byte[0];
+        }
+        byte[] accessKeyNumbers = new byte[keyNumbers.length];
+        int length = 0;
+        for (byte keyNumber : keyNumbers) {
+            if (keyNumber == ACCESS_NEVER) continue;
+            boolean isDuplicate = false;
+            for (int i = 0; i < length; i++) {
+                if (accessKeyNumbers[i] == keyNumber) isDuplicate = true;
+            }
+            if (!isDuplicate) accessKeyNumbers[length++] = keyNumber;
+        }
+        return Arrays.copyOf(accessKeyNumbers, length);
+    }
+
+    /**
+     * a transaction is active when desfireEv3 has a TI and an authenticated key, and the card answered the
+     * last APDU without an error status (the card drops the authentication on an error). The status of the
+     * card is used and not the errorCode, as the errorCode is set by local failures as well.
+     */
+    public boolean isTransactionActive() {
+        if (desfireEv3 == null) return false;
+        if ((desfireEv3.getTransactionIdentifier() == null) || (desfireEv3.getKeyNumberUsedForAuthentication() < 0)) return false;
+        if (desfireEv3.isTransceiveFailed()) return false;
+        byte[] lastCardStatus = desfireEv3.getLastCardStatus();
+        return (Arrays.equals(lastCardStatus, RESPONSE_OK)) || (Arrays.equals(lastCardStatus, RESPONSE_MORE_DATA_AVAILABLE))
+                || (Arrays.equals(lastCardStatus, RESPONSE_ISO_OK));
+    }
+
+    private boolean authenticateFirst(byte keyNumber, byte[] key) {
+        lastMethod = Method.FIRST;
+        numberOfFirst++;
+        if (desfireEv3.authenticateAesEv2First(keyNumber, key)) {
+            setError(RESPONSE_OK, "authenticateAesEv2First SUCCESS");
+            return true;
+        }
+        setError(desfireEv3.getErrorCode(), "authenticateAesEv2First with keyNumber " + keyNumber + " FAILURE");
+        return false;
+    }
+
+    private void setError(byte[] errorCode, String errorCodeReason) {
+        this.errorCode = (errorCode == null) ? RESPONSE_PARAMETER_ERROR.clone() : errorCode.clone();
+        this.errorCodeReason = errorCodeReason;
+    }
+
+    /**
+     * @return the method of the last authenticate or authenticateForAccess call
+     */
+    public Method getLastMethod() {
+        return lastMethod;
+    }
+
+    public long getNumberOfFirst() {
+        return numberOfFirst;
+    }
+
+    public long getNumberOfNonFirst() {
+        return numberOfNonFirst;
+    }
+
+    public long getNumberOfSkipped() {
+        return numberOfSkipped;
+    }
+
+    public byte[] getErrorCode() {
+        return errorCode.clone();
+    }
+
+    public String getErrorCodeReason() {
+        return errorCodeReason;
+    }
+}
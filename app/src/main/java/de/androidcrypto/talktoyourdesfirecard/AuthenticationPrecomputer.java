@@ -0,0 +1,190 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class prepares the reader side material of authenticateAesEv2First and authenticateAesEv2NonFirst
+ * on a background thread before the card is tapped, so the work between the two authentication frames
+ * (the gap on the RF critical path) gets shorter:
+ * - a pool of random rndA values, drawn from one SecureRandom (instead of a new SecureRandom per rndA)
+ * - the key schedule of the authentication key: the AES Ciphers (initialized once) and the CMAC subkeys
+ * that are used for the decryption of rndB, the encryption of rndA || rndB' and the derivation of the
+ * session keys (instead of a Cipher.getInstance and a key schedule for each operation)
+ * A key schedule is handed out to one authentication only and prepared again in the background for the
+ * next one.
+ * <p>
+ * Usage:
+ * AuthenticationPrecomputer precomputer = new AuthenticationPrecomputer();
+ * precomputer.prepareKey(applicationKey); // e.g. when the activity starts
+ * desfireEv3.setAuthenticationPrecomputer(precomputer); // in onTagDiscovered
+ * desfireEv3.authenticateAesEv2First(keyNumber, applicationKey);
+ * long gapNanos = desfireEv3.getLastAuthenticationGapNanos();
+ * Note: the prepared key is held in memory until shutdown. When the pool is empty (e.g. many authentications
+ * in a row) the rndA is drawn directly, the same happens for a key that was not prepared.
+ * <p>
+ * The class is thread safe.
+ */
+
+public class AuthenticationPrecomputer {
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+    private static final int RND_A_LENGTH = 16;
+
+    private final BlockingQueue<byte[]> rndAPool;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final ExecutorService executor;
+    private byte[] preparedKey;
+    private SecureMessagingContext preparedKeySchedule;
+    private boolean isRefillPending = false;
+    private long poolHits = 0;
+    private long poolMisses = 0;
+    private long keyScheduleHits = 0;
+    private long keyScheduleMisses = 0;
+
+    public AuthenticationPrecomputer() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize | the number of prepared rndA values
+     */
+    public AuthenticationPrecomputer(int poolSize) {
+        rndAPool = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AuthenticationPrecomputer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refill();
+    }
+
+    /**
+     * prepares the key schedule of an authentication key in the background
+     *
+     * @param key | the AES key (16 bytes) of the next authentication
+     */
+    public synchronized void prepareKey(byte[] key) {
+        if ((key == null) || (key.length != 16)) return;
+        if ((preparedKey != null) && (Arrays.equals(preparedKey, key)) && (preparedKeySchedule != null)) return;
+        final byte[] keyToPrepare = key.clone();
+        preparedKey = keyToPrepare;
+        preparedKeySchedule = null;
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                SecureMessagingContext keySchedule = SecureMessagingContext.create(keyToPrepare, keyToPrepare);
+                synchronized (AuthenticationPrecomputer.this) {
+                    // a newer key may be prepared in the meantime
+                    if (preparedKey == keyToPrepare) preparedKeySchedule = keySchedule;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a random rndA (16 bytes) from the pool or a new one when the pool is empty
+     */
+    public byte[] takeRndA() {
+        byte[] rndA = rndAPool.poll();
+        synchronized (this) {
+            if (rndA == null) {
+                poolMisses++;
+            } else {
+                poolHits++;
+            }
+        }
+        refill();
+        if (rndA != null) return rndA;
+        rndA = new byte[RND_A_LENGTH];
+        secureRandom.nextBytes(rndA);
+        return rndA;
+    }
+
+    /**
+     * hands out the key schedule of the key (the same key is used for encryption and CMAC), the next key
+     * schedule of this key is prepared in the background
+     *
+     * @param key | the AES key (16 bytes)
+     * @return the key schedule or NULL on failure
+     */
+    public SecureMessagingContext takeKeySchedule(byte[] key) {
+        if ((key == null) || (key.length != 16)) return null;
+        SecureMessagingContext keySchedule = null;
+        synchronized (this) {
+            if ((preparedKeySchedule != null) && (Arrays.equals(preparedKey, key))) {
+                keySchedule = preparedKeySchedule;
+                keyScheduleHits++;
+            } else {
+                keyScheduleMisses++;
+            }
+            preparedKeySchedule = null;
+        }
+        prepareKey(key);
+        if (keySchedule != null) return keySchedule;
+        return SecureMessagingContext.create(key, key);
+    }
+
+    public synchronized long getPoolHits() {
+        return poolHits;
+    }
+
+    public synchronized long getPoolMisses() {
+        return poolMisses;
+    }
+
+    public synchronized long getKeyScheduleHits() {
+        return keyScheduleHits;
+    }
+
+    public synchronized long getKeyScheduleMisses() {
+        return keyScheduleMisses;
+    }
+
+    /**
+     * stops the background thread and drops the prepared material
+     */
+    public synchronized void shutdown() {
+        executor.shutdownNow();
+        rndAPool.clear();
+        if (preparedKey != null) Arrays.fill(preparedKey, (byte) 0);
+        preparedKey = null;
+        preparedKeySchedule = null;
+    }
+
+    private synchronized void refill() {
+        if (isRefillPending) return;
+        isRefillPending = true;
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (AuthenticationPrecomputer.this) {
+                    isRefillPending = false;
+                }
+                while (rndAPool.remainingCapacity() > 0) {
+                    byte[] rndA = new byte[RND_A_LENGTH];
+                    secureRandom.nextBytes(rndA);
+                    if (!rndAPool.offer(rndA)) break;
+                }
+            }
+        });
+    }
+
+    private void submit(Runnable runnable) {
+        if (executor.isShutdown()) return;
+        try {
+            executor.submit(runnable);
+        } catch (RejectedExecutionException e) {
+            // the precomputer is shut down
+        }
+    }
+}
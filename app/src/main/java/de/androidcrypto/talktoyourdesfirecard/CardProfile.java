@@ -0,0 +1,463 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class describes the layout of a personalized card (applications, keys, files, access rights,
+ * communication modes, file content and SDM options) instead of hard coding the commands in an activity.
+ * The CardProfileCompiler translates a profile into a command plan that can be run on each tapped card.
+ * <p>
+ * A profile is built with the fluent API:
+ * CardProfile profile = new CardProfile().formatPicc();
+ * CardProfile.ApplicationProfile application = profile.application(Constants.APPLICATION_IDENTIFIER_AES, 5);
+ * application.key(1, null, newKey, 1);
+ * application.standardFile(1, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 32).data(0, data);
+ * <p>
+ * or parsed from a text with one entry per line ('#' starts a comment, hex values without spaces):
+ * format
+ * application 010000 keys=5 iso=10E1 dfName=D2760000850101
+ * key 1 current=00000000000000000000000000000000 new=11111111111111111111111111111111 version=1
+ * file 1 standard comm=Plain access=E0EE size=32 iso=E103 ndefContainer=2
+ * file 2 standard comm=Plain access=00EE size=256 iso=E104 url=https://example.com/sun?u=&c=&t= sdm=u,t
+ * file 3 value comm=Full access=1234 min=0 max=1000 value=0 limitedCredit=false
+ * file 4 cyclic comm=MACed access=1234 recordSize=16 records=5
+ * write 3 offset=0 data=010203
+ * record 4 data=0102030405
+ * <p>
+ * The keys, files, writes and records belong to the application in the line above.
+ * Note: the parser does not throw an exception, check getErrors() after parsing.
+ */
+
+public class CardProfile {
+
+    public enum FileType {
+        STANDARD, BACKUP, VALUE, LINEAR_RECORD, CYCLIC_RECORD
+    }
+
+    private static final int AES_KEY_LENGTH = 16;
+
+    private boolean isFormatPicc = false;
+    private final List<ApplicationProfile> applications = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * formats the card before the applications are created, all existing applications and files are deleted
+     */
+    public CardProfile formatPicc() {
+        isFormatPicc = true;
+        return this;
+    }
+
+    /**
+     * adds an application that gets created on the card
+     *
+     * @param applicationIdentifier   | AID, 3 bytes
+     * @param numberOfApplicationKeys | in range 1..14, all keys are AES keys
+     * @return the application profile for adding keys and files
+     */
+    public ApplicationProfile application(byte[] applicationIdentifier, int numberOfApplicationKeys) {
+        ApplicationProfile application = new ApplicationProfile(applicationIdentifier, numberOfApplicationKeys);
+        applications.add(application);
+        return application;
+    }
+
+    public boolean isFormatPicc() {
+        return isFormatPicc;
+    }
+
+    public List<ApplicationProfile> getApplications() {
+        return applications;
+    }
+
+    /**
+     * @return the errors found during parsing, an empty list if the profile text was valid
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public static class ApplicationProfile {
+        final byte[] applicationIdentifier;
+        final int numberOfApplicationKeys;
+        byte[] isoApplicationIdentifier;
+        byte[] applicationDfName;
+        final TreeMap<Integer, KeyProfile> keys = new TreeMap<>();
+        final TreeMap<Integer, FileProfile> files = new TreeMap<>();
+
+        private ApplicationProfile(byte[] applicationIdentifier, int numberOfApplicationKeys) {
+            this.applicationIdentifier = applicationIdentifier;
+            this.numberOfApplicationKeys = numberOfApplicationKeys;
+        }
+
+        /**
+         * creates the application with an ISO application identifier and DF name (e.g. for an NDEF application)
+         *
+         * @param isoApplicationIdentifier | 2 bytes, e.g. 10E1
+         * @param applicationDfName        | 1..16 bytes, e.g. D2760000850101 for NDEF
+         */
+        public ApplicationProfile iso(byte[] isoApplicationIdentifier, byte[] applicationDfName) {
+            this.isoApplicationIdentifier = isoApplicationIdentifier;
+            this.applicationDfName = applicationDfName;
+            return this;
+        }
+
+        /**
+         * describes a key of the application
+         *
+         * @param keyNumber  | in range 0..numberOfApplicationKeys - 1
+         * @param currentKey | the key on the card before the personalization, NULL for the default key (16 * 0x00)
+         * @param newKey     | the key after the personalization, NULL if the key is not changed
+         * @param keyVersion | the version of the new key, in range 1..255 so that CardStateDiff can detect the change
+         *                   (the parser uses version 1 if no version is given)
+         */
+        public ApplicationProfile key(int keyNumber, byte[] currentKey, byte[] newKey, int keyVersion) {
+            keys.put(keyNumber, new KeyProfile(keyNumber, (currentKey == null) ? new byte[AES_KEY_LENGTH] : currentKey, newKey, keyVersion));
+            return this;
+        }
+
+        public FileProfile standardFile(int fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            return addFile(new FileProfile(fileNumber, FileType.STANDARD, communicationSettings, accessRights)).size(fileSize);
+        }
+
+        public FileProfile backupFile(int fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int fileSize) {
+            return addFile(new FileProfile(fileNumber, FileType.BACKUP, communicationSettings, accessRights)).size(fileSize);
+        }
+
+        public FileProfile valueFile(int fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
+            FileProfile file = addFile(new FileProfile(fileNumber, FileType.VALUE, communicationSettings, accessRights));
+            file.minimumValue = minimumValue;
+            file.maximumValue = maximumValue;
+            file.initialValue = initialValue;
+            file.limitedCreditOperation = limitedCreditOperation;
+            return file;
+        }
+
+        public FileProfile linearRecordFile(int fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            return addFile(new FileProfile(fileNumber, FileType.LINEAR_RECORD, communicationSettings, accessRights)).records(recordSize, maximumNumberOfRecords);
+        }
+
+        public FileProfile cyclicRecordFile(int fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
+            return addFile(new FileProfile(fileNumber, FileType.CYCLIC_RECORD, communicationSettings, accessRights)).records(recordSize, maximumNumberOfRecords);
+        }
+
+        public byte[] getApplicationIdentifier() {
+            return applicationIdentifier;
+        }
+
+        /**
+         * @return the file profile or NULL if the file is not in the profile
+         */
+        public FileProfile getFile(int fileNumber) {
+            return files.get(fileNumber);
+        }
+
+        private FileProfile addFile(FileProfile file) {
+            files.put(file.fileNumber, file);
+            return file;
+        }
+    }
+
+    public static class KeyProfile {
+        final int keyNumber;
+        final byte[] currentKey;
+        final byte[] newKey;
+        final int keyVersion;
+
+        private KeyProfile(int keyNumber, byte[] currentKey, byte[] newKey, int keyVersion) {
+            this.keyNumber = keyNumber;
+            this.currentKey = currentKey;
+            this.newKey = newKey;
+            this.keyVersion = keyVersion;
+        }
+    }
+
+    public static class FileProfile {
+        final int fileNumber;
+        final FileType fileType;
+        final DesfireEv3.CommunicationSettings communicationSettings;
+        final byte[] accessRights;
+        byte[] isoFileId;
+        int fileSize;
+        int recordSize;
+        int maximumNumberOfRecords;
+        int minimumValue;
+        int maximumValue;
+        int initialValue;
+        boolean limitedCreditOperation;
+        final List<Integer> dataOffsets = new ArrayList<>();
+        final List<byte[]> dataSegments = new ArrayList<>();
+        final List<byte[]> records = new ArrayList<>();
+        String url;
+        int ndefContainerFileNumber = -1;
+        String sdmPiccDataParameter;
+        String sdmMacParameter;
+        String sdmMacInputParameter;
+
+        private FileProfile(int fileNumber, FileType fileType, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights) {
+            this.fileNumber = fileNumber;
+            this.fileType = fileType;
+            this.communicationSettings = communicationSettings;
+            this.accessRights = accessRights;
+        }
+
+        private FileProfile size(int fileSize) {
+            this.fileSize = fileSize;
+            return this;
+        }
+
+        private FileProfile records(int recordSize, int maximumNumberOfRecords) {
+            this.recordSize = recordSize;
+            this.maximumNumberOfRecords = maximumNumberOfRecords;
+            return this;
+        }
+
+        /**
+         * creates the file with an ISO file identifier (Standard and Cyclic Record files only)
+         *
+         * @param isoFileId | 2 bytes, e.g. E104 for the NDEF data file
+         */
+        public FileProfile isoFileId(byte[] isoFileId) {
+            this.isoFileId = isoFileId;
+            return this;
+        }
+
+        /**
+         * writes data to a Standard or Backup file, writes to the same file are merged
+         */
+        public FileProfile data(int offset, byte[] data) {
+            dataOffsets.add(offset);
+            dataSegments.add(data);
+            return this;
+        }
+
+        /**
+         * appends a record to a Linear or Cyclic Record file, the data is padded to the record size
+         */
+        public FileProfile record(byte[] data) {
+            records.add(data);
+            return this;
+        }
+
+        /**
+         * writes an URL as NDEF message (URI record) to a Standard file
+         */
+        public FileProfile url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * writes the NDEF Capability Container that points to the NDEF data file
+         *
+         * @param ndefFileNumber | the file with the NDEF message, it needs an ISO file identifier
+         */
+        public FileProfile ndefContainer(int ndefFileNumber) {
+            this.ndefContainerFileNumber = ndefFileNumber;
+            return this;
+        }
+
+        /**
+         * enables the Secure Dynamic Messaging (SUN) for the URL of this file. The parameters are the names
+         * of the URL query parameters that get the mirrored data, e.g. 'u' and 't' for '?u=&c=&t='.
+         *
+         * @param piccDataParameter | gets the encrypted PICC data (UID and read counter)
+         * @param macParameter      | gets the SUN MAC
+         * @param macInputParameter | the MAC input starts at this parameter, NULL for a MAC over an empty input
+         */
+        public FileProfile sdm(String piccDataParameter, String macParameter, String macInputParameter) {
+            this.sdmPiccDataParameter = piccDataParameter;
+            this.sdmMacParameter = macParameter;
+            this.sdmMacInputParameter = macInputParameter;
+            return this;
+        }
+
+        public int getFileNumber() {
+            return fileNumber;
+        }
+
+        public FileType getFileType() {
+            return fileType;
+        }
+
+        boolean isSdmEnabled() {
+            return (sdmPiccDataParameter != null) || (sdmMacParameter != null);
+        }
+    }
+
+    /**
+     * section for parsing
+     */
+
+    /**
+     * parses a profile text, see the class description for the format
+     *
+     * @param profileText | the profile
+     * @return the profile, check getErrors() for invalid lines
+     */
+    public static CardProfile parse(String profileText) {
+        CardProfile profile = new CardProfile();
+        if (profileText == null) {
+            profile.errors.add("profileText is NULL");
+            return profile;
+        }
+        String[] lines = profileText.split("\n");
+        ApplicationProfile application = null;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int commentIndex = line.indexOf('#');
+            if (commentIndex >= 0) line = line.substring(0, commentIndex);
+            line = line.trim();
+            if (line.length() == 0) continue;
+            String[] tokens = line.split("\\s+");
+            String prefix = "line " + (i + 1) + ": ";
+            try {
+                Map<String, String> options = parseOptions(tokens);
+                switch (tokens[0].toLowerCase()) {
+                    case "format":
+                        profile.formatPicc();
+                        break;
+                    case "application":
+                        application = profile.application(parseHex(tokens, 1, 3), parseInt(options, "keys", 1));
+                        if ((options.containsKey("iso")) || (options.containsKey("dfName"))) {
+                            application.iso(hexOption(options, "iso", 2), hexOption(options, "dfName", -1));
+                        }
+                        break;
+                    case "key":
+                        checkApplication(application);
+                        application.key(parseNumber(tokens), options.containsKey("current") ? hexOption(options, "current", AES_KEY_LENGTH) : null,
+                                options.containsKey("new") ? hexOption(options, "new", AES_KEY_LENGTH) : null, parseInt(options, "version", 1));
+                        break;
+                    case "file":
+                        checkApplication(application);
+                        parseFile(application, tokens, options);
+                        break;
+                    case "write":
+                        checkApplication(application);
+                        getFile(application, parseNumber(tokens)).data(parseInt(options, "offset", 0), hexOption(options, "data", -1));
+                        break;
+                    case "record":
+                        checkApplication(application);
+                        getFile(application, parseNumber(tokens)).record(hexOption(options, "data", -1));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown entry '" + tokens[0] + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                profile.errors.add(prefix + e.getMessage());
+            }
+        }
+        return profile;
+    }
+
+    private static void parseFile(ApplicationProfile application, String[] tokens, Map<String, String> options) {
+        if (tokens.length < 3) throw new IllegalArgumentException("file type is missing");
+        int fileNumber = parseNumber(tokens);
+        String commOption = options.get("comm");
+        if (commOption == null) throw new IllegalArgumentException("comm is missing");
+        DesfireEv3.CommunicationSettings communicationSettings = null;
+        for (DesfireEv3.CommunicationSettings settings : DesfireEv3.CommunicationSettings.values()) {
+            if (settings.name().equalsIgnoreCase(commOption)) communicationSettings = settings;
+        }
+        if (communicationSettings == null) throw new IllegalArgumentException("comm is not Plain, MACed or Full");
+        byte[] accessRights = hexOption(options, "access", 2);
+        FileProfile file;
+        switch (tokens[2].toLowerCase()) {
+            case "standard":
+                file = application.standardFile(fileNumber, communicationSettings, accessRights, parseInt(options, "size", -1));
+                break;
+            case "backup":
+                file = application.backupFile(fileNumber, communicationSettings, accessRights, parseInt(options, "size", -1));
+                break;
+            case "value":
+                file = application.valueFile(fileNumber, communicationSettings, accessRights, parseInt(options, "min", 0),
+                        parseInt(options, "max", -1), parseInt(options, "value", 0), Boolean.parseBoolean(options.get("limitedCredit")));
+                break;
+            case "linear":
+                file = application.linearRecordFile(fileNumber, communicationSettings, accessRights, parseInt(options, "recordSize", -1), parseInt(options, "records", -1));
+                break;
+            case "cyclic":
+                file = application.cyclicRecordFile(fileNumber, communicationSettings, accessRights, parseInt(options, "recordSize", -1), parseInt(options, "records", -1));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown file type '" + tokens[2] + "'");
+        }
+        if (options.containsKey("iso")) file.isoFileId(hexOption(options, "iso", 2));
+        if (options.containsKey("data")) file.data(0, hexOption(options, "data", -1));
+        if (options.containsKey("url")) file.url(options.get("url"));
+        if (options.containsKey("ndefContainer")) file.ndefContainer(parseInt(options, "ndefContainer", -1));
+        if (options.containsKey("sdm")) {
+            String[] parameters = options.get("sdm").split(",");
+            if ((parameters.length < 2) || (parameters.length > 3)) throw new IllegalArgumentException("sdm is not piccDataParameter,macParameter[,macInputParameter]");
+            file.sdm(parameters[0], parameters[1], (parameters.length == 3) ? parameters[2] : null);
+        }
+    }
+
+    private static void checkApplication(ApplicationProfile application) {
+        if (application == null) throw new IllegalArgumentException("no application defined before");
+    }
+
+    private static FileProfile getFile(ApplicationProfile application, int fileNumber) {
+        FileProfile file = application.files.get(fileNumber);
+        if (file == null) throw new IllegalArgumentException("file " + fileNumber + " is not defined before");
+        return file;
+    }
+
+    /**
+     * the options are the 'name=value' tokens of a line
+     */
+    private static Map<String, String> parseOptions(String[] tokens) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < tokens.length; i++) {
+            int index = tokens[i].indexOf('=');
+            if (index > 0) options.put(tokens[i].substring(0, index), tokens[i].substring(index + 1));
+        }
+        return options;
+    }
+
+    private static int parseNumber(String[] tokens) {
+        if ((tokens.length < 2) || (tokens[1].contains("="))) throw new IllegalArgumentException("number is missing");
+        try {
+            return Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + tokens[1] + "' is not a number");
+        }
+    }
+
+    private static int parseInt(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " '" + value + "' is not a number");
+        }
+    }
+
+    private static byte[] parseHex(String[] tokens, int index, int length) {
+        if (tokens.length <= index) throw new IllegalArgumentException("value is missing");
+        return parseHex("value", tokens[index], length);
+    }
+
+    private static byte[] hexOption(Map<String, String> options, String name, int length) {
+        String value = options.get(name);
+        if (value == null) throw new IllegalArgumentException(name + " is missing");
+        return parseHex(name, value, length);
+    }
+
+    /**
+     * @param length | the expected length in bytes, -1 for any length
+     */
+    private static byte[] parseHex(String name, String value, int length) {
+        if ((value.length() % 2 != 0) || (!value.matches("[0-9A-Fa-f]*"))) {
+            throw new IllegalArgumentException(name + " '" + value + "' is not a hex string");
+        }
+        if ((length > 0) && (value.length() != length * 2)) {
+            throw new IllegalArgumentException(name + " is not of length " + length);
+        }
+        return Utils.hexStringToByteArray(value);
+    }
+}
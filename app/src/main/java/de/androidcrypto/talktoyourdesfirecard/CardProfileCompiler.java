@@ -0,0 +1,812 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class compiles a CardProfile into a command plan (a DesfireScript) that personalizes a card with
+ * a minimum of commands. The plan is compiled once and can be executed on any number of cards:
+ * <p>
+ * CardProfileCompiler compiler = new CardProfileCompiler();
+ * CardProfileCompiler.Plan plan = compiler.getPlan(profileText); // compiled on the first call only
+ * if (!plan.isValid()) ... plan.getErrors()
+ * DesfireScript.Report report = plan.execute(desfireEv3);
+ * <p>
+ * The compiler orders and merges the commands:
+ * - all applications are created in one run on the Master Application (no selection between them)
+ * - the files are created in the order of their file number before any authentication, as creating files
+ * needs a new selection of the application afterwards
+ * - the writes are grouped by the key that grants the write access, so each key is authenticated once, and
+ * writes to the same file are merged to contiguous writes. Writes to Backup files and one record per Record
+ * file share one commitTransaction. On a Cyclic Record file only the records that are not overwritten by
+ * later records are written.
+ * - the SDM settings are changed after the writes, the key changes run at last (the application master key
+ * after all other keys) as the writes and file settings use the current keys
+ * <p>
+ * Static payloads are precomputed during compilation: the NDEF Capability Container, the NDEF message of an
+ * URL, the placeholders for the SDM mirroring (an empty URL parameter gets the placeholder of the mirrored
+ * data) and the SDM offsets.
+ * <p>
+ * Note: the application key settings need to allow the creation of files without authentication (default
+ * of createApplicationAes). Transaction MAC files and changes of the Master Application key are not part of
+ * a profile. SDM is supported on file 02 only with the SDM options of DesfireEv3.changeFileSettingsNtag424Dna.
+ */
+
+public class CardProfileCompiler {
+
+    public static final int DEFAULT_MAXIMUM_PLANS = 16;
+    public static final int SDM_PICC_DATA_LENGTH = 32; // encrypted PICC data as ASCII hex
+    public static final int SDM_MAC_LENGTH = 16; // truncated MAC as ASCII hex
+    private static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    private static final int MAXIMUM_FILE_NUMBER = 31;
+    private static final int KEY_FREE_ACCESS = 14;
+    private static final int KEY_NO_ACCESS = 15;
+    private static final int SDM_FILE_NUMBER = 2; // see changeFileSettingsNtag424Dna
+    private static final byte NDEF_TNF_WELL_KNOWN_SHORT_RECORD = (byte) 0xD1; // MB, ME, SR, TNF well known
+    private static final byte NDEF_TNF_WELL_KNOWN = (byte) 0xC1; // MB, ME, TNF well known
+    private static final byte NDEF_RECORD_TYPE_URI = (byte) 0x55; // 'U'
+    // the URI identifier codes in the order of android.nfc.NdefRecord, the first matching prefix is used
+    private static final String[] URI_PREFIXES = new String[]{
+            "", "http://www.", "https://www.", "http://", "https://", "tel:", "mailto:",
+            "ftp://anonymous:anonymous@", "ftp://ftp.", "ftps://", "sftp://", "smb://", "nfs://", "ftp://",
+            "dav://", "news:", "telnet://", "imap:", "rtsp://", "urn:", "pop:", "sip:", "sips:", "tftp:",
+            "btspp://", "btl2cap://", "btgoep://", "tcpobex://", "irdaobex://", "file://", "urn:epc:id:",
+            "urn:epc:tag:", "urn:epc:pat:", "urn:epc:raw:", "urn:epc:", "urn:nfc:"};
+
+    private final LinkedHashMap<String, Plan> plans;
+    private long hits = 0;
+    private long misses = 0;
+
+    public CardProfileCompiler() {
+        this(DEFAULT_MAXIMUM_PLANS);
+    }
+
+    /**
+     * @param maximumPlans | the maximum number of cached plans, the least recently used gets removed
+     */
+    public CardProfileCompiler(final int maximumPlans) {
+        this.plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+                return size() > maximumPlans;
+            }
+        };
+    }
+
+    /**
+     * returns the compiled plan of a profile text, the profile is parsed and compiled on the first call only
+     *
+     * @param profileText | the profile, see CardProfile for the format
+     * @return the plan, check isValid() and getErrors()
+     */
+    public synchronized Plan getPlan(String profileText) {
+        String key = (profileText == null) ? "" : profileText;
+        Plan plan = plans.get(key);
+        if (plan != null) {
+            hits++;
+            return plan;
+        }
+        misses++;
+        plan = compile(CardProfile.parse(profileText));
+        plans.put(key, plan);
+        return plan;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * section for the plan
+     */
+
+    /**
+     * the compiled plan, it is immutable and can be executed on several cards (one card at a time per thread)
+     */
+    public static class Plan {
+        private final DesfireScript script = new DesfireScript();
+        private final List<String> operations = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private int authenticatedKeyNumber = -1; // used during compilation only
+
+        private Plan() {
+        }
+
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        /**
+         * @return a description of each command of the plan, e.g. for a log or a review of the plan
+         */
+        public List<String> getOperations() {
+            return Collections.unmodifiableList(operations);
+        }
+
+        public int getNumberOfSteps() {
+            return script.getNumberOfSteps();
+        }
+
+        /**
+         * runs the plan on a card, an invalid plan is not executed
+         *
+         * @param desfireEv3 | the session of the tapped card
+         * @return the report with a result for each executed step
+         */
+        public DesfireScript.Report execute(DesfireEv3 desfireEv3) {
+            if (!isValid()) return DesfireScript.Report.invalid(errors);
+            return script.execute(desfireEv3);
+        }
+
+        private void add(String operation) {
+            operations.add(operation);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (String error : errors) {
+                sb.append("error: ").append(error).append("\n");
+            }
+            for (int i = 0; i < operations.size(); i++) {
+                sb.append(i).append(": ").append(operations.get(i)).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * a write of the compiled plan, 'transactional' writes need a commitTransaction
+     */
+    private static class WriteOperation {
+        final CardProfile.FileProfile file;
+        final int offset;
+        final byte[] data;
+        final int transactionIndex; // -1 = no commit necessary, otherwise the commit group
+
+        WriteOperation(CardProfile.FileProfile file, int offset, byte[] data, int transactionIndex) {
+            this.file = file;
+            this.offset = offset;
+            this.data = data;
+            this.transactionIndex = transactionIndex;
+        }
+    }
+
+    /**
+     * the part of an application that gets compiled. A profile compiles to the complete application,
+     * the CardStateDiff compiles the differences between the card and the profile only.
+     */
+    static class ApplicationDelta {
+        boolean isCreateApplication = true;
+        boolean isAuthenticateForFiles = false; // the key settings need the application master key to create or delete a file
+        final Set<Integer> deleteFiles = new TreeSet<>();
+        final Set<Integer> createFiles = new TreeSet<>();
+        final Map<Integer, Integer> changeFileSettings = new TreeMap<>(); // file number -> change access rights key on the card
+        final Set<Integer> changeKeys = new TreeSet<>();
+        final Map<Integer, byte[]> cardKeys = new HashMap<>(); // keys on the card that differ from the current keys of the profile
+
+        boolean isEmpty() {
+            return (!isCreateApplication) && (deleteFiles.isEmpty()) && (createFiles.isEmpty()) && (changeFileSettings.isEmpty()) && (changeKeys.isEmpty());
+        }
+
+        static ApplicationDelta complete(CardProfile.ApplicationProfile application) {
+            ApplicationDelta delta = new ApplicationDelta();
+            delta.createFiles.addAll(application.files.keySet());
+            for (CardProfile.KeyProfile key : application.keys.values()) {
+                if (key.newKey != null) delta.changeKeys.add(key.keyNumber);
+            }
+            return delta;
+        }
+    }
+
+    /**
+     * section for compiling
+     */
+
+    /**
+     * compiles a profile to a plan
+     *
+     * @param profile | the profile
+     * @return the plan, check isValid() and getErrors()
+     */
+    public static Plan compile(CardProfile profile) {
+        return compile(profile, (profile != null) && (profile.isFormatPicc()), null);
+    }
+
+    /**
+     * compiles the parts of a profile
+     *
+     * @param isFormatPicc | format the card first
+     * @param deltas       | the parts of each application, NULL compiles the complete profile. An application
+     *                     without delta is not changed.
+     */
+    static Plan compile(CardProfile profile, boolean isFormatPicc, Map<CardProfile.ApplicationProfile, ApplicationDelta> deltas) {
+        return compile(profile, isFormatPicc, deltas, null, null);
+    }
+
+    /**
+     * compiles the parts of a profile after deleting applications that are not in the profile
+     *
+     * @param deleteApplications   | AIDs of the applications to delete, NULL or empty deletes none
+     * @param applicationMasterKey | the application master key (key 0) of the applications to delete
+     */
+    static Plan compile(CardProfile profile, boolean isFormatPicc, Map<CardProfile.ApplicationProfile, ApplicationDelta> deltas,
+                        List<byte[]> deleteApplications, byte[] applicationMasterKey) {
+        Plan plan = new Plan();
+        if (profile == null) {
+            plan.errors.add("profile is NULL");
+            return plan;
+        }
+        plan.errors.addAll(profile.getErrors());
+        List<CardProfile.ApplicationProfile> applications = new ArrayList<>();
+        List<ApplicationDelta> applicationDeltas = new ArrayList<>();
+        List<String> applicationIdentifiers = new ArrayList<>();
+        boolean isCreateApplication = false;
+        for (CardProfile.ApplicationProfile application : profile.getApplications()) {
+            String aid = bytesToHexNpeUpperCase(application.applicationIdentifier);
+            if ((application.applicationIdentifier == null) || (application.applicationIdentifier.length != 3)
+                    || (Arrays.equals(application.applicationIdentifier, MASTER_APPLICATION_IDENTIFIER))) {
+                plan.errors.add("application " + aid + ": applicationIdentifier is not of length 3 or the Master Application");
+                continue;
+            }
+            if (applicationIdentifiers.contains(aid)) plan.errors.add("application " + aid + ": is defined twice");
+            applicationIdentifiers.add(aid);
+            ApplicationDelta delta = (deltas == null) ? ApplicationDelta.complete(application) : deltas.get(application);
+            if (delta == null) continue;
+            applications.add(application);
+            applicationDeltas.add(delta);
+            if (delta.isCreateApplication) isCreateApplication = true;
+        }
+        if ((!isFormatPicc) && (deleteApplications != null)) {
+            // the deletion frees the memory before the new applications are created
+            for (byte[] applicationIdentifier : deleteApplications) {
+                String aid = bytesToHexNpeUpperCase(applicationIdentifier);
+                plan.script.selectApplication(applicationIdentifier);
+                plan.script.authenticateAesEv2First((byte) 0, applicationMasterKey);
+                plan.script.deleteApplication();
+                plan.add("selectApplicationByAid " + aid);
+                plan.add("authenticateAesEv2First key 0");
+                plan.add("deleteSelectedApplication " + aid);
+            }
+        }
+        if (isFormatPicc) {
+            plan.script.formatPicc();
+            plan.add("formatPicc");
+        } else if (isCreateApplication) {
+            plan.script.selectApplication(MASTER_APPLICATION_IDENTIFIER);
+            plan.add("selectApplicationByAid " + bytesToHexNpeUpperCase(MASTER_APPLICATION_IDENTIFIER));
+        }
+        for (int i = 0; i < applications.size(); i++) {
+            if (!applicationDeltas.get(i).isCreateApplication) continue;
+            CardProfile.ApplicationProfile application = applications.get(i);
+            String aid = bytesToHexNpeUpperCase(application.applicationIdentifier);
+            if (application.isoApplicationIdentifier != null) {
+                plan.script.createApplicationAesIso(application.applicationIdentifier, application.isoApplicationIdentifier, application.applicationDfName, application.numberOfApplicationKeys);
+                plan.add("createApplicationAesIso " + aid + " iso " + bytesToHexNpeUpperCase(application.isoApplicationIdentifier)
+                        + " dfName " + bytesToHexNpeUpperCase(application.applicationDfName) + " keys " + application.numberOfApplicationKeys);
+            } else {
+                plan.script.createApplicationAes(application.applicationIdentifier, application.numberOfApplicationKeys);
+                plan.add("createApplicationAes " + aid + " keys " + application.numberOfApplicationKeys);
+            }
+        }
+        for (int i = 0; i < applications.size(); i++) {
+            compileApplication(plan, applications.get(i), applicationDeltas.get(i));
+        }
+        // the script validation finds the parameter errors that are not checked by the compiler
+        if (plan.errors.isEmpty()) plan.errors.addAll(plan.script.validate());
+        return plan;
+    }
+
+    private static void compileApplication(Plan plan, CardProfile.ApplicationProfile application, ApplicationDelta delta) {
+        String prefix = "application " + bytesToHexNpeUpperCase(application.applicationIdentifier) + ": ";
+        for (CardProfile.KeyProfile key : application.keys.values()) {
+            if ((key.keyNumber < 0) || (key.keyNumber >= application.numberOfApplicationKeys)) {
+                plan.errors.add(prefix + "key " + key.keyNumber + " is not in range 0.." + (application.numberOfApplicationKeys - 1));
+            }
+        }
+        if (delta.isEmpty()) return;
+        plan.script.selectApplication(application.applicationIdentifier);
+        plan.add("selectApplicationByAid " + bytesToHexNpeUpperCase(application.applicationIdentifier));
+        plan.authenticatedKeyNumber = -1;
+
+        // delete the files first, this frees the memory and the file numbers for the new files
+        if ((delta.isAuthenticateForFiles) && ((!delta.deleteFiles.isEmpty()) || (!delta.createFiles.isEmpty()))) {
+            authenticate(plan, application, delta, 0);
+        }
+        for (int fileNumber : delta.deleteFiles) {
+            plan.script.deleteFile((byte) fileNumber);
+            plan.add("deleteFile " + fileNumber);
+        }
+
+        // create the files, the payloads are precomputed first as the SDM pre-enabling depends on them
+        Map<Integer, byte[]> payloads = new TreeMap<>();
+        List<CardProfile.FileProfile> files = new ArrayList<>();
+        for (CardProfile.FileProfile file : application.files.values()) {
+            boolean isCreateFile = delta.createFiles.contains(file.fileNumber);
+            if ((!isCreateFile) && (!delta.changeFileSettings.containsKey(file.fileNumber))) continue;
+            String filePrefix = prefix + "file " + file.fileNumber + ": ";
+            if (!checkFile(plan, application, file, filePrefix)) continue;
+            byte[] ndefData = buildFilePayload(plan, application, file, filePrefix);
+            if (ndefData != null) payloads.put(file.fileNumber, ndefData);
+            if (isCreateFile) {
+                files.add(file);
+                createFile(plan, file);
+            }
+        }
+
+        // the writes to the new files, grouped by the key with write access
+        TreeMap<Integer, List<WriteOperation>> writeGroups = new TreeMap<>();
+        List<WriteOperation> freeWrites = new ArrayList<>();
+        for (CardProfile.FileProfile file : files) {
+            List<WriteOperation> writes = buildWriteOperations(plan, file, payloads.get(file.fileNumber), prefix + "file " + file.fileNumber + ": ");
+            if (writes.isEmpty()) continue;
+            int writeKeyNumber = getWriteKeyNumber(file.accessRights);
+            if (writeKeyNumber == KEY_NO_ACCESS) {
+                plan.errors.add(prefix + "file " + file.fileNumber + ": has data but no write access");
+            } else if (writeKeyNumber == KEY_FREE_ACCESS) {
+                freeWrites.addAll(writes);
+            } else {
+                if (!writeGroups.containsKey(writeKeyNumber)) writeGroups.put(writeKeyNumber, new ArrayList<WriteOperation>());
+                writeGroups.get(writeKeyNumber).addAll(writes);
+            }
+        }
+        // writes with free access run with the authentication of the first group (the library writes in authenticated state only)
+        if (!freeWrites.isEmpty()) {
+            int keyNumber = writeGroups.isEmpty() ? 0 : writeGroups.firstKey();
+            if (!writeGroups.containsKey(keyNumber)) writeGroups.put(keyNumber, new ArrayList<WriteOperation>());
+            writeGroups.get(keyNumber).addAll(freeWrites);
+        }
+        for (Map.Entry<Integer, List<WriteOperation>> writeGroup : writeGroups.entrySet()) {
+            authenticate(plan, application, delta, writeGroup.getKey());
+            compileWriteGroup(plan, writeGroup.getValue());
+        }
+
+        // the SDM settings of the new files and the changed settings of the existing files
+        for (CardProfile.FileProfile file : application.files.values()) {
+            String filePrefix = prefix + "file " + file.fileNumber + ": ";
+            Integer keyCar = delta.changeFileSettings.get(file.fileNumber);
+            if ((files.contains(file)) && (file.isSdmEnabled())) keyCar = getAccessKeyNumbers(file.accessRights)[1];
+            if (keyCar == null) continue;
+            if (file.isSdmEnabled()) {
+                if (payloads.containsKey(file.fileNumber)) compileSdmSettings(plan, application, delta, file, payloads.get(file.fileNumber), keyCar, filePrefix);
+            } else if (file.accessRights != null) {
+                compileFileSettings(plan, application, delta, file, keyCar, filePrefix);
+            }
+        }
+
+        // the key changes, the application master key at last
+        List<Integer> keyChanges = new ArrayList<>();
+        for (int keyNumber : delta.changeKeys) {
+            if (keyNumber != 0) keyChanges.add(keyNumber);
+        }
+        if (delta.changeKeys.contains(0)) keyChanges.add(0);
+        if (!keyChanges.isEmpty()) authenticate(plan, application, delta, 0);
+        for (int keyNumber : keyChanges) {
+            CardProfile.KeyProfile key = application.keys.get(keyNumber);
+            if ((key == null) || (key.newKey == null)) continue;
+            plan.script.changeApplicationKey((byte) key.keyNumber, (byte) key.keyVersion, key.newKey, getCardKey(application, delta, keyNumber));
+            plan.add("changeApplicationKeyFull key " + key.keyNumber + " version " + key.keyVersion);
+        }
+        plan.authenticatedKeyNumber = -1;
+    }
+
+    private static boolean checkFile(Plan plan, CardProfile.ApplicationProfile application, CardProfile.FileProfile file, String prefix) {
+        int errors = plan.errors.size();
+        if ((file.fileNumber < 0) || (file.fileNumber > MAXIMUM_FILE_NUMBER)) plan.errors.add(prefix + "fileNumber is not in range 0..31");
+        if (file.communicationSettings == null) plan.errors.add(prefix + "communicationSettings is NULL");
+        if ((file.accessRights == null) || (file.accessRights.length != 2)) {
+            plan.errors.add(prefix + "accessRights is not of length 2");
+        } else {
+            for (int keyNumber : getAccessKeyNumbers(file.accessRights)) {
+                if ((keyNumber < KEY_FREE_ACCESS) && (keyNumber >= application.numberOfApplicationKeys)) {
+                    plan.errors.add(prefix + "accessRights use key " + keyNumber + " that is not in the application");
+                }
+            }
+        }
+        boolean isDataFile = (file.fileType == CardProfile.FileType.STANDARD) || (file.fileType == CardProfile.FileType.BACKUP);
+        boolean isRecordFile = (file.fileType == CardProfile.FileType.LINEAR_RECORD) || (file.fileType == CardProfile.FileType.CYCLIC_RECORD);
+        if ((file.isoFileId != null) && (file.fileType != CardProfile.FileType.STANDARD) && (file.fileType != CardProfile.FileType.CYCLIC_RECORD)) {
+            plan.errors.add(prefix + "an ISO file identifier is supported on Standard and Cyclic Record files only");
+        }
+        if ((!isDataFile) && ((!file.dataSegments.isEmpty()) || (file.url != null) || (file.ndefContainerFileNumber >= 0))) {
+            plan.errors.add(prefix + "data, url or ndefContainer on a file that is not a Standard or Backup file");
+        }
+        if ((!isRecordFile) && (!file.records.isEmpty())) plan.errors.add(prefix + "records on a file that is not a Record file");
+        if ((file.url != null) && (file.ndefContainerFileNumber >= 0)) plan.errors.add(prefix + "url and ndefContainer in one file");
+        if (file.isSdmEnabled()) {
+            if ((file.sdmPiccDataParameter == null) || (file.sdmMacParameter == null)) plan.errors.add(prefix + "SDM needs a PICC data and a MAC parameter");
+            if (file.url == null) plan.errors.add(prefix + "SDM needs an url");
+            if (file.fileType != CardProfile.FileType.STANDARD) plan.errors.add(prefix + "SDM needs a Standard file");
+            if (file.communicationSettings != DesfireEv3.CommunicationSettings.Plain) plan.errors.add(prefix + "SDM needs communicationSettings Plain");
+            if (file.fileNumber != SDM_FILE_NUMBER) plan.errors.add(prefix + "SDM is supported on file " + SDM_FILE_NUMBER + " only");
+        }
+        return plan.errors.size() == errors;
+    }
+
+    private static void createFile(Plan plan, CardProfile.FileProfile file) {
+        byte fileNumber = (byte) file.fileNumber;
+        String description = " " + file.fileNumber + " " + file.communicationSettings.name() + " accessRights " + bytesToHexNpeUpperCase(file.accessRights);
+        if (file.isoFileId != null) description += " iso " + bytesToHexNpeUpperCase(file.isoFileId);
+        switch (file.fileType) {
+            case STANDARD:
+                if (file.isoFileId != null) {
+                    plan.script.createAStandardFileIso(fileNumber, file.isoFileId, file.communicationSettings, file.accessRights, file.fileSize, file.isSdmEnabled());
+                    plan.add("createAStandardFileIso" + description + " size " + file.fileSize + (file.isSdmEnabled() ? " preEnableSdm" : ""));
+                } else {
+                    plan.script.createAStandardFile(fileNumber, file.communicationSettings, file.accessRights, file.fileSize, file.isSdmEnabled());
+                    plan.add("createAStandardFile" + description + " size " + file.fileSize + (file.isSdmEnabled() ? " preEnableSdm" : ""));
+                }
+                break;
+            case BACKUP:
+                plan.script.createABackupFile(fileNumber, file.communicationSettings, file.accessRights, file.fileSize);
+                plan.add("createABackupFile" + description + " size " + file.fileSize);
+                break;
+            case VALUE:
+                plan.script.createAValueFile(fileNumber, file.communicationSettings, file.accessRights, file.minimumValue, file.maximumValue, file.initialValue, file.limitedCreditOperation);
+                plan.add("createAValueFile" + description + " min " + file.minimumValue + " max " + file.maximumValue + " value " + file.initialValue);
+                break;
+            case LINEAR_RECORD:
+                plan.script.createALinearRecordFile(fileNumber, file.communicationSettings, file.accessRights, file.recordSize, file.maximumNumberOfRecords);
+                plan.add("createALinearRecordFile" + description + " recordSize " + file.recordSize + " records " + file.maximumNumberOfRecords);
+                break;
+            case CYCLIC_RECORD:
+                if (file.isoFileId != null) {
+                    plan.script.createACyclicRecordFileIso(fileNumber, file.isoFileId, file.communicationSettings, file.accessRights, file.recordSize, file.maximumNumberOfRecords);
+                    plan.add("createACyclicRecordFileIso" + description + " recordSize " + file.recordSize + " records " + file.maximumNumberOfRecords);
+                } else {
+                    plan.script.createACyclicRecordFile(fileNumber, file.communicationSettings, file.accessRights, file.recordSize, file.maximumNumberOfRecords);
+                    plan.add("createACyclicRecordFile" + description + " recordSize " + file.recordSize + " records " + file.maximumNumberOfRecords);
+                }
+                break;
+        }
+    }
+
+    /**
+     * builds the NDEF Capability Container or the NDEF message of an URL (with the SDM placeholders)
+     *
+     * @return the payload or NULL if the file has no NDEF content
+     */
+    private static byte[] buildFilePayload(Plan plan, CardProfile.ApplicationProfile application, CardProfile.FileProfile file, String prefix) {
+        if (file.ndefContainerFileNumber >= 0) {
+            CardProfile.FileProfile ndefFile = application.files.get(file.ndefContainerFileNumber);
+            if ((ndefFile == null) || (ndefFile.fileType != CardProfile.FileType.STANDARD) || (ndefFile.isoFileId == null)
+                    || (ndefFile.accessRights == null) || (ndefFile.accessRights.length != 2)) {
+                plan.errors.add(prefix + "ndefContainer needs a Standard file " + file.ndefContainerFileNumber + " with an ISO file identifier");
+                return null;
+            }
+            boolean isFreeWrite = getWriteKeyNumber(ndefFile.accessRights) == KEY_FREE_ACCESS;
+            return buildNdefContainer(ndefFile.isoFileId, ndefFile.fileSize, isFreeWrite);
+        }
+        if (file.url == null) return null;
+        String url = file.url;
+        if (file.isSdmEnabled()) {
+            url = insertPlaceholder(url, file.sdmPiccDataParameter, SDM_PICC_DATA_LENGTH);
+            if (url != null) url = insertPlaceholder(url, file.sdmMacParameter, SDM_MAC_LENGTH);
+            if (url == null) {
+                plan.errors.add(prefix + "the url misses a SDM parameter or its value is too short");
+                return null;
+            }
+        }
+        byte[] ndefData = buildNdefUrlFileData(url);
+        if (ndefData == null) {
+            plan.errors.add(prefix + "invalid url");
+            return null;
+        }
+        return ndefData;
+    }
+
+    /**
+     * section for writes
+     */
+
+    private static List<WriteOperation> buildWriteOperations(Plan plan, CardProfile.FileProfile file, byte[] payload, String prefix) {
+        List<WriteOperation> writes = new ArrayList<>();
+        if ((file.fileType == CardProfile.FileType.STANDARD) || (file.fileType == CardProfile.FileType.BACKUP)) {
+            // the writes are applied to an image of the file in the order of definition, then written as contiguous runs
+            byte[] image = new byte[Math.max(file.fileSize, 0)];
+            boolean[] isWritten = new boolean[image.length];
+            for (int i = 0; i < file.dataSegments.size(); i++) {
+                if (!applyWrite(image, isWritten, file.dataOffsets.get(i), file.dataSegments.get(i))) {
+                    plan.errors.add(prefix + "data at offset " + file.dataOffsets.get(i) + " is NULL or exceeds the file size");
+                }
+            }
+            if ((payload != null) && (!applyWrite(image, isWritten, 0, payload))) {
+                plan.errors.add(prefix + "the NDEF data (" + payload.length + " bytes) exceeds the file size");
+            }
+            int transactionIndex = (file.fileType == CardProfile.FileType.BACKUP) ? 0 : -1;
+            int position = 0;
+            while (position < image.length) {
+                if (!isWritten[position]) {
+                    position++;
+                    continue;
+                }
+                int start = position;
+                while ((position < image.length) && (isWritten[position])) position++;
+                writes.add(new WriteOperation(file, start, Arrays.copyOfRange(image, start, position), transactionIndex));
+            }
+        } else if ((file.fileType == CardProfile.FileType.LINEAR_RECORD) || (file.fileType == CardProfile.FileType.CYCLIC_RECORD)) {
+            int firstRecord = 0;
+            if (file.fileType == CardProfile.FileType.CYCLIC_RECORD) {
+                // a cyclic record file keeps maximumNumberOfRecords - 1 records, older records are overwritten
+                firstRecord = Math.max(0, file.records.size() - (file.maximumNumberOfRecords - 1));
+            } else if (file.records.size() > file.maximumNumberOfRecords) {
+                plan.errors.add(prefix + "more records than maximumNumberOfRecords");
+            }
+            for (int i = firstRecord; i < file.records.size(); i++) {
+                byte[] record = file.records.get(i);
+                if ((record == null) || (record.length == 0) || (record.length > file.recordSize)) {
+                    plan.errors.add(prefix + "record " + i + " is empty or exceeds the recordSize");
+                    continue;
+                }
+                // one record per file and transaction, each new record needs its own commit
+                writes.add(new WriteOperation(file, 0, Arrays.copyOf(record, file.recordSize), i - firstRecord));
+            }
+        }
+        return writes;
+    }
+
+    private static boolean applyWrite(byte[] image, boolean[] isWritten, int offset, byte[] data) {
+        if ((data == null) || (data.length == 0) || (offset < 0) || (offset + data.length > image.length)) return false;
+        System.arraycopy(data, 0, image, offset, data.length);
+        Arrays.fill(isWritten, offset, offset + data.length, true);
+        return true;
+    }
+
+    private static void compileWriteGroup(Plan plan, List<WriteOperation> writes) {
+        int maximumTransactionIndex = -1;
+        for (WriteOperation write : writes) {
+            if (write.transactionIndex < 0) {
+                plan.script.writeToADataFile((byte) write.file.fileNumber, write.offset, write.data);
+                plan.add("writeToADataFile " + write.file.fileNumber + " offset " + write.offset + " length " + write.data.length);
+            }
+            maximumTransactionIndex = Math.max(maximumTransactionIndex, write.transactionIndex);
+        }
+        for (int transactionIndex = 0; transactionIndex <= maximumTransactionIndex; transactionIndex++) {
+            for (WriteOperation write : writes) {
+                if (write.transactionIndex != transactionIndex) continue;
+                if (write.file.fileType == CardProfile.FileType.BACKUP) {
+                    plan.script.writeToADataFile((byte) write.file.fileNumber, write.offset, write.data);
+                    plan.add("writeToADataFile " + write.file.fileNumber + " offset " + write.offset + " length " + write.data.length);
+                } else {
+                    plan.script.writeToARecordFile((byte) write.file.fileNumber, 0, write.data);
+                    plan.add("writeToARecordFile " + write.file.fileNumber + " length " + write.data.length);
+                }
+            }
+            plan.script.commitTransaction();
+            plan.add("commitTransactionFull");
+        }
+    }
+
+    private static void authenticate(Plan plan, CardProfile.ApplicationProfile application, ApplicationDelta delta, int keyNumber) {
+        if (plan.authenticatedKeyNumber == keyNumber) return;
+        plan.script.authenticateAesEv2First((byte) keyNumber, getCardKey(application, delta, keyNumber));
+        plan.add("authenticateAesEv2First key " + keyNumber);
+        plan.authenticatedKeyNumber = keyNumber;
+    }
+
+    /**
+     * authenticates with the change access rights key, a free change access rights works with any authentication
+     *
+     * @return false if the settings cannot be changed
+     */
+    private static boolean authenticateChangeAccessRights(Plan plan, CardProfile.ApplicationProfile application, ApplicationDelta delta, int keyCar, String prefix) {
+        if (keyCar == KEY_NO_ACCESS) {
+            plan.errors.add(prefix + "the file settings cannot be changed (no change access rights key)");
+            return false;
+        }
+        if ((keyCar != KEY_FREE_ACCESS) || (plan.authenticatedKeyNumber < 0)) {
+            authenticate(plan, application, delta, (keyCar == KEY_FREE_ACCESS) ? 0 : keyCar);
+        }
+        return true;
+    }
+
+    /**
+     * @return the key on the card, this is the current key of the profile unless the card has another one
+     */
+    private static byte[] getCardKey(CardProfile.ApplicationProfile application, ApplicationDelta delta, int keyNumber) {
+        byte[] cardKey = delta.cardKeys.get(keyNumber);
+        if (cardKey != null) return cardKey;
+        CardProfile.KeyProfile key = application.keys.get(keyNumber);
+        return (key == null) ? new byte[16] : key.currentKey;
+    }
+
+    private static void compileFileSettings(Plan plan, CardProfile.ApplicationProfile application, ApplicationDelta delta, CardProfile.FileProfile file, int keyCar, String prefix) {
+        if (!authenticateChangeAccessRights(plan, application, delta, keyCar, prefix)) return;
+        int[] keys = getAccessKeyNumbers(file.accessRights);
+        plan.script.changeFileSettings((byte) file.fileNumber, file.communicationSettings, keys[0], keys[1], keys[2], keys[3]);
+        plan.add("changeFileSettings " + file.fileNumber + " " + file.communicationSettings.name() + " accessRights " + bytesToHexNpeUpperCase(file.accessRights));
+    }
+
+    /**
+     * section for SDM
+     */
+
+    /**
+     * @param keyCar | the change access rights key on the card
+     */
+    private static void compileSdmSettings(Plan plan, CardProfile.ApplicationProfile application, ApplicationDelta delta, CardProfile.FileProfile file, byte[] ndefData, int keyCar, String prefix) {
+        int[] offsets = getSdmOffsets(file, ndefData);
+        if (offsets == null) {
+            plan.errors.add(prefix + "a SDM parameter is not in the url or the MAC input parameter is behind the MAC parameter");
+            return;
+        }
+        int encPiccDataOffset = offsets[0];
+        int sdmMacOffset = offsets[1];
+        int sdmMacInputOffset = offsets[2];
+        if (!authenticateChangeAccessRights(plan, application, delta, keyCar, prefix)) return;
+        int[] keys = getAccessKeyNumbers(file.accessRights);
+        plan.script.changeFileSettingsSdm((byte) file.fileNumber, file.communicationSettings, keys[0], keys[1], keys[2], keys[3], encPiccDataOffset, sdmMacOffset, sdmMacInputOffset);
+        plan.add("changeFileSettingsNtag424Dna " + file.fileNumber + " SDM encPiccDataOffset " + encPiccDataOffset
+                + " sdmMacOffset " + sdmMacOffset + " sdmMacInputOffset " + sdmMacInputOffset);
+    }
+
+    /**
+     * @return the SDM offsets of a file in the profile (encrypted PICC data, MAC and MAC input) or NULL if the
+     * file has no valid SDM url
+     */
+    static int[] getSdmOffsets(CardProfile.ApplicationProfile application, CardProfile.FileProfile file) {
+        if (!file.isSdmEnabled()) return null;
+        byte[] ndefData = buildFilePayload(new Plan(), application, file, "");
+        return (ndefData == null) ? null : getSdmOffsets(file, ndefData);
+    }
+
+    /**
+     * @param ndefData | the NDEF file content with the placeholders
+     * @return the offsets of the encrypted PICC data, the MAC and the MAC input or NULL if a parameter is missing
+     */
+    private static int[] getSdmOffsets(CardProfile.FileProfile file, byte[] ndefData) {
+        int encPiccDataOffset = getParameterValueOffset(ndefData, file.sdmPiccDataParameter);
+        int sdmMacOffset = getParameterValueOffset(ndefData, file.sdmMacParameter);
+        int sdmMacInputOffset = (file.sdmMacInputParameter == null) ? sdmMacOffset : getParameterValueOffset(ndefData, file.sdmMacInputParameter);
+        if ((encPiccDataOffset < 0) || (sdmMacOffset < 0) || (sdmMacInputOffset < 0) || (sdmMacInputOffset > sdmMacOffset)) return null;
+        return new int[]{encPiccDataOffset, sdmMacOffset, sdmMacInputOffset};
+    }
+
+    /**
+     * fills an empty URL parameter with a placeholder of '0' characters, e.g. '?u=&' becomes '?u=000..000&'
+     *
+     * @return the URL or NULL if the parameter is missing or its value is shorter than the placeholder
+     */
+    private static String insertPlaceholder(String url, String parameter, int length) {
+        int valueStart = findParameterValue(url, parameter);
+        if (valueStart < 0) return null;
+        int valueEnd = url.indexOf('&', valueStart);
+        if (valueEnd < 0) valueEnd = url.length();
+        int valueLength = valueEnd - valueStart;
+        if (valueLength == 0) {
+            char[] placeholder = new char[length];
+            Arrays.fill(placeholder, '0');
+            return url.substring(0, valueStart) + new String(placeholder) + url.substring(valueStart);
+        }
+        return (valueLength >= length) ? url : null;
+    }
+
+    private static int findParameterValue(String url, String parameter) {
+        for (String separator : new String[]{"?", "&"}) {
+            int index = url.indexOf(separator + parameter + "=");
+            if (index >= 0) return index + parameter.length() + 2;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset of the parameter value in the file data or -1 if the parameter is not found
+     */
+    private static int getParameterValueOffset(byte[] fileData, String parameter) {
+        return findParameterValue(new String(fileData, StandardCharsets.ISO_8859_1), parameter);
+    }
+
+    /**
+     * section for NDEF
+     */
+
+    /**
+     * builds the content of a NDEF data file with an URI record: NLEN (2 bytes) || NDEF message. The record
+     * is identical to 'new NdefMessage(NdefRecord.createUri(url)).toByteArray()' but built without the
+     * Android framework, so it can be precomputed anywhere.
+     *
+     * @param url | the URL, e.g. https://example.com/sun?u=&t=
+     * @return the file content or NULL if the URL is invalid or too long
+     */
+    public static byte[] buildNdefUrlFileData(String url) {
+        if ((url == null) || (!Utils.isValidUrl(url))) return null;
+        // the scheme is written in lower case, as done by android.net.Uri.normalizeScheme
+        int schemeEnd = url.indexOf(':');
+        String normalizedUrl = url.substring(0, schemeEnd).toLowerCase() + url.substring(schemeEnd);
+        int prefixCode = 0;
+        for (int i = 1; i < URI_PREFIXES.length; i++) {
+            if (normalizedUrl.startsWith(URI_PREFIXES[i])) {
+                prefixCode = i;
+                break;
+            }
+        }
+        byte[] uriField = normalizedUrl.substring(URI_PREFIXES[prefixCode].length()).getBytes(StandardCharsets.UTF_8);
+        int payloadLength = uriField.length + 1;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (payloadLength < 256) {
+            baos.write(NDEF_TNF_WELL_KNOWN_SHORT_RECORD);
+            baos.write(1); // type length
+            baos.write(payloadLength);
+        } else {
+            baos.write(NDEF_TNF_WELL_KNOWN);
+            baos.write(1);
+            baos.write(payloadLength >>> 24);
+            baos.write(payloadLength >>> 16);
+            baos.write(payloadLength >>> 8);
+            baos.write(payloadLength);
+        }
+        baos.write(NDEF_RECORD_TYPE_URI);
+        baos.write(prefixCode);
+        baos.write(uriField, 0, uriField.length);
+        byte[] ndefMessage = baos.toByteArray();
+        if (ndefMessage.length > 0xFFFF) return null;
+        byte[] fileData = new byte[ndefMessage.length + 2];
+        fileData[0] = (byte) (ndefMessage.length >>> 8);
+        fileData[1] = (byte) ndefMessage.length;
+        System.arraycopy(ndefMessage, 0, fileData, 2, ndefMessage.length);
+        return fileData;
+    }
+
+    /**
+     * builds the NDEF Capability Container (mapping version 2.0) that points to the NDEF data file
+     *
+     * @param isoFileId   | ISO file identifier of the NDEF data file, e.g. E104
+     * @param fileSize    | size of the NDEF data file
+     * @param isFreeWrite | true if the NDEF data file can be written without authentication
+     * @return the container, e.g. 000F20003A00340406E10401000000 for file E104 with 256 bytes
+     */
+    public static byte[] buildNdefContainer(byte[] isoFileId, int fileSize, boolean isFreeWrite) {
+        byte[] container = Utils.hexStringToByteArray("000F20003A00340406000000000000");
+        container[9] = isoFileId[0];
+        container[10] = isoFileId[1];
+        container[11] = (byte) (fileSize >>> 8);
+        container[12] = (byte) fileSize;
+        container[13] = (byte) 0x00; // read access granted
+        container[14] = isFreeWrite ? (byte) 0x00 : (byte) 0xFF;
+        return container;
+    }
+
+    /**
+     * section for access rights
+     */
+
+    /**
+     * @return the key numbers RW, CAR, R and W
+     */
+    static int[] getAccessKeyNumbers(byte[] accessRights) {
+        return new int[]{(accessRights[0] >> 4) & 0x0F, accessRights[0] & 0x0F, (accessRights[1] >> 4) & 0x0F, accessRights[1] & 0x0F};
+    }
+
+    /**
+     * @return the key number that grants the write access, KEY_FREE_ACCESS or KEY_NO_ACCESS
+     */
+    private static int getWriteKeyNumber(byte[] accessRights) {
+        int[] keys = getAccessKeyNumbers(accessRights);
+        int keyRW = keys[0];
+        int keyW = keys[3];
+        if ((keyW == KEY_FREE_ACCESS) || (keyRW == KEY_FREE_ACCESS)) return KEY_FREE_ACCESS;
+        if (keyW < KEY_FREE_ACCESS) return keyW;
+        if (keyRW < KEY_FREE_ACCESS) return keyRW;
+        return KEY_NO_ACCESS;
+    }
+}
@@ -0,0 +1,420 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class compares a card with a CardProfile and builds a plan that changes only the differences
+ * instead of formatting and personalizing the card again. It reads the current layout of the card
+ * (application ids, key settings and file settings of each application in the profile) and computes
+ * the minimal set of commands:
+ * - missing applications are created with all files, content and keys of the profile
+ * - files on the card that are not in the profile are deleted
+ * - missing files are created and written with the content of the profile
+ * - files with another file type, size, record size, number of records or value limits are deleted and created again
+ * - files with other communication settings, access rights or SDM offsets get a changeFileSettings,
+ * a file without a change access rights key is deleted and created again
+ * - keys with a new key in the profile are changed if the card does not have the version of the new key
+ * - applications on the card that are not in the profile are kept or deleted (see setKeepUnknownApplications)
+ * <p>
+ * The content of existing files is not compared and not written again. ISO file identifiers and DF names
+ * are not compared as they are not part of the file settings.
+ * <p>
+ * The key state is read with getKeyVersion, no authentication with a possibly wrong key is done. A key
+ * counts as changed when the card has the key version of the profile, so the new key needs a version that
+ * differs from the version of the current key (a key version 0 is rejected, the default keys have version 0).
+ * <p>
+ * An application with another number of keys or key type can not be changed, then the diff requires a
+ * format of the card and the plan is the complete profile with a format.
+ * <p>
+ * Usage:
+ * CardStateDiff.Result result = new CardStateDiff(profile).diff(desfireEv3);
+ * if (!result.isUpToDate()) DesfireScript.Report report = result.getPlan().execute(desfireEv3);
+ * Note: check the errors of the result, the plan of a result with errors is not executed.
+ */
+
+public class CardStateDiff {
+
+    private static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    private static final int KEY_NO_ACCESS = 15;
+    private static final byte FILE_TYPE_STANDARD = (byte) 0x00;
+    private static final byte FILE_TYPE_BACKUP = (byte) 0x01;
+    private static final byte FILE_TYPE_VALUE = (byte) 0x02;
+    private static final byte FILE_TYPE_LINEAR_RECORD = (byte) 0x03;
+    private static final byte FILE_TYPE_CYCLIC_RECORD = (byte) 0x04;
+
+    public static class Result {
+        private final List<String> differences = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private boolean isFormatRequired = false;
+        private CardProfileCompiler.Plan plan;
+
+        private Result() {
+        }
+
+        /**
+         * @return true if the card matches the profile, the plan is empty
+         */
+        public boolean isUpToDate() {
+            return (errors.isEmpty()) && (differences.isEmpty());
+        }
+
+        /**
+         * @return true if the card can not be changed to the profile without a format, the plan
+         * starts with formatPicc
+         */
+        public boolean isFormatRequired() {
+            return isFormatRequired;
+        }
+
+        /**
+         * @return a description of each difference between the card and the profile
+         */
+        public List<String> getDifferences() {
+            return Collections.unmodifiableList(differences);
+        }
+
+        /**
+         * @return the errors during the reading of the card and the compilation of the plan
+         */
+        public List<String> getErrors() {
+            if ((plan == null) || (plan.isValid())) return Collections.unmodifiableList(errors);
+            List<String> allErrors = new ArrayList<>(errors);
+            allErrors.addAll(plan.getErrors());
+            return Collections.unmodifiableList(allErrors);
+        }
+
+        /**
+         * @return the plan that changes the card to the profile, NULL if the card could not be read
+         */
+        public CardProfileCompiler.Plan getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("CardStateDiff: ").append(isUpToDate() ? "up to date" : differences.size() + " differences");
+            if (isFormatRequired) sb.append(", format required");
+            sb.append("\n");
+            for (String difference : differences) {
+                sb.append(difference).append("\n");
+            }
+            for (String error : getErrors()) {
+                sb.append("error: ").append(error).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    private final CardProfile profile;
+    private boolean isKeepUnknownApplications = true;
+    private byte[] unknownApplicationMasterKey = new byte[16];
+
+    public CardStateDiff(CardProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @param isKeepUnknownApplications | true (default) keeps applications on the card that are not in the
+     *                                  profile, false deletes them with deleteSelectedApplication
+     */
+    public CardStateDiff setKeepUnknownApplications(boolean isKeepUnknownApplications) {
+        this.isKeepUnknownApplications = isKeepUnknownApplications;
+        return this;
+    }
+
+    /**
+     * @param unknownApplicationMasterKey | the application master key (key 0) of the applications that are
+     *                                    deleted, NULL for the default key (16 * 0x00)
+     */
+    public CardStateDiff setUnknownApplicationMasterKey(byte[] unknownApplicationMasterKey) {
+        this.unknownApplicationMasterKey = (unknownApplicationMasterKey == null) ? new byte[16] : unknownApplicationMasterKey.clone();
+        return this;
+    }
+
+    /**
+     * reads the card and computes the plan, the card is changed only by the plan
+     *
+     * @param desfireEv3 | the session of the tapped card
+     * @return the result with the differences and the plan
+     * Note: the selected application and authentication of the session are changed
+     */
+    public Result diff(DesfireEv3 desfireEv3) {
+        Result result = new Result();
+        if (profile == null) {
+            result.errors.add("profile is NULL");
+            return result;
+        }
+        result.errors.addAll(profile.getErrors());
+        if (desfireEv3 == null) {
+            result.errors.add("desfireEv3 is NULL");
+            return result;
+        }
+        if (!result.errors.isEmpty()) return result;
+
+        if (!desfireEv3.selectApplicationByAid(MASTER_APPLICATION_IDENTIFIER)) {
+            result.errors.add("could not select the Master Application: " + desfireEv3.getErrorCodeReason());
+            return result;
+        }
+        List<byte[]> applicationIdsList = desfireEv3.getApplicationIdsList();
+        if (applicationIdsList == null) {
+            result.errors.add("could not read the application ids: " + desfireEv3.getErrorCodeReason());
+            return result;
+        }
+        Set<String> cardApplicationIdentifiers = new HashSet<>();
+        for (byte[] applicationIdentifier : applicationIdsList) {
+            cardApplicationIdentifiers.add(bytesToHexNpeUpperCase(applicationIdentifier));
+        }
+
+        Map<CardProfile.ApplicationProfile, CardProfileCompiler.ApplicationDelta> deltas = new HashMap<>();
+        Set<String> profileApplicationIdentifiers = new HashSet<>();
+        for (CardProfile.ApplicationProfile application : profile.getApplications()) {
+            String aid = bytesToHexNpeUpperCase(application.applicationIdentifier);
+            profileApplicationIdentifiers.add(aid);
+            if (!cardApplicationIdentifiers.contains(aid)) {
+                result.differences.add("application " + aid + ": missing");
+                deltas.put(application, CardProfileCompiler.ApplicationDelta.complete(application));
+                continue;
+            }
+            CardProfileCompiler.ApplicationDelta delta = diffApplication(desfireEv3, application, result);
+            if ((delta != null) && (!delta.isEmpty())) deltas.put(application, delta);
+        }
+        List<byte[]> deleteApplications = new ArrayList<>();
+        for (byte[] applicationIdentifier : applicationIdsList) {
+            String aid = bytesToHexNpeUpperCase(applicationIdentifier);
+            if (profileApplicationIdentifiers.contains(aid)) continue;
+            result.differences.add("application " + aid + ": not in the profile" + (isKeepUnknownApplications ? ", kept" : ", delete"));
+            if (!isKeepUnknownApplications) deleteApplications.add(applicationIdentifier);
+        }
+        if (!result.errors.isEmpty()) return result;
+        if (result.isFormatRequired) {
+            result.plan = CardProfileCompiler.compile(profile, true, null);
+        } else {
+            result.plan = CardProfileCompiler.compile(profile, false, deltas, deleteApplications, unknownApplicationMasterKey);
+        }
+        return result;
+    }
+
+    /**
+     * runs the diff and executes the plan
+     *
+     * @return the report of the plan or an invalid report if the card could not be read
+     */
+    public DesfireScript.Report apply(DesfireEv3 desfireEv3) {
+        Result result = diff(desfireEv3);
+        if ((result.plan == null) || (!result.getErrors().isEmpty())) return DesfireScript.Report.invalid(result.getErrors());
+        return result.plan.execute(desfireEv3);
+    }
+
+    /**
+     * section for the application
+     */
+
+    private CardProfileCompiler.ApplicationDelta diffApplication(DesfireEv3 desfireEv3, CardProfile.ApplicationProfile application, Result result) {
+        String prefix = "application " + bytesToHexNpeUpperCase(application.applicationIdentifier) + ": ";
+        if (!desfireEv3.selectApplicationByAid(application.applicationIdentifier)) {
+            result.errors.add(prefix + "could not select the application: " + desfireEv3.getErrorCodeReason());
+            return null;
+        }
+        ApplicationKeySettings applicationKeySettings = desfireEv3.getApplicationKeySettings();
+        if (applicationKeySettings == null) {
+            result.errors.add(prefix + "could not read the key settings: " + desfireEv3.getErrorCodeReason());
+            return null;
+        }
+        if ((applicationKeySettings.getNumberOfKeys() != application.numberOfApplicationKeys) || (!applicationKeySettings.isKeyTypeAes())) {
+            result.differences.add(prefix + "has " + applicationKeySettings.getNumberOfKeys() + " " + applicationKeySettings.getKeyTypeName()
+                    + " keys instead of " + application.numberOfApplicationKeys + " AES keys, format required");
+            result.isFormatRequired = true;
+            return null;
+        }
+        CardProfileCompiler.ApplicationDelta delta = new CardProfileCompiler.ApplicationDelta();
+        delta.isCreateApplication = false;
+        delta.isAuthenticateForFiles = applicationKeySettings.isMasterKeyAuthenticationNeededForCreateDeleteFile();
+
+        // the file IDs are read by selectApplicationByAid, the file settings from the cache or the card
+        byte[] fileIds = desfireEv3.getApplicationAllFileIds();
+        Map<Integer, FileSettings> cardFiles = new HashMap<>();
+        if (fileIds != null) {
+            for (byte fileId : fileIds) {
+                FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileId);
+                if (fileSettings == null) {
+                    result.errors.add(prefix + "file " + fileId + ": could not read the file settings");
+                    continue;
+                }
+                cardFiles.put((int) fileId, fileSettings);
+            }
+        }
+        for (int fileNumber : cardFiles.keySet()) {
+            if (application.files.containsKey(fileNumber)) continue;
+            result.differences.add(prefix + "file " + fileNumber + ": not in the profile, delete");
+            delta.deleteFiles.add(fileNumber);
+        }
+        for (CardProfile.FileProfile file : application.files.values()) {
+            diffFile(application, file, cardFiles.get(file.fileNumber), delta, prefix + "file " + file.fileNumber + ": ", result);
+        }
+
+        diffKeys(desfireEv3, application, delta, prefix, result);
+        return delta;
+    }
+
+    private void diffFile(CardProfile.ApplicationProfile application, CardProfile.FileProfile file, FileSettings fileSettings, CardProfileCompiler.ApplicationDelta delta, String prefix, Result result) {
+        if (fileSettings == null) {
+            result.differences.add(prefix + "missing, create");
+            delta.createFiles.add(file.fileNumber);
+            return;
+        }
+        String structureDifference = getStructureDifference(file, fileSettings);
+        if (structureDifference != null) {
+            result.differences.add(prefix + structureDifference + ", delete and create");
+            delta.deleteFiles.add(file.fileNumber);
+            delta.createFiles.add(file.fileNumber);
+            return;
+        }
+        String settingsDifference = getSettingsDifference(application, file, fileSettings);
+        if (settingsDifference == null) return;
+        if (fileSettings.getAccessRightsCar() == KEY_NO_ACCESS) {
+            result.differences.add(prefix + settingsDifference + ", no change access rights key, delete and create");
+            delta.deleteFiles.add(file.fileNumber);
+            delta.createFiles.add(file.fileNumber);
+            return;
+        }
+        result.differences.add(prefix + settingsDifference + ", change file settings");
+        delta.changeFileSettings.put(file.fileNumber, fileSettings.getAccessRightsCar());
+    }
+
+    /**
+     * @return a description of the difference in file type, size, records or value limits, NULL if the structure is equal
+     */
+    private static String getStructureDifference(CardProfile.FileProfile file, FileSettings fileSettings) {
+        byte fileType = getFileType(file.fileType);
+        if (fileSettings.getFileType() != fileType) {
+            return "file type is " + fileSettings.getFileTypeName() + " instead of " + file.fileType.name();
+        }
+        switch (file.fileType) {
+            case STANDARD:
+            case BACKUP:
+                if (fileSettings.getFileSizeInt() != file.fileSize) {
+                    return "size is " + fileSettings.getFileSizeInt() + " instead of " + file.fileSize;
+                }
+                return null;
+            case LINEAR_RECORD:
+            case CYCLIC_RECORD:
+                if ((fileSettings.getRecordSizeInt() != file.recordSize) || (fileSettings.getRecordsMaxInt() != file.maximumNumberOfRecords)) {
+                    return "records are " + fileSettings.getRecordsMaxInt() + " x " + fileSettings.getRecordSizeInt()
+                            + " instead of " + file.maximumNumberOfRecords + " x " + file.recordSize;
+                }
+                return null;
+            case VALUE:
+                // the value limits have no getters in FileSettings: lower limit || upper limit || limited credit value || limited credit enabled
+                byte[] response = fileSettings.getCompleteResponse();
+                if ((response == null) || (response.length < 17)) return "value limits are unknown";
+                int minimumValue = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(response, 4, 8));
+                int maximumValue = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(response, 8, 12));
+                boolean limitedCreditOperation = (response[16] & 0x01) == 0x01;
+                if ((minimumValue != file.minimumValue) || (maximumValue != file.maximumValue) || (limitedCreditOperation != file.limitedCreditOperation)) {
+                    return "value limits are " + minimumValue + ".." + maximumValue + " limitedCredit " + limitedCreditOperation
+                            + " instead of " + file.minimumValue + ".." + file.maximumValue + " limitedCredit " + file.limitedCreditOperation;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return a description of the difference in communication settings, access rights or SDM, NULL if the settings are equal
+     */
+    private static String getSettingsDifference(CardProfile.ApplicationProfile application, CardProfile.FileProfile file, FileSettings fileSettings) {
+        if (fileSettings.getDesfireEv3CommunicationSettings() != file.communicationSettings) {
+            return "communication settings are " + fileSettings.getCommunicationSettingsName() + " instead of " + file.communicationSettings.name();
+        }
+        int[] keys = CardProfileCompiler.getAccessKeyNumbers(file.accessRights);
+        int[] cardKeys = new int[]{fileSettings.getAccessRightsRw(), fileSettings.getAccessRightsCar(), fileSettings.getAccessRightsR(), fileSettings.getAccessRightsW()};
+        if (!Arrays.equals(keys, cardKeys)) {
+            return "access rights are " + bytesToHexNpeUpperCase(getAccessRights(cardKeys)) + " instead of " + bytesToHexNpeUpperCase(file.accessRights);
+        }
+        if (fileSettings.isSdmEnabled() != file.isSdmEnabled()) {
+            return "SDM is " + (fileSettings.isSdmEnabled() ? "enabled" : "disabled") + " instead of " + (file.isSdmEnabled() ? "enabled" : "disabled");
+        }
+        if (!file.isSdmEnabled()) return null;
+        int[] sdmOffsets = CardProfileCompiler.getSdmOffsets(application, file);
+        if (sdmOffsets == null) return null; // the compiler reports the invalid url
+        int[] cardSdmOffsets = new int[]{
+                getOffset(fileSettings.getSDM_PICCDataOffset()),
+                getOffset(fileSettings.getSDM_MACOffset()),
+                getOffset(fileSettings.getSDM_MACInputOffset())};
+        if (!Arrays.equals(sdmOffsets, cardSdmOffsets)) {
+            return "SDM offsets are " + Arrays.toString(cardSdmOffsets) + " instead of " + Arrays.toString(sdmOffsets);
+        }
+        return null;
+    }
+
+    /**
+     * section for keys
+     */
+
+    /**
+     * compares the key version on the card with the version of each new key in the profile
+     */
+    private void diffKeys(DesfireEv3 desfireEv3, CardProfile.ApplicationProfile application, CardProfileCompiler.ApplicationDelta delta, String prefix, Result result) {
+        for (CardProfile.KeyProfile key : application.keys.values()) {
+            if (key.newKey == null) continue;
+            if ((key.keyNumber < 0) || (key.keyNumber >= application.numberOfApplicationKeys)) continue; // the compiler reports the error
+            if (key.keyVersion == 0) {
+                result.errors.add(prefix + "key " + key.keyNumber + ": the new key has version 0, a change can not be detected");
+                continue;
+            }
+            int cardKeyVersion = desfireEv3.getKeyVersion((byte) key.keyNumber);
+            if (cardKeyVersion < 0) {
+                result.errors.add(prefix + "key " + key.keyNumber + ": could not read the key version: " + desfireEv3.getErrorCodeReason());
+                continue;
+            }
+            if (cardKeyVersion == (key.keyVersion & 0xFF)) {
+                delta.cardKeys.put(key.keyNumber, key.newKey);
+                continue;
+            }
+            result.differences.add(prefix + "key " + key.keyNumber + ": version " + cardKeyVersion + " instead of " + key.keyVersion + ", change");
+            delta.changeKeys.add(key.keyNumber);
+        }
+    }
+
+    /**
+     * section for helpers
+     */
+
+    private static byte getFileType(CardProfile.FileType fileType) {
+        switch (fileType) {
+            case BACKUP:
+                return FILE_TYPE_BACKUP;
+            case VALUE:
+                return FILE_TYPE_VALUE;
+            case LINEAR_RECORD:
+                return FILE_TYPE_LINEAR_RECORD;
+            case CYCLIC_RECORD:
+                return FILE_TYPE_CYCLIC_RECORD;
+            default:
+                return FILE_TYPE_STANDARD;
+        }
+    }
+
+    private static byte[] getAccessRights(int[] keys) {
+        return new byte[]{(byte) ((keys[0] << 4) | keys[1]), (byte) ((keys[2] << 4) | keys[3])};
+    }
+
+    /**
+     * @param offset | 3 bytes LSB first
+     */
+    private static int getOffset(byte[] offset) {
+        if ((offset == null) || (offset.length != 3)) return -1;
+        return Utils.intFrom3ByteArrayInversed(offset);
+    }
+}
@@ -0,0 +1,40 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+
+/**
+ * This interface is the link between the DESFire command layer (DesfireEv3, DesfireAuthenticateLegacy)
+ * and the physical or simulated card. An implementation takes a complete APDU and returns the
+ * complete response including the two status bytes.
+ * <p>
+ * Available implementations:
+ * - IsoDepTransport: the Android IsoDep class of a tapped tag
+ * - DesfireEv3Simulator: an in-process simulated DESFire EV3 PICC that runs on a plain JVM
+ */
+
+public interface CardTransport {
+
+    /**
+     * send an APDU to the card and receive the response
+     *
+     * @param apdu | the complete command APDU
+     * @return the complete response APDU (data || SW1 || SW2)
+     * @throws IOException | when the connection is lost (a TagLostException is an IOException as well)
+     */
+    byte[] transceive(byte[] apdu) throws IOException;
+
+    /**
+     * @return true if the card is connected and ready for transceive
+     */
+    boolean isConnected();
+
+    /**
+     * @return the maximum length of a command APDU that can be send in one transceive
+     */
+    int getMaxTransceiveLength();
+
+    /**
+     * @return true if the card and reader support extended length APDUs
+     */
+    boolean isExtendedLengthApduSupported();
+}
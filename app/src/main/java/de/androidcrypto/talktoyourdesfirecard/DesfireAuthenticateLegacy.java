@@ -34,9 +34,8 @@ public class DesfireAuthenticateLegacy {
     private static final String TAG = DesfireAuthenticateLegacy.class.getName();
 
 
-    private IsoDep isoDep;
-    private boolean printToLog = true; // print data to log
-    private String logData = "";
+    private final CardTransport cardTransport;
+    private final DesfireTrace trace = new DesfireTrace(TAG); // bounded step by step log, see getLogData
 
     private byte[] selectedApplicationIdentifier;
     private boolean authenticateLegacyD40Success = false;
@@ -74,8 +73,13 @@ public class DesfireAuthenticateLegacy {
     private static final int MAXIMUM_FILE_SIZE = 32; // standard files could get larger but to avoid any framing this is hardcoded limit
 
     public DesfireAuthenticateLegacy(IsoDep isoDep, boolean printToLog) {
-        this.isoDep = isoDep;
-        this.printToLog = printToLog;
+        this(new IsoDepTransport(isoDep), printToLog);
+    }
+
+    public DesfireAuthenticateLegacy(CardTransport cardTransport, boolean printToLog) {
+        if (cardTransport == null) throw new IllegalArgumentException("cardTransport is NULL");
+        this.cardTransport = cardTransport;
+        trace.setLevel(printToLog ? DesfireTrace.Level.DEBUG : DesfireTrace.Level.OFF);
     }
 
     /**
@@ -90,7 +94,7 @@ public class DesfireAuthenticateLegacy {
      * @return true on SUCCESS
      */
     public boolean selectApplication(byte[] applicationIdentifier) {
-        logData = "";
+        trace.clear();
         final String methodName = "selectApplication";
         log(methodName, methodName);
         // sanity checks
@@ -104,21 +108,21 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         try {
             apdu = wrapMessage(SELECT_APPLICATION_COMMAND, applicationIdentifier);
-            Log.d(TAG, methodName + printData(" apdu", apdu));
+            logcat(methodName + " apdu", apdu);
             // sample 905a000003d0d1d200
-            response = isoDep.transceive(apdu);
-            Log.d(TAG, methodName + printData(" response", response));
+            response = cardTransport.transceive(apdu);
+            logcat(methodName + " response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -127,13 +131,12 @@ public class DesfireAuthenticateLegacy {
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             selectedApplicationIdentifier = applicationIdentifier.clone();
             invalidateAllAuthentificationData();
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             selectedApplicationIdentifier = null;
             invalidateAllAuthentificationData();
             return false;
@@ -151,7 +154,7 @@ public class DesfireAuthenticateLegacy {
     // DES/3DES decryption: CBC send mode and CBC receive mode
     private byte[] decrypt(byte[] key, byte[] data) {
         final String logString = "decrypt";
-        log(logString, printData("key", key) + printData(" data", data), true);
+        if (isTraceInfoEnabled()) log(logString, printData("key", key) + printData(" data", data), true);
         byte[] modifiedKey = new byte[24];
         System.arraycopy(key, 0, modifiedKey, 16, 8);
         System.arraycopy(key, 0, modifiedKey, 8, 8);
@@ -205,28 +208,27 @@ public class DesfireAuthenticateLegacy {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         baos.write(fileNumber);
         byte[] parameter = baos.toByteArray();
-        Log.d(TAG, methodName + printData(" parameter", parameter));
+        logcat(methodName + " parameter", parameter);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         try {
             apdu = wrapMessage(GET_FILE_SETTINGS_COMMAND, parameter);
-            Log.d(TAG, methodName + printData(" apdu", apdu));
-            response = isoDep.transceive(apdu);
-            Log.d(TAG, methodName + printData(" response", response));
+            logcat(methodName + " apdu", apdu);
+            response = cardTransport.transceive(apdu);
+            logcat(methodName + " response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return null;
         }
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             return Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
     }
@@ -243,8 +245,8 @@ public class DesfireAuthenticateLegacy {
         }
 
         //byte selectedFileIdByte = Byte.parseByte(selectedFileId);
-        Log.d(TAG, "changeTheFileSettings for selectedFileId " + fileNumber);
-        Log.d(TAG, printData("DES session key", SessionKey));
+        logcat("changeTheFileSettings for selectedFileId " + fileNumber);
+        logcat("DES session key", SessionKey);
 
         // CD | File No | Comms setting byte | Access rights (2 bytes) | File size (3 bytes)
         byte commSettingsByte = 0; // plain communication without any encryption
@@ -258,33 +260,33 @@ public class DesfireAuthenticateLegacy {
         bytesForCrc[0] = commSettingsByte;
         bytesForCrc[1] = accessRightsRwCar;
         bytesForCrc[2] = accessRightsRW;
-        Log.d(TAG, printData("bytesForCrc", bytesForCrc));
+        logcat("bytesForCrc", bytesForCrc);
         byte[] crc16Value = CRC16.get(bytesForCrc);
-        Log.d(TAG, printData("crc16Value", crc16Value));
+        logcat("crc16Value", crc16Value);
         // create a 8 byte long array
         byte[] bytesForDecryption = new byte[8];
         System.arraycopy(bytesForCrc, 0, bytesForDecryption, 0, 3);
         System.arraycopy(crc16Value, 0, bytesForDecryption, 3, 2);
-        Log.d(TAG, printData("bytesForDecryption", bytesForDecryption));
+        logcat("bytesForDecryption", bytesForDecryption);
         // generate 24 bytes long triple des key
         byte[] tripleDES_SESSION_KEY = getTDesKeyFromDesKey(SessionKey);
-        Log.d(TAG, printData("tripleDES Session Key", tripleDES_SESSION_KEY));
+        logcat("tripleDES Session Key", tripleDES_SESSION_KEY);
         byte[] IV_DES = new byte[8];
-        Log.d(TAG, printData("IV_DES", IV_DES));
+        logcat("IV_DES", IV_DES);
         byte[] decryptedData = TripleDES.decrypt(IV_DES, tripleDES_SESSION_KEY, bytesForDecryption);
-        Log.d(TAG, printData("decryptedData", decryptedData));
+        logcat("decryptedData", decryptedData);
         // the parameter for wrapping
         byte[] parameter = new byte[9];
         parameter[0] = fileNumber;
         System.arraycopy(decryptedData, 0, parameter, 1, 8);
-        Log.d(TAG, printData("parameter", parameter));
+        logcat("parameter", parameter);
         byte[] wrappedCommand;
         byte[] response;
         try {
             wrappedCommand = wrapMessage(CHANGE_FILE_SETTINGS_COMMAND, parameter);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            logcat("wrappedCommand", wrappedCommand);
+            response = cardTransport.transceive(wrappedCommand);
+            logcat("response", response);
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -292,7 +294,7 @@ public class DesfireAuthenticateLegacy {
                 return false;
             }
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             e.printStackTrace();
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
         }
@@ -344,14 +346,14 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
-            log(methodName,methodName + " lost connection to the card, aborted");
+        if (!cardTransport.isConnected()) {
+            if (isTraceDebugEnabled()) log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         if ((SessionKey == null) || (SessionKey.length != 8)) {
-            log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
+            if (isTraceDebugEnabled()) log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             Log.e(TAG, methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
@@ -361,21 +363,21 @@ public class DesfireAuthenticateLegacy {
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        log(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        log(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
         System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        log(methodName, "newKey TDES", changeKeyNew);
 
         // xor the new key with the old key if a key is changed different to authentication key
         if ((changeKeyNumber & 0x0F) != keyNumberUsedForAuthentication) {
@@ -383,7 +385,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         System.out.println("*** 4");
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
@@ -396,11 +398,11 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        log(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
         System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
+        logcat(methodName + " ciphertext after encryption", ciphertext);
         System.out.println("*** 5");
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
@@ -408,13 +410,13 @@ public class DesfireAuthenticateLegacy {
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
+        logcat(methodName + " apdu", apdu);
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            changeKeyDesResponse = cardTransport.transceive(apdu);
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
             System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
@@ -425,7 +427,7 @@ public class DesfireAuthenticateLegacy {
             }
         } catch (Exception e) {
             //throw new RuntimeException(e);
-            log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
             byte[] responseManual = new byte[]{(byte) 0x91, (byte) 0xFF};
             System.arraycopy(responseManual, 0, e, 0, 2);
             return false;
@@ -474,14 +476,14 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
-            log(methodName,methodName + " lost connection to the card, aborted");
+        if (!cardTransport.isConnected()) {
+            if (isTraceDebugEnabled()) log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         if ((SessionKey == null) || (SessionKey.length != 8)) {
-            log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
+            if (isTraceDebugEnabled()) log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             Log.e(TAG, methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
@@ -491,21 +493,21 @@ public class DesfireAuthenticateLegacy {
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        log(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        log(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
         System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        log(methodName, "newKey TDES", changeKeyNew);
 
         // as we are changing not only the key value but the algorithm type from DES to AES we need to change
         // the key number as well
@@ -517,7 +519,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         System.out.println("*** 4");
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
@@ -530,11 +532,11 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        log(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
         System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
+        logcat(methodName + " ciphertext after encryption", ciphertext);
         System.out.println("*** 5");
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
@@ -542,13 +544,13 @@ public class DesfireAuthenticateLegacy {
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
+        logcat(methodName + " apdu", apdu);
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            changeKeyDesResponse = cardTransport.transceive(apdu);
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
             System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
@@ -559,7 +561,7 @@ public class DesfireAuthenticateLegacy {
             }
         } catch (Exception e) {
             //throw new RuntimeException(e);
-            log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
             byte[] responseManual = new byte[]{(byte) 0x91, (byte) 0xFF};
             System.arraycopy(responseManual, 0, e, 0, 2);
             return false;
@@ -608,14 +610,14 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
-            log(methodName,methodName + " lost connection to the card, aborted");
+        if (!cardTransport.isConnected()) {
+            if (isTraceDebugEnabled()) log(methodName,methodName + " lost connection to the card, aborted");
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         if ((SessionKey == null) || (SessionKey.length != 8)) {
-            log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
+            if (isTraceDebugEnabled()) log(methodName,methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             Log.e(TAG, methodName + " SESSION_KEY_DES is null or not of length 8 (missing auth ?), aborted");
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
@@ -625,21 +627,21 @@ public class DesfireAuthenticateLegacy {
         // only 56 bit of the 64 bit long (8 bytes) DES key, the remaining 8 bits are used for the
         // key version. The following method call will set the keyVersion to 0 so the 'original' may get
         // altered.
-        log(methodName, printData("new key before setKeyVersion", changeKeyNew));
+        log(methodName, "new key before setKeyVersion", changeKeyNew);
         byte KEY_VERSION = 0;
         setKeyVersion(changeKeyOld, 0, changeKeyOld.length, KEY_VERSION);
         setKeyVersion(changeKeyNew, 0, changeKeyNew.length, KEY_VERSION);
-        log(methodName,printData("new key after  setKeyVersion", changeKeyNew));
+        log(methodName, "new key after  setKeyVersion", changeKeyNew);
 
         byte[] plaintext = new byte[24]; // this is the final array
         int nklen = 16;
         System.arraycopy(changeKeyNew, 0, plaintext, 0, changeKeyNew.length);
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         // 8-byte DES keys accepted: internally have to be handled w/ 16 bytes
         System.arraycopy(changeKeyNew, 0, plaintext, 8, changeKeyNew.length);
         changeKeyNew = Arrays.copyOfRange(plaintext, 0, 16);
         System.out.println("*** 3");
-        log(methodName,printData("newKey TDES", changeKeyNew));
+        log(methodName, "newKey TDES", changeKeyNew);
 
         // as we are changing not only the key value but the algorithm type from AES to DES we need to change
         // the key number as well
@@ -651,7 +653,7 @@ public class DesfireAuthenticateLegacy {
                 plaintext[i] ^= changeKeyOld[i % changeKeyOld.length];
             }
         }
-        log(methodName,printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         System.out.println("*** 4");
         byte[] crc;
         int addDesKeyVersionByte = (byte) 0x00;
@@ -664,11 +666,11 @@ public class DesfireAuthenticateLegacy {
             crc = CRC16.get(changeKeyNew);
             System.arraycopy(crc, 0, plaintext, nklen + addDesKeyVersionByte + 2, 2);
         }
-        log(methodName, printData("plaintext before encryption", plaintext));
+        log(methodName, "plaintext before encryption", plaintext);
         byte[] ciphertext = null;
         System.out.println(printData("SESSION_KEY_DES", SessionKey));
         ciphertext = decrypt(SessionKey, plaintext);
-        Log.d(methodName, printData("ciphertext after encryption", ciphertext));
+        logcat(methodName + " ciphertext after encryption", ciphertext);
         System.out.println("*** 5");
         byte[] apdu = new byte[5 + 1 + ciphertext.length + 1];
         apdu[0] = (byte) 0x90;
@@ -676,13 +678,13 @@ public class DesfireAuthenticateLegacy {
         apdu[4] = (byte) (1 + plaintext.length);
         apdu[5] = changeKeyNumber;
         System.arraycopy(ciphertext, 0, apdu, 6, ciphertext.length);
-        Log.d(methodName, printData("apdu", apdu));
+        logcat(methodName + " apdu", apdu);
         System.out.println("*** 6");
         byte[] changeKeyDesResponse = new byte[0];
         try {
             //response = isoDep.transceive(wrapMessage(selectApplicationCommand, applicationIdentifier));
-            changeKeyDesResponse = isoDep.transceive(apdu);
-            log(methodName, printData("changeKeyDesResponse", changeKeyDesResponse));
+            changeKeyDesResponse = cardTransport.transceive(apdu);
+            log(methodName, "changeKeyDesResponse", changeKeyDesResponse);
             System.arraycopy(returnStatusBytes(changeKeyDesResponse), 0, errorCode, 0, 2);
             //System.arraycopy(selectApplicationResponse, 0, response, 0, selectApplicationResponse.length);
             System.out.println("*** 7 " + printData("changeKeyDesResponse", changeKeyDesResponse));
@@ -693,7 +695,7 @@ public class DesfireAuthenticateLegacy {
             }
         } catch (Exception e) {
             //throw new RuntimeException(e);
-            log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "changeKeyDes transceive failed: " + e.getMessage());
             byte[] responseManual = new byte[]{(byte) 0x91, (byte) 0xFF};
             System.arraycopy(responseManual, 0, e, 0, 2);
             return false;
@@ -705,11 +707,11 @@ public class DesfireAuthenticateLegacy {
      */
 
     public boolean formatPicc() {
-        logData = "";
+        trace.clear();
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             log(methodName,"no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -738,9 +740,9 @@ public class DesfireAuthenticateLegacy {
         byte[] wrappedCommand;
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            logcat("wrappedCommand", wrappedCommand);
+            response = cardTransport.transceive(wrappedCommand);
+            logcat("response", response);
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -748,7 +750,7 @@ public class DesfireAuthenticateLegacy {
                 return false;
             }
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -772,9 +774,9 @@ public class DesfireAuthenticateLegacy {
     public boolean authenticateD40(byte keyNo, byte[] key) {
         // status WORKING
         invalidateAllAuthentificationData();
-        logData = "";
+        trace.clear();
         String methodName = "authenticateD40";
-        log(methodName, printData("key", key) + " keyNo: " + keyNo, true);
+        if (isTraceInfoEnabled()) log(methodName, printData("key", key) + " keyNo: " + keyNo, true);
         errorCode = new byte[2];
         // sanity checks
         if (keyNo < 0) {
@@ -792,7 +794,7 @@ public class DesfireAuthenticateLegacy {
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -803,12 +805,12 @@ public class DesfireAuthenticateLegacy {
         byte[] response = new byte[0];
         try {
             apdu = wrapMessage(AUTHENTICATE_DES_2K3DES_COMMAND, new byte[]{keyNo}); // 0x0A
-            log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, "- receive response " + printData("response", response));
+            log(methodName, "- send auth apdu   ", "apdu    ", apdu);
+            response = cardTransport.transceive(apdu);
+            log(methodName, "- receive response ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -816,7 +818,7 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0xAF as error code but found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -824,45 +826,45 @@ public class DesfireAuthenticateLegacy {
         log(methodName, "step 02 get the encrypted rndB from response data");
         
         byte[] encryptedRndB = getData(response);
-        log(methodName, printData("- encryptedRndB", encryptedRndB));
+        log(methodName, "- encryptedRndB", encryptedRndB);
 
         // remove the keyVersion bits within a DES key
         log(methodName, "step 03 setKeyVersion to 00 for DES keys");
-        log(methodName, printData("- DES key provided      ", key));
+        log(methodName, "- DES key provided      ", key);
         setKeyVersion(key, 0, key.length, (byte) 0x00);
-        log(methodName, printData("- DES key w/keyVersion 0", key));
+        log(methodName, "- DES key w/keyVersion 0", key);
 
         log(methodName, "step 04 get a TDES key from the DES key");
         byte[] tdesKey = getTDesKeyFromDesKey(key);
-        log(methodName, printData("- DES key  ", key));
-        log(methodName, printData("- TDES key", tdesKey));
+        log(methodName, "- DES key  ", key);
+        log(methodName, "- TDES key", tdesKey);
 
         // start the decryption
         byte[] iv0 = new byte[8];
-        log(methodName, "step 06 decrypt the encRndB using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        log(methodName, printData("- encrypted rndB", encryptedRndB));
+        if (isTraceDebugEnabled()) log(methodName, "step 06 decrypt the encRndB using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+        log(methodName, "- encrypted rndB", encryptedRndB);
         byte[] rndB = TripleDES.decrypt(iv0, tdesKey, encryptedRndB);
-        log(methodName, printData("- decrypted rndB", rndB));
+        log(methodName, "- decrypted rndB", rndB);
 
         log(methodName, "step 06 rotate the decrypted rndB by 1 position/byte to the left");
-        log(methodName, printData("- rndB             ", rndB));
+        log(methodName, "- rndB             ", rndB);
         byte[] rndBLeftRotated = rotateLeft(rndB);
-        log(methodName, printData("- rndB left rotated", rndBLeftRotated));
+        log(methodName, "- rndB left rotated", rndBLeftRotated);
 
         // authenticate 2nd part
         log(methodName, "step 07 generate a random rndA");
         byte[] rndA = new byte[8]; // this is a DES key
         rndA = getRandomData(rndA);
-        log(methodName, printData("- rndA", rndA));
+        log(methodName, "- rndA", rndA);
 
         log(methodName, "step 08 concatenate rndA || rndB left rotated");
         byte[] rndArndBLeftRotated = concatenate(rndA, rndBLeftRotated);
-        log(methodName, printData("- rndA || rndB left rotated", rndArndBLeftRotated));
+        log(methodName, "- rndA || rndB left rotated", rndArndBLeftRotated);
 
-        log(methodName, "step 09 copy encryptedRndB to iv1 from position " +
+        if (isTraceDebugEnabled()) log(methodName, "step 09 copy encryptedRndB to iv1 from position " +
                 (encryptedRndB.length - iv0.length) + " to " + (encryptedRndB.length));
         byte[] iv1 = Arrays.copyOfRange(encryptedRndB, encryptedRndB.length - iv0.length, encryptedRndB.length);
-        log(methodName, printData("iv1", iv1));
+        log(methodName, "iv1", iv1);
 
         log(methodName, "step 09 copy encryptedRndB to iv1 from position ");
 
@@ -875,21 +877,21 @@ public class DesfireAuthenticateLegacy {
         byte[] cipheredBlock = new byte[8];
         // XOR w/ previous ciphered block --> decrypt
         log(methodName, "XOR w/ previous ciphered block --> decrypt");
-        log(methodName, "data before XORing " + printData("data", rndArndBLeftRotated) + printData(" cipheredBlock", cipheredBlock));
+        if (isTraceDebugEnabled()) log(methodName, "data before XORing " + printData("data", rndArndBLeftRotated) + printData(" cipheredBlock", cipheredBlock));
 
         log(methodName, "running a 2 round loop to XOR rndArndBLeftRotated with the previous cipheredBlock and DEcrypt the block using TripleDES");
-        log(methodName, "The outer loop is running for i=0 to <" + rndArndBLeftRotated.length + " in steps of 8");
+        if (isTraceDebugEnabled()) log(methodName, "The outer loop is running for i=0 to <" + rndArndBLeftRotated.length + " in steps of 8");
         for (int i = 0; i < rndArndBLeftRotated.length; i += 8) {
-            log(methodName, "outer loop i: " + i);
-            log(methodName, "The inner loop is running for j=0 to <8"  + " in steps of 1");
+            if (isTraceDebugEnabled()) log(methodName, "outer loop i: " + i);
+            if (isTraceDebugEnabled()) log(methodName, "The inner loop is running for j=0 to <8"  + " in steps of 1");
             for (int j = 0; j < 8; j++) {
                 rndArndBLeftRotated[i + j] ^= cipheredBlock[j];
             }
             cipheredBlock = TripleDES.decrypt(tdesKey, rndArndBLeftRotated, i, 8);
-            log(methodName, "TripleDES.decrypt " + printData("cipheredBlock", cipheredBlock));
-            log(methodName, " copying cipheredBlock to ciphertext from i = " + i + " length 8");
+            log(methodName, "TripleDES.decrypt ", "cipheredBlock", cipheredBlock);
+            if (isTraceDebugEnabled()) log(methodName, " copying cipheredBlock to ciphertext from i = " + i + " length 8");
             System.arraycopy(cipheredBlock, 0, ciphertext, i, 8);
-            log("decrypt", printData(" ciphertext", ciphertext));
+            log("decrypt", " ciphertext", ciphertext);
         }
         byte[] encryptedRndArndBLeftRotated = ciphertext.clone();
         log(methodName, "step 10 encryption magic ending   ********************");
@@ -902,16 +904,16 @@ public class DesfireAuthenticateLegacy {
             log(methodName, "manual decryption: FAILURE");
         }
 
-        log(methodName, printData("- encrypted rndA || rndB left rotated", encryptedRndArndBLeftRotated));
+        log(methodName, "- encrypted rndA || rndB left rotated", encryptedRndArndBLeftRotated);
         log(methodName, "step 11 send the encrypted data to the PICC using the 0xAF command (more data)");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, encryptedRndArndBLeftRotated);
-            log(methodName, "- send auth apdu   " + printData("apdu    ", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, "- receive response " + printData("response", response));
+            log(methodName, "- send auth apdu   ", "apdu    ", apdu);
+            response = cardTransport.transceive(apdu);
+            log(methodName, "- receive response ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -919,7 +921,7 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -927,40 +929,40 @@ public class DesfireAuthenticateLegacy {
         log(methodName, "step 12 the response data is the encrypted rndA from the PICC");
         log(methodName, "        Note: the received (encrypted) rndA is left rotated");
         byte[] encryptedRndA = getData(response);
-        log(methodName, printData("- encrypted rndA left rotated", encryptedRndA));
+        log(methodName, "- encrypted rndA left rotated", encryptedRndA);
 
 
-        log(methodName, printData("encryptedRndA", encryptedRndA));
+        log(methodName, "encryptedRndA", encryptedRndA);
         log(methodName, "The iv is set to 8 * 0x00");
-        log(methodName, printData("iv0", iv0));
+        log(methodName, "iv0", iv0);
 
-        log(methodName, "step 13 decrypt the encrypted rndA left rotated using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        log(methodName, printData("- encrypted left rotated rndA", encryptedRndB));
+        if (isTraceDebugEnabled()) log(methodName, "step 13 decrypt the encrypted rndA left rotated using TripleDES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
+        log(methodName, "- encrypted left rotated rndA", encryptedRndB);
         byte[] decryptedRndALeftRotated = TripleDES.decrypt(iv0, tdesKey, encryptedRndA);
-        log(methodName, printData("- decrypted left rotated rndA", decryptedRndALeftRotated));
+        log(methodName, "- decrypted left rotated rndA", decryptedRndALeftRotated);
 
         log(methodName, "step 14 rotate decrypted left rotated rndA to RIGHT");
         byte[] decryptedRndA = rotateRight(decryptedRndALeftRotated);
-        log(methodName, printData("- decrypted rndA", decryptedRndA));
+        log(methodName, "- decrypted rndA", decryptedRndA);
 
         log(methodName, "step 15 compare self generated rndA with rndA received from PICC");
         boolean rndAEqual = Arrays.equals(rndA, decryptedRndA);
-        log(methodName, printData("- rndA generated", rndA));
-        log(methodName, printData("- rndA received ", decryptedRndA));
+        log(methodName, "- rndA generated", rndA);
+        log(methodName, "- rndA received ", decryptedRndA);
 
-        log(methodName, "- rndA generated and received are equals: " + rndAEqual);
+        if (isTraceDebugEnabled()) log(methodName, "- rndA generated and received are equals: " + rndAEqual);
 
         log(methodName, "step 16 generate the DES Session key from rndA and rndB");
-        log(methodName, printData("- rndA          ", rndA));
-        log(methodName, printData("- rndB          ", rndB));
+        log(methodName, "- rndA          ", rndA);
+        log(methodName, "- rndB          ", rndB);
         SessionKey = getSessionKeyDes(rndA, rndB);
         log(methodName, "- This are the first 4 bytes of rndA and rndB, the DES Session key is");
         log(methodName, "- rndA first 4 bytes || rndB first 4 bytes");
         byte[] rndAfirst4Bytes = Arrays.copyOf(rndA, 4);
         byte[] rndBfirst4Bytes = Arrays.copyOf(rndB, 4);
-        log(methodName, "- rndA first 4 Bytes    " + bytesToHexNpeUpperCase(rndAfirst4Bytes));
-        log(methodName, "- rndB first 4 Bytes            " + bytesToHexNpeUpperCase(rndBfirst4Bytes));
-        log(methodName, "- SessionKey is 8 Bytes " + bytesToHexNpeUpperCase(SessionKey) + " (length: " + SessionKey.length + ")");
+        if (isTraceDebugEnabled()) log(methodName, "- rndA first 4 Bytes    " + bytesToHexNpeUpperCase(rndAfirst4Bytes));
+        if (isTraceDebugEnabled()) log(methodName, "- rndB first 4 Bytes            " + bytesToHexNpeUpperCase(rndBfirst4Bytes));
+        if (isTraceDebugEnabled()) log(methodName, "- SessionKey is 8 Bytes " + bytesToHexNpeUpperCase(SessionKey) + " (length: " + SessionKey.length + ")");
 
         log(methodName, "**** auth result ****");
         if (rndAEqual) {
@@ -986,7 +988,7 @@ public class DesfireAuthenticateLegacy {
 
             //byte[] getChallengeResponse = nfcA.transceive(Utils.hexStringToByteArray(getChallengeCommand));
             //byte[] getChallengeResponse = nfcA.transceive(wrapMessage((byte) 0x1a, new byte[]{(byte) 0x01} ));
-            byte[] getChallengeResponse = isoDep.transceive(wrapMessage((byte) 0xaa, new byte[]{(byte) (keyId & 0xFF)}));
+            byte[] getChallengeResponse = cardTransport.transceive(wrapMessage((byte) 0xaa, new byte[]{(byte) (keyId & 0xFF)}));
             //if (verbose) writeToUiAppend(logTextView, printData("getChallengeResponse", getChallengeResponse)); // this 16 bytes long
             // cf5e0ee09862d90391af
             // 91 af at the end shows there is more data
@@ -1045,7 +1047,7 @@ public class DesfireAuthenticateLegacy {
              * Sending the APDU containing the challenge answer.
              * It is expected to be return 18 bytes [rndA from the Card] + 9100
              */
-            byte[] challengeAnswerResponse = isoDep.transceive(challengeAnswerAPDU);
+            byte[] challengeAnswerResponse = cardTransport.transceive(challengeAnswerAPDU);
             // response = channel.transmit(new CommandAPDU(challengeAnswerAPDU));
             //if (verbose) writeToUiAppend(logTextView, printData("challengeAnswerResponse", challengeAnswerResponse));
             byte[] challengeAnswerResp = Arrays.copyOf(challengeAnswerResponse, getChallengeResponse.length - 2);
@@ -1164,50 +1166,50 @@ public class DesfireAuthenticateLegacy {
         byte[] ciphertext = ciphertextExt.clone();
         int ciphertextLength = ciphertext.length;
         byte[] plaintext = new byte[ciphertextLength]; // the result array after decryption
-        log(methodName, "the ciphertext is " + ciphertextLength +
+        if (isTraceDebugEnabled()) log(methodName, "the ciphertext is " + ciphertextLength +
                 " bytes long so we need to run " + (ciphertextLength / 8) +
                 " rounds to decrypt (length / 8)");
 
         log(methodName, "******** manual decryption text start ********");
         log(methodName, "SEND mode means: XORing the ciphertext with previous ciphered block, then DEcrypt");
-        log(methodName, printData("tdesKey", tdesKey));
+        log(methodName, "tdesKey", tdesKey);
 
         log(methodName, "1 starting with an empty 'cipheredBlock' of 8 bytes length = DES block length");
         byte[] cipheredBlock = new byte[8];
-        log(methodName, printData("cipheredBlock   ", cipheredBlock));
+        log(methodName, "cipheredBlock   ", cipheredBlock);
 
         log(methodName, "2 split the ciphertext into blocks of 8 bytes");
-        log(methodName, printData("ciphertext     ", ciphertext));
+        log(methodName, "ciphertext     ", ciphertext);
         byte[] ciphertextBlock1 = Arrays.copyOfRange(ciphertext, 0, 8);
-        log(methodName, printData("ciphertextBlock1", ciphertextBlock1));
+        log(methodName, "ciphertextBlock1", ciphertextBlock1);
         byte[] ciphertextBlock2 = Arrays.copyOfRange(ciphertext, 8, 16);
-        log(methodName, printData("ciphertextBlock2", ciphertextBlock2));
+        log(methodName, "ciphertextBlock2", ciphertextBlock2);
 
         log(methodName, "3 XORing ct1 with cipheredBlock");
         byte[] ct1Xored = xor(ciphertextBlock1, cipheredBlock);
-        log(methodName, printData("ct1 Xored       ", ct1Xored));
+        log(methodName, "ct1 Xored       ", ct1Xored);
 
         log(methodName, "4 decrypt ct1Xored using TripleDES.decrypt");
         byte[] ct1XoredDecrypted = de.androidcrypto.talktoyourdesfirecard.nfcjlib.TripleDES.decrypt(tdesKey, ct1Xored, 0, 8);
-        log(methodName, printData("ct1Xored decrypt", ct1XoredDecrypted));
+        log(methodName, "ct1Xored decrypt", ct1XoredDecrypted);
 
         log(methodName, "5 copy ct1XoredDecrypted to cipheredBlock");
         cipheredBlock = ct1XoredDecrypted.clone();
-        log(methodName, printData("cipheredBlock   ", cipheredBlock));
+        log(methodName, "cipheredBlock   ", cipheredBlock);
 
         log(methodName, "6 XORing ct2 with cipheredBlock");
         byte[] ct2Xored = xor(ciphertextBlock2, cipheredBlock);
-        log(methodName, printData("ct2Xored        ", ct2Xored));
+        log(methodName, "ct2Xored        ", ct2Xored);
 
         log(methodName, "7 decrypt ct2Xored using TripleDES.decrypt");
         byte[] ct2XoredDecrypted = de.androidcrypto.talktoyourdesfirecard.nfcjlib.TripleDES.decrypt(tdesKey, ct2Xored, 0, 8);
-        log(methodName, printData("ct2 Xored decrypt", ct2XoredDecrypted));
+        log(methodName, "ct2 Xored decrypt", ct2XoredDecrypted);
 
         log(methodName, "8 Note: for more data this would be extended but we are ready now");
 
         log(methodName, "9 concatenate ct1XoredDecrypted and ct2XoredDecrypted to plaintext");
         plaintext = concatenate(ct1XoredDecrypted, ct2XoredDecrypted);
-        log(methodName, printData("plaintext", plaintext));
+        log(methodName, "plaintext", plaintext);
         log(methodName, "******** manual decryption text end **********");
         return plaintext;
     }
@@ -1228,7 +1230,7 @@ public class DesfireAuthenticateLegacy {
      */
     // source: nfcjLib
     private void setKeyVersion(byte[] a, int offset, int length, byte version) {
-        log("setKeyVersion", printData("a", a) + " offset: " + offset + " length: " + length + " version: " + version, true);
+        if (isTraceInfoEnabled()) log("setKeyVersion", printData("a", a) + " offset: " + offset + " length: " + length + " version: " + version, true);
         //Log.d(TAG, "setKeyVersion " + printData("a", a) + " offset: " + offset + " length: " + length + " version: " + version);
         if (length == 8 || length == 16 || length == 24) {
             for (int i = offset + length - 1, j = 0; i >= offset; i--, j = (j + 1) % 8) {
@@ -1245,7 +1247,7 @@ public class DesfireAuthenticateLegacy {
      */
     public byte[] getTDesKeyFromDesKey(byte[] key) {
         String methodName = "getTDesKeyFromDesKey";
-        log(methodName, printData("key", key), true);
+        if (isTraceInfoEnabled()) log(methodName, printData("key", key), true);
         if ((key == null) || (key.length != 8)) {
             log(methodName, "Error: key is NULL or key length is not of 8 bytes length, aborted");
             return null;
@@ -1254,12 +1256,12 @@ public class DesfireAuthenticateLegacy {
         System.arraycopy(key, 0, tdesKey, 16, 8);
         System.arraycopy(key, 0, tdesKey, 8, 8);
         System.arraycopy(key, 0, tdesKey, 0, key.length);
-        log(methodName, printData("TDES key", tdesKey));
+        log(methodName, "TDES key", tdesKey);
         return tdesKey;
     }
 
     private byte[] getRandomData(byte[] key) {
-        log("getRandomData", printData("key", key), true);
+        if (isTraceInfoEnabled()) log("getRandomData", printData("key", key), true);
         //Log.d(TAG, "getRandomData " + printData("var", var));
         int keyLength = key.length;
         return getRandomData(keyLength);
@@ -1271,7 +1273,7 @@ public class DesfireAuthenticateLegacy {
      * @return 8 bytes long byte[]
      */
     private byte[] getRandomData(int length) {
-        log("getRandomData", "length: " + length, true);
+        if (isTraceInfoEnabled()) log("getRandomData", "length: " + length, true);
         //Log.d(TAG, "getRandomData " + " length: " + length);
         byte[] value = new byte[length];
         SecureRandom secureRandom = new SecureRandom();
@@ -1281,7 +1283,7 @@ public class DesfireAuthenticateLegacy {
 
     // rotate the array one byte to the left
     private byte[] rotateLeft(byte[] data) {
-        log("rotateLeft", printData("data", data), true);
+        if (isTraceInfoEnabled()) log("rotateLeft", printData("data", data), true);
         byte[] ret = new byte[data.length];
         System.arraycopy(data, 1, ret, 0, data.length - 1);
         ret[data.length - 1] = data[0];
@@ -1311,7 +1313,7 @@ public class DesfireAuthenticateLegacy {
     }
 
     private byte[] getSessionKeyDes(byte[] rndA, byte[] rndB) {
-        log("getSessionKey", printData("rndA", rndA) + printData(" rndB", rndB), true);
+        if (isTraceInfoEnabled()) log("getSessionKey", printData("rndA", rndA) + printData(" rndB", rndB), true);
         byte[] sessKey = new byte[8];
         System.arraycopy(rndA, 0, sessKey, 0, 4);
         System.arraycopy(rndB, 0, sessKey, 4, 4);
@@ -1406,11 +1408,11 @@ public class DesfireAuthenticateLegacy {
      * byte array if this APDU has no body.
      */
     private byte[] getData(byte[] responseAPDU) {
-        log("getData", printData("responseAPDU", responseAPDU), true);
+        if (isTraceInfoEnabled()) log("getData", printData("responseAPDU", responseAPDU), true);
         //Log.d(TAG, "getData " + printData("responseAPDU", responseAPDU));
         byte[] data = new byte[responseAPDU.length - 2];
         System.arraycopy(responseAPDU, 0, data, 0, data.length);
-        log("getData", printData("responseData", data));
+        log("getData", "responseData", data);
         return data;
     }
 
@@ -1461,15 +1463,62 @@ public class DesfireAuthenticateLegacy {
         return result.toString().toUpperCase();
     }
 
+    /**
+     * log and Log.d calls that concatenate strings or encode byte arrays are guarded by these checks,
+     * so nothing is build when the level is disabled
+     */
+    private boolean isTraceDebugEnabled() {
+        return trace.isEnabled(DesfireTrace.Level.DEBUG);
+    }
+
+    private boolean isTraceInfoEnabled() {
+        return trace.isEnabled(DesfireTrace.Level.INFO);
+    }
+
+    private boolean isLogcatDebugEnabled() {
+        return trace.isLogcatEnabled() && trace.isEnabled(DesfireTrace.Level.DEBUG);
+    }
+
+    /**
+     * writes a message to logcat when the trace has logcat and the DEBUG level enabled
+     */
+    private void logcat(String message) {
+        if (isLogcatDebugEnabled()) Log.d(TAG, message);
+    }
+
+    /**
+     * writes a byte array to logcat, the hex encoding is done only when logcat and the DEBUG level are enabled
+     */
+    private void logcat(String dataName, byte[] data) {
+        if (isLogcatDebugEnabled()) Log.d(TAG, printData(dataName, data));
+    }
+
+    /**
+     * writes the error code of a failed command to logcat
+     */
+    private void logcatFailure(String methodName, byte[] responseBytes) {
+        if (!isLogcatDebugEnabled()) return;
+        Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+        Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+    }
+
     private void log(String methodName, String data) {
         log(methodName, data, false);
     }
 
     private void log(String methodName, String data, boolean isMethodHeader) {
-        if (printToLog) {
-            logData += "method: " + methodName + "\n" + data + "\n";
-            Log.d(TAG, "method: " + methodName + ": " + data);
-        }
+        trace.add(isMethodHeader ? DesfireTrace.Level.INFO : DesfireTrace.Level.DEBUG, methodName, data);
+    }
+
+    /**
+     * logs a byte array, the hex encoding is done only when the trace gets rendered
+     */
+    private void log(String methodName, String dataName, byte[] data) {
+        trace.add(DesfireTrace.Level.DEBUG, methodName, dataName, data);
+    }
+
+    private void log(String methodName, String message, String dataName, byte[] data) {
+        trace.add(DesfireTrace.Level.DEBUG, methodName, message, dataName, data);
     }
 
     private byte[] xor(byte[] dataA, byte[] dataB) {
@@ -1491,7 +1540,11 @@ public class DesfireAuthenticateLegacy {
     }
 
     public String getLogData() {
-        return logData;
+        return trace.render();
+    }
+
+    public DesfireTrace getTrace() {
+        return trace;
     }
 
     public byte[] getErrorCode() {
@@ -0,0 +1,448 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class collects per command metrics of a DesfireEv3 session: the number of calls and frames,
+ * the transceive (RF) time, the crypto time (AES and CMAC), the bytes sent and received and the
+ * number of responses per error code (the status word of the last frame resolved with EV3.getErrorCode).
+ * The metrics are recorded per native DESFire command byte, additional frames ('0xAF') are counted
+ * for the command that started the chain.
+ * <p>
+ * The metrics are disabled by default. When disabled DesfireEv3 only checks the enabled flag, no
+ * time is taken and nothing is recorded.
+ * <p>
+ * Attribution of crypto time: crypto operations are booked on the current command. DesfireEv3 sets the
+ * current command at the call sites that start the crypto of a command (the command IV and the MAC input
+ * of a command, see setPreparedCommand), an exchanged command becomes the current command as well so
+ * the response MAC verification and decryption are booked on it. Crypto operations before the first
+ * command are held pending and booked on the next command.
+ * <p>
+ * Usage:
+ * desfireEv3.getMetrics().setEnabled(true);
+ * ... run some commands ...
+ * DesfireCommandMetrics.Snapshot snapshot = desfireEv3.getMetrics().getSnapshot();
+ * String report = snapshot.export();
+ */
+
+public class DesfireCommandMetrics {
+
+    private static final byte MORE_DATA_COMMAND = (byte) 0xAF;
+    private static final int STATUS_WORD_MORE_DATA = 0x91AF;
+    private static final byte STATUS_BYTE_DESFIRE = (byte) 0x91;
+
+    private volatile boolean enabled = false;
+    private final CommandStatistics[] statistics = new CommandStatistics[256];
+    private long startTimestamp = System.currentTimeMillis();
+    // attribution of frames and crypto time
+    private int currentCommand = -1; // -1 = no current command (a new command is prepared)
+    private long pendingCryptoNanos = 0;
+    private int pendingCryptoOperations = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * clears all recorded metrics
+     */
+    public synchronized void reset() {
+        Arrays.fill(statistics, null);
+        startTimestamp = System.currentTimeMillis();
+        currentCommand = -1;
+        pendingCryptoNanos = 0;
+        pendingCryptoOperations = 0;
+    }
+
+    /**
+     * records one APDU exchange
+     *
+     * @param apdu            | the command APDU (the native command is at position 1)
+     * @param response        | the response APDU including the status bytes, NULL on transceive failure
+     * @param transceiveNanos | the time for the transceive in nanoseconds
+     */
+    synchronized void recordExchange(byte[] apdu, byte[] response, long transceiveNanos) {
+        if ((apdu == null) || (apdu.length < 2)) return;
+        byte command = apdu[1];
+        boolean isAdditionalFrame = (command == MORE_DATA_COMMAND) && (currentCommand >= 0);
+        if (!isAdditionalFrame) {
+            currentCommand = command & 0xff;
+        }
+        CommandStatistics commandStatistics = getStatistics(currentCommand);
+        if (!isAdditionalFrame) {
+            commandStatistics.calls++;
+        }
+        commandStatistics.frames++;
+        commandStatistics.transceiveNanos += transceiveNanos;
+        commandStatistics.bytesSent += apdu.length;
+        bookPendingCrypto(commandStatistics);
+        if (response == null) {
+            commandStatistics.transceiveFailures++;
+            return;
+        }
+        commandStatistics.bytesReceived += response.length;
+        int statusWord = ApduBuffer.getStatusWord(response);
+        if ((statusWord >= 0) && (statusWord != STATUS_WORD_MORE_DATA)) {
+            // the final frame of the command, this status word is the errorCode of the command
+            String errorCode = getErrorCodeName(statusWord);
+            Integer count = commandStatistics.errorCodes.get(errorCode);
+            commandStatistics.errorCodes.put(errorCode, (count == null) ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * @param statusWord | SW1 SW2 of the last frame
+     * @return the error code as EV3.getErrorCode resolves it, status words of ISO commands as hex string
+     */
+    private static String getErrorCodeName(int statusWord) {
+        byte[] statusBytes = new byte[]{(byte) (statusWord >> 8), (byte) statusWord};
+        if (statusBytes[0] != STATUS_BYTE_DESFIRE) return String.format("%04X", statusWord);
+        return EV3.getErrorCode(statusBytes);
+    }
+
+    /**
+     * marks the command that is prepared (called when the command IV or the MAC input is build), the
+     * following crypto time and any pending crypto time is booked on this command
+     */
+    synchronized void setPreparedCommand(byte command) {
+        currentCommand = command & 0xff;
+        bookPendingCrypto(getStatistics(currentCommand));
+    }
+
+    synchronized void recordCrypto(long cryptoNanos) {
+        if (currentCommand < 0) {
+            pendingCryptoNanos += cryptoNanos;
+            pendingCryptoOperations++;
+            return;
+        }
+        CommandStatistics commandStatistics = getStatistics(currentCommand);
+        commandStatistics.cryptoNanos += cryptoNanos;
+        commandStatistics.cryptoOperations++;
+    }
+
+    private void bookPendingCrypto(CommandStatistics commandStatistics) {
+        if (pendingCryptoOperations == 0) return;
+        commandStatistics.cryptoNanos += pendingCryptoNanos;
+        commandStatistics.cryptoOperations += pendingCryptoOperations;
+        pendingCryptoNanos = 0;
+        pendingCryptoOperations = 0;
+    }
+
+    private CommandStatistics getStatistics(int command) {
+        CommandStatistics commandStatistics = statistics[command];
+        if (commandStatistics == null) {
+            commandStatistics = new CommandStatistics((byte) command);
+            statistics[command] = commandStatistics;
+        }
+        return commandStatistics;
+    }
+
+    /**
+     * @return a copy of the metrics recorded so far, the copy does not change when more commands are run
+     */
+    public synchronized Snapshot getSnapshot() {
+        List<CommandStatistics> commands = new ArrayList<>();
+        for (CommandStatistics commandStatistics : statistics) {
+            if (commandStatistics != null) {
+                commands.add(commandStatistics.copy());
+            }
+        }
+        return new Snapshot(startTimestamp, System.currentTimeMillis(), commands);
+    }
+
+    /**
+     * section for the snapshot
+     */
+
+    public static class Snapshot {
+        private final long startTimestamp;
+        private final long snapshotTimestamp;
+        private final List<CommandStatistics> commands;
+
+        private Snapshot(long startTimestamp, long snapshotTimestamp, List<CommandStatistics> commands) {
+            this.startTimestamp = startTimestamp;
+            this.snapshotTimestamp = snapshotTimestamp;
+            this.commands = Collections.unmodifiableList(commands);
+        }
+
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public long getSnapshotTimestamp() {
+            return snapshotTimestamp;
+        }
+
+        public List<CommandStatistics> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @param command | native DESFire command
+         * @return the statistics of the command or NULL if the command was not run
+         */
+        public CommandStatistics getCommand(byte command) {
+            for (CommandStatistics commandStatistics : commands) {
+                if (commandStatistics.getCommand() == command) return commandStatistics;
+            }
+            return null;
+        }
+
+        public long getTotalTransceiveNanos() {
+            long total = 0;
+            for (CommandStatistics commandStatistics : commands) {
+                total += commandStatistics.getTransceiveNanos();
+            }
+            return total;
+        }
+
+        public long getTotalCryptoNanos() {
+            long total = 0;
+            for (CommandStatistics commandStatistics : commands) {
+                total += commandStatistics.getCryptoNanos();
+            }
+            return total;
+        }
+
+        /**
+         * exports the snapshot as human readable text, one line per command
+         */
+        public String export() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("command metrics from ").append(startTimestamp).append(" to ").append(snapshotTimestamp).append("\n");
+            sb.append("total transceive ms: ").append(nanosToMillis(getTotalTransceiveNanos()));
+            sb.append(" total crypto ms: ").append(nanosToMillis(getTotalCryptoNanos())).append("\n");
+            for (CommandStatistics commandStatistics : commands) {
+                sb.append(commandStatistics.toString()).append("\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return export();
+        }
+    }
+
+    /**
+     * the statistics of one native DESFire command
+     */
+
+    public static class CommandStatistics {
+        private final byte command;
+        private long calls;
+        private long frames;
+        private long transceiveFailures;
+        private long transceiveNanos;
+        private long cryptoNanos;
+        private long cryptoOperations;
+        private long bytesSent;
+        private long bytesReceived;
+        private final Map<String, Integer> errorCodes = new TreeMap<>();
+
+        private CommandStatistics(byte command) {
+            this.command = command;
+        }
+
+        private CommandStatistics copy() {
+            CommandStatistics copy = new CommandStatistics(command);
+            copy.calls = calls;
+            copy.frames = frames;
+            copy.transceiveFailures = transceiveFailures;
+            copy.transceiveNanos = transceiveNanos;
+            copy.cryptoNanos = cryptoNanos;
+            copy.cryptoOperations = cryptoOperations;
+            copy.bytesSent = bytesSent;
+            copy.bytesReceived = bytesReceived;
+            copy.errorCodes.putAll(errorCodes);
+            return copy;
+        }
+
+        public byte getCommand() {
+            return command;
+        }
+
+        public String getCommandName() {
+            return DesfireCommandMetrics.getCommandName(command);
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getTransceiveFailures() {
+            return transceiveFailures;
+        }
+
+        public long getTransceiveNanos() {
+            return transceiveNanos;
+        }
+
+        public long getCryptoNanos() {
+            return cryptoNanos;
+        }
+
+        public long getCryptoOperations() {
+            return cryptoOperations;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * @return the number of responses per error code, the key is the error code of the final frame
+         * as EV3.getErrorCode returns it (e.g. "00 success", "AE authentication error")
+         */
+        public Map<String, Integer> getErrorCodes() {
+            return Collections.unmodifiableMap(errorCodes);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%02X", command & 0xff)).append(" ").append(getCommandName());
+            sb.append(" calls: ").append(calls);
+            sb.append(" frames: ").append(frames);
+            sb.append(" failures: ").append(transceiveFailures);
+            sb.append(" transceive ms: ").append(nanosToMillis(transceiveNanos));
+            sb.append(" crypto ms: ").append(nanosToMillis(cryptoNanos));
+            sb.append(" (").append(cryptoOperations).append(" ops)");
+            sb.append(" sent: ").append(bytesSent);
+            sb.append(" received: ").append(bytesReceived);
+            sb.append(" errorCodes:");
+            for (Map.Entry<String, Integer> entry : errorCodes.entrySet()) {
+                sb.append(" [").append(entry.getKey()).append("]=").append(entry.getValue());
+            }
+            return sb.toString();
+        }
+    }
+
+    private static String nanosToMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    /**
+     * @param command | native DESFire command
+     * @return a readable name of the command, used in the export
+     */
+    public static String getCommandName(byte command) {
+        switch (command) {
+            case (byte) 0x71:
+                return "AUTHENTICATE_EV2_FIRST";
+            case (byte) 0x77:
+                return "AUTHENTICATE_EV2_NON_FIRST";
+            case (byte) 0xAA:
+                return "AUTHENTICATE_AES";
+            case (byte) 0x0A:
+                return "AUTHENTICATE_LEGACY";
+            case (byte) 0xAF:
+                return "ADDITIONAL_FRAME";
+            case (byte) 0x60:
+                return "GET_VERSION";
+            case (byte) 0x45:
+                return "GET_KEY_SETTINGS";
+            case (byte) 0xCA:
+                return "CREATE_APPLICATION";
+            case (byte) 0x5A:
+                return "SELECT_APPLICATION";
+            case (byte) 0xA4:
+                return "ISO_SELECT";
+            case (byte) 0xDA:
+                return "DELETE_APPLICATION";
+            case (byte) 0x6A:
+                return "GET_APPLICATION_IDS";
+            case (byte) 0x6D:
+                return "GET_DF_NAMES";
+            case (byte) 0xCD:
+                return "CREATE_STANDARD_FILE";
+            case (byte) 0xCB:
+                return "CREATE_BACKUP_FILE";
+            case (byte) 0xCC:
+                return "CREATE_VALUE_FILE";
+            case (byte) 0xC1:
+                return "CREATE_LINEAR_RECORD_FILE";
+            case (byte) 0xC0:
+                return "CREATE_CYCLIC_RECORD_FILE";
+            case (byte) 0xCE:
+                return "CREATE_TRANSACTION_MAC_FILE";
+            case (byte) 0xDF:
+                return "DELETE_FILE";
+            case (byte) 0xBD:
+                return "READ_DATA";
+            case (byte) 0xAD:
+                return "READ_DATA_SECURE";
+            case (byte) 0x3D:
+                return "WRITE_DATA";
+            case (byte) 0x8D:
+                return "WRITE_DATA_SECURE";
+            case (byte) 0xBB:
+                return "READ_RECORDS";
+            case (byte) 0xAB:
+                return "READ_RECORDS_SECURE";
+            case (byte) 0x3B:
+                return "WRITE_RECORD";
+            case (byte) 0x8B:
+                return "WRITE_RECORD_SECURE";
+            case (byte) 0xEB:
+                return "CLEAR_RECORD_FILE";
+            case (byte) 0x6C:
+                return "GET_VALUE";
+            case (byte) 0x0C:
+                return "CREDIT";
+            case (byte) 0xDC:
+                return "DEBIT";
+            case (byte) 0x1C:
+                return "LIMITED_CREDIT";
+            case (byte) 0xC7:
+                return "COMMIT_TRANSACTION";
+            case (byte) 0xA7:
+                return "ABORT_TRANSACTION";
+            case (byte) 0xC8:
+                return "COMMIT_READER_ID";
+            case (byte) 0x5C:
+                return "SET_CONFIGURATION";
+            case (byte) 0x3C:
+                return "READ_SIGNATURE";
+            case (byte) 0x51:
+                return "GET_CARD_UID";
+            case (byte) 0xFC:
+                return "FORMAT_PICC";
+            case (byte) 0x6F:
+                return "GET_FILE_IDS";
+            case (byte) 0x61:
+                return "GET_ISO_FILE_IDS";
+            case (byte) 0xF5:
+                return "GET_FILE_SETTINGS";
+            case (byte) 0x5F:
+                return "CHANGE_FILE_SETTINGS";
+            case (byte) 0xC4:
+                return "CHANGE_KEY";
+            case (byte) 0xF0:
+                return "PREPARE_PROXIMITY_CHECK";
+            case (byte) 0xF2:
+                return "RUN_PROXIMITY_CHECK";
+            case (byte) 0xFD:
+                return "VERIFY_PROXIMITY_CHECK";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
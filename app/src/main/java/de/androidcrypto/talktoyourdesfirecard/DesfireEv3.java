@@ -20,11 +20,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -89,6 +98,11 @@ import de.androidcrypto.talktoyourdesfirecard.nfcjlib.CRC32;
  * - working with Transaction MAC files
  * - authentication using LRP ('authenticateLrpEV2First' and 'authenticateLrpEV2NonFirst')
  * - change MasterApplicationKey (not supported to avoid any damage of the tag)
+ * <p>
+ * Threading: an instance is one card session, it owns the selected application, the file settings,
+ * the authentication state (session keys, Transaction Identifier and CmdCounter), the APDU buffer and the trace.
+ * There is no static mutable state, so several readers can run their sessions in parallel when each session
+ * is confined to one thread. Use DesfireSessionFactory to build the sessions with a shared configuration.
  */
 
 // todo do not run some tasks after authentication (e.g. deleteFile won't run as the PICC is in authenticated state)
@@ -98,13 +112,16 @@ public class DesfireEv3 {
     private static final String TAG = DesfireEv3.class.getName();
 
 
-    private final IsoDep isoDep;
-    private String logData;
+    private final CardTransport cardTransport;
+    private final ApduBuffer apduBuffer = new ApduBuffer(); // reused for each command APDU of this session
+    private final DesfireCommandMetrics metrics = new DesfireCommandMetrics(); // disabled by default
+    private final DesfireTrace trace = new DesfireTrace(TAG); // bounded step by step log, see getLogData
     private boolean authenticateEv2FirstSuccess = false;
     private boolean authenticateEv2NonFirstSuccess = false;
     private byte keyNumberUsedForAuthentication = -1;
     private byte[] SesAuthENCKey; // filled by authenticateAesEv2First
     private byte[] SesAuthMACKey; // filled by authenticateAesEv2First
+    private SecureMessagingContext secureMessagingContext; // crypto engines for the session keys, filled by authenticateAesEv2First/NonFirst
     private int CmdCounter = 0; // filled / reset by authenticateAesEv2First
     private byte[] TransactionIdentifier; // reset by authenticateAesEv2First
     // note on TransactionIdentifier: LSB encoding
@@ -114,6 +131,8 @@ public class DesfireEv3 {
     private byte keyNumberUsedForLegacyAuthentication = -1;
     private byte[] errorCode = new byte[2];
     private String errorCodeReason = "";
+    private boolean isTransceiveFailed = false; // the card did not answer the last APDU, see transceive
+    private byte[] lastCardStatus; // the status bytes of the last response of the card, NULL before the first response
 
     /**
      * external constants for NDEF application and files
@@ -158,6 +177,7 @@ public class DesfireEv3 {
     private final byte MORE_DATA_COMMAND = (byte) 0xAF;
     private final byte GET_VERSION_INFO_COMMAND = (byte) 0x60;
     private final byte GET_KEY_SETTINGS_COMMAND = (byte) 0x45;
+    private final byte GET_KEY_VERSION_COMMAND = (byte) 0x64;
     private final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
     private final byte SELECT_APPLICATION_COMMAND = (byte) 0x5A;
     private final byte SELECT_APPLICATION_ISO_COMMAND = (byte) 0xA4;
@@ -176,8 +196,9 @@ public class DesfireEv3 {
     private final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
     private final byte CREATE_VALUE_FILE_COMMAND = (byte) 0xCC;
     private final byte GET_VALUE_COMMAND = (byte) 0x6C;
-    private final byte CREDIT_VALUE_FILE_COMMAND = (byte) 0x0C;
-    private final byte DEBIT_VALUE_FILE_COMMAND = (byte) 0xDC;
+    private static final byte CREDIT_VALUE_FILE_COMMAND = (byte) 0x0C;
+    private static final byte DEBIT_VALUE_FILE_COMMAND = (byte) 0xDC;
+    private static final byte LIMITED_CREDIT_VALUE_FILE_COMMAND = (byte) 0x1C;
 
     private final byte CREATE_LINEAR_RECORD_FILE_COMMAND = (byte) 0xC1;
     private final byte CREATE_CYCLIC_RECORD_FILE_COMMAND = (byte) 0xC0;
@@ -213,13 +234,13 @@ public class DesfireEv3 {
     private final byte DELETE_FILE_COMMAND = (byte) 0xDF;
     private final byte GET_FILE_IDS_COMMAND = (byte) 0x6F;
     private final byte GET_FILE_SETTINGS_COMMAND = (byte) 0xF5;
+    private final byte GET_FILE_COUNTERS_COMMAND = (byte) 0xF6;
     private final byte CHANGE_KEY_SECURE_COMMAND = (byte) 0xC4;
     private static final byte CHANGE_FILE_SETTINGS_COMMAND = (byte) 0x5F;
 
     /**
      * class internal constants and limitations
      */
-    boolean printToLog = true; // logging data in internal log string
     public static final byte[] MASTER_APPLICATION_IDENTIFIER = Utils.hexStringToByteArray("000000"); // AID '00 00 00'
     private final byte APPLICATION_MASTER_KEY_SETTINGS = (byte) 0x0F; // 'amks' all default values
     private final byte APPLICATION_CRYPTO_DES = 0x00; // add this to number of keys for DES
@@ -232,9 +253,23 @@ public class DesfireEv3 {
     public static final byte[] ACCESS_RIGHTS_DEFAULT = hexStringToByteArray("1234"); // R&W access 1, CAR 2, R 3, W 4
     private final byte[] IV_LABEL_ENC = new byte[]{(byte) 0xA5, (byte) 0x5A}; // use as header for AES encryption
     private final byte[] IV_LABEL_DEC = new byte[]{(byte) 0x5A, (byte) 0xA5}; // use as header for AES decryption
+    private static final byte[] SES_AUTH_ENC_KEY_LABEL = new byte[]{(byte) 0xA5, (byte) 0x5A}; // use as header for the SesAuthENCKey derivation
+    private static final byte[] SES_AUTH_MAC_KEY_LABEL = new byte[]{(byte) 0x5A, (byte) 0xA5}; // use as header for the SesAuthMACKey derivation
     //private final int MAXIMUM_MESSAGE_LENGTH = 32;//
-    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40;
-    private final int MAXIMUM_READ_MESSAGE_LENGTH = 40;
+    private final int MAXIMUM_WRITE_MESSAGE_LENGTH = 40; // fallback when the reader does not report a maximum transceive length
+    private static final int APDU_OVERHEAD_LENGTH = 6; // CLA INS P1 P2 Lc || data || Le
+    private static final int MAXIMUM_SHORT_APDU_DATA_LENGTH = 255; // all commands are send as short APDUs
+    private static final int DATA_COMMAND_HEADER_LENGTH = 7; // fileNumber || offset || length
+    private static final int MAXIMUM_NUMBER_OF_FRAMES = 32; // limits the data length of a chained command
+    private int maximumFrameDataLength = 0; // 0 = negotiate with the reader, see getMaximumFrameDataLength
+    private boolean chainedWriteEnabled = true; // one WriteData/WriteRecord command send in several frames, see sendCommandChained
+    private boolean pipelinedReadEnabled = false; // verify and decrypt a chunk on a worker thread while the next chunk is read, see readFromADataFilePipelined
+    private static final int SESSION_THREAD_IDLE_SECONDS = 10; // an idle session thread ends, so a session needs no close
+    private ExecutorService pipelinedReadExecutor; // the worker thread of readFromADataFilePipelined, created on first use
+    private SecureMessagingContext workerSecureMessagingContext; // crypto engines of the worker thread for the current session keys
+    private ExecutorService prefetchExecutor; // the card thread of DesfireFileInputStream, created on first use
+    private AuthenticationPrecomputer authenticationPrecomputer; // rndA pool and key schedules prepared before the tap, see setAuthenticationPrecomputer
+    private long lastAuthenticationGapNanos = -1; // reader side time between the two frames of the last authentication
     private static final byte MAXIMUM_NUMBER_OF_KEYS = 5; // the maximum of keys per application is 14
     private final int MAXIMUM_NUMBER_OF_FILES = 32; // as per datasheet DESFire EV3 this is valid for EV1, EV2 and EV3
     private static final int MAXIMUM_VALUES = 2147483647;
@@ -269,11 +304,13 @@ public class DesfireEv3 {
      * files
      */
 
-    private static byte[] APPLICATION_ALL_FILE_IDS; // filled by getAllFileIds and invalidated by selectApplication AND createFile
+    private byte[] applicationAllFileIds; // filled by getAllFileIds and invalidated by selectApplication AND createFile
     private List<byte[]> isoFileIdsList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
     private List<byte[]> isoDfNamesList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
-    private static FileSettings[] APPLICATION_ALL_FILE_SETTINGS; // filled by getAllFileSettings and invalidated by selectApplication AND createFile
+    private FileSettings[] applicationAllFileSettings; // filled by getAllFileSettings and invalidated by selectApplication AND createFile
     private FileSettings selectedFileSetting; // takes the fileSettings of the actual file
+    private FileSettingsCache fileSettingsCache; // optional, filled by setFileSettingsCache
+    private byte[] cardUid; // the UID of the card in fileSettingsCache
     private FileSettings[] fileSettingsArray = new FileSettings[MAXIMUM_NUMBER_OF_FILES]; // after an 'select application' the fileSettings of all files are read
     private boolean isApplicationSelected = false; // used by SetupLightEnvironment, filled by selectApplicationByDfName
     private boolean isTransactionMacFilePresent = false; // true when a Transaction MAC file is present in an application
@@ -288,9 +325,51 @@ public class DesfireEv3 {
         Plain, MACed, Full
     }
 
+    /**
+     * used by readAllRecords to select the records that are delivered to the RecordVisitor
+     */
+    public interface RecordFilter {
+        /**
+         * @param record | the content of one record
+         * @return true when the record is delivered
+         */
+        boolean accept(byte[] record);
+    }
+
+    /**
+     * receives the records of readAllRecords one by one from the newest to the oldest record, each record
+     * is delivered after the response MAC of its ReadRecords command is verified
+     */
+    public interface RecordVisitor {
+        /**
+         * @param recordNumber | offset of the record from the newest record, 0 = newest existing record
+         * @param record       | the content of one record
+         * @return true to continue, false stops the reading (no further ReadRecords command is send)
+         */
+        boolean onRecord(int recordNumber, byte[] record);
+    }
+
+    public enum RecordReadResult {
+        VERIFIED, // all records are read and verified
+        EMPTY, // the file has no records
+        STOPPED, // stopped by the RecordVisitor, the delivered records are verified
+        FAILED // reading stopped on a failure, check errorCode and errorCodeReason
+    }
+
 
     public DesfireEv3(IsoDep isoDep) {
-        this.isoDep = isoDep;
+        this(new IsoDepTransport(isoDep));
+    }
+
+    /**
+     * Use this constructor to run the library against any CardTransport, e.g. the in-process
+     * DesfireEv3Simulator instead of a tapped tag
+     *
+     * @param cardTransport | the transport that carries the APDUs to the (simulated) card, not NULL
+     */
+    public DesfireEv3(CardTransport cardTransport) {
+        if (cardTransport == null) throw new IllegalArgumentException("cardTransport is NULL");
+        this.cardTransport = cardTransport;
         Log.i(TAG, "class is initialized");
         transactionMacReaderId = TRANSACTION_MAC_READER_ID_DEFAULT.clone();
         isoFileIdsList = new ArrayList<>(); // filled by getApplicationsIsoData and invalidated by onTagDiscovered
@@ -320,12 +399,12 @@ public class DesfireEv3 {
         decryptBaosReader.write(commandCounterLsbTest, 0, commandCounterLsbTest.length);
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthEncKeyTest, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        DecryptedResponseTest = AES.decrypt(ivResponseReader, SesAuthEncKeyTest, EncryptedResponseDataTest);
-        log(methodName, printData("DecryptedResponse   Test", DecryptedResponseTest));
-        log(methodName, printData("DecryptedResponseExpTest", DecryptedResponseExpTest));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
+        byte[] ivResponseReader = aesEncrypt(startingIvReader, SesAuthEncKeyTest, ivInputResponseReader);
+        log(methodName, "ivResponseReader", ivResponseReader);
+        DecryptedResponseTest = aesDecrypt(ivResponseReader, SesAuthEncKeyTest, EncryptedResponseDataTest);
+        log(methodName, "DecryptedResponse   Test", DecryptedResponseTest);
+        log(methodName, "DecryptedResponseExpTest", DecryptedResponseExpTest);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
     }
 
@@ -341,7 +420,7 @@ public class DesfireEv3 {
     public boolean setTransactionMacReaderId(byte[] transactionMacReaderId) {
         String methodName = "setTransactionMacReaderId";
         log(methodName, "started");
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         if ((transactionMacReaderId == null) || (transactionMacReaderId.length != 16)) {
             log(methodName, "transactionMacReaderId is NULL or not of length 16, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
@@ -370,9 +449,9 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -408,7 +487,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
@@ -420,7 +499,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -446,9 +525,9 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -484,7 +563,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
@@ -496,7 +575,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -516,11 +595,11 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "createApplicationAesIso";
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
-        log(methodName, printData("isoApplicationIdentifier", isoApplicationIdentifier));
-        log(methodName, printData("applicationDfName", applicationDfName));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
+        log(methodName, "isoApplicationIdentifier", isoApplicationIdentifier);
+        log(methodName, "applicationDfName", applicationDfName);
         //log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfApplicationKeys: " + numberOfApplicationKeys);
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
             return false; // logFile and errorCode are updated
@@ -564,7 +643,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -575,7 +654,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -590,9 +669,9 @@ public class DesfireEv3 {
 
     public boolean selectApplicationByAid(byte[] applicationIdentifier) {
         final String methodName = "selectApplication by AID";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, printData("applicationIdentifier", applicationIdentifier));
+        log(methodName, "applicationIdentifier", applicationIdentifier);
         errorCode = new byte[2];
         // sanity checks
         if (!checkApplicationIdentifier(applicationIdentifier))
@@ -606,7 +685,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -618,12 +697,12 @@ public class DesfireEv3 {
             invalidateAllData();
             invalidateAllNonAuthenticationData();
             selectedApplicationId = applicationIdentifier.clone();
-            APPLICATION_ALL_FILE_IDS = getAllFileIds();
-            APPLICATION_ALL_FILE_SETTINGS = getAllFileSettings();
+            applicationAllFileIds = getAllFileIds();
+            applicationAllFileSettings = loadAllFileSettings();
             errorCode = RESPONSE_OK.clone();
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -640,13 +719,8 @@ public class DesfireEv3 {
         String logData = "";
         final String methodName = "selectApplicationByIsoByDfName";
         log(methodName, "started", true);
-        log(methodName, printData("dfApplicationName", dfApplicationName));
+        log(methodName, "dfApplicationName", dfApplicationName);
 
-        if (isoDep == null) {
-            errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
-            return false;
-        }
         if (dfApplicationName == null) {
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "dfApplicationName is NULL, aborted";
@@ -665,13 +739,13 @@ public class DesfireEv3 {
         byte[] apdu = baos.toByteArray();
         byte[] response = sendData(apdu);
         if (checkResponseIso(response)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             isApplicationSelected = true;
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -688,7 +762,7 @@ public class DesfireEv3 {
 
     public boolean deleteSelectedApplication() {
         final String methodName = "deleteSelectedApplication";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -703,7 +777,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -712,16 +786,21 @@ public class DesfireEv3 {
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
             log(methodName, "SUCCESS");
+            // the card ends the authentication and selects the Master Application
+            invalidateAllData();
+            invalidateAllNonAuthenticationData();
+            selectedApplicationId = MASTER_APPLICATION_IDENTIFIER.clone();
+            applicationAllFileIds = null;
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
 
     public List<byte[]> getApplicationIdsList() {
         final String methodName = "getApplicationIdsList";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -736,8 +815,7 @@ public class DesfireEv3 {
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -749,7 +827,7 @@ public class DesfireEv3 {
 
     public byte[] getApplicationDfNames() {
         final String methodName = "getApplicationDfNames";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
 
@@ -763,8 +841,7 @@ public class DesfireEv3 {
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -787,7 +864,7 @@ public class DesfireEv3 {
             Log.e(TAG, "no DF names found, aborted");
             return false;
         }
-        Log.d(TAG, printData("dfNames", dfNames));
+        logcat("dfNames", dfNames);
         List<byte[]> appIdsList = getApplicationIdsList();
         if (appIdsList.size() < 1) {
             Log.e(TAG, "no applications found, aborted");
@@ -802,7 +879,7 @@ public class DesfireEv3 {
         int posAppIdLast = -1;
         for (int i = 0; i < appIdsList.size(); i++) {
             byte[] appId = appIdsList.get(i);
-            Log.d(TAG, "i: " + i + printData(" appId", appId));
+            logcat("i: " + i + " appId", appId);
             posAppId = indexOf(dfNames, appId);
             if (posAppId <= posAppIdLast) {
                 // this  happens if the appId is part of a former element
@@ -810,7 +887,7 @@ public class DesfireEv3 {
                 return false;
             }
             if (posAppId > -1) {
-                Log.d(TAG, "found posAppId: " + posAppId);
+                logcat("found posAppId: " + posAppId);
             } else {
                 Log.e(TAG, "appId not found in dfNames, aborted");
                 return false;
@@ -818,35 +895,39 @@ public class DesfireEv3 {
             if (posAppId > 0) {
                 // skip the first id found
                 // get the data from the first element up to element - 1
-                Log.d(TAG, "get element data posAppIdLast: " + posAppIdLast + " posAppId: " + posAppId);
+                logcat("get element data posAppIdLast: " + posAppIdLast + " posAppId: " + posAppId);
                 byte[] elementData = Arrays.copyOfRange(dfNames, posAppIdLast, posAppId);
-                Log.d(TAG, printData("elementData", elementData));
+                logcat("elementData", elementData);
                 byte[] appIdTemp = Arrays.copyOfRange(elementData, 0, 3);
                 byte[] isoFileId = Arrays.copyOfRange(elementData, 3, 5);
                 byte[] dfName = Arrays.copyOfRange(elementData, 5, elementData.length);
                 isoFileIdsList.add(isoFileId);
                 isoDfNamesList.add(dfName);
-                Log.d(TAG, printData("appId", appIdTemp) + printData(" isoFileId", isoFileId) + printData(" dfName", dfName));
+                logcat("appId", appIdTemp);
+                logcat("isoFileId", isoFileId);
+                logcat("dfName", dfName);
             }
             posAppIdLast = posAppId;
             if (i == (appIdsList.size() - 1)) {
                 // grabbing the last element
                 Log.d(TAG, "grabbing the last element");
                 byte[] elementData = Arrays.copyOfRange(dfNames, posAppIdLast, dfNamesLength);
-                Log.d(TAG, printData("elementData", elementData));
+                logcat("elementData", elementData);
                 byte[] appIdTemp = Arrays.copyOfRange(elementData, 0, 3);
                 byte[] isoFileId = Arrays.copyOfRange(elementData, 3, 5);
                 byte[] dfName = Arrays.copyOfRange(elementData, 5, elementData.length);
                 isoFileIdsList.add(isoFileId);
                 isoDfNamesList.add(dfName);
-                Log.d(TAG, printData("appId", appIdTemp) + printData(" isoFileId", isoFileId) + printData(" dfName", dfName));
+                logcat("appId", appIdTemp);
+                logcat("isoFileId", isoFileId);
+                logcat("dfName", dfName);
             }
         }
-        Log.d(TAG, "isoFileIdsList size: " + isoFileIdsList.size());
-        Log.d(TAG, "isoDfNamesList size: " + isoDfNamesList.size());
+        logcat("isoFileIdsList size: " + isoFileIdsList.size());
+        logcat("isoDfNamesList size: " + isoDfNamesList.size());
         for (int i = 0; i < isoFileIdsList.size(); i++) {
-            Log.d(TAG, "i: " + i + printData(" isoFileId", isoFileIdsList.get(i)));
-            Log.d(TAG, "i: " + i + printData(" isoDfName", isoDfNamesList.get(i)));
+            logcat("i: " + i + " isoFileId", isoFileIdsList.get(i));
+            logcat("i: " + i + " isoDfName", isoDfNamesList.get(i));
         }
         if ((isoFileIdsList.size() > 0) && (isoDfNamesList.size() > 1)) {
             Log.d(TAG, "applicationIsoData is available, use getter");
@@ -909,14 +990,14 @@ public class DesfireEv3 {
 
     public boolean createAStandardFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int fileSize, boolean preEnableSdm) {
         final String methodName = "createAStandardFileIso";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isTraceDebugEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -965,7 +1046,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -976,7 +1057,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -997,14 +1078,14 @@ public class DesfireEv3 {
 
     private boolean createADataFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, boolean isStandardFile, int fileSize, boolean preEnableSdm) {
         final String methodName = "createADataFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "isStandardFile: " + isStandardFile);
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "isStandardFile: " + isStandardFile);
+        if (isTraceDebugEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isTraceDebugEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -1055,7 +1136,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1066,7 +1147,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1074,33 +1155,33 @@ public class DesfireEv3 {
 
     public boolean createAValueFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int minimumValue, int maximumValue, int initialValue, boolean limitedCreditOperation) {
         final String methodName = "createAValueFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "minimumValue: " + minimumValue);
-        log(methodName, "maximumValue: " + maximumValue);
-        log(methodName, "initialValue: " + initialValue);
-        log(methodName, "limitedCreditOperation: " + limitedCreditOperation);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "minimumValue: " + minimumValue);
+        if (isTraceDebugEnabled()) log(methodName, "maximumValue: " + maximumValue);
+        if (isTraceDebugEnabled()) log(methodName, "initialValue: " + initialValue);
+        if (isTraceDebugEnabled()) log(methodName, "limitedCreditOperation: " + limitedCreditOperation);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkAccessRights(accessRights)) return false;
         if ((minimumValue < 0) || (minimumValue > MAXIMUM_VALUES)) {
-            log(methodName, "minimumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "minimumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "minimumValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
         }
         if ((maximumValue < 0) || (maximumValue > MAXIMUM_VALUES)) {
-            log(methodName, "maximumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "maximumValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "maximumValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
         }
         if ((initialValue < 0) || (initialValue > MAXIMUM_VALUES)) {
-            log(methodName, "initialValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "initialValue is not in range 0.." + MAXIMUM_VALUES + ", aborted");
             System.arraycopy(RESPONSE_PARAMETER_ERROR, 0, errorCode, 0, 2);
             errorCodeReason = "initialValue is not in range 0.." + MAXIMUM_VALUES;
             return false;
@@ -1148,7 +1229,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1159,7 +1240,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1167,38 +1248,38 @@ public class DesfireEv3 {
 
     public boolean createALinearRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createALinearRecordFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isTraceDebugEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, true);
     }
 
     public boolean createACyclicRecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createACyclicRecordFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isTraceDebugEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, false);
     }
 
     private boolean createARecordFile(byte fileNumber, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords, boolean isLinearRecordFile) {
         final String methodName = "createARecordFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
-        log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isTraceDebugEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isTraceDebugEnabled()) log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
 
         errorCode = new byte[2];
         // sanity checks
@@ -1246,7 +1327,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1257,7 +1338,7 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -1265,28 +1346,28 @@ public class DesfireEv3 {
 
     public boolean createACyclicRecordFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords) {
         final String methodName = "createACyclicRecordFileIso";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isTraceDebugEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
         return createARecordFileIso(fileNumber, isoFileId, communicationSettings, accessRights, recordSize, maximumNumberOfRecords, false);
     }
 
     private boolean createARecordFileIso(byte fileNumber, byte[] isoFileId, CommunicationSettings communicationSettings, byte[] accessRights, int recordSize, int maximumNumberOfRecords, boolean isLinearRecordFile) {
         final String methodName = "createARecordFileIso";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "recordSize: " + recordSize);
-        log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
-        log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize);
+        if (isTraceDebugEnabled()) log(methodName, "maximumNumberOfRecords: " + maximumNumberOfRecords);
+        if (isTraceDebugEnabled()) log(methodName, "isLinearRecordFile: " + isLinearRecordFile);
 
         errorCode = new byte[2];
         // sanity checks
@@ -1335,7 +1416,7 @@ public class DesfireEv3 {
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1346,21 +1427,21 @@ public class DesfireEv3 {
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
 
 /*
 final String methodName = "createAStandardFileIso";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("isoFileId", isoFileId));
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("accessRights", accessRights));
-        log(methodName, "fileSize: " + fileSize);
-        log(methodName, "preEnableSdm: " + preEnableSdm);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "isoFileId", isoFileId);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "accessRights", accessRights);
+        if (isTraceDebugEnabled()) log(methodName, "fileSize: " + fileSize);
+        if (isTraceDebugEnabled()) log(methodName, "preEnableSdm: " + preEnableSdm);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -1408,7 +1489,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1419,7 +1500,7 @@ final String methodName = "createAStandardFileIso";
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
  */
@@ -1526,13 +1607,13 @@ final String methodName = "createAStandardFileIso";
         final String methodName = "createATransactionMacFileFull";
         //logData = "";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isTraceDebugEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1587,32 +1668,33 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(CREATE_TRANSACTION_MAC_FILE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1620,15 +1702,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = aesEncrypt(secureMessagingContext, iv2, SesAuthENCKey, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1641,7 +1723,7 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -1651,15 +1733,15 @@ final String methodName = "createAStandardFileIso";
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1674,7 +1756,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -1684,7 +1766,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1692,25 +1774,24 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -1745,13 +1826,13 @@ final String methodName = "createAStandardFileIso";
         final String methodName = "createATransactionMacFileFull";
         //logData = "";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isTraceDebugEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "enableCommitReaderId: " + enableCommitReaderId);
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -1809,32 +1890,33 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(CREATE_TRANSACTION_MAC_FILE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -1842,15 +1924,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = aesEncrypt(secureMessagingContext, iv2, SesAuthENCKey, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -1864,7 +1946,7 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -1874,15 +1956,15 @@ final String methodName = "createAStandardFileIso";
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -1897,7 +1979,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -1907,7 +1989,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -1915,25 +1997,24 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -1966,12 +2047,12 @@ final String methodName = "createAStandardFileIso";
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileFull";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, printData("tmacAccessRights", tmacAccessRights));
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        log(methodName, "tmacAccessRights", tmacAccessRights);
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -2012,32 +2093,33 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(CREATE_TRANSACTION_MAC_FILE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2045,15 +2127,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = aesEncrypt(secureMessagingContext, iv2, SesAuthENCKey, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2066,7 +2148,7 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRightsModified, 0, tmacAccessRightsModified.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
@@ -2080,15 +2162,15 @@ final String methodName = "createAStandardFileIso";
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
         */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2103,7 +2185,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -2113,7 +2195,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2121,25 +2203,24 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2173,15 +2254,15 @@ final String methodName = "createAStandardFileIso";
         //private final byte ACCESS_RIGHTS_R_W_TMAC = (byte) 0x1F; // Read Access (key 01) & Write Access (no access)
 
         final String methodName = "createATransactionMacFileExtendedFull";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "communicationSettings: " + communicationSettings.toString());
-        log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
-        log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
-        log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
-        log(methodName, "enableCommitReaderId" + enableCommitReaderId);
-        log(methodName, printData("transactionMacKey", transactionMacKey));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "communicationSettings: " + communicationSettings.toString());
+        if (isTraceDebugEnabled()) log(methodName, "commitReaderIdAuthKeyNumber: " + commitReaderIdAuthKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeAccessRightsKeyNumber: " + changeAccessRightsKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "readAccessKeyNumber: " + readAccessKeyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "enableCommitReaderId" + enableCommitReaderId);
+        log(methodName, "transactionMacKey", transactionMacKey);
         errorCode = new byte[2];
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -2247,32 +2328,33 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(CREATE_TRANSACTION_MAC_FILE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, transactionMacKey);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, transactionMacKey);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2280,15 +2362,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = aesEncrypt(secureMessagingContext, iv2, SesAuthENCKey, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2301,7 +2383,7 @@ final String methodName = "createAStandardFileIso";
         baosCmdHeader.write(tmacAccessRights, 0, tmacAccessRights.length);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         byte[] macInput = getMacInput(CREATE_TRANSACTION_MAC_FILE_COMMAND, cmdHeader, encryptedData);
@@ -2315,15 +2397,15 @@ final String methodName = "createAStandardFileIso";
         byte[] macInput = baosMacInput.toByteArray();
 
  */
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2338,7 +2420,7 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -2348,7 +2430,7 @@ final String methodName = "createAStandardFileIso";
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2356,25 +2438,24 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2395,7 +2476,7 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "createTransactionMacFileEv2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + printData(" TransactionMacKey", key));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + printData(" TransactionMacKey", key));
         // sanity checks
         if ((!authenticateEv2FirstSuccess) & (!authenticateEv2NonFirstSuccess)) {
             Log.d(TAG, "missing successful authentication with EV2First or EV2NonFirst, aborted");
@@ -2413,7 +2494,7 @@ final String methodName = "createAStandardFileIso";
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -2424,32 +2505,33 @@ final String methodName = "createAStandardFileIso";
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(CREATE_TRANSACTION_MAC_FILE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New TMAC Key)
         // taken from method header
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyEncrypted = AES.encrypt(ivForCmdData, SesAuthENCKey, key);
-        log(methodName, printData("keyEncrypted", keyEncrypted));
+        byte[] keyEncrypted = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, key);
+        log(methodName, "keyEncrypted", keyEncrypted);
         byte[] iv2 = keyEncrypted.clone();
-        log(methodName, printData("iv2", iv2));
+        log(methodName, "iv2", iv2);
 
         // Data (TMACKeyVersion || Padding)
         // taken from method header and don't forget to pad with 0x80..00
@@ -2457,15 +2539,15 @@ final String methodName = "createAStandardFileIso";
         keyVersionPadded[0] = TMACKeyVersion;
         // padding with full padding
         System.arraycopy(PADDING_FULL, 0, keyVersionPadded, 1, (PADDING_FULL.length - 1));
-        log(methodName, printData("keyVersionPadded", keyVersionPadded));
+        log(methodName, "keyVersionPadded", keyVersionPadded);
 
         // Encrypted Data = E(KSesAuthENC, Data)
-        byte[] keyVersionPaddedEncrypted = AES.encrypt(iv2, SesAuthENCKey, keyVersionPadded);
-        log(methodName, printData("keyVersionPaddedEncrypted", keyVersionPaddedEncrypted));
+        byte[] keyVersionPaddedEncrypted = aesEncrypt(secureMessagingContext, iv2, SesAuthENCKey, keyVersionPadded);
+        log(methodName, "keyVersionPaddedEncrypted", keyVersionPaddedEncrypted);
 
         // Encrypted Data (both blocks)
         byte[] encryptedData = concatenate(keyEncrypted, keyVersionPaddedEncrypted);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         startingIv = new byte[16];
@@ -2480,7 +2562,7 @@ final String methodName = "createAStandardFileIso";
         //baosCmdHeader.write(ACCESS_RIGHTS_R_W_TMAC);
         baosCmdHeader.write(TMACKeyOption);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted Data))
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -2490,15 +2572,15 @@ final String methodName = "createAStandardFileIso";
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || MAC)
         // error in Features and Hints, page 84, point 30:
@@ -2513,20 +2595,20 @@ final String methodName = "createAStandardFileIso";
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] createTransactionMacFileCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("createTransactionMacFileCommand", createTransactionMacFileCommand));
+        log(methodName, "createTransactionMacFileCommand", createTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CREATE_TRANSACTION_MAC_FILE_COMMAND, createTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2534,26 +2616,25 @@ final String methodName = "createAStandardFileIso";
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // verify the MAC
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -2569,13 +2650,13 @@ final String methodName = "createAStandardFileIso";
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -2609,7 +2690,7 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToStandardFileNdefContainerPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
@@ -2634,8 +2715,8 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToStandardFileUrlPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "urlToWrite: " + urlToWrite);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "urlToWrite: " + urlToWrite);
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
         if (!Utils.isValidUrl(urlToWrite)) {
             log(methodName, "invalid urlToWrite, aborted");
@@ -2676,8 +2757,8 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "data", data);
         return writeToADataFile(fileNumber, 0, data);
     }
 
@@ -2688,7 +2769,7 @@ final String methodName = "createAStandardFileIso";
      * if the comm mode is 'MACed' it runs the Mac path,
      * if the comm mode is 'Full' it runs the Full.
      * The data is written to the  beginning of the file (offset = 0)
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds the negotiated frame size (see getMaximumFrameDataLength) the data will be written in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
@@ -2702,15 +2783,15 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
-        if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
-            log(methodName, "data length not in range 1..MAXIMUM_FILE_SIZE, aborted");
+        if ((data == null) || (data.length < 1)) {
+            log(methodName, "data is NULL or empty, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data length not in range 1..MAXIMUM_FILE_SIZE";
+            errorCodeReason = "data is NULL or empty";
             return false;
         }
         if (!checkIsoDep()) return false;
@@ -2718,7 +2799,7 @@ final String methodName = "createAStandardFileIso";
         if (!checkIsDataFileType(fileNumber)) return false;
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -2729,11 +2810,13 @@ final String methodName = "createAStandardFileIso";
 
         boolean isPlainMode = false;
         boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        // a free access is Plain when the authenticated key has no access right
+        byte communicationSettings = getCommunicationSettingsForAccess(fileSettings, AuthenticationManager.Access.WRITE);
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         } else {
@@ -2748,18 +2831,18 @@ final String methodName = "createAStandardFileIso";
             data = Arrays.copyOf(data, (fileSizeInt - offset));
             dataLength = data.length;
             Log.d(TAG, "data is truncated due to offset and fileSize");
-            Log.d(TAG, printData("new data", data));
+            logcat("new data", data);
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited to 66
-        // bytes including all overhead and attached MAC
-
-        int numberOfWrites = dataLength / MAXIMUM_WRITE_MESSAGE_LENGTH;
-        int numberOfWritesMod = Utils.mod(dataLength, MAXIMUM_WRITE_MESSAGE_LENGTH);
+        // The chunking is done to avoid framing, the chunk length is negotiated with the reader and
+        // depends on the communication mode (overhead of the attached MAC and padding)
+        int writeChunkLength = getMaximumWriteDataLength(communicationSettings, dataLength);
+        int numberOfWrites = dataLength / writeChunkLength;
+        int numberOfWritesMod = Utils.mod(dataLength, writeChunkLength);
         if (numberOfWritesMod > 0) numberOfWrites++; // one extra write for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
+        logcat("data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
         boolean completeSuccess = true;
-        int numberOfDataToWrite = MAXIMUM_WRITE_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToWrite = writeChunkLength; // we are starting with a maximum length
         int offsetChunk = 0;
         for (int i = 0; i < numberOfWrites; i++) {
             if (offsetChunk + numberOfDataToWrite > dataLength) {
@@ -2811,22 +2894,23 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > 40)) {
-            Log.e(TAG, methodName + " data is NULL or length is > 40, aborted");
-            log(methodName, "data is NULL or length is > 40, aborted");
+        int maximumDataLength = getChainedWriteChunkLength(FILE_COMMUNICATION_SETTINGS_PLAIN);
+        if ((data == null) || (data.length > maximumDataLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "data is NULL or length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > 40";
+            errorCodeReason = "data is NULL or length is > " + maximumDataLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -2846,20 +2930,14 @@ final String methodName = "createAStandardFileIso";
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset);
         byte[] lengthOfDataBytes = Utils.intTo3ByteArrayInversed(data.length);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(offsetBytes, 0, offsetBytes.length);
-        baos.write(lengthOfDataBytes, 0, lengthOfDataBytes.length);
-        baos.write(data, 0, data.length);
-        byte[] commandParameter = baos.toByteArray();
-        byte[] apdu;
+        // Data (FileNo || Offset || DataLength || Data)
+        byte[] commandParameter = getCommandData(getDataCommandHeader(fileNumber, offsetBytes, lengthOfDataBytes), data, null);
         byte[] response;
         try {
-            apdu = wrapMessage(WRITE_DATA_FILE_COMMAND, commandParameter);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_DATA_FILE_COMMAND, commandParameter);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -2867,15 +2945,14 @@ final String methodName = "createAStandardFileIso";
 
         // note: after sending data to the card the commandCounter is increased by 1, even when working in CommMode Plain
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE");
+            logcat(methodName + " FAILURE");
             return false;
         }
     }
@@ -2902,21 +2979,22 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
 
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumDataLength = getChainedWriteChunkLength(FILE_COMMUNICATION_SETTINGS_MACED);
+        if ((data == null) || (data.length > maximumDataLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "data is NULL or length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumDataLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
         // getFileSettings for file type and size information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -2940,73 +3018,61 @@ final String methodName = "createAStandardFileIso";
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "offsetBytes", offsetBytes);
+        log(methodName, "lengthBytes", lengthBytes);
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         //(Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, data);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLenght || Data)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(data, 0, data.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        byte[] writeDataCommand = getCommandData(cmdHeader, data, macTruncated);
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response;
         byte[] apdu;
-        byte[] responseMACTruncatedReceived;
         try {
-            apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3033,21 +3099,22 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumDataLength = getChainedWriteChunkLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumDataLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "data is NULL or length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumDataLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
         // getFileSettings for file type and size information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -3067,128 +3134,91 @@ final String methodName = "createAStandardFileIso";
         if (!checkAuthentication()) return false; // logFile and errorCode are updated
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
 
-        // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
-        byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
         // Encrypting the Command Data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(WRITE_DATA_FILE_SECURE_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
+        // the data is padded according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
+        // and encrypted in one CBC pass
+        log(methodName, "data unpad", data);
+        byte[] encryptedData = encryptPaddedCommandData(ivForCmdData, data);
+        if (encryptedData == null) {
+            Log.e(TAG, methodName + " encryption of the data failed, aborted");
+            log(methodName, "encryption of the data failed, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "encryption of the data failed";
+            return false;
         }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "offset", offsetBytes);
+        log(methodName, "length", lengthBytes);
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
 
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
         // correct is the following concatenation:
 
         // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        byte[] writeDataCommand = getCommandData(cmdHeader, encryptedData, macTruncated);
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
         try {
-            apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
+            logcat(methodName + " SUCCESS, now verifying the MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3200,21 +3230,22 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "writeToADataFileRawFullTmac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + Utils.printData(" data", data));
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((data == null) || (data.length > MAXIMUM_WRITE_MESSAGE_LENGTH)) {
-            Log.e(TAG, methodName + " data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
-            log(methodName, "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH + ", aborted");
+        int maximumDataLength = getChainedWriteChunkLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if ((data == null) || (data.length > maximumDataLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "data is NULL or length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > " + MAXIMUM_WRITE_MESSAGE_LENGTH;
+            errorCodeReason = "data is NULL or length is > " + maximumDataLength;
             return false;
         }
         if (!checkOffsetMinus(offset)) return false;
         // getFileSettings for file type and size information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -3234,139 +3265,90 @@ final String methodName = "createAStandardFileIso";
         if (!checkAuthentication()) return false; // logFile and errorCode are updated
         if (!checkIsoDep()) return false; // logFile and errorCode are updated
 
-        // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
-        byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
         // Encrypting the Command Data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        /*
-        byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-         */
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(WRITE_DATA_FILE_SECURE_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        //        log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
-
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
+        // the data is padded according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
+        // and encrypted in one CBC pass
+        log(methodName, "data unpad", data);
+        byte[] encryptedData = encryptPaddedCommandData(ivForCmdData, data);
+        if (encryptedData == null) {
+            Log.e(TAG, methodName + " encryption of the data failed, aborted");
+            log(methodName, "encryption of the data failed, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "encryption of the data failed";
+            return false;
         }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offset", offsetBytes));
-        log(methodName, printData("length", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "offset", offsetBytes);
+        log(methodName, "length", lengthBytes);
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput = getMacInput(WRITE_DATA_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
         // correct is the following concatenation:
 
         // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        byte[] writeDataCommand = getCommandData(cmdHeader, encryptedData, macTruncated);
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
         try {
-            apdu = wrapMessage(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_DATA_FILE_SECURE_COMMAND, writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -3380,7 +3362,7 @@ final String methodName = "createAStandardFileIso";
      * If the comm mode is 'Plain' it runs the Plain path
      * If the comm mode is 'MACed' it runs the Mac path
      * If the comm mode is 'Full' it runs the Full path
-     * If the data length exceeds the MAXIMUM_READ_MESSAGE_LENGTH the data will be read in chunks.
+     * If the data length exceeds the negotiated frame size (see getMaximumFrameDataLength) the data will be read in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard file
@@ -3393,7 +3375,7 @@ final String methodName = "createAStandardFileIso";
         String logData = "";
         final String methodName = "readFromADataFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
@@ -3402,7 +3384,7 @@ final String methodName = "createAStandardFileIso";
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -3420,14 +3402,15 @@ final String methodName = "createAStandardFileIso";
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
         }
         if (!checkIsDataFileType(fileNumber)) return null;
         // the check on authentication depends on the communication mode in file settings:
-        byte commMode = fileSettings.getCommunicationSettings();
+        // a free access is Plain when the authenticated key has no access right
+        byte commMode = getCommunicationSettingsForAccess(fileSettings, AuthenticationManager.Access.READ);
         /*
         if (commMode == (byte) 0x00) {
             // Plain
@@ -3445,32 +3428,35 @@ final String methodName = "createAStandardFileIso";
         if (!checkIsoDep()) return null; // logFile and errorCode are updated
         boolean isPlainMode = false;
         boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         } else {
             if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited
-        // bytes including all overhead and attached MAC
-
+        // The chunking is done to avoid framing, the chunk length is negotiated with the reader and
+        // depends on the communication mode (overhead of the attached MAC and padding)
+        int readChunkLength = getReadChunkLength(commMode);
         int dataLength = length;
-        int numberOfRounds = dataLength / MAXIMUM_READ_MESSAGE_LENGTH;
-        int numberOfRoundsMod = Utils.mod(dataLength, MAXIMUM_READ_MESSAGE_LENGTH);
+        int numberOfRounds = dataLength / readChunkLength;
+        int numberOfRoundsMod = Utils.mod(dataLength, readChunkLength);
         if (numberOfRoundsMod > 0) numberOfRounds++; // one extra round for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        logcat("data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        if ((pipelinedReadEnabled) && (!isPlainMode) && (numberOfRounds > 1)) {
+            return readFromADataFilePipelined(fileNumber, offset, length, readChunkLength, isMacedMode);
+        }
         boolean completeSuccess = true;
         int offsetChunk = offset;
-        int numberOfDataToRead = MAXIMUM_READ_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToRead = readChunkLength; // we are starting with a maximum length
         byte[] dataToRead = new byte[length]; // complete data
         for (int i = 0; i < numberOfRounds; i++) {
-            if (offsetChunk + numberOfDataToRead > dataLength) {
-                numberOfDataToRead = dataLength - offsetChunk;
+            if ((offsetChunk - offset) + numberOfDataToRead > dataLength) {
+                numberOfDataToRead = dataLength - (offsetChunk - offset);
             }
             byte[] dataToReadChunk = null;
             if (isPlainMode) {
@@ -3494,27 +3480,185 @@ final String methodName = "createAStandardFileIso";
             {
                 // copy the dataToReadChunk in the complete data array
                 // in some circumstances some additional data like a CRC or MAC is appended - this needs to get stripped off
-                int realLength = (i * MAXIMUM_READ_MESSAGE_LENGTH) + dataToReadChunk.length;
+                int realLength = (i * readChunkLength) + dataToReadChunk.length;
                 if (realLength > dataToRead.length) {
-                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * MAXIMUM_READ_MESSAGE_LENGTH));
+                    dataToReadChunk = Arrays.copyOfRange(dataToReadChunk, 0, dataToRead.length - (i * readChunkLength));
 
                 }
-                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
+                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * readChunkLength), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            log(methodName, "dataToRead", dataToRead);
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
         return dataToRead;
     }
 
+    /**
+     * Reads a Data file in Communication mode MACed or Full in chunks like readFromADataFile, but the
+     * response MAC verification (and decryption) of a chunk runs on a worker thread while the next chunk
+     * is in flight. The commands are build and send on the calling thread in the order of the chunks, so
+     * the CmdCounter of each command is the same as in the sequential read. The worker uses its own crypto
+     * engines for the session keys and gets the CmdCounter of the response with the chunk.
+     * A chunk with a wrong response MAC or padding fails the complete read, the following commands are not
+     * send once the failure is known (at most one more chunk is in flight).
+     * DO NOT CALL this method from outside this class but use readFromADataFile after setPipelinedReadEnabled
+     *
+     * @param fileNumber  | in range 0..31 AND file is a Standard or Backup file
+     * @param offset      | the position in file where the read is starting
+     * @param length      | the length of data to get read
+     * @param chunkLength | the length of data read with one command
+     * @param isMacedMode | true = MACed, false = Full enciphered
+     * @return the data read or NULL
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    private byte[] readFromADataFilePipelined(byte fileNumber, int offset, int length, int chunkLength, boolean isMacedMode) {
+        final String methodName = "readFromADataFilePipelined";
+        log(methodName, "started", true);
+        if (!checkAuthentication()) return null;
+        if (workerSecureMessagingContext == null) {
+            workerSecureMessagingContext = SecureMessagingContext.create(SesAuthENCKey, SesAuthMACKey);
+        }
+        final SecureMessagingContext workerContext = workerSecureMessagingContext;
+        if (workerContext == null) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "could not create the crypto engines for the session keys";
+            return null;
+        }
+        final byte[] transactionIdentifier = TransactionIdentifier.clone();
+        ExecutorService worker = getPipelinedReadExecutor();
+        List<Future<byte[]>> chunks = new ArrayList<>();
+        try {
+            for (int chunkOffset = 0; chunkOffset < length; chunkOffset += chunkLength) {
+                if (isAnyChunkFailed(chunks)) break;
+                final int chunkDataLength = Math.min(chunkLength, length - chunkOffset);
+                byte[] cmdHeader = getDataCommandHeader(fileNumber, Utils.intTo3ByteArrayInversed(offset + chunkOffset), Utils.intTo3ByteArrayInversed(chunkDataLength));
+                byte[] macTruncated = truncateMAC(calculateDiverseKey(secureMessagingContext, SesAuthMACKey, getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader)));
+                byte[] readDataCommand = new byte[cmdHeader.length + macTruncated.length];
+                System.arraycopy(cmdHeader, 0, readDataCommand, 0, cmdHeader.length);
+                System.arraycopy(macTruncated, 0, readDataCommand, cmdHeader.length, macTruncated.length);
+                byte[] response;
+                try {
+                    response = sendDataChained(wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand));
+                } catch (IOException e) {
+                    if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
+                    errorCode = RESPONSE_FAILURE.clone();
+                    errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+                    return null;
+                }
+                byte[] responseBytes = returnStatusBytes(response);
+                System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+                if ((!checkResponse(response)) || (response.length < 2 + 8)) {
+                    if (isTraceDebugEnabled()) log(methodName, "FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+                    errorCodeReason = methodName + " FAILURE";
+                    return null;
+                }
+                // note: after sending data to the card the commandCounter is increased by 1
+                CmdCounter++;
+                final int commandCounter = CmdCounter;
+                final byte[] responseData = Arrays.copyOf(response, response.length - 2 - 8);
+                final byte[] responseMac = Arrays.copyOfRange(response, response.length - 2 - 8, response.length - 2);
+                chunks.add(worker.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                        return verifyAndDecryptChunk(workerContext, transactionIdentifier, commandCounter, responseData, responseMac, chunkDataLength, isMacedMode);
+                    }
+                }));
+            }
+            byte[] readData = new byte[length];
+            int readDataOffset = 0;
+            for (Future<byte[]> chunk : chunks) {
+                byte[] chunkData = chunk.get();
+                if (chunkData == null) {
+                    if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE, wrong response MAC or padding");
+                    errorCode = RESPONSE_FAILURE.clone();
+                    errorCodeReason = methodName + " FAILURE, wrong response MAC or padding";
+                    return null;
+                }
+                System.arraycopy(chunkData, 0, readData, readDataOffset, chunkData.length);
+                readDataOffset += chunkData.length;
+            }
+            if (readDataOffset != length) {
+                errorCode = RESPONSE_FAILURE.clone();
+                errorCodeReason = methodName + " FAILURE, wrong response MAC or padding";
+                return null;
+            }
+            log(methodName, "SUCCESS");
+            errorCode = RESPONSE_OK.clone();
+            errorCodeReason = methodName + " SUCCESS";
+            return readData;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " interrupted";
+            return null;
+        } catch (ExecutionException e) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE: " + e.getCause();
+            return null;
+        } finally {
+            // a failure leaves the remaining chunks of this read on the worker thread
+            for (Future<byte[]> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    private static boolean isAnyChunkFailed(List<Future<byte[]>> chunks) {
+        for (Future<byte[]> chunk : chunks) {
+            if (!chunk.isDone()) continue;
+            try {
+                if (chunk.get() == null) return true;
+            } catch (InterruptedException | ExecutionException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * verifies the response MAC of a chunk and decrypts a Full enciphered chunk, runs on the worker
+     * thread of readFromADataFilePipelined so it uses the given context and no session fields
+     *
+     * @return the data of the chunk or NULL on a wrong MAC or padding
+     */
+    private static byte[] verifyAndDecryptChunk(SecureMessagingContext context, byte[] transactionIdentifier, int commandCounter, byte[] responseData, byte[] responseMac, int length, boolean isMacedMode) {
+        byte[] commandCounterLsb = Utils.intTo2ByteArrayInversed(commandCounter);
+        // response MAC input: response code 0x00 || CmdCounter || TI || response data
+        byte[] macInput = new byte[1 + 2 + transactionIdentifier.length + responseData.length];
+        System.arraycopy(commandCounterLsb, 0, macInput, 1, 2);
+        System.arraycopy(transactionIdentifier, 0, macInput, 3, transactionIdentifier.length);
+        System.arraycopy(responseData, 0, macInput, 3 + transactionIdentifier.length, responseData.length);
+        byte[] macFull = context.cmac(macInput);
+        if (macFull == null) return null;
+        byte[] macTruncated = new byte[macFull.length / 2];
+        for (int i = 0; i < macTruncated.length; i++) {
+            macTruncated[i] = macFull[(2 * i) + 1];
+        }
+        if (!MessageDigest.isEqual(macTruncated, responseMac)) return null;
+        if (isMacedMode) {
+            return (responseData.length < length) ? null : Arrays.copyOf(responseData, length);
+        }
+        // IV for the response: E(SesAuthENCKey, 0x5AA5 || TI || CmdCounter || 8 zero bytes)
+        byte[] ivInput = new byte[16];
+        ivInput[0] = (byte) 0x5A;
+        ivInput[1] = (byte) 0xA5;
+        System.arraycopy(transactionIdentifier, 0, ivInput, 2, transactionIdentifier.length);
+        System.arraycopy(commandCounterLsb, 0, ivInput, 2 + transactionIdentifier.length, 2);
+        byte[] ivResponse = context.encrypt(new byte[16], ivInput);
+        if (ivResponse == null) return null;
+        int decryptedLength = context.decryptInPlaceUnpadded(ivResponse, responseData, 0, responseData.length);
+        if (decryptedLength != length) return null;
+        return Arrays.copyOf(responseData, decryptedLength);
+    }
+
     public byte[] readFromATransactionMacFile(byte fileNumber) {
         byte[] receivedData = readFromADataFileRawPlain(fileNumber, 0, 12);
-        if (receivedData.length == 12) {
+        if ((receivedData != null) && (receivedData.length == 12)) {
             byte[] tmc = Arrays.copyOfRange(receivedData, 0, 4);
             byte[] tmacEnc = Arrays.copyOfRange(receivedData, 4, 12);
             int tmacInt = Utils.intFrom4ByteArrayInversed(tmc);
-            Log.d(TAG, "TMAC counter: " + tmacInt + printData(" tmacEnc", tmacEnc));
+            logcat("TMAC counter: " + tmacInt + " tmacEnc", tmacEnc);
             // example after a writeRecord operation
             // responseTmcv length: 12 data: 04000000c2e11a34e0513de7
             // readTMACFile length: 12 data: 04000000c2e11a34e0513de7
@@ -3578,7 +3722,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baos.write(tmcNew, 0, tmcNew.length);
         baos.write(uid, 0, uid.length);
         byte[] sv1 = baos.toByteArray();
-        Log.d(TAG, "getSesTMMACKey " + printData("sv1", sv1));
+        logcat("getSesTMMACKey " + "sv1", sv1);
         return sv1;
     }
 
@@ -3602,14 +3746,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offset)) return null;
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -3627,7 +3771,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -3638,27 +3782,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // generate the parameter
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(offsetBytes, 0, offsetBytes.length);
-        baos.write(lengthBytes, 0, lengthBytes.length);
-        byte[] commandParameter = baos.toByteArray();
+        byte[] commandParameter = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
         byte[] response = sendRequest(READ_DATA_FILE_COMMAND, commandParameter);
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
         errorCode = RESPONSE_OK.clone();
         errorCodeReason = "SUCCESS";
-        byte[] readData = Arrays.copyOfRange(getData(response), 0, length);
+        // the response is Data || SW1 SW2
+        byte[] readData = new byte[length];
+        System.arraycopy(response, 0, readData, 0, Math.min(length, response.length - 2));
         return readData;
     }
 
@@ -3682,22 +3822,22 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        if (length > getReadChunkLength(FILE_COMMUNICATION_SETTINGS_MACED)) {
+            Log.e(TAG, methodName + " length is > maximum read chunk length, aborted");
+            log(methodName, "length is > maximum read chunk length, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > maximum read chunk length";
             return null;
         }
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -3715,7 +3855,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -3727,78 +3867,63 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // CmdHeader (FileNo || Offset || DataLength)
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        byte[] readDataCommand = getCommandData(cmdHeader, null, macTruncated);
+        log(methodName, "readDataCommand", readDataCommand);
 
         byte[] response;
         byte[] apdu;
-        byte[] fullMacedData;
-        byte[] macedData;
-        byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
+            response = sendDataChained(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
         }
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullMacedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
-        macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
-        byte[] readData = Arrays.copyOfRange(macedData, 0, length);
-        log(methodName, printData("readData", readData));
-        if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+
+        // the response is MACed Data || MAC || SW1 SW2, the MAC is verified in the response
+        int macedDataLength = response.length - 2 - 8;
+        if (isTraceDebugEnabled()) log(methodName, "The macedData length is " + macedDataLength);
+        if (verifyResponseMac(response, macedDataLength)) {
+            byte[] readData = new byte[length];
+            System.arraycopy(response, 0, readData, 0, Math.min(length, macedDataLength));
+            log(methodName, "readData", readData);
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -3827,21 +3952,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromADataFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        if (length > getReadChunkLength(FILE_COMMUNICATION_SETTINGS_FULL)) {
+            Log.e(TAG, methodName + " length is > maximum read chunk length, aborted");
+            log(methodName, "length is > maximum read chunk length, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > maximum read chunk length";
             return null;
         }
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -3859,7 +3984,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -3870,99 +3995,79 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // command header
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         byte[] macInput = getMacInput(READ_DATA_FILE_SECURE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        byte[] readDataCommand = getCommandData(cmdHeader, null, macTruncated);
+        log(methodName, "readDataCommand", readDataCommand);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
-        byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
+            response = sendDataChained(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
         }
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
 
-        // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        // the response without the status bytes is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes
+        // are the responseMAC, both are used in place
+        int encryptedDataLength = response.length - 2 - 8;
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
 
         // start decrypting the data
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
         byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length); // fixed to 0x5AA5
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
-
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return readData;
-        } else {
-            log(methodName, methodName + " FAILURE");
+        byte[] ivInputResponse = getIvInputResponse();
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        // the MAC is calculated over the encrypted data, so it is verified before the data gets decrypted in place
+        if (!verifyResponseMac(response, encryptedDataLength)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
         }
+        byte[] readData = decryptResponseData(ivResponse, response, encryptedDataLength);
+        if ((readData == null) || ((length > 0) && (readData.length != length))) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE, the decrypted data has a wrong padding or length");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE, the decrypted data has a wrong padding or length";
+            return null;
+        }
+        log(methodName, "readData", readData);
+        if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return readData;
     }
 
     /**
@@ -3982,7 +4087,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this is based on the get value on a value file on a DESFire Light card
         String logData = "";
         final String methodName = "readFromAValueFile";
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return -1;
@@ -3990,7 +4095,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // getFileSettings for file type communication mode and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -4000,13 +4105,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsValueFileType(fileNumber)) return -1;
         if (fileSettings.getFileType() != FileSettings.VALUE_FILE_TYPE) {
-            log(methodName, "fileType to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileType to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not Value file";
             return -1;
         }
         // the check on authentication depends on the communication mode in file settings:
-        byte commMode = fileSettings.getCommunicationSettings();
+        // a free access is Plain when the authenticated key has no access right
+        byte commMode = getCommunicationSettingsForAccess(fileSettings, AuthenticationManager.Access.READ);
         boolean isPlainCommunicationMode = false;
         /*
         if (commMode == (byte) 0x00) {
@@ -4026,11 +4132,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         boolean isPlainMode = false;
         boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         } else {
@@ -4060,7 +4166,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         if (!checkIsoDep()) return -1;
 
@@ -4071,28 +4177,31 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             errorCodeReason = "SUCCESS";
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             errorCodeReason = "FAILURE";
             return -1;
         }
-        byte[] valueBytes = getData(response);
-        return Utils.byteArrayLength4InversedToInt(valueBytes);
+        if (response.length != 4 + 2) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "FAILURE, the response has a wrong length";
+            return -1;
+        }
+        // the response is Value (4 bytes LSB) || SW1 SW2
+        return Utils.byteArrayLength4InversedToInt(response);
     }
 
     /**
@@ -4107,73 +4216,57 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         if (!checkIsoDep()) return -1;
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
         byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
-        ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
-        baosGetValueCommand.write(fileNumber);
-        baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
+        byte[] getValueCommand = getCommandData(new byte[]{fileNumber}, null, macTruncated);
+        log(methodName, "getValueCommand", getValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        byte[] fullMacedData;
-        byte[] macedData;
         try {
             apdu = wrapMessage(GET_VALUE_COMMAND, getValueCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
-            macedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return -1;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        int dataLength = macedData.length - 8;
-        log(methodName, "The macedData is of length " + macedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The data length is " + dataLength);
-        byte[] data = Arrays.copyOfRange(macedData, 0, dataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(macedData, dataLength, macedData.length);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        // verifying the received Response MAC
-        if (verifyResponseMac(responseMACTruncatedReceived, data)) {
-            log(methodName, methodName + " SUCCESS");
+        // verifying the received Response MAC in the response (Value (4 bytes LSB) || MAC || SW1 SW2)
+        if (verifyResponseMac(response, 4)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
-            return byteArrayLength4InversedToInt(data);
+            return byteArrayLength4InversedToInt(response);
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return -1;
@@ -4192,99 +4285,80 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromAValueFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         if (!checkIsoDep()) return -1;
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
         byte[] macInput = getMacInput(GET_VALUE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
-        ByteArrayOutputStream baosGetValueCommand = new ByteArrayOutputStream();
-        baosGetValueCommand.write(fileNumber);
-        baosGetValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] getValueCommand = baosGetValueCommand.toByteArray();
-        log(methodName, printData("getValueCommand", getValueCommand));
+        byte[] getValueCommand = getCommandData(new byte[]{fileNumber}, null, macTruncated);
+        log(methodName, "getValueCommand", getValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
         try {
             apdu = wrapMessage(GET_VALUE_COMMAND, getValueCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return -1;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return -1;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
-
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        // the fullEncryptedData is xx bytes long, the first xx bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        // the response is encryptedData || responseMAC (8 bytes) || SW1 SW2, both are used in place
+        int encryptedDataLength = response.length - 2 - 8;
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
 
         // start decrypting the data
-        //byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] padding = hexStringToByteArray("0000000000000000"); // fixed 8 bytes
         byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(IV_LABEL_DEC, 0, IV_LABEL_DEC.length);
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
-        // 00000000800000000000000000000000 should be like value (4 bytes LSB) || 12 padding bytes (0x80..00)
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, 4);
-        log(methodName, printData("readData", readData));
-
-        // verifying the received Response MAC
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return byteArrayLength4InversedToInt(decryptedData);
-        } else {
-            log(methodName, methodName + " FAILURE");
+        byte[] ivInputResponse = getIvInputResponse();
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        // verifying the received Response MAC, it is calculated over the encrypted data so this is done before
+        // the data gets decrypted in place
+        if (!verifyResponseMac(response, encryptedDataLength)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return -1;
         }
+        // 00000000800000000000000000000000 should be like value (4 bytes LSB) || 12 padding bytes (0x80..00)
+        byte[] readData = decryptResponseData(ivResponse, response, encryptedDataLength);
+        if ((readData == null) || (readData.length != 4)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE, the decrypted data has a wrong padding or length");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE, the decrypted data has a wrong padding or length";
+            return -1;
+        }
+        log(methodName, "readData", readData);
+        if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return byteArrayLength4InversedToInt(readData);
     }
 
     /**
@@ -4297,9 +4371,27 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      */
 
     public boolean changeAValueFile(byte fileNumber, int changeValue, boolean isCredit) {
+        return changeAValueFile(fileNumber, changeValue, isCredit ? CREDIT_VALUE_FILE_COMMAND : DEBIT_VALUE_FILE_COMMAND);
+    }
+
+    /**
+     * limited credits the value of a Value file in Communication modes Plain, MACed or Full enciphered. The
+     * limited credit is allowed with the Write key and needs the limitedCreditOperation enabled in the file
+     * settings, the value is limited by the sum of the debits in the last transactions.
+     *
+     * @param fileNumber  | in range 0..31
+     * @param changeValue | minimum 1, maximum depending on fileSettings
+     * @return | true on success
+     */
+
+    public boolean limitedCreditAValueFile(byte fileNumber, int changeValue) {
+        return changeAValueFile(fileNumber, changeValue, LIMITED_CREDIT_VALUE_FILE_COMMAND);
+    }
+
+    private boolean changeAValueFile(byte fileNumber, int changeValue, byte valueCommand) {
         String logData = "";
         final String methodName = "changeAValueFile";
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         log(methodName, "started", true);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -4307,7 +4399,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // getFileSettings for file type communication mode and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -4317,7 +4409,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsValueFileType(fileNumber)) return false;
         // the check on authentication depends on the communication mode in file settings:
-        byte commMode = fileSettings.getCommunicationSettings();
+        // a free access is Plain when the authenticated key has no access right
+        byte commMode = getCommunicationSettingsForAccess(fileSettings, getValueCommandAccess(valueCommand));
         boolean isPlainCommunicationMode = false;
         /*
         if ((commMode == (byte) 0x00)) {
@@ -4338,11 +4431,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         boolean isPlainMode = false;
         boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         } else {
@@ -4350,93 +4443,90 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
 
         if (isPlainMode) {
-            return changeAValueFileRawPlain(fileNumber, changeValue, isCredit);
+            return changeAValueFileRawPlain(fileNumber, changeValue, valueCommand);
         } else {
             if (isMacedMode) {
-                return changeAValueFileRawMac(fileNumber, changeValue, isCredit);
+                return changeAValueFileRawMac(fileNumber, changeValue, valueCommand);
             } else {
-                return changeAValueFileRawFull(fileNumber, changeValue, isCredit);
+                return changeAValueFileRawFull(fileNumber, changeValue, valueCommand);
             }
         }
     }
 
+    private static AuthenticationManager.Access getValueCommandAccess(byte valueCommand) {
+        if (valueCommand == CREDIT_VALUE_FILE_COMMAND) return AuthenticationManager.Access.READ_WRITE;
+        if (valueCommand == LIMITED_CREDIT_VALUE_FILE_COMMAND) return AuthenticationManager.Access.WRITE;
+        return AuthenticationManager.Access.READ;
+    }
+
     /**
-     * credits or debits the value of a Value file in Communication mode Plain.
+     * credits, debits or limited credits the value of a Value file in Communication mode Plain.
      * Note: There are no sanity checks on parameter, Communication mode or authentication status
      * so this method should be called by 'changeAValueFile' only.
      *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
+     * @param fileNumber   | in range 0..31
+     * @param changeValue  | minimum 1, maximum depending on fileSettings
+     * @param valueCommand | CREDIT_VALUE_FILE_COMMAND, DEBIT_VALUE_FILE_COMMAND or LIMITED_CREDIT_VALUE_FILE_COMMAND
      * @return | true on success
      */
-    private boolean changeAValueFileRawPlain(byte fileNumber, int changeValue, boolean isCredit) {
+    private boolean changeAValueFileRawPlain(byte fileNumber, int changeValue, byte valueCommand) {
         String logData = "";
         final String methodName = "changeAValueFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isTraceDebugEnabled()) log(methodName, "valueCommand: " + Utils.byteToHex(valueCommand));
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkIsoDep()) return false;
 
         byte[] changeValueBytes = Utils.intTo4ByteArrayInversed(changeValue);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(changeValueBytes, 0, changeValueBytes.length);
-        byte[] commandParameter = baos.toByteArray();
+        byte[] commandParameter = getCommandData(new byte[]{fileNumber}, changeValueBytes, null);
         byte[] apdu;
         byte[] response;
         try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, commandParameter);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, commandParameter);
-            }
+            apdu = wrapMessage(valueCommand, commandParameter);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1, even when working in CommMode Plain
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
     }
 
     /**
-     * credits or debits the value of a Value file in Communication mode MACed.
+     * credits, debits or limited credits the value of a Value file in Communication mode MACed.
      * Note: There are no sanity checks on parameter, Communication mode or authentication status
      * so this method should be called by 'changeAValueFile' only.
      *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
+     * @param fileNumber   | in range 0..31
+     * @param changeValue  | minimum 1, maximum depending on fileSettings
+     * @param valueCommand | CREDIT_VALUE_FILE_COMMAND, DEBIT_VALUE_FILE_COMMAND or LIMITED_CREDIT_VALUE_FILE_COMMAND
      * @return | true on success
      */
 
-    private boolean changeAValueFileRawMac(byte fileNumber, int changeValue, boolean isCredit) {
+    private boolean changeAValueFileRawMac(byte fileNumber, int changeValue, byte valueCommand) {
         String logData = "";
         final String methodName = "changeAValueFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isTraceDebugEnabled()) log(methodName, "valueCommand: " + Utils.byteToHex(valueCommand));
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkAuthentication()) return false;
@@ -4456,68 +4546,53 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number || changeValueLength) )
         byte[] changeValueBytes = intTo4ByteArrayInversed(changeValue);
         byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, changeValueBytes);
-        }
-        log(methodName, printData("macInput", macInput));
+        macInput = getMacInput(valueCommand, new byte[]{fileNumber}, changeValueBytes);
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || changeValue || MAC)
-        ByteArrayOutputStream baosChangeValueCommand = new ByteArrayOutputStream();
-        baosChangeValueCommand.write(fileNumber);
-        baosChangeValueCommand.write(changeValueBytes, 0, changeValueBytes.length);
-        baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeValueCommand", changeValueCommand));
+        byte[] changeValueCommand = getCommandData(new byte[]{fileNumber}, changeValueBytes, macTruncated);
+        log(methodName, "changeValueCommand", changeValueCommand);
 
         byte[] response;
         byte[] apdu;
-        byte[] responseMACTruncatedReceived;
         try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, changeValueCommand);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
-            }
+            apdu = wrapMessage(valueCommand, changeValueCommand);
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4525,23 +4600,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
     }
 
     /**
-     * credits or debits the value of a Value file in Communication mode Full enciphered.
+     * credits, debits or limited credits the value of a Value file in Communication mode Full enciphered.
      * Note: There are no sanity checks on parameter, Communication mode or authentication status
      * so this method should be called by 'changeAValueFile' only.
      *
-     * @param fileNumber  | in range 0..31
-     * @param changeValue | minimum 1, maximum depending on fileSettings
-     * @param isCredit    | true for crediting, false for debiting
+     * @param fileNumber   | in range 0..31
+     * @param changeValue  | minimum 1, maximum depending on fileSettings
+     * @param valueCommand | CREDIT_VALUE_FILE_COMMAND, DEBIT_VALUE_FILE_COMMAND or LIMITED_CREDIT_VALUE_FILE_COMMAND
      * @return | true on success
      */
 
-    private boolean changeAValueFileRawFull(byte fileNumber, int changeValue, boolean isCredit) {
+    private boolean changeAValueFileRawFull(byte fileNumber, int changeValue, byte valueCommand) {
         String logData = "";
         final String methodName = "changeAValueFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "changeValue: " + changeValue);
-        log(methodName, "isCredit: " + isCredit);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "changeValue: " + changeValue);
+        if (isTraceDebugEnabled()) log(methodName, "valueCommand: " + Utils.byteToHex(valueCommand));
 
         if (!checkValueMinus(changeValue)) return false;
         if (!checkAuthentication()) return false;
@@ -4560,101 +4635,89 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // encrypting the command data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(valueCommand);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (Value || Padding)
         // 71000000800000000000000000000000 ( 4 bytes LSB value || 12 bytes padding, starting with 0x80 00)
         byte[] value = intTo4ByteArrayInversed(changeValue);
-        log(methodName, printData("value", value));
-        byte[] padding2 = hexStringToByteArray("800000000000000000000000"); // 12 bytes
-        log(methodName, printData("padding2", padding2));
-        byte[] data = concatenate(value, padding2);
-        log(methodName, printData("data", data));
+        log(methodName, "value", value);
 
-        // Encrypt Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        // Encrypt Command Data = E(KSesAuthENC, Data), the padding is added in the same pass
+        byte[] encryptedData = encryptPaddedCommandData(ivForCmdData, value);
+        if (encryptedData == null) {
+            Log.e(TAG, methodName + " encryption of the data failed, aborted");
+            log(methodName, "encryption of the data failed, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "encryption of the data failed";
+            return false;
+        }
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader = FileNo
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput;
-        if (isCredit) {
-            macInput = getMacInput(CREDIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        } else {
-            macInput = getMacInput(DEBIT_VALUE_FILE_COMMAND, new byte[]{fileNumber}, encryptedData);
-        }
-        log(methodName, printData("macInput", macInput));
+        macInput = getMacInput(valueCommand, new byte[]{fileNumber}, encryptedData);
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Feature and Hints page 70 point 23
         // wrong: Data (CmdHeader || MAC) and Data Messaging
         // correct: see below
         // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosChangeValueCommand = new ByteArrayOutputStream();
-        baosChangeValueCommand.write(fileNumber);
-        baosChangeValueCommand.write(encryptedData, 0, encryptedData.length);
-        baosChangeValueCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] changeValueCommand = baosChangeValueCommand.toByteArray();
-        log(methodName, printData("changeCommand", changeValueCommand));
+        byte[] changeValueCommand = getCommandData(new byte[]{fileNumber}, encryptedData, macTruncated);
+        log(methodName, "changeCommand", changeValueCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
-        byte[] responseMACTruncatedReceived;
         try {
-            if (isCredit) {
-                apdu = wrapMessage(CREDIT_VALUE_FILE_COMMAND, changeValueCommand);
-            } else {
-                apdu = wrapMessage(DEBIT_VALUE_FILE_COMMAND, changeValueCommand);
-            }
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            apdu = wrapMessage(valueCommand, changeValueCommand);
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4671,7 +4734,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
      * uses the 'Full' path. If the comm mode is 'MACed' the method ends a there is no method available
      * within this class to handle those files, sorry.
      * The data is written to the offset position of the file
-     * If the data length exceeds the MAXIMUM_WRITE_MESSAGE_LENGTH the data will be written in chunks.
+     * If the data length exceeds the negotiated frame size (see getMaximumFrameDataLength) the data will be written in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      * If the data length exceeds record size the data is truncated
      *
@@ -4685,9 +4748,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
         if ((data == null) || (data.length < 1) || (data.length > MAXIMUM_FILE_SIZE)) {
@@ -4701,7 +4764,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // checking fileSettings for Communication.mode
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -4713,16 +4776,19 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         boolean isPlainMode = false;
         boolean isMacedMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        // a free access is Plain when the authenticated key has no access right
+        byte communicationSettings = getCommunicationSettingsForAccess(fileSettings, AuthenticationManager.Access.WRITE);
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         } else {
             if (!isMacedMode) log(methodName, "CommunicationMode is Full enciphered");
         }
+        if ((!isPlainMode) && (!checkAuthentication())) return false;
         // handling the situation where offset + data length > fileSize
         // priority is the offset, so data that is larger than remaining fileSize is truncated
         int dataLength = data.length;
@@ -4731,18 +4797,18 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             data = Arrays.copyOf(data, (fileSizeInt - offset));
             dataLength = data.length;
             Log.d(TAG, "data is truncated due to offset and fileSize");
-            Log.d(TAG, printData("new data", data));
+            logcat("new data", data);
         }
 
-        // The chunking is done to avoid framing as the maximum command APDU length is limited to 66
-        // bytes including all overhead and attached MAC
-
-        int numberOfWrites = dataLength / MAXIMUM_WRITE_MESSAGE_LENGTH;
-        int numberOfWritesMod = Utils.mod(dataLength, MAXIMUM_WRITE_MESSAGE_LENGTH);
+        // The chunking is done to avoid framing, the chunk length is negotiated with the reader and
+        // depends on the communication mode (overhead of the attached MAC and padding)
+        int writeChunkLength = getMaximumWriteDataLength(communicationSettings, dataLength);
+        int numberOfWrites = dataLength / writeChunkLength;
+        int numberOfWritesMod = Utils.mod(dataLength, writeChunkLength);
         if (numberOfWritesMod > 0) numberOfWrites++; // one extra write for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
+        logcat("data length: " + dataLength + " numberOfWrites: " + numberOfWrites);
         boolean completeSuccess = true;
-        int numberOfDataToWrite = MAXIMUM_WRITE_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToWrite = writeChunkLength; // we are starting with a maximum length
         int offsetChunk = 0;
         for (int i = 0; i < numberOfWrites; i++) {
             if (offsetChunk + numberOfDataToWrite > dataLength) {
@@ -4779,9 +4845,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
 
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
@@ -4796,21 +4862,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset);
         byte[] lengthOfDataBytes = Utils.intTo3ByteArrayInversed(data.length);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(offsetBytes, 0, offsetBytes.length);
-        baos.write(lengthOfDataBytes, 0, lengthOfDataBytes.length);
-        baos.write(data, 0, data.length);
-        byte[] commandParameter = baos.toByteArray();
+        // Data (FileNo || Offset || DataLength || Data)
+        byte[] commandParameter = getCommandData(getDataCommandHeader(fileNumber, offsetBytes, lengthOfDataBytes), data, null);
 
         byte[] apdu;
         byte[] response;
         try {
-            apdu = wrapMessage(WRITE_RECORD_FILE_SECURE_COMMAND, commandParameter);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_RECORD_FILE_SECURE_COMMAND, commandParameter);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -4818,16 +4879,14 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             errorCodeReason = "FAILURE";
             return false;
         }
@@ -4837,81 +4896,69 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offset: " + offset);
-        log(methodName, printData("data", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offset: " + offset);
+        log(methodName, "data", data);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength) Note: DataLength and NOT Data, e.g. 190000 for length = 25
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(data.length); // LSB order
-        log(methodName, printData("offsetBytes", offsetBytes));
-        log(methodName, printData("lengthBytes", lengthBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "offsetBytes", offsetBytes);
+        log(methodName, "lengthBytes", lengthBytes);
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         //(Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, data);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLength || Data)
-        ByteArrayOutputStream baosWriteDataCommand = new ByteArrayOutputStream();
-        baosWriteDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteDataCommand.write(data, 0, data.length);
-        baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        byte[] writeDataCommand = getCommandData(cmdHeader, data, macTruncated);
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response;
         byte[] apdu;
-        byte[] responseMACTruncatedReceived;
         try {
-            apdu = wrapMessage(WRITE_RECORD_FILE_SECURE_COMMAND, writeDataCommand);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_RECORD_FILE_SECURE_COMMAND, writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -4924,8 +4971,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "writeToARecordFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, printData("dataToWrite", data));
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        log(methodName, "dataToWrite", data);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkOffsetMinus(offset)) return false;
@@ -4937,54 +4984,29 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         }
         if (!checkIsoDep()) return false;
 
-        // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
-        byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
-
-        int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
-        List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
-
         // Encrypting the Command Data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(WRITE_RECORD_FILE_SECURE_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
-
-        List<byte[]> dataBlockEncryptedList = new ArrayList<>();
-        byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
-
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
-            dataBlockEncryptedList.add(dataBlockEncrypted);
-            ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
-        }
-        // log(methodName, printData("startingIv", startingIv));
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
-        }
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
-        // Encrypted Data (complete), concatenate all byte arrays
-        ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
-        for (int i = 0; i < numberOfDataBlocks; i++) {
-            try {
-                baosDataEncrypted.write(dataBlockEncryptedList.get(i));
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on concatenating encrypted dataBlocks, aborted\n" +
-                        e.getMessage());
-                errorCode = RESPONSE_FAILURE.clone();
-                errorCodeReason = "IOException: transceive failed: " + e.getMessage();
-                return false;
-            }
+        // the data is padded according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
+        // and encrypted in one CBC pass
+        log(methodName, "data unpad", data);
+        byte[] encryptedData = encryptPaddedCommandData(ivForCmdData, data);
+        if (encryptedData == null) {
+            Log.e(TAG, methodName + " encryption of the data failed, aborted");
+            log(methodName, "encryption of the data failed, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "encryption of the data failed";
+            return false;
         }
-        byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -4992,71 +5014,59 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         //int offsetBytes = 0; // read from the beginning
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] dataSizeBytes = Utils.intTo3ByteArrayInversed(dataSizeInt); // LSB order
-        log(methodName, printData("dataSizeBytes", dataSizeBytes));
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(dataSizeBytes, 0, dataSizeBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "dataSizeBytes", dataSizeBytes);
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, dataSizeBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         byte[] macInput = getMacInput(WRITE_RECORD_FILE_SECURE_COMMAND, cmdHeader, encryptedData);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
-        ByteArrayOutputStream baosWriteRecordCommand = new ByteArrayOutputStream();
-        baosWriteRecordCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosWriteRecordCommand.write(encryptedData, 0, encryptedData.length);
-        baosWriteRecordCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] writeRecordCommand = baosWriteRecordCommand.toByteArray();
-        log(methodName, printData("writeRecordCommand", writeRecordCommand));
+        byte[] writeRecordCommand = getCommandData(cmdHeader, encryptedData, macTruncated);
+        log(methodName, "writeRecordCommand", writeRecordCommand);
 
         byte[] response;
         byte[] apdu;
-        byte[] responseMACTruncatedReceived;
         try {
-            apdu = wrapMessage(WRITE_RECORD_FILE_SECURE_COMMAND, writeRecordCommand);
-            response = sendData(apdu);
+            response = sendCommandChained(WRITE_RECORD_FILE_SECURE_COMMAND, writeRecordCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
         }
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
-        responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+        // the response is the MAC only
+        if (verifyResponseMac(response, 0)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5096,9 +5106,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5108,7 +5118,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -5119,7 +5129,8 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         int fileSize = fileSettings.getRecordSizeInt(); // size of a single record
         if (!checkIsRecordFileType(fileNumber)) return null;
         // the check on authentication depends on the communication mode in file settings:
-        byte commMode = fileSettings.getCommunicationSettings();
+        // a free access is Plain when the authenticated key has no access right
+        byte commMode = getCommunicationSettingsForAccess(fileSettings, AuthenticationManager.Access.READ);
 /*
         if (commMode == (byte) 0x00) {
             // Plain
@@ -5139,15 +5150,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         boolean isPlainMode = false;
         boolean isMacedMode = false;
         boolean isFullMode = false;
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_PLAIN) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_PLAIN) {
             isPlainMode = true;
             log(methodName, "CommunicationMode is Plain");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_MACED) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_MACED) {
             isMacedMode = true;
             log(methodName, "CommunicationMode is MACed");
         }
-        if (fileSettings.getCommunicationSettings() == FILE_COMMUNICATION_SETTINGS_FULL) {
+        if (commMode == FILE_COMMUNICATION_SETTINGS_FULL) {
             isFullMode = true;
             log(methodName, "CommunicationMode is Full");
         }
@@ -5170,6 +5181,95 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         return dataToRead;
     }
 
+    /**
+     * Reads all records of a Linear or Cyclic Record file and delivers them one by one from the newest to the
+     * oldest record. The records are read in windows of some records, newest window first, with one
+     * ReadRecords command per window (offsetRecord = offset from the newest record). The records of a window
+     * are delivered after the response MAC is verified (and the data is decrypted in Full mode), so only
+     * verified records reach the RecordVisitor and only one window is held in memory.
+     * When the RecordVisitor returns false no further window is read, e.g. to stop at the latest matching
+     * record of an audit log:
+     * RecordReadResult result = desfireEv3.readAllRecords(fileNumber, filter, new RecordVisitor() {
+     * public boolean onRecord(int recordNumber, byte[] record) { latestRecord[0] = record; return false; }
+     * });
+     * As each ReadRecords command is complete a stop keeps the authentication, the next command can follow
+     * directly.
+     * The number of existing records is taken from a fresh GetFileSettings, so a read never runs into the
+     * boundary error of the PICC (that would end the authentication), an empty file is EMPTY without a
+     * ReadRecords command.
+     *
+     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
+     * @param filter     | selects the delivered records, NULL delivers all records
+     * @param visitor    | receives the records
+     * @return VERIFIED, EMPTY, STOPPED or FAILED
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public RecordReadResult readAllRecords(byte fileNumber, RecordFilter filter, RecordVisitor visitor) {
+        final String methodName = "readAllRecords";
+        log(methodName, "started", true);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        // sanity checks
+        if (!checkFileNumber(fileNumber)) return RecordReadResult.FAILED;
+        if (visitor == null) {
+            log(methodName, "visitor is NULL, aborted");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "visitor is NULL";
+            return RecordReadResult.FAILED;
+        }
+        if (!checkIsoDep()) return RecordReadResult.FAILED;
+        if (!checkIsRecordFileType(fileNumber)) return RecordReadResult.FAILED;
+        // the number of existing records changes with every committed write, it is not taken from the cache
+        byte[] fileSettingsBytes = getFileSettings(fileNumber);
+        if (fileSettingsBytes == null) {
+            log(methodName, "could not read fileSettings, aborted");
+            errorCode = RESPONSE_FAILURE_MISSING_GET_FILE_SETTINGS.clone();
+            errorCodeReason = "could not read fileSettings, aborted";
+            return RecordReadResult.FAILED;
+        }
+        FileSettings fileSettings = new FileSettings(fileNumber, fileSettingsBytes);
+        int recordSize = fileSettings.getRecordSizeInt();
+        int numberOfRecords = fileSettings.getRecordsExistingInt();
+        if (isTraceDebugEnabled()) log(methodName, "recordSize: " + recordSize + " numberOfRecords: " + numberOfRecords);
+        if (numberOfRecords == 0) {
+            errorCode = RESPONSE_OK.clone();
+            errorCodeReason = methodName + " the file has no records";
+            return RecordReadResult.EMPTY;
+        }
+        // a window of records fills about one frame, a larger window saves commands when all records are read,
+        // a smaller one saves reading when the visitor stops early
+        int recordsPerWindow = Math.max(getMaximumFrameDataLength() / recordSize, 1);
+        int offsetRecord = 0;
+        while (offsetRecord < numberOfRecords) {
+            int numberOfRecordsToRead = Math.min(recordsPerWindow, numberOfRecords - offsetRecord);
+            byte[] window = readFromARecordFile(fileNumber, offsetRecord, numberOfRecordsToRead);
+            if ((window == null) || (window.length != numberOfRecordsToRead * recordSize)) {
+                if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE at record " + offsetRecord);
+                if (window != null) {
+                    errorCode = RESPONSE_FAILURE.clone();
+                    errorCodeReason = methodName + " FAILURE, the data length is not " + numberOfRecordsToRead + " records";
+                }
+                return RecordReadResult.FAILED;
+            }
+            // the PICC sends the oldest record of the window first
+            for (int i = numberOfRecordsToRead - 1; i >= 0; i--) {
+                byte[] record = Arrays.copyOfRange(window, i * recordSize, (i + 1) * recordSize);
+                if ((filter != null) && (!filter.accept(record))) continue;
+                int recordNumber = offsetRecord + (numberOfRecordsToRead - 1 - i);
+                if (!visitor.onRecord(recordNumber, record)) {
+                    if (isTraceDebugEnabled()) log(methodName, "stopped by the visitor at record " + recordNumber);
+                    errorCode = RESPONSE_OK.clone();
+                    errorCodeReason = methodName + " stopped by the visitor";
+                    return RecordReadResult.STOPPED;
+                }
+            }
+            offsetRecord += numberOfRecordsToRead;
+        }
+        if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS, records read: " + numberOfRecords);
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return RecordReadResult.VERIFIED;
+    }
+
     private byte[] readFromARecordFileRawPlain(byte fileNumber, int offsetRecord, int numberOfRecordsToRead) {
         // see Mifare DESFire Light Features and Hints AN12343.pdf pages 65 - 67
         /*
@@ -5190,9 +5290,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5201,32 +5301,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         byte[] offsetRecordBytes = Utils.intTo3ByteArrayInversed(offsetRecord);
         byte[] numberOfRecordsToReadBytes = Utils.intTo3ByteArrayInversed(numberOfRecordsToRead);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(fileNumber);
-        baos.write(offsetRecordBytes, 0, offsetRecordBytes.length);
-        baos.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
-        byte[] commandParameter = baos.toByteArray();
+        byte[] commandParameter = getDataCommandHeader(fileNumber, offsetRecordBytes, numberOfRecordsToReadBytes);
 
-        byte[] response;
-        byte[] fullData;
-        response = sendRequest(READ_RECORD_FILE_COMMAND, commandParameter);
+        byte[] response = sendRequest(READ_RECORD_FILE_COMMAND, commandParameter);
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullData = getData(response);
+            logcat(methodName + " SUCCESS");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
-        // as we authenticated before reading the PICC is adding 8 bytes long MAC that is stripped off
-        return Arrays.copyOf(fullData, fullData.length - 8);
+        // a response in communication mode Plain has no MAC, even in the authenticated state
+        return Arrays.copyOf(response, response.length - 2);
     }
 
 
@@ -5250,9 +5341,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5263,63 +5354,46 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // CmdHeader (FileNo || Offset || DataLength) or (FileNo || OffsetRecord || NumberOfRecordsToReadLength)
         byte[] offsetRecordBytes = Utils.intTo3ByteArrayInversed(offsetRecord); // LSB order
         byte[] numberOfRecordsToReadBytes = Utils.intTo3ByteArrayInversed(numberOfRecordsToRead); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
-        baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetRecordBytes, numberOfRecordsToReadBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(READ_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
-        ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
-        baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        byte[] readDataCommand = getCommandData(cmdHeader, null, macTruncated);
+        log(methodName, "readDataCommand", readDataCommand);
 
-        byte[] response;
-        byte[] fullMacedData;
-        byte[] macedData;
-        byte[] responseMACTruncatedReceived;
-        response = sendRequest(READ_RECORD_FILE_COMMAND, readDataCommand);
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        byte[] response = sendRequest(READ_RECORD_FILE_COMMAND, readDataCommand);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now check the received MAC");
-            fullMacedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now check the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
-        macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        // the response is MACed Data || MAC || SW1 SW2, the MAC is verified in the response
+        int macedDataLength = response.length - 2 - 8;
+        if (isTraceDebugEnabled()) log(methodName, "The macedData length is " + macedDataLength);
 
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -5328,20 +5402,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return null;
         }
         int recordSize = fileSettings.getRecordSizeInt();
-        int fullLength = macedData.length;
-        int fullRecords = fullLength / recordSize;
-        Log.e(TAG, "fullRecords: " + fullRecords);
-        byte[] readData = Arrays.copyOfRange(macedData, 0, (fullRecords * recordSize)); // just return the real data
-        //byte[] readData = Arrays.copyOfRange(decryptedData, 0, ((fullRecords - 1) * recordSize)); // just return the real data, -1 is for adjusting the padding
-        log(methodName, printData("readData", readData));
-
-        if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+        if (verifyResponseMac(response, macedDataLength)) {
+            int fullRecords = macedDataLength / recordSize;
+            byte[] readData = Arrays.copyOf(response, (fullRecords * recordSize)); // just return the real data
+            log(methodName, "readData", readData);
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -5368,9 +5438,9 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "readFromARecordFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
-        log(methodName, "offsetRecord: " + offsetRecord);
-        log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "offsetRecord: " + offsetRecord);
+        if (isTraceDebugEnabled()) log(methodName, "numberOfRecordsToRead: " + numberOfRecordsToRead);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkOffsetMinus(offsetRecord)) return null;
@@ -5381,115 +5451,76 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // CmdHeader (FileNo || RecordNo || RecordCount)
         byte[] offsetRecordBytes = Utils.intTo3ByteArrayInversed(offsetRecord); // LSB order
         byte[] numberOfRecordsToReadBytes = Utils.intTo3ByteArrayInversed(numberOfRecordsToRead); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetRecordBytes, 0, offsetRecordBytes.length);
-        baosCmdHeader.write(numberOfRecordsToReadBytes, 0, numberOfRecordsToReadBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetRecordBytes, numberOfRecordsToReadBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader )
         byte[] macInput = getMacInput(READ_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadRecords Command APDU
         // Data (CmdHeader || MAC)
         // Constructing the full ReadData Command APDU
-        ByteArrayOutputStream baosReadRecordCommand = new ByteArrayOutputStream();
-        baosReadRecordCommand.write(cmdHeader, 0, cmdHeader.length);
-        baosReadRecordCommand.write(macTruncated, 0, macTruncated.length);
-        byte[] readDataCommand = baosReadRecordCommand.toByteArray();
-        log(methodName, printData("readRecordCommand", readDataCommand));
-        byte[] response;
-        byte[] apdu;
-        byte[] fullEncryptedData;
-        byte[] encryptedData;
-        byte[] responseMACTruncatedReceived;
-        response = sendRequest(READ_RECORD_FILE_COMMAND, readDataCommand);
-        byte[] responseBytes = returnStatusBytes(response);
-        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        byte[] readDataCommand = getCommandData(cmdHeader, null, macTruncated);
+        log(methodName, "readRecordCommand", readDataCommand);
+        byte[] response = sendRequest(READ_RECORD_FILE_COMMAND, readDataCommand);
+        System.arraycopy(response, response.length - 2, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
-            fullEncryptedData = Arrays.copyOf(response, response.length - 2);
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, errorCode);
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
-        // e.g. the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
-        int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
-        encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
-        responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        // e.g. the response without the status bytes is 56 bytes long, the first 48 bytes are encryptedData and the last
+        // 8 bytes are the responseMAC, both are used in place
+        int encryptedDataLength = response.length - 2 - 8;
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
 
         // start decrypting the data
-        byte[] header = new byte[]{(byte) (0x5A), (byte) (0xA5)}; // fixed to 0x5AA5
-        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
-        byte[] padding = hexStringToByteArray("0000000000000000");
         byte[] startingIv = new byte[16];
-        ByteArrayOutputStream decryptBaos = new ByteArrayOutputStream();
-        decryptBaos.write(header, 0, header.length);
-        decryptBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
-        decryptBaos.write(padding, 0, padding.length);
-        byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData)); // should be the cardUID || 9 zero bytes
-        // the decrypted data contains the padding that needs to get removed
-        // getFileSettings for file type and length information
-        FileSettings fileSettings;
-        try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
-        } catch (NullPointerException e) {
-            Log.e(TAG, methodName + " could not read fileSettings, aborted");
-            log(methodName, "could not read fileSettings, aborted");
-            errorCode = RESPONSE_FAILURE_MISSING_GET_FILE_SETTINGS.clone();
-            errorCodeReason = "could not read fileSettings, aborted";
+        byte[] ivInputResponse = getIvInputResponse();
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        // the MAC is calculated over the encrypted data, so it is verified before the data gets decrypted in place
+        if (!verifyResponseMac(response, encryptedDataLength)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE";
             return null;
         }
-        int recordSize = fileSettings.getRecordSizeInt();
-        int fullLength = decryptedData.length;
-        int fullRecords = fullLength / recordSize;
-        Log.e(TAG, "fullRecords: " + fullRecords);
-        //byte[] readData = Arrays.copyOfRange(decryptedData, 0, (fullRecords * recordSize)); // just return the real data
-        byte[] readData = Arrays.copyOfRange(decryptedData, 0, ((fullRecords - 1) * recordSize)); // just return the real data, -1 is for adjusting the padding
-        log(methodName, printData("readData", readData));
-
-        if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = methodName + " SUCCESS";
-            return readData;
-        } else {
-            log(methodName, methodName + " FAILURE");
+        // the decrypted data contains the padding that is removed in the same pass
+        byte[] readData = decryptResponseData(ivResponse, response, encryptedDataLength);
+        if (readData == null) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE, the decrypted data has a wrong padding");
             errorCode = RESPONSE_FAILURE.clone();
-            errorCodeReason = methodName + " FAILURE";
+            errorCodeReason = methodName + " FAILURE, the decrypted data has a wrong padding";
             return null;
         }
+        log(methodName, "readData", readData);
+        if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return readData;
     }
 
     public boolean clearARecordFile(byte fileNumber) {
         String logData = "";
         final String methodName = "clearARecordFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false;
         if (!checkAuthentication()) return false;
@@ -5498,7 +5529,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // checking fileSettings for Communication.mode
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -5513,19 +5544,19 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || CmdData )
         byte[] macInput = getMacInput(CLEAR_RECORD_FILE_COMMAND, cmdHeader);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         // Data (FileNo || Offset || DataLength)
@@ -5533,7 +5564,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommand.write(cmdHeader, 0, cmdHeader.length);
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] clearRecordFileCommand = baosCommand.toByteArray();
-        log(methodName, printData("clearRecordFileCommand", clearRecordFileCommand));
+        log(methodName, "clearRecordFileCommand", clearRecordFileCommand);
 
         byte[] response;
         byte[] fullMacedData;
@@ -5544,24 +5575,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the MAC");
+            logcat(methodName + " SUCCESS, now verifying the MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5581,7 +5611,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "deleteTransactionMacFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
 
         // as the TMAC file was created as Plain communication the authentication was done using
@@ -5600,7 +5630,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             return false;
         }
 
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -5612,35 +5642,35 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = fileNumber)
         byte[] macInput = getMacInput(DELETE_TRANSACTION_MAC_FILE_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = fileNumber || MAC)
         ByteArrayOutputStream baosDeleteTransactionMacFileCommand = new ByteArrayOutputStream();
         baosDeleteTransactionMacFileCommand.write(fileNumber);
         baosDeleteTransactionMacFileCommand.write(macTruncated, 0, macTruncated.length);
         byte[] deleteTransactionMacFileCommand = baosDeleteTransactionMacFileCommand.toByteArray();
-        log(methodName, printData("deleteTransactionMacFileCommand", deleteTransactionMacFileCommand));
+        log(methodName, "deleteTransactionMacFileCommand", deleteTransactionMacFileCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(DELETE_TRANSACTION_MAC_FILE_COMMAND, deleteTransactionMacFileCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5648,16 +5678,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in Features and Hints is a 'short cutted' version what is done here
@@ -5665,12 +5694,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // verifying the received Response MAC
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5705,7 +5734,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5713,11 +5742,10 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS");
+            logcat(methodName + " SUCCESS");
             return true;
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
@@ -5739,7 +5767,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5765,12 +5793,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, null);
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full WriteData Command APDU
         // Data (FileNo || Offset || DataLenght || Data)
@@ -5790,7 +5818,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             //response = sendData(writeDataCommand);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5819,11 +5847,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         String logData = "";
         final String methodName = "commitTransactionFull";
         log(methodName, "started", true);
-        log(methodName, "isEnabledReturnTmcv: " + isEnabledReturnTmcv);
+        if (isTraceDebugEnabled()) log(methodName, "isEnabledReturnTmcv: " + isEnabledReturnTmcv);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkIsoDep()) return false;
         transactionMacFileReturnedTmcv = null;
+        loadMissingFileSettings();
 
         // check that a Transaction File is present in application
         if (!isTransactionMacFilePresent) {
@@ -5881,23 +5910,23 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
         // c707002c2b4e8e00
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -5906,7 +5935,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -5914,17 +5943,16 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             errorCodeReason = "checkResponseData failed";
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -5933,26 +5961,26 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -5993,15 +6021,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{commitTransactionOptionEnabledReturnTmcv});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6013,7 +6041,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(commitTransactionOptionEnabledReturnTmcv);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6022,7 +6050,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6030,16 +6058,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6048,25 +6075,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "responseTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6090,32 +6117,32 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         if (!checkIsoDep()) return false;
 
         // Constructing the full CommitReaderID Command APDU
-        log(methodName, printData("transactionMacReaderId", transactionMacReaderId));
+        log(methodName, "transactionMacReaderId", transactionMacReaderId);
         //byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
-        //log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        //log(methodName, "READER_ID", READER_ID);
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
         byte[] macInput = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, transactionMacReaderId);
 
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFullReader", macFullReader));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(transactionMacReaderId, 0, transactionMacReaderId.length);
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response;
@@ -6126,7 +6153,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6134,26 +6161,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
             encryptedResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // Encrypted Response Data EKSesAuthENC(Response Data)
         // sample: A1963F1BB9FC916A8B15B2DC58002531 (16 bytes)
         // decrypt the data
         int encryptedDataLength = encryptedResponseData.length - 8; // strip off the MAC
-        log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         boolean isTestMode = false;
@@ -6168,21 +6194,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
+        byte[] ivResponseReader = aesEncrypt(secureMessagingContext, startingIvReader, SesAuthENCKey, ivInputResponseReader);
+        log(methodName, "ivResponseReader", ivResponseReader);
+        byte[] decryptedData = aesDecrypt(secureMessagingContext, ivResponseReader, SesAuthENCKey, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is previous TMRI (latest TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6203,21 +6229,21 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(ABORT_TRANSACTION_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosAbortTransactionCommand = new ByteArrayOutputStream();
         baosAbortTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] abortTransactionCommand = baosAbortTransactionCommand.toByteArray();
-        log(methodName, printData("abortTransactionCommand", abortTransactionCommand));
+        log(methodName, "abortTransactionCommand", abortTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6226,7 +6252,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6234,31 +6260,68 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            logcat(methodName + " SUCCESS, now verifying the received MAC");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         //byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
         byte[] responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
         }
     }
 
+    /**
+     * aborts the transaction in Communication mode Plain, e.g. after an error status that ended the
+     * authentication, all changes on Backup, Value and Record files since the last commit are discarded
+     *
+     * @return true on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public boolean abortATransactionPlain() {
+        final String methodName = "abortATransactionPlain";
+        log(methodName, "started", true);
+        // sanity checks
+        if (!checkIsoDep()) return false;
+        byte[] apdu;
+        byte[] response;
+        try {
+            apdu = wrapMessage(ABORT_TRANSACTION_COMMAND, null);
+            response = sendData(apdu);
+        } catch (IOException e) {
+            Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            return false;
+        }
+        byte[] responseBytes = returnStatusBytes(response);
+        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        if (checkResponse(response)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
+            errorCodeReason = methodName + " SUCCESS";
+            return true;
+        } else {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            errorCodeReason = methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes);
+            return false;
+        }
+    }
+
     /**
      * For operations in Communication.Mode MACed or Full we need to get a MacInput method
      *
@@ -6269,19 +6332,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
     private byte[] getMacInput(byte command, byte[] options) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
+        log(methodName, "options", options);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(command);
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if ((options != null) && (options.length > 0)) {
-            baosMacInput.write(options, 0, options.length);
-        }
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        byte[] macInput = getMacInput(command, commandCounterLsb1, options, null);
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
@@ -6297,51 +6353,122 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
     private byte[] getMacInput(byte command, byte[] options, byte[] data) {
         String methodName = "getMacInput";
         log(methodName, "started", true);
-        log(methodName, printData("options", options));
-        log(methodName, printData("data", data));
+        log(methodName, "options", options);
+        log(methodName, "data", data);
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
-        baosMacInput.write(command);
-        baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if ((options != null) && (options.length > 0)) {
-            baosMacInput.write(options, 0, options.length);
-        }
-        if ((data != null) && (data.length > 0)) {
-            baosMacInput.write(data, 0, data.length);
-        }
-        byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        byte[] macInput = getMacInput(command, commandCounterLsb1, options, data);
+        log(methodName, "macInput", macInput);
         return macInput;
     }
 
     /**
      * For operations in Communication.Mode Full we need to get an IvInput method
      *
+     * @param command | the native DESFire command that gets the IV, the crypto time of the IV is booked on this command
      * @return
      */
 
-    private byte[] getIvInput() {
+    private byte[] getIvInput(byte command) {
         String methodName = "getIvInput";
         log(methodName, "started", true);
+        if (metrics.isEnabled()) metrics.setPreparedCommand(command);
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
-        log(methodName, printData("TransactionIdentifier", TransactionIdentifier));
-        byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
-        ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
-        baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
-        baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
-        baosIvInput.write(padding1, 0, padding1.length);
-        byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
+        log(methodName, "TransactionIdentifier", TransactionIdentifier);
+        // the 8 bytes padding are the zero bytes of the new array
+        byte[] ivInput = new byte[IV_LABEL_ENC.length + TransactionIdentifier.length + commandCounterLsb1.length + 8];
+        System.arraycopy(IV_LABEL_ENC, 0, ivInput, 0, IV_LABEL_ENC.length);
+        System.arraycopy(TransactionIdentifier, 0, ivInput, IV_LABEL_ENC.length, TransactionIdentifier.length);
+        System.arraycopy(commandCounterLsb1, 0, ivInput, IV_LABEL_ENC.length + TransactionIdentifier.length, commandCounterLsb1.length);
+        log(methodName, "ivInput", ivInput);
         return ivInput;
     }
 
+    /**
+     * For responses in Communication.Mode Full we need the IvInput of the response, call this after the
+     * CmdCounter is increased for the response
+     *
+     * @return IV_Input (0x5AA5 || TI || CmdCounter || Padding) in one array of the exact length
+     */
+    private byte[] getIvInputResponse() {
+        byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
+        // the 8 bytes padding are the zero bytes of the new array
+        byte[] ivInputResponse = new byte[IV_LABEL_DEC.length + TransactionIdentifier.length + commandCounterLsb2.length + 8];
+        System.arraycopy(IV_LABEL_DEC, 0, ivInputResponse, 0, IV_LABEL_DEC.length);
+        System.arraycopy(TransactionIdentifier, 0, ivInputResponse, IV_LABEL_DEC.length, TransactionIdentifier.length);
+        System.arraycopy(commandCounterLsb2, 0, ivInputResponse, IV_LABEL_DEC.length + TransactionIdentifier.length, commandCounterLsb2.length);
+        return ivInputResponse;
+    }
+
+    /**
+     * builds the MAC input (Ins || CmdCounter || TI || CmdHeader || CmdData) in one array of the exact length
+     *
+     * @param command            | the native DESFire command
+     * @param commandCounterLsb1 | CmdCounter in LSB order
+     * @param options            | CmdHeader, may be NULL
+     * @param data               | CmdData, may be NULL
+     */
+    private byte[] getMacInput(byte command, byte[] commandCounterLsb1, byte[] options, byte[] data) {
+        if (metrics.isEnabled()) metrics.setPreparedCommand(command);
+        int optionsLength = (options == null) ? 0 : options.length;
+        int dataLength = (data == null) ? 0 : data.length;
+        byte[] macInput = new byte[1 + commandCounterLsb1.length + TransactionIdentifier.length + optionsLength + dataLength];
+        macInput[0] = command;
+        int position = 1;
+        System.arraycopy(commandCounterLsb1, 0, macInput, position, commandCounterLsb1.length);
+        position += commandCounterLsb1.length;
+        System.arraycopy(TransactionIdentifier, 0, macInput, position, TransactionIdentifier.length);
+        position += TransactionIdentifier.length;
+        if (optionsLength > 0) {
+            System.arraycopy(options, 0, macInput, position, optionsLength);
+            position += optionsLength;
+        }
+        if (dataLength > 0) {
+            System.arraycopy(data, 0, macInput, position, dataLength);
+        }
+        return macInput;
+    }
+
+    /**
+     * builds the command header of a data or record file command (FileNo || Offset || Length)
+     *
+     * @param fileNumber  | the file number
+     * @param offsetBytes | 3 bytes offset in LSB order
+     * @param lengthBytes | 3 bytes length in LSB order
+     */
+    private byte[] getDataCommandHeader(byte fileNumber, byte[] offsetBytes, byte[] lengthBytes) {
+        byte[] cmdHeader = new byte[1 + offsetBytes.length + lengthBytes.length];
+        cmdHeader[0] = fileNumber;
+        System.arraycopy(offsetBytes, 0, cmdHeader, 1, offsetBytes.length);
+        System.arraycopy(lengthBytes, 0, cmdHeader, 1 + offsetBytes.length, lengthBytes.length);
+        return cmdHeader;
+    }
+
+    /**
+     * builds the command data (CmdHeader || CmdData || MAC) in one array of the exact length
+     *
+     * @param cmdHeader | the command header
+     * @param data      | the plain or encrypted command data, may be NULL
+     * @param mac       | the truncated MAC, may be NULL in Communication.Mode Plain
+     */
+    private byte[] getCommandData(byte[] cmdHeader, byte[] data, byte[] mac) {
+        int dataLength = (data == null) ? 0 : data.length;
+        int macLength = (mac == null) ? 0 : mac.length;
+        byte[] commandData = new byte[cmdHeader.length + dataLength + macLength];
+        System.arraycopy(cmdHeader, 0, commandData, 0, cmdHeader.length);
+        if (dataLength > 0) {
+            System.arraycopy(data, 0, commandData, cmdHeader.length, dataLength);
+        }
+        if (macLength > 0) {
+            System.arraycopy(mac, 0, commandData, cmdHeader.length + dataLength, macLength);
+        }
+        return commandData;
+    }
+
 
     public boolean commitTransactionFull() {
         // see Mifare DESFire Light Features and Hints AN12343.pdf pages 61 - 65
@@ -6365,22 +6492,22 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6389,7 +6516,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6397,16 +6524,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6415,26 +6541,26 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6464,15 +6590,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6484,7 +6610,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6493,7 +6619,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6501,16 +6627,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6519,25 +6644,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6570,15 +6695,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(COMMIT_TRANSACTION_COMMAND, new byte[]{COMMIT_TRANSACTION_OPTION_ENABLED});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         // this  is working ONLY when a TMAC file is present, otherwise the CommitTransaction command  is  rejected !
@@ -6590,7 +6715,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION_ENABLED);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
         byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -6599,7 +6724,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6607,16 +6732,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6625,25 +6749,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             transactionMacFileReturnedTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv));
+            log(methodName, "transactionMacFileReturnedTmcv", transactionMacFileReturnedTmcv);
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
         }
 
         if (verifyResponseMac(responseMACTruncatedReceived, transactionMacFileReturnedTmcv)) { // transactionMacFileReturnedTmcv is null in case NO TransactionMAC file is present or gets the TMC || TMV data
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -6667,7 +6791,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6679,28 +6803,28 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // we do need a ReaderId
         byte[] READER_ID = hexStringToByteArray("28BF1982BE086FBC60A22DAEB66613EE"); // 16 bytes
         byte[] iv0Reader = new byte[16];
-        log(methodName, printData("READER_ID", READER_ID));
-        log(methodName, printData("iv0Reader", iv0Reader));
+        log(methodName, "READER_ID", READER_ID);
+        log(methodName, "iv0Reader", iv0Reader);
 
         // MAC_Input (Ins || CmdCounter || TI || Data (= Reader ID) )
         byte[] macInputReader = getMacInput(COMMIT_READER_ID_SECURE_COMMAND, READER_ID);
-        log(methodName, printData("macInputReader", macInputReader));
+        log(methodName, "macInputReader", macInputReader);
 
         // MAC = CMAC(KSesAuthMAC, MAC_ Input)
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFullReader = calculateDiverseKey(SesAuthMACKey, macInputReader);
-        log(methodName, printData("macFullReader", macFullReader));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFullReader = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInputReader);
+        log(methodName, "macFullReader", macFullReader);
         // now truncate the MAC
         byte[] macTruncatedReader = truncateMAC(macFullReader);
-        log(methodName, printData("macTruncatedReader", macTruncatedReader));
+        log(methodName, "macTruncatedReader", macTruncatedReader);
 
         // construction of the commitTransactionData Data (Encrypted Data || MAC)
         ByteArrayOutputStream baosCommitTransactionReaderCommand = new ByteArrayOutputStream();
         baosCommitTransactionReaderCommand.write(READER_ID, 0, READER_ID.length); // todo check if the READ_ID is UNENCRYPTED send ??
         baosCommitTransactionReaderCommand.write(macTruncatedReader, 0, macTruncatedReader.length);
         byte[] commitTransactionReaderCommand = baosCommitTransactionReaderCommand.toByteArray();
-        log(methodName, printData("commitTransactionReaderCommand", commitTransactionReaderCommand));
+        log(methodName, "commitTransactionReaderCommand", commitTransactionReaderCommand);
 
 
         byte[] response = new byte[0];
@@ -6708,12 +6832,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] encryptedResponseData;
         try {
             apdu = wrapMessage(COMMIT_READER_ID_SECURE_COMMAND, commitTransactionReaderCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6721,26 +6845,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
             encryptedResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // Encrypted Response Data EKSesAuthENC(Response Data)
         // sample: A1963F1BB9FC916A8B15B2DC58002531 (16 bytes)
         // decrypt the data
         int encryptedDataLength = encryptedResponseData.length - 8;
-        log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedResponseData is of length " + encryptedResponseData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(encryptedResponseData, 0, encryptedDataLength);
         byte[] responseMACTruncatedReceivedReader = Arrays.copyOfRange(encryptedResponseData, encryptedDataLength, encryptedResponseData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         // IV_Input_Response = 0x5A || 0xA5 || TI || CmdCtr || 0x0000000000000000 (8 bytes padding)
@@ -6753,11 +6876,11 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         decryptBaosReader.write(commandCounterLsb2Reader, 0, commandCounterLsb2Reader.length);
         decryptBaosReader.write(paddingReader, 0, paddingReader.length);
         byte[] ivInputResponseReader = decryptBaosReader.toByteArray();
-        log(methodName, printData("ivInputResponseReader", ivInputResponseReader));
-        byte[] ivResponseReader = AES.encrypt(startingIvReader, SesAuthENCKey, ivInputResponseReader);
-        log(methodName, printData("ivResponseReader", ivResponseReader));
-        byte[] decryptedData = AES.decrypt(ivResponseReader, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponseReader", ivInputResponseReader);
+        byte[] ivResponseReader = aesEncrypt(secureMessagingContext, startingIvReader, SesAuthENCKey, ivInputResponseReader);
+        log(methodName, "ivResponseReader", ivResponseReader);
+        byte[] decryptedData = aesDecrypt(secureMessagingContext, ivResponseReader, SesAuthENCKey, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         log(methodName, "decryptedData is TMRI (TransactionMAC Reader ID");
         // Decrypted Response Data = (TMRI) : BDD40ED9F434F9DDCBF5821299CD2119 (16 bytes)
 
@@ -6770,12 +6893,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaosReader.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         responseMacBaosReader.write(encryptedData, 0, encryptedData.length);
         byte[] macInput2Reader = responseMacBaosReader.toByteArray();
-        log(methodName, printData("macInput2Reader", macInput2Reader));
-        byte[] responseMACCalculatedReader = calculateDiverseKey(SesAuthMACKey, macInput2Reader);
-        log(methodName, printData("responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader));
-        log(methodName, printData("responseMACCalculatedReader", responseMACCalculatedReader));
+        log(methodName, "macInput2Reader", macInput2Reader);
+        byte[] responseMACCalculatedReader = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput2Reader);
+        log(methodName, "responseMACTruncatedReceivedReader  ", responseMACTruncatedReceivedReader);
+        log(methodName, "responseMACCalculatedReader", responseMACCalculatedReader);
         byte[] responseMACTruncatedCalculatedReader = truncateMAC(responseMACCalculatedReader);
-        log(methodName, printData("responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader));
+        log(methodName, "responseMACTruncatedCalculatedReader", responseMACTruncatedCalculatedReader);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculatedReader, responseMACTruncatedReceivedReader)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -6795,42 +6918,42 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(COMMIT_TRANSACTION_COMMAND); // 0xC7
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInput.write(COMMIT_TRANSACTION_OPTION);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the commitTransactionData
         ByteArrayOutputStream baosCommitTransactionCommand = new ByteArrayOutputStream();
         baosCommitTransactionCommand.write(COMMIT_TRANSACTION_OPTION);
         baosCommitTransactionCommand.write(macTruncated, 0, macTruncated.length);
         byte[] commitTransactionCommand = baosCommitTransactionCommand.toByteArray();
-        log(methodName, printData("commitTransactionCommand", commitTransactionCommand));
+        log(methodName, "commitTransactionCommand", commitTransactionCommand);
 
         response = new byte[0];
         apdu = new byte[0];
         byte[] fullResponseData;
         try {
             apdu = wrapMessage(COMMIT_TRANSACTION_COMMAND, commitTransactionCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -6838,16 +6961,15 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
             fullResponseData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the full response depends on an enabled TransactionMAC file option:
         // TransactionMAC counter || TransactionMAC value || response MAC
@@ -6856,25 +6978,25 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         // this does NOT work when a TransactionMAC file is present:
         // commitTransactionEv2 error code: 9D Permission denied error
 
-        log(methodName, printData("fullResponseData", fullResponseData));
+        log(methodName, "fullResponseData", fullResponseData);
         byte[] responseMACTruncatedReceived = new byte[8];
         byte[] responseTmcv = new byte[0];
         int fullResponseDataLength = fullResponseData.length;
         if (fullResponseDataLength > 8) {
-            log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
+            if (isTraceDebugEnabled()) log(methodName, "the fullResponseData has a length of " + fullResponseDataLength + " bytes, so the TMC and TMV are included");
             // should be TMC || TMV || MAC now
             // sample: TMC (TMAC Counter) : 04000000 (4 bytes, counter in LSB encoding)
             // sample: TMV (TMAC Value)   : 94A3205E41588BA9 (8 bytes)
             responseTmcv = Arrays.copyOfRange(fullResponseData, 0, (fullResponseDataLength - 8));
             responseMACTruncatedReceived = Arrays.copyOfRange(fullResponseData, (fullResponseDataLength - 8), fullResponseDataLength);
-            log(methodName, printData("responseTmcv", responseTmcv));
+            log(methodName, "responseTmcv", responseTmcv);
             // split up the data to TMC and TMV
             byte[] tmcByte = Arrays.copyOfRange(responseTmcv, 0, 4);
             byte[] tmvByte = Arrays.copyOfRange(responseTmcv, 4, 12);
             int tmcInt = byteArrayLength4InversedToInt(tmcByte);
-            log(methodName, printData("tmcByte", tmcByte));
-            log(methodName, "tmcInt: " + tmcInt);
-            log(methodName, printData("tmvByte", tmvByte));
+            log(methodName, "tmcByte", tmcByte);
+            if (isTraceDebugEnabled()) log(methodName, "tmcInt: " + tmcInt);
+            log(methodName, "tmvByte", tmvByte);
 
         } else {
             responseMACTruncatedReceived = fullResponseData.clone();
@@ -6889,12 +7011,12 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         responseMacBaos.write(responseTmcv, 0, responseTmcv.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput2));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        log(methodName, "macInput", macInput2);
+        byte[] responseMACCalculated = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput2);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -6925,7 +7047,7 @@ padding add up to 16 bytes. As the data is always a multiple of 16 bytes, no pad
 
         // status: NOT WORKING (throwing AE error ?)
 
-        logData = "";
+        trace.clear();
         final String methodName = "enableTransactionTimerFull";
         //log(methodName, "fileNumber: " + fileNumber, true);
 
@@ -6942,7 +7064,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             System.arraycopy(RESPONSE_FAILURE_MISSING_AUTHENTICATION, 0, errorCode, 0, 2);
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             Log.e(TAG, methodName + " lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
@@ -6954,7 +7076,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         int transactionTimerNumberOfSeconds = 1;
         byte[] transactionTimerNumberOfSecondsBytes = intTo4ByteArrayInversed(transactionTimerNumberOfSeconds);
         //byte[] transactionTimerNumberOfSecondsBytes = intTo3ByteArrayInversed(transactionTimerNumberOfSeconds);
-        log(methodName, printData("transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes));
+        log(methodName, "transactionTimerNumberOfSecondsBytes", transactionTimerNumberOfSecondsBytes);
 
         // using a fixed fileNumber for Value file enciphered = 0x08
         // upper limit is 0xE8030000 = 1000
@@ -6971,41 +7093,42 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosData.write(transactionTimerEnable);
         baosData.write(transactionTimerNumberOfSecondsBytes, 0, transactionTimerNumberOfSecondsBytes.length);
         byte[] data = baosData.toByteArray();
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(SET_CONFIGURATION_SECURE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
         baosIvInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // fixed data
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging full mode
         byte[] dataPadded = paddingWriteData(data);
-        log(methodName, printData("data unpad", data));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", data);
+        log(methodName, "data pad  ", dataPadded);
 
         // padding is 12 bytes
 
         // Encrypted Data Block 1 = E(KSesAuthENC, Data Input)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, dataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, dataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         // CmdHeader = optionOfSetConfiguration
@@ -7016,15 +7139,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosMacInput.write(optionOfSetConfiguration);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader || Encrypted Data || MAC)
         // CmdHeader = optionOfSetConfiguration
@@ -7033,7 +7156,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosSetConfigurationCommand.write(encryptedData, 0, encryptedData.length);
         baosSetConfigurationCommand.write(macTruncated, 0, macTruncated.length);
         byte[] setConfigurationCommand = baosSetConfigurationCommand.toByteArray();
-        log(methodName, printData("setConfigurationCommand", setConfigurationCommand));
+        log(methodName, "setConfigurationCommand", setConfigurationCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7043,7 +7166,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -7051,16 +7174,15 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // verifying the received Response MAC
@@ -7069,13 +7191,13 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         responseMacBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         byte[] macInput2 = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput2", macInput2));
+        log(methodName, "macInput2", macInput2);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput2);
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        byte[] responseMACCalculated = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput2);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMACTruncatedReceived));
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        log(methodName, "responseMACTruncatedReceived  ", responseMACTruncatedReceived);
         // compare the responseMAC's
         if (Arrays.equals(responseMACTruncatedCalculated, responseMACTruncatedReceived)) {
             Log.d(TAG, "responseMAC SUCCESS");
@@ -7105,7 +7227,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
     public boolean deleteFile(byte fileNumber) {
         final String methodName = "deleteFile";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7128,7 +7250,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -7139,7 +7261,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             log(methodName, "SUCCESS");
             return true;
         } else {
-            log(methodName, "FAILURE with " + printData("errorCode", errorCode));
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
             return false;
         }
     }
@@ -7153,7 +7275,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public byte[] getAllFileIds() {
         final String methodName = "getAllFileIDs";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
@@ -7166,7 +7288,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             response = sendData(apdu);
         } catch (Exception e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -7177,7 +7299,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
             Log.d(TAG, "response SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
-            APPLICATION_ALL_FILE_IDS = responseData.clone();
+            applicationAllFileIds = responseData.clone();
             return responseData;
         } else {
             Log.d(TAG, "response FAILURE");
@@ -7196,59 +7318,266 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
      */
     public FileSettings[] getAllFileSettings() {
         final String methodName = "getAllFileSettings";
-        logData = "";
+        trace.clear();
         log(methodName, "started", true);
         errorCode = new byte[2];
         // sanity checks
         if (!checkApplicationIdentifier(selectedApplicationId)) return null;
-        if (APPLICATION_ALL_FILE_IDS == null) {
+        if (applicationAllFileIds == null) {
             Log.e(TAG, methodName + " select an application first, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "no application selected before";
             return null;
         }
-        if (APPLICATION_ALL_FILE_IDS.length == 0) {
+        if (applicationAllFileIds.length == 0) {
             Log.e(TAG, methodName + " there are no files available, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "there are no files available";
             return null;
         }
         if (!checkIsoDep()) return null;
-        int numberOfFileIds = APPLICATION_ALL_FILE_IDS.length;
-        APPLICATION_ALL_FILE_SETTINGS = new FileSettings[MAXIMUM_NUMBER_OF_FILES];
+        int numberOfFileIds = applicationAllFileIds.length;
+        applicationAllFileSettings = new FileSettings[MAXIMUM_NUMBER_OF_FILES];
         for (int i = 0; i < numberOfFileIds; i++) {
-            byte fileId = APPLICATION_ALL_FILE_IDS[i];
+            byte fileId = applicationAllFileIds[i];
             byte[] fileSettingsByte = getFileSettings(fileId);
-            Log.d(TAG, "i: " + i + printData(" fileSettingsByte", fileSettingsByte));
-            Log.d(TAG, printData("errorCode", errorCode));
-            Log.d(TAG, "errorCodeReason: " + errorCodeReason);
+            logcat("i: " + i + " fileSettingsByte", fileSettingsByte);
+            logcat("errorCode", errorCode);
+            logcat("errorCodeReason: " + errorCodeReason);
             if (fileSettingsByte != null) {
                 FileSettings fileSettings = new FileSettings(fileId, fileSettingsByte);
                 if (fileSettings != null) {
-                    APPLICATION_ALL_FILE_SETTINGS[fileId] = fileSettings;
+                    applicationAllFileSettings[fileId] = fileSettings;
                     // check if this file is a TransactionMac file
-                    if (checkIsTransactionMacFileType(fileId)) {
-                        isTransactionMacFilePresent = true;
-                        transactionMacFileSettings = fileSettings;
-                        int tmacRWKey = transactionMacFileSettings.getAccessRightsRw();
-                        if (tmacRWKey != 15) isTransactionMacCommitReaderId = true;
-                    }
+                    checkTransactionMacFileSettings(fileSettings);
                 }
             }
         }
         log(methodName, "ended");
         /* debug
         Log.d(TAG, "allFileSettings");
-        for (int i = 0; i < APPLICATION_ALL_FILE_SETTINGS.length; i++) {
-            FileSettings fs = APPLICATION_ALL_FILE_SETTINGS[i];
+        for (int i = 0; i < applicationAllFileSettings.length; i++) {
+            FileSettings fs = applicationAllFileSettings[i];
             if (fs == null) {
-                Log.d(TAG, "i: " + i + ":" + "null");
+                logcat("i: " + i + ":" + "null");
             } else {
-                Log.d(TAG, "i: " + i + ":" + APPLICATION_ALL_FILE_SETTINGS[i].dump());
+                logcat("i: " + i + ":" + applicationAllFileSettings[i].dump());
             }
         }
          */
-        return APPLICATION_ALL_FILE_SETTINGS;
+        return applicationAllFileSettings;
+    }
+
+    /**
+     * reads the SDM read counter (SDMReadCtr) of a file with Secure Dynamic Messaging enabled, the command
+     * GetFileCounters is always run in Communication mode Full
+     * Note: the counter is increased by a read with SUN message only, a write of the file does not change it
+     * see NTAG 424 DNA NT4H2421Gx.pdf pages 71 - 72 for getFileCounters
+     *
+     * @param fileNumber | in range 0..31 AND file has SDM enabled with SDMReadCtr
+     * @return the SDM read counter or -1 on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public int getSdmReadCounter(byte fileNumber) {
+        final String methodName = "getSdmReadCounter";
+        log(methodName, "started", true);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
+        // sanity checks
+        if (!checkFileNumber(fileNumber)) return -1;
+        if (!checkAuthentication()) return -1;
+        if (!checkIsoDep()) return -1;
+
+        // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
+        byte[] macTruncated = truncateMAC(calculateDiverseKey(secureMessagingContext, SesAuthMACKey, getMacInput(GET_FILE_COUNTERS_COMMAND, new byte[]{fileNumber})));
+        // Data (CmdHeader = File number || MAC)
+        byte[] getFileCountersCommand = new byte[1 + macTruncated.length];
+        getFileCountersCommand[0] = fileNumber;
+        System.arraycopy(macTruncated, 0, getFileCountersCommand, 1, macTruncated.length);
+        byte[] response;
+        try {
+            response = sendData(wrapMessage(GET_FILE_COUNTERS_COMMAND, getFileCountersCommand));
+        } catch (IOException e) {
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "IOException: transceive failed: " + e.getMessage();
+            return -1;
+        }
+        if (response == null) return -1; // errorCode and errorCodeReason are set by sendData
+        byte[] responseBytes = returnStatusBytes(response);
+        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        if ((!checkResponse(response)) || (response.length < 2 + 8)) {
+            if (isTraceDebugEnabled()) log(methodName, "FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+            errorCodeReason = methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes);
+            return -1;
+        }
+        // note: after sending data to the card the commandCounter is increased by 1
+        CmdCounter++;
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        byte[] encryptedData = Arrays.copyOf(response, response.length - 2 - 8);
+        byte[] responseMACTruncatedReceived = Arrays.copyOfRange(response, response.length - 2 - 8, response.length - 2);
+        // the MAC is calculated over the encrypted data, so it is verified before the data gets decrypted in place
+        if (!verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE";
+            return -1;
+        }
+        // IV for the response: E(SesAuthENCKey, 0x5AA5 || TI || CmdCounter || 8 zero bytes)
+        byte[] ivInputResponse = new byte[16];
+        System.arraycopy(IV_LABEL_DEC, 0, ivInputResponse, 0, IV_LABEL_DEC.length);
+        System.arraycopy(TransactionIdentifier, 0, ivInputResponse, 2, TransactionIdentifier.length);
+        System.arraycopy(intTo2ByteArrayInversed(CmdCounter), 0, ivInputResponse, 2 + TransactionIdentifier.length, 2);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, new byte[16], SesAuthENCKey, ivInputResponse);
+        // SDMReadCtr (3 bytes LSB) || Reserved (2 bytes)
+        byte[] readData = decryptResponseData(ivResponse, encryptedData);
+        if ((readData == null) || (readData.length != 5)) {
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE, the decrypted data has a wrong padding or length");
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = methodName + " FAILURE, the decrypted data has a wrong padding or length";
+            return -1;
+        }
+        if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
+        errorCode = RESPONSE_OK.clone();
+        errorCodeReason = methodName + " SUCCESS";
+        return Utils.intFrom3ByteArrayInversed(Arrays.copyOf(readData, 3));
+    }
+
+    /**
+     * get the communication mode the card uses for an access to a file: the communication mode of the file
+     * settings when the authenticated key has the access right, Plain when the access is free (0x0E) and the
+     * authenticated key has no access right (or there is no authentication)
+     *
+     * @param fileSettings | the settings of the file
+     * @param access       | the access of the command, the key numbers are taken from AuthenticationManager.getAccessKeyNumbers
+     * @return the communication settings for this access
+     */
+    public byte getCommunicationSettingsForAccess(FileSettings fileSettings, AuthenticationManager.Access access) {
+        boolean isAuthenticated = authenticateEv2FirstSuccess || authenticateEv2NonFirstSuccess;
+        boolean isFreeAccess = false;
+        for (byte accessKey : AuthenticationManager.getAccessKeyNumbers(fileSettings, access)) {
+            if ((isAuthenticated) && (accessKey == keyNumberUsedForAuthentication)) return fileSettings.getCommunicationSettings();
+            if (accessKey == AuthenticationManager.ACCESS_FREE) isFreeAccess = true;
+        }
+        return isFreeAccess ? FILE_COMMUNICATION_SETTINGS_PLAIN : fileSettings.getCommunicationSettings();
+    }
+
+    /**
+     * section for the file settings cache
+     */
+
+    /**
+     * Use a persistent cache for the file settings of the applications. After an 'select application'
+     * the file settings are taken from the cache when the card UID, AID and file IDs are matching,
+     * otherwise the settings of a file are read from the card on first use and stored in the cache.
+     *
+     * @param fileSettingsCache | the cache, NULL disables the cache
+     * @param cardUid           | UID of the card (e.g. tag.getId())
+     */
+    public void setFileSettingsCache(FileSettingsCache fileSettingsCache, byte[] cardUid) {
+        this.fileSettingsCache = fileSettingsCache;
+        this.cardUid = (cardUid == null) ? null : cardUid.clone();
+        if (cardUid == null) this.fileSettingsCache = null;
+    }
+
+    public FileSettingsCache getFileSettingsCache() {
+        return fileSettingsCache;
+    }
+
+    /**
+     * fills the file settings of the selected application from the fileSettingsCache or by getAllFileSettings.
+     * Files that are missing in the cache (all files on a cache miss) are read on first use by
+     * getApplicationFileSettings.
+     */
+    private FileSettings[] loadAllFileSettings() {
+        final String methodName = "loadAllFileSettings";
+        if ((fileSettingsCache == null) || (applicationAllFileIds == null)) return getAllFileSettings();
+        FileSettings[] cachedFileSettings = fileSettingsCache.get(cardUid, selectedApplicationId, applicationAllFileIds);
+        if (cachedFileSettings == null) {
+            log(methodName, "file settings are not in the cache, they are read on first use");
+            return new FileSettings[MAXIMUM_NUMBER_OF_FILES];
+        }
+        log(methodName, "file settings taken from the cache");
+        for (FileSettings fileSettings : cachedFileSettings) {
+            if (fileSettings != null) checkTransactionMacFileSettings(fileSettings);
+        }
+        return cachedFileSettings;
+    }
+
+    /**
+     * returns the file settings of a file in the selected application. Settings that are not known yet
+     * (missing in the file settings cache or invalidated by changeFileSettings) are read from the card
+     * and stored in the cache, so use this method when only one file is accessed.
+     *
+     * @param fileNumber | in range 0..31
+     * @return the file settings or NULL when no application is selected, the file is not existing or the
+     * settings could not be read
+     */
+    public FileSettings getApplicationFileSettings(byte fileNumber) {
+        if ((applicationAllFileSettings == null) || (fileNumber < 0) || (fileNumber >= MAXIMUM_NUMBER_OF_FILES)) return null;
+        FileSettings fileSettings = applicationAllFileSettings[fileNumber];
+        if ((fileSettings == null) && (isFileIdListed(fileNumber))) {
+            byte[] fileSettingsByte = getFileSettings(fileNumber);
+            if (fileSettingsByte != null) {
+                fileSettings = new FileSettings(fileNumber, fileSettingsByte);
+                applicationAllFileSettings[fileNumber] = fileSettings;
+                checkTransactionMacFileSettings(fileSettings);
+                if (fileSettingsCache != null) {
+                    fileSettingsCache.put(cardUid, selectedApplicationId, applicationAllFileIds, fileSettings);
+                }
+            }
+        }
+        return fileSettings;
+    }
+
+    /**
+     * reads the file settings that are not known yet, used before a decision on all files
+     * (e.g. is a TransactionMAC file present) is done
+     */
+    private void loadMissingFileSettings() {
+        if ((applicationAllFileIds == null) || (applicationAllFileSettings == null))
+            return;
+        for (byte fileId : applicationAllFileIds) {
+            getApplicationFileSettings(fileId);
+        }
+    }
+
+    private boolean isFileIdListed(byte fileNumber) {
+        if (applicationAllFileIds == null) return false;
+        for (byte fileId : applicationAllFileIds) {
+            if (fileId == fileNumber) return true;
+        }
+        return false;
+    }
+
+    private void checkTransactionMacFileSettings(FileSettings fileSettings) {
+        if (fileSettings.getFileType() != FileSettings.TRANSACTION_MAC_FILE_TYPE) return;
+        isTransactionMacFilePresent = true;
+        transactionMacFileSettings = fileSettings;
+        int tmacRWKey = transactionMacFileSettings.getAccessRightsRw();
+        if (tmacRWKey != 15) isTransactionMacCommitReaderId = true;
+    }
+
+    /**
+     * invalidates the cached file settings after a successful command that changes the file layout or settings
+     */
+    private void updateFileSettingsCache(byte[] apdu, byte[] response) {
+        if ((apdu.length < 2) || (!ApduBuffer.hasStatus(response, RESPONSE_OK))) return;
+        byte command = apdu[1];
+        if (command == FORMAT_PICC_COMMAND) {
+            fileSettingsCache.invalidateCard(cardUid);
+        } else if ((command == CREATE_STANDARD_FILE_COMMAND) || (command == CREATE_BACKUP_FILE_COMMAND)
+                || (command == CREATE_VALUE_FILE_COMMAND) || (command == CREATE_LINEAR_RECORD_FILE_COMMAND)
+                || (command == CREATE_CYCLIC_RECORD_FILE_COMMAND) || (command == CREATE_TRANSACTION_MAC_FILE_COMMAND)
+                || (command == DELETE_FILE_COMMAND)) {
+            fileSettingsCache.invalidateApplication(cardUid, selectedApplicationId);
+        } else if ((command == CHANGE_FILE_SETTINGS_COMMAND) && (apdu.length > 5)) {
+            byte fileNumber = apdu[5];
+            fileSettingsCache.invalidateFile(cardUid, selectedApplicationId, fileNumber);
+            if ((applicationAllFileSettings != null) && (fileNumber >= 0) && (fileNumber < MAXIMUM_NUMBER_OF_FILES)) {
+                // read again on next use by getApplicationFileSettings
+                applicationAllFileSettings[fileNumber] = null;
+            }
+        }
     }
 
     /**
@@ -7265,7 +7594,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "getFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         if (!checkIsoDep()) return null;
@@ -7284,7 +7613,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] responseData = Arrays.copyOfRange(response, 0, response.length - 2);
         if (checkResponse(response)) {
             Log.d(TAG, "response SUCCESS");
-            Log.d(TAG, "return for fileNumber " + fileNumber + " : " + printData("responseData", responseData));
+            logcat("return for fileNumber " + fileNumber + " : " + "responseData", responseData);
             System.arraycopy(RESPONSE_OK, 0, errorCode, 0, RESPONSE_OK.length);
             return responseData;
         } else {
@@ -7308,29 +7637,29 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "getFileSettingsMac";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null;
         // Constructing the full GetFileSettings Command APDU
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(GET_FILE_SETTINGS_COMMAND, new byte[]{fileNumber});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosGetFileSettingsCommand = new ByteArrayOutputStream();
         baosGetFileSettingsCommand.write(fileNumber);
         baosGetFileSettingsCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getFileSettingsCommand = baosGetFileSettingsCommand.toByteArray();
-        log(methodName, printData("getFileSettingsCommand", getFileSettingsCommand));
+        log(methodName, "getFileSettingsCommand", getFileSettingsCommand);
         //byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -7339,39 +7668,37 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            logcat(methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             errorCodeReason = "checkResponse data failure";
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] fullMacedData = getData(response);
         if ((fullMacedData == null) || (fullMacedData.length < 6)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             errorCodeReason = "data returned too small";
             return null;
         }
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         byte[] macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
         byte[] readData = Arrays.copyOfRange(macedData, 0, macedDataLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -7398,7 +7725,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7422,14 +7749,14 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(CHANGE_FILE_SETTINGS_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7452,28 +7779,28 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosCommandData.write(accessRightsRwCar);
         baosCommandData.write(accessRightsRW);
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
         byte[] macInput = getMacInput(CHANGE_FILE_SETTINGS_COMMAND, new byte[]{fileNumber}, encryptedData);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7485,7 +7812,7 @@ Executing Cmd.SetConfiguration in CommMode.Full and Option 0x09 for updating the
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7507,7 +7834,7 @@ PERMISSION_DENIED
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -7515,17 +7842,17 @@ PERMISSION_DENIED
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -7576,7 +7903,7 @@ PERMISSION_DENIED
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7620,7 +7947,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA tag ?), aborted";
             return false;
@@ -7678,8 +8005,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7687,13 +8014,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7729,7 +8056,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         /*
 from: NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf page 34
@@ -7752,11 +8079,11 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, commandDataPadded);
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -7767,15 +8094,15 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -7787,7 +8114,7 @@ F121h = SDMAccessRights (RFU: 0xF, FileAR.SDMCtrRet = 0x1, FileAR.SDMMetaRead: 0
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -7809,7 +8136,7 @@ PERMISSION_DENIED
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -7817,17 +8144,17 @@ PERMISSION_DENIED
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -7848,7 +8175,7 @@ PERMISSION_DENIED
         String logData = "";
         final String methodName = "changeFileSettings";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -7892,7 +8219,7 @@ PERMISSION_DENIED
             errorCodeReason = "keyW is > 4 but not 14 or 15, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -7952,8 +8279,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -7961,13 +8288,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // build the command data
         byte communicationSettingsByte = (byte) 0x00;
@@ -7990,9 +8317,9 @@ fileSize: 128
         byte[] ENCPICCDataOffset = Utils.intTo3ByteArrayInversed(encPiccDataOffset); // e.g. 0x200000 for NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf example on pages 31 + 34
         byte[] SDMMACOffset = Utils.intTo3ByteArrayInversed(sdmMacOffset);      // e.g. 0x430000
         byte[] SDMMACInputOffset = Utils.intTo3ByteArrayInversed(sdmMacInputOffset); // e.g. 0x430000
-        log(methodName, printData("ENCPICCDataOffset", ENCPICCDataOffset));
-        log(methodName, printData("SDMMACOffset     ", SDMMACOffset));
-        log(methodName, printData("SDMMACInputOffset", SDMMACInputOffset));
+        log(methodName, "ENCPICCDataOffset", ENCPICCDataOffset);
+        log(methodName, "SDMMACOffset     ", SDMMACOffset);
+        log(methodName, "SDMMACInputOffset", SDMMACInputOffset);
         /*
         values using server data: https://sdm.nfcdeveloper.com/tag
         ENCPICCDataOffset length: 3 data: 2a0000 (42d)
@@ -8013,7 +8340,7 @@ fileSize: 128
             baosCommandData.write(SDMMACInputOffset, 0, SDMMACInputOffset.length);
         }
         byte[] commandData = baosCommandData.toByteArray();
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // this is the working command for encrypted PICC data
         //                                    4000e0c1 f121 2a0000500000500000
@@ -8021,7 +8348,7 @@ fileSize: 128
         // todo this is manually added by NdefForSdm value test 10 = encrypted PICC data and encrypted file data
         // status: working !
         //commandData = hexStringToByteArray("4000e0d1f1212a00004f00004f0000200000750000");
-        //log(methodName, printData("commandData", commandData));
+        //log(methodName, "commandData", commandData);
 
         // todo this is manually added by NdefForSdm value test 11 = NO encrypted PICC data but encrypted file data
         //commandData = hexStringToByteArray("4000e011f1f12500002500002000004b0000");
@@ -8031,28 +8358,28 @@ fileSize: 128
         // https://sdm.nfcdeveloper.com/tag?picc_data=1D963945833B280C8E0CE5D3F86127E0&enc=AFAE6C123CC478734FED103FD6851AA8&cmac=FCAC93426335D213
 
 
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         byte[] encryptedData;
         // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
         if (commandDataPadded.length > 16) {
             Log.d(TAG, "The commandDataPadded length is > 16, encrypt in chunks");
             int numberOfDataBlocks = commandDataPadded.length / 16;
-            log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
+            if (isTraceDebugEnabled()) log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
             List<byte[]> dataBlockList = Utils.divideArrayToList(commandDataPadded, 16);
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = aesEncrypt(secureMessagingContext, ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+                if (isTraceDebugEnabled()) log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
             }
             // Encrypted Data (complete), concatenate all byte arrays
             ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
@@ -8071,9 +8398,9 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, commandDataPadded);
         }
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -8084,15 +8411,15 @@ fileSize: 128
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -8104,7 +8431,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8121,7 +8448,7 @@ fileSize: 128
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -8129,17 +8456,17 @@ fileSize: 128
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -8162,7 +8489,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeFileSettings with commandData";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber);
         // sanity checks
         errorCode = new byte[2];
         // sanity checks
@@ -8171,7 +8498,7 @@ fileSize: 128
             errorCodeReason = "commandData is NULL or of insufficient length, aborted";
             return false;
         }
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "isoDep is NULL (maybe it is not a NTAG424DNA / DESFire EV3 tag ?), aborted";
             return false;
@@ -8220,8 +8547,8 @@ fileSize: 128
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // Generating the MAC for the Command APDU
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb", commandCounterLsb));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb", commandCounterLsb);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(HEADER_MAC, 0, HEADER_MAC.length);
@@ -8229,37 +8556,37 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb, 0, commandCounterLsb.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // take the the command data as parameter
-        log(methodName, printData("commandData", commandData));
+        log(methodName, "commandData", commandData);
 
         // eventually some padding is necessary with 0x80..00
         byte[] commandDataPadded = paddingWriteData(commandData);
-        log(methodName, printData("commandDataPadded", commandDataPadded));
+        log(methodName, "commandDataPadded", commandDataPadded);
 
         byte[] encryptedData;
         // if commandDataPadded is longer than 16 bytes we need to encrypt in chunks
         if (commandDataPadded.length > 16) {
             Log.d(TAG, "The commandDataPadded length is > 16, encrypt in chunks");
             int numberOfDataBlocks = commandDataPadded.length / 16;
-            log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
+            if (isTraceDebugEnabled()) log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
             List<byte[]> dataBlockList = Utils.divideArrayToList(commandDataPadded, 16);
             List<byte[]> dataBlockEncryptedList = new ArrayList<>();
             byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+                byte[] dataBlockEncrypted = aesEncrypt(secureMessagingContext, ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
                 dataBlockEncryptedList.add(dataBlockEncrypted);
                 ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
             }
             for (int i = 0; i < numberOfDataBlocks; i++) {
-                log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+                if (isTraceDebugEnabled()) log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
             }
             // Encrypted Data (complete), concatenate all byte arrays
             ByteArrayOutputStream baosDataEncrypted = new ByteArrayOutputStream();
@@ -8278,9 +8605,9 @@ fileSize: 128
         } else {
             Log.d(TAG, "The commandDataPadded length is = 16, encrypt in one run");
             // E(KSesAuthENC, IVc, CmdData || Padding (if necessary))
-            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, commandDataPadded);
+            encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, commandDataPadded);
         }
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // Cmd || CmdCounter || TI || CmdHeader = fileNumber || E(KSesAuthENC, CmdData)
@@ -8291,15 +8618,15 @@ fileSize: 128
         baosMacInput.write(fileNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in DESFire Light Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLength || Data) is NOT correct, as well not the Data Message
@@ -8311,7 +8638,7 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
@@ -8328,7 +8655,7 @@ fileSize: 128
             return false;
         }
         if (!checkResponse(response)) {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             byte[] responseBytes = returnStatusBytes(response);
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             errorCodeReason = methodName + " FAILURE";
@@ -8336,15 +8663,15 @@ fileSize: 128
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -8361,63 +8688,75 @@ fileSize: 128
      */
 
     private boolean verifyResponseMac(byte[] responseMAC, byte[] responseData) {
-        final String methodName = "verifyResponseMac";
-        byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
-        responseMacBaos.write((byte) 0x00); // response code 00 means success
-        responseMacBaos.write(commandCounterLsb, 0, commandCounterLsb.length);
-        responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if (responseData != null) {
-            responseMacBaos.write(responseData, 0, responseData.length);
-        }
-        byte[] macInput = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
-        byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        // compare the responseMAC's
-        if (Arrays.equals(responseMACTruncatedCalculated, responseMAC)) {
-            Log.d(TAG, "responseMAC SUCCESS");
-            errorCode = RESPONSE_OK.clone();
-            errorCodeReason = "SUCCESS";
-            return true;
-        } else {
-            Log.d(TAG, "responseMAC FAILURE");
-            errorCode = RESPONSE_FAILURE;
-            errorCodeReason = "responseMAC FAILURE";
-            return false;
-        }
+        return verifyResponseMac(responseMAC, responseData, (byte) 0x00); // response code 00 means success
     }
 
     // response code is usually 0x00 but if "unneccessary authentication" it is 0x90
     private boolean verifyResponseMac(byte[] responseMAC, byte[] responseData, byte responseCode) {
+        final String methodName = "verifyResponseMac";
+        int responseDataLength = (responseData == null) ? 0 : responseData.length;
+        byte[] responseMACTruncatedCalculated = calculateResponseMac(responseCode, responseData, responseDataLength);
+        log(methodName, "responseMACTruncatedReceived  ", responseMAC);
+        return checkResponseMac(Arrays.equals(responseMACTruncatedCalculated, responseMAC));
+    }
+
+    /**
+     * verifies the response MAC of a response (ResponseData || MAC || SW1 SW2) without copying the
+     * response data or the MAC out of the response
+     *
+     * @param response           | the complete response
+     * @param responseDataLength | length of the response data in front of the 8 bytes MAC, 0 if the
+     *                           response has a MAC only (if data is encrypted it is the encrypted data)
+     * @return true if MAC equals the calculated MAC
+     */
+    private boolean verifyResponseMac(byte[] response, int responseDataLength) {
+        if ((response == null) || (responseDataLength < 0) || (response.length != responseDataLength + 8 + 2)) {
+            log("verifyResponseMac", "the response has a wrong length");
+            return checkResponseMac(false);
+        }
+        byte[] responseMACTruncatedCalculated = calculateResponseMac((byte) 0x00, response, responseDataLength);
+        int difference = 0;
+        for (int i = 0; i < responseMACTruncatedCalculated.length; i++) {
+            difference |= responseMACTruncatedCalculated[i] ^ response[responseDataLength + i];
+        }
+        return checkResponseMac(difference == 0);
+    }
+
+    /**
+     * calculates the truncated response MAC over (ResponseCode || CmdCounter || TI || ResponseData)
+     *
+     * @param responseCode       | 0x00 on success
+     * @param responseData       | the response data starts at position 0, may be NULL
+     * @param responseDataLength | length of the response data
+     */
+    private byte[] calculateResponseMac(byte responseCode, byte[] responseData, int responseDataLength) {
         final String methodName = "verifyResponseMac";
         byte[] commandCounterLsb = intTo2ByteArrayInversed(CmdCounter);
-        ByteArrayOutputStream responseMacBaos = new ByteArrayOutputStream();
-        responseMacBaos.write(responseCode); // response code 00 means success
-        responseMacBaos.write(commandCounterLsb, 0, commandCounterLsb.length);
-        responseMacBaos.write(TransactionIdentifier, 0, TransactionIdentifier.length);
-        if (responseData != null) {
-            responseMacBaos.write(responseData, 0, responseData.length);
-        }
-        byte[] macInput = responseMacBaos.toByteArray();
-        log(methodName, printData("macInput", macInput));
-        byte[] responseMACCalculated = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("responseMACTruncatedReceived  ", responseMAC));
-        log(methodName, printData("responseMACCalculated", responseMACCalculated));
+        // MAC input (ResponseCode || CmdCounter || TI || ResponseData) in one array of the exact length
+        byte[] macInput = new byte[1 + commandCounterLsb.length + TransactionIdentifier.length + responseDataLength];
+        macInput[0] = responseCode;
+        System.arraycopy(commandCounterLsb, 0, macInput, 1, commandCounterLsb.length);
+        System.arraycopy(TransactionIdentifier, 0, macInput, 1 + commandCounterLsb.length, TransactionIdentifier.length);
+        if (responseDataLength > 0) {
+            System.arraycopy(responseData, 0, macInput, 1 + commandCounterLsb.length + TransactionIdentifier.length, responseDataLength);
+        }
+        log(methodName, "macInput", macInput);
+        byte[] responseMACCalculated = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "responseMACCalculated", responseMACCalculated);
         byte[] responseMACTruncatedCalculated = truncateMAC(responseMACCalculated);
-        log(methodName, printData("responseMACTruncatedCalculated", responseMACTruncatedCalculated));
-        // compare the responseMAC's
-        if (Arrays.equals(responseMACTruncatedCalculated, responseMAC)) {
+        log(methodName, "responseMACTruncatedCalculated", responseMACTruncatedCalculated);
+        return responseMACTruncatedCalculated;
+    }
+
+    private boolean checkResponseMac(boolean isMacEqual) {
+        if (isMacEqual) {
             Log.d(TAG, "responseMAC SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = "SUCCESS";
             return true;
         } else {
             Log.d(TAG, "responseMAC FAILURE");
-            errorCode = RESPONSE_FAILURE;
+            errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "responseMAC FAILURE";
             return false;
         }
@@ -8426,7 +8765,7 @@ fileSize: 128
 
     private byte[] truncateMAC(byte[] fullMAC) {
         final String methodName = "truncateMAC";
-        log(methodName, printData("fullMAC", fullMAC), true);
+        if (isTraceInfoEnabled()) log(methodName, printData("fullMAC", fullMAC), true);
         if ((fullMAC == null) || (fullMAC.length < 2)) {
             log(methodName, "fullMAC is NULL or of wrong length, aborted");
             return null;
@@ -8438,7 +8777,7 @@ fileSize: 128
             truncatedMAC[truncatedMACPos] = fullMAC[i];
             truncatedMACPos++;
         }
-        log(methodName, printData("truncatedMAC", truncatedMAC));
+        log(methodName, "truncatedMAC", truncatedMAC);
         return truncatedMAC;
     }
 
@@ -8473,15 +8812,18 @@ fileSize: 128
         // see example in Mifare DESFire Light Features and Hints AN12343.pdf pages 33 ff
         // and MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 52 ff
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        trace.clear();
         invalidateAllData();
         final String methodName = "authenticateAesEv2First";
-        log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
+        if (isTraceInfoEnabled()) log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
         if (!checkKey(key)) return false;
         if (!checkIsoDep()) return false;
+        // the rndA pool and the key schedule are prepared before the tap when a precomputer is set
+        AuthenticationPrecomputer precomputer = authenticationPrecomputer;
+        SecureMessagingContext keySchedule = (precomputer == null) ? null : precomputer.takeKeySchedule(key);
         if (debug) log(methodName, "step 01 get encrypted rndB from card");
         log(methodName, "This method is using the AUTHENTICATE_AES_EV2_FIRST_COMMAND so it will work with AES-based application only");
         // authenticate 1st part
@@ -8496,14 +8838,14 @@ fileSize: 128
             byte[] parameter = new byte[2];
             parameter[0] = keyNumber;
             parameter[1] = (byte) 0x00; // is already 0x00
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_FIRST_COMMAND, parameter);
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB ", "apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8512,60 +8854,62 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        long gapStartNanos = System.nanoTime(); // the gap between the two frames is on the RF critical path
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
-        if (debug)
+        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes ", "iv0", iv0);
+        if ((debug) && (isTraceDebugEnabled()))
             log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        byte[] rndB = (keySchedule == null) ? aesDecrypt(iv0, key, rndB_enc) : keySchedule.decrypt(iv0, rndB_enc);
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
-        rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        rndA = (precomputer == null) ? getRandomData(rndA) : precomputer.takeRndA();
+        if (debug) log(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
-        byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        byte[] rndArndB_leftRotated_enc = (keySchedule == null) ? aesEncrypt(iv1, key, rndArndB_leftRotated) : keySchedule.encrypt(iv1, rndArndB_leftRotated);
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            lastAuthenticationGapNanos = System.nanoTime() - gapStartNanos;
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc ", "apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8574,7 +8918,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
@@ -8582,17 +8926,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, TI || RndA' || PDcap2 || PCDcap2) || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
-        byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        byte[] data = (keySchedule == null) ? aesDecrypt(iv2, key, data_enc) : keySchedule.decrypt(iv2, data_enc);
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8614,29 +8958,36 @@ fileSize: 128
         System.arraycopy(data, 20, pDcap2, 0, 6);
         System.arraycopy(data, 26, pCDcap2, 0, 6);
         if (debug) log(methodName, "step 13 full data needs to get split up in 4 values");
-        if (debug) log(methodName, printData("data", data));
-        if (debug) log(methodName, printData("ti", ti));
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
-        if (debug) log(methodName, printData("pDcap2", pDcap2));
-        if (debug) log(methodName, printData("pCDcap2", pCDcap2));
+        if (debug) log(methodName, "data", data);
+        if (debug) log(methodName, "ti", ti);
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
+        if (debug) log(methodName, "pDcap2", pDcap2);
+        if (debug) log(methodName, "pCDcap2", pCDcap2);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) log(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
-        //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        //log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
 
         if (debug) log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
-            SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
-            SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            if (keySchedule == null) {
+                SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
+                SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
+            } else {
+                SesAuthENCKey = keySchedule.cmac(getSesAuthKeyCmacInput(SES_AUTH_ENC_KEY_LABEL, rndA, rndB));
+                SesAuthMACKey = keySchedule.cmac(getSesAuthKeyCmacInput(SES_AUTH_MAC_KEY_LABEL, rndA, rndB));
+            }
+            secureMessagingContext = SecureMessagingContext.create(SesAuthENCKey, SesAuthMACKey);
+            workerSecureMessagingContext = null;
+            if (debug) log(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) log(methodName, "SesAuthMACKey ", SesAuthMACKey);
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
             authenticateEv2FirstSuccess = true;
@@ -8667,10 +9018,10 @@ fileSize: 128
         // see example in Mifare DESFire Light Features and Hints AN12343.pdf pages 33 ff
         // and MIFARE DESFire Light contactless application IC MF2DLHX0.pdf pages 52 ff
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        trace.clear();
         invalidateAllData();
         final String methodName = "authenticateAesEv2FirstProximity";
-        log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
+        if (isTraceInfoEnabled()) log(methodName, printData("key", key) + " keyNumber: " + keyNumber, true);
         errorCode = new byte[2];
         // sanity checks
         //if (!checkKeyNumber(keyNumber)) return false;
@@ -8690,14 +9041,14 @@ fileSize: 128
             byte[] parameter = new byte[2];
             parameter[0] = keyNumber;
             parameter[1] = (byte) 0x00; // is already 0x00
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_FIRST_COMMAND, parameter);
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB ", "apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8706,60 +9057,60 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
-        if (debug)
+        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes ", "iv0", iv0);
+        if ((debug) && (isTraceDebugEnabled()))
             log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        byte[] rndB = aesDecrypt(iv0, key, rndB_enc);
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) log(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
-        byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        byte[] rndArndB_leftRotated_enc = aesEncrypt(iv1, key, rndArndB_leftRotated);
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc ", "apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8768,7 +9119,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(responseBytes, 0, errorCode, 0, 2);
             return false;
         }
@@ -8776,17 +9127,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, TI || RndA' || PDcap2 || PCDcap2) || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
-        byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        byte[] data = aesDecrypt(iv2, key, data_enc);
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -8808,29 +9159,31 @@ fileSize: 128
         System.arraycopy(data, 20, pDcap2, 0, 6);
         System.arraycopy(data, 26, pCDcap2, 0, 6);
         if (debug) log(methodName, "step 13 full data needs to get split up in 4 values");
-        if (debug) log(methodName, printData("data", data));
-        if (debug) log(methodName, printData("ti", ti));
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
-        if (debug) log(methodName, printData("pDcap2", pDcap2));
-        if (debug) log(methodName, printData("pCDcap2", pCDcap2));
+        if (debug) log(methodName, "data", data);
+        if (debug) log(methodName, "ti", ti);
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
+        if (debug) log(methodName, "pDcap2", pDcap2);
+        if (debug) log(methodName, "pCDcap2", pCDcap2);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) log(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
-        //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        //log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
 
         if (debug) log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
             SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
             SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
+            secureMessagingContext = SecureMessagingContext.create(SesAuthENCKey, SesAuthMACKey);
+            workerSecureMessagingContext = null;
+            if (debug) log(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) log(methodName, "SesAuthMACKey ", SesAuthMACKey);
             CmdCounter = 0;
             TransactionIdentifier = ti.clone();
             authenticateEv2FirstSuccess = true;
@@ -8845,6 +9198,55 @@ fileSize: 128
         return rndAEqual;
     }
 
+    /**
+     * authenticateAesEv2First with the diversified key of the card (AN10922, see KeyDiversifier), the key is
+     * derived for the selected application
+     *
+     * @param keyNumber      | (00..14) but maximum is defined during application setup
+     * @param keyDiversifier | derives (or takes from its cache) the key of the card
+     * @param cardUid        | UID of the card (e.g. tag.getId())
+     * @param keyVersion     | the version of the key on the card
+     * @return TRUE when authentication was successful
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateAesEv2First(byte keyNumber, KeyDiversifier keyDiversifier, byte[] cardUid, int keyVersion) {
+        byte[] key = getDiversifiedKey("authenticateAesEv2First", keyNumber, keyDiversifier, cardUid, keyVersion);
+        if (key == null) return false;
+        return authenticateAesEv2First(keyNumber, key);
+    }
+
+    /**
+     * authenticateAesEv2NonFirst with the diversified key of the card (AN10922, see KeyDiversifier)
+     *
+     * @param keyNumber      | (00..14) but maximum is defined during application setup
+     * @param keyDiversifier | derives (or takes from its cache) the key of the card
+     * @param cardUid        | UID of the card (e.g. tag.getId())
+     * @param keyVersion     | the version of the key on the card
+     * @return TRUE when authentication was successful
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean authenticateAesEv2NonFirst(byte keyNumber, KeyDiversifier keyDiversifier, byte[] cardUid, int keyVersion) {
+        byte[] key = getDiversifiedKey("authenticateAesEv2NonFirst", keyNumber, keyDiversifier, cardUid, keyVersion);
+        if (key == null) return false;
+        return authenticateAesEv2NonFirst(keyNumber, key);
+    }
+
+    private byte[] getDiversifiedKey(String methodName, int keyNumber, KeyDiversifier keyDiversifier, byte[] cardUid, int keyVersion) {
+        if ((keyDiversifier == null) || (cardUid == null) || (selectedApplicationId == null)) {
+            log(methodName, "keyDiversifier, cardUid or selectedApplicationId is NULL, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "keyDiversifier, cardUid or selectedApplicationId is NULL";
+            return null;
+        }
+        byte[] key = keyDiversifier.getKey(cardUid, selectedApplicationId, keyNumber, keyVersion);
+        if (key == null) {
+            log(methodName, "could not derive the key, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "could not derive the key (missing master key or diversification input is too long)";
+        }
+        return key;
+    }
+
     /**
      * authenticateAesEv2NonFirst uses the EV2NonFirst authentication method with command 0x77
      *
@@ -8879,10 +9281,10 @@ fileSize: 128
          */
 
         boolean debug = false; // if true each single step is print out for debugging purposes
-        logData = "";
+        trace.clear();
         invalidateAllDataNonFirst();
         final String methodName = "authenticateAesEv2NonFirst";
-        log(methodName, printData("key", key) + " keyNo: " + keyNumber, true);
+        if (isTraceInfoEnabled()) log(methodName, printData("key", key) + " keyNo: " + keyNumber, true);
         errorCode = new byte[2];
         // sanity checks
         if (!authenticateEv2FirstSuccess) {
@@ -8894,6 +9296,13 @@ fileSize: 128
         if (!checkKeyNumber(keyNumber)) return false;
         if (!checkKey(key)) return false;
         if (!checkIsoDep()) return false;
+        // the rndA pool and the key schedule are prepared before the tap when a precomputer is set
+        AuthenticationPrecomputer precomputer = authenticationPrecomputer;
+        SecureMessagingContext keySchedule = (precomputer == null) ? null : precomputer.takeKeySchedule(key);
+        // the PICC is not authenticated on any failure during the protocol, on success the transaction continues
+        // with the TI and CmdCounter of the authenticateAesEv2First
+        byte[] transactionIdentifier = TransactionIdentifier;
+        int cmdCounter = CmdCounter;
         invalidateAllData();
         if (debug) log(methodName, "step 01 get encrypted rndB from card");
         if (debug)
@@ -8908,14 +9317,14 @@ fileSize: 128
              */
             byte[] parameter = new byte[1];
             parameter[0] = keyNumber;
-            if (debug) log(methodName, printData("parameter", parameter));
+            if (debug) log(methodName, "parameter", parameter);
             apdu = wrapMessage(AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND, parameter);
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB ", "apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8924,59 +9333,61 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             return false;
         }
         // now we know that we can work with the response, 16 bytes long
         // R-APDU (Part 1) (E(Kx, RndB)) || SW1 || SW2
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        long gapStartNanos = System.nanoTime(); // the gap between the two frames is on the RF critical path
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes " + printData("iv0", iv0));
-        if (debug)
+        if (debug) log(methodName, "step 02 iv0 is 16 zero bytes ", "iv0", iv0);
+        if ((debug) && (isTraceDebugEnabled()))
             log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
-        if (debug) log(methodName, printData("rndB", rndB));
+        byte[] rndB = (keySchedule == null) ? aesDecrypt(iv0, key, rndB_enc) : keySchedule.decrypt(iv0, rndB_enc);
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
-        rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        rndA = (precomputer == null) ? getRandomData(rndA) : precomputer.takeRndA();
+        if (debug) log(methodName, "rndA", rndA);
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is 16 zero bytes");
         byte[] iv1 = new byte[16];
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
-        byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        byte[] rndArndB_leftRotated_enc = (keySchedule == null) ? aesEncrypt(iv1, key, rndArndB_leftRotated) : keySchedule.encrypt(iv1, rndArndB_leftRotated);
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            lastAuthenticationGapNanos = System.nanoTime() - gapStartNanos;
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc ", "apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -8985,7 +9396,7 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
@@ -8993,17 +9404,17 @@ fileSize: 128
         // R-APDU (Part 2) E(Kx, RndA' || Response Code
         if (debug) log(methodName, "step 10 received encrypted data from PICC");
         byte[] data_enc = getData(response);
-        if (debug) log(methodName, printData("data_enc", data_enc));
+        if (debug) log(methodName, "data_enc", data_enc);
 
         //IV is now reset to zero bytes
         if (debug) log(methodName, "step 11 iv2 is 16 zero bytes");
         byte[] iv2 = new byte[16];
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted data
         if (debug) log(methodName, "step 12 decrypt data_enc with iv2 and key");
-        byte[] data = AES.decrypt(iv2, key, data_enc);
-        if (debug) log(methodName, printData("data", data));
+        byte[] data = (keySchedule == null) ? aesDecrypt(iv2, key, data_enc) : keySchedule.decrypt(iv2, data_enc);
+        if (debug) log(methodName, "data", data);
         // data is 32 bytes long, e.g. a1487b61f69cef65a09742b481152325a7cb8fc6000000000000000000000000
         /**
          * structure of data
@@ -9015,27 +9426,35 @@ fileSize: 128
         // split data not necessary, data is rndA_leftRotated
         byte[] rndA_leftRotated = data.clone();
         if (debug) log(methodName, "step 13 full data is rndA_leftRotated only");
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         // PCD compares send and received RndA
         if (debug) log(methodName, "step 14 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received ", rndA_received));
+        if (debug) log(methodName, "rndA_received ", rndA_received);
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
-        //log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        //log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
         if (debug) log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
-            SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
-            SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
-            if (debug) log(methodName, printData("SesAuthENCKey ", SesAuthENCKey));
-            if (debug) log(methodName, printData("SesAuthMACKey ", SesAuthMACKey));
-            //CmdCounter = 0; // is not resetted in EV2NonFirst
-            //TransactionIdentifier = ti.clone(); // is not resetted in EV2NonFirst
+            if (keySchedule == null) {
+                SesAuthENCKey = getSesAuthEncKey(rndA, rndB, key);
+                SesAuthMACKey = getSesAuthMacKey(rndA, rndB, key);
+            } else {
+                SesAuthENCKey = keySchedule.cmac(getSesAuthKeyCmacInput(SES_AUTH_ENC_KEY_LABEL, rndA, rndB));
+                SesAuthMACKey = keySchedule.cmac(getSesAuthKeyCmacInput(SES_AUTH_MAC_KEY_LABEL, rndA, rndB));
+            }
+            secureMessagingContext = SecureMessagingContext.create(SesAuthENCKey, SesAuthMACKey);
+            workerSecureMessagingContext = null;
+            if (debug) log(methodName, "SesAuthENCKey ", SesAuthENCKey);
+            if (debug) log(methodName, "SesAuthMACKey ", SesAuthMACKey);
+            CmdCounter = cmdCounter; // is not resetted in EV2NonFirst
+            TransactionIdentifier = transactionIdentifier; // is not resetted in EV2NonFirst
+            authenticateEv2FirstSuccess = true; // the transaction is still active, a further NonFirst is allowed
             authenticateEv2NonFirstSuccess = true;
             keyNumberUsedForAuthentication = keyNumber;
             invalidateAllAesLegacyData();
@@ -9064,11 +9483,11 @@ fileSize: 128
 
     public boolean authenticateAesLegacy(byte keyNumber, byte[] key) {
         boolean debug = false;
-        logData = "";
+        trace.clear();
         invalidateAllData();
         invalidateAllAesLegacyData();
         String methodName = "authenticateAesLegacy";
-        log(methodName, "keyNumber: " + keyNumber + printData(" key", key), true);
+        if (isTraceInfoEnabled()) log(methodName, "keyNumber: " + keyNumber + printData(" key", key), true);
         errorCode = new byte[2];
         // sanity checks
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9080,12 +9499,12 @@ fileSize: 128
         byte[] response = new byte[0];
         try {
             apdu = wrapMessage(AUTHENTICATE_AES_COMMAND, new byte[]{keyNumber});
-            if (debug) log(methodName, "get enc rndB " + printData("apdu", apdu));
+            if (debug) log(methodName, "get enc rndB ", "apdu", apdu);
             response = sendData(apdu);
-            if (debug) log(methodName, "get enc rndB " + printData("response", response));
+            if (debug) log(methodName, "get enc rndB ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9094,61 +9513,61 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0xAF means more data need to get exchanged
         if (!checkResponseMoreData(responseBytes)) {
-            log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0xAF as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         byte[] rndB_enc = getData(response);
-        if (debug) log(methodName, printData("encryptedRndB", rndB_enc));
+        if (debug) log(methodName, "encryptedRndB", rndB_enc);
 
         // start the decryption
         //byte[] iv0 = new byte[8];
         byte[] iv0 = new byte[16];
-        if (debug) log(methodName, "step 02 initial iv0 is 16 zero bytes " + printData("iv0", iv0));
-        if (debug)
+        if (debug) log(methodName, "step 02 initial iv0 is 16 zero bytes ", "iv0", iv0);
+        if ((debug) && (isTraceDebugEnabled()))
             log(methodName, "step 03 decrypt the encryptedRndB using AES.decrypt with key " + printData("key", key) + printData(" iv0", iv0));
-        byte[] rndB = AES.decrypt(iv0, key, rndB_enc);
+        byte[] rndB = aesDecrypt(iv0, key, rndB_enc);
         byte[] rndBSession = rndB.clone();
-        if (debug) log(methodName, printData("rndB", rndB));
+        if (debug) log(methodName, "rndB", rndB);
 
         if (debug) log(methodName, "step 04 rotate rndB to LEFT");
         byte[] rndB_leftRotated = rotateLeft(rndB);
-        if (debug) log(methodName, printData("rndB_leftRotated", rndB_leftRotated));
+        if (debug) log(methodName, "rndB_leftRotated", rndB_leftRotated);
 
         // authenticate 2nd part
         if (debug) log(methodName, "step 05 generate a random rndA");
         byte[] rndA = new byte[16]; // this is an AES key
         rndA = getRandomData(rndA);
-        if (debug) log(methodName, printData("rndA", rndA));
+        if (debug) log(methodName, "rndA", rndA);
         byte[] rndASession = rndA.clone();
 
         if (debug) log(methodName, "step 06 concatenate rndA | rndB_leftRotated");
         byte[] rndArndB_leftRotated = concatenate(rndA, rndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated", rndArndB_leftRotated));
+        if (debug) log(methodName, "rndArndB_leftRotated", rndArndB_leftRotated);
 
         // IV is now encrypted RndB received from the tag
         if (debug) log(methodName, "step 07 iv1 is encryptedRndB received from the tag");
         byte[] iv1 = rndB_enc.clone();
-        if (debug) log(methodName, printData("iv1", iv1));
+        if (debug) log(methodName, "iv1", iv1);
 
         // Encrypt RndAB_rot
         if (debug)
             log(methodName, "step 08 encrypt rndArndB_leftRotated using AES.encrypt and iv1");
-        byte[] rndArndB_leftRotated_enc = AES.encrypt(iv1, key, rndArndB_leftRotated);
-        if (debug) log(methodName, printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+        byte[] rndArndB_leftRotated_enc = aesEncrypt(iv1, key, rndArndB_leftRotated);
+        if (debug) log(methodName, "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
 
         // send encrypted data to PICC
         if (debug) log(methodName, "step 09 send the encrypted data to the PICC");
         try {
             apdu = wrapMessage(MORE_DATA_COMMAND, rndArndB_leftRotated_enc);
-            if (debug) log(methodName, "send rndArndB_leftRotated_enc " + printData("apdu", apdu));
+            if (debug) log(methodName, "send rndArndB_leftRotated_enc ", "apdu", apdu);
             response = sendData(apdu);
             if (debug)
-                log(methodName, "send rndArndB_leftRotated_enc " + printData("response", response));
+                log(methodName, "send rndArndB_leftRotated_enc ", "response", response);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9157,38 +9576,38 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         // we are expecting that the status code is 0x00 means the exchange was OK
         if (!checkResponse(responseBytes)) {
-            log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "expected to get get 0x00 as error code but  found: " + printData("errorCode", responseBytes) + ", aborted");
             //System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return false;
         }
         // now we know that we can work with the response
         if (debug) log(methodName, "step 10 received encrypted rndA LEFT rotated from PICC");
         byte[] rndA_leftRotated_enc = getData(response);
-        if (debug) log(methodName, printData("rndA_leftRotated_enc", rndA_leftRotated_enc));
+        if (debug) log(methodName, "rndA_leftRotated_enc", rndA_leftRotated_enc);
 
         //IV is now the last 16 bytes of RndAB_rot_enc
         if (debug)
-            log(methodName, "step 11 iv2 is now the last 16 bytes of rndArndB_leftRotated_enc: " + printData("rndArndB_leftRotated_enc", rndArndB_leftRotated_enc));
+            log(methodName, "step 11 iv2 is now the last 16 bytes of rndArndB_leftRotated_enc: ", "rndArndB_leftRotated_enc", rndArndB_leftRotated_enc);
         int rndArndB_leftRotated_encLength = rndArndB_leftRotated_enc.length;
         byte[] iv2 = Arrays.copyOfRange(rndArndB_leftRotated_enc,
                 rndArndB_leftRotated_encLength - 16, rndArndB_leftRotated_encLength);
-        if (debug) log(methodName, printData("iv2", iv2));
+        if (debug) log(methodName, "iv2", iv2);
 
         // Decrypt encrypted RndA_rot
         if (debug) log(methodName, "step 12 decrypt rndA_leftRotated_enc with iv2 and key");
-        byte[] rndA_leftRotated = AES.decrypt(iv2, key, rndA_leftRotated_enc);
-        if (debug) log(methodName, printData("rndA_leftRotated", rndA_leftRotated));
+        byte[] rndA_leftRotated = aesDecrypt(iv2, key, rndA_leftRotated_enc);
+        if (debug) log(methodName, "rndA_leftRotated", rndA_leftRotated);
 
         if (debug) log(methodName, "step 13 rotate rndA_leftRotated to RIGHT");
         byte[] rndA_received = rotateRight(rndA_leftRotated);
-        if (debug) log(methodName, printData("rndA_received", rndA_received));
+        if (debug) log(methodName, "rndA_received", rndA_received);
 
         boolean rndAEqual = Arrays.equals(rndA, rndA_received);
 
-        if (debug) log(methodName, printData("rndA received ", rndA_received));
-        if (debug) log(methodName, printData("rndA          ", rndA));
+        if (debug) log(methodName, "rndA received ", rndA_received);
+        if (debug) log(methodName, "rndA          ", rndA);
         if (debug) log(methodName, "rndA and rndA received are equal: " + rndAEqual);
-        if (debug) log(methodName, printData("rndB          ", rndB));
+        if (debug) log(methodName, "rndB          ", rndB);
         log(methodName, "**** auth result ****");
         if (rndAEqual) {
             log(methodName, "*** AUTHENTICATED ***");
@@ -9203,6 +9622,27 @@ fileSize: 128
         return rndAEqual;
     }
 
+    /**
+     * builds the CMAC input for the session keys of authenticateAesEv2First and authenticateAesEv2NonFirst,
+     * same as in getSesAuthEncKey and getSesAuthMacKey:
+     * label || 0x0001 || 0x0080 || rndA[0..1] || (rndA[2..7] xor rndB[0..5]) || rndB[6..15] || rndA[8..15]
+     *
+     * @param label | 0xA55A for the SesAuthENCKey, 0x5AA5 for the SesAuthMACKey
+     */
+    private static byte[] getSesAuthKeyCmacInput(byte[] label, byte[] rndA, byte[] rndB) {
+        byte[] cmacInput = new byte[32];
+        System.arraycopy(label, 0, cmacInput, 0, 2);
+        cmacInput[3] = (byte) 0x01; // counter fixed to 0x0001
+        cmacInput[5] = (byte) 0x80; // length fixed to 0x0080
+        System.arraycopy(rndA, 0, cmacInput, 6, 2);
+        for (int i = 0; i < 6; i++) {
+            cmacInput[8 + i] = (byte) (rndA[2 + i] ^ rndB[i]);
+        }
+        System.arraycopy(rndB, 6, cmacInput, 14, 10);
+        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+        return cmacInput;
+    }
+
     /**
      * calculate the SessionAuthEncryptionKey after a successful authenticateAesEv2First
      * It uses the AesMac class for CMAC
@@ -9220,7 +9660,7 @@ fileSize: 128
         // see MIFARE DESFire Light contactless application IC pdf, page 28
         boolean debug = false; // if true each single step is print out for debugging purposes
         final String methodName = "getSesAuthEncKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
+        if (isTraceDebugEnabled()) log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
         // sanity checks
         if ((rndA == null) || (rndA.length != 16)) {
             log(methodName, "rndA is NULL or wrong length, aborted");
@@ -9248,24 +9688,24 @@ fileSize: 128
         byte[] rndA02to07 = new byte[6];
         byte[] rndB00to05 = new byte[6];
         rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndA02to07", rndA02to07);
         rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "rndB00to05", rndB00to05);
         byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
+        if (debug) log(methodName, "xored     ", xored);
         System.arraycopy(xored, 0, cmacInput, 8, 6);
         System.arraycopy(rndB, 6, cmacInput, 14, 10);
         System.arraycopy(rndA, 8, cmacInput, 24, 8);
 
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "cmacInput", cmacInput);
         byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
+        if (debug) log(methodName, "iv       ", iv);
         byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
+        if (debug) log(methodName, "cmacOut ", cmac);
         return cmac;
     }
 
@@ -9286,7 +9726,7 @@ fileSize: 128
         // see MIFARE DESFire Light contactless application IC pdf, page 28
         boolean debug = false; // if true each single step is print out for debugging purposes
         final String methodName = "getSesAuthMacKey";
-        log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
+        if (isTraceDebugEnabled()) log(methodName, printData("rndA", rndA) + printData(" rndB", rndB) + printData(" authenticationKey", authenticationKey));
         // sanity checks
         if ((rndA == null) || (rndA.length != 16)) {
             log(methodName, "rndA is NULL or wrong length, aborted");
@@ -9314,24 +9754,24 @@ fileSize: 128
         byte[] rndA02to07 = new byte[6];
         byte[] rndB00to05 = new byte[6];
         rndA02to07 = Arrays.copyOfRange(rndA, 2, 8);
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndA02to07", rndA02to07));
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndA02to07", rndA02to07);
         rndB00to05 = Arrays.copyOfRange(rndB, 0, 6);
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("rndB00to05", rndB00to05));
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "rndB00to05", rndB00to05);
         byte[] xored = xor(rndA02to07, rndB00to05);
-        if (debug) log(methodName, printData("xored     ", xored));
+        if (debug) log(methodName, "xored     ", xored);
         System.arraycopy(xored, 0, cmacInput, 8, 6);
         System.arraycopy(rndB, 6, cmacInput, 14, 10);
         System.arraycopy(rndA, 8, cmacInput, 24, 8);
 
-        if (debug) log(methodName, printData("rndA     ", rndA));
-        if (debug) log(methodName, printData("rndB     ", rndB));
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
+        if (debug) log(methodName, "rndA     ", rndA);
+        if (debug) log(methodName, "rndB     ", rndB);
+        if (debug) log(methodName, "cmacInput", cmacInput);
         byte[] iv = new byte[16];
-        if (debug) log(methodName, printData("iv       ", iv));
+        if (debug) log(methodName, "iv       ", iv);
         byte[] cmac = calculateDiverseKey(authenticationKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOut ", cmac));
+        if (debug) log(methodName, "cmacOut ", cmac);
         return cmac;
     }
 
@@ -9340,7 +9780,7 @@ fileSize: 128
         // see NTAG 424 DNA NT4H2421Gx.pdf page 41
         boolean debug = false; // if true each single step is print out for debugging purposes
         final String methodName = "getSesSDMFileReadENCKey";
-        log(methodName, printData("sdmFileReadKey", sdmFileReadKey) + printData(" uid", uid) + printData(" sdmReadCounter", sdmReadCounter), true);
+        if (isTraceInfoEnabled()) log(methodName, printData("sdmFileReadKey", sdmFileReadKey) + printData(" uid", uid) + printData(" sdmReadCounter", sdmReadCounter), true);
         // sanity checks
         if ((sdmFileReadKey == null) || (sdmFileReadKey.length != 16)) {
             log(methodName, "sdmFileReadKey is NULL or wrong length, aborted");
@@ -9365,14 +9805,14 @@ fileSize: 128
         System.arraycopy(uid, 0, cmacInput, 6, 7);
         System.arraycopy(sdmReadCounter, 0, cmacInput, 13, 3);
         // todo this method is working only when UID and readCtr are present, if not the byte array is filled up with 00 to 16 bytes
-        if (debug) log(methodName, printData("cmacInput", cmacInput));
+        if (debug) log(methodName, "cmacInput", cmacInput);
         byte[] cmac = calculateDiverseKey(sdmFileReadKey, cmacInput);
-        if (debug) log(methodName, printData("cmacOutput", cmac));
+        if (debug) log(methodName, "cmacOutput", cmac);
         return cmac;
     }
 
     private byte[] getRandomData(byte[] key) {
-        log("getRandomData", printData("key", key), true);
+        if (isTraceInfoEnabled()) log("getRandomData", printData("key", key), true);
         //Log.d(TAG, "getRandomData " + printData("var", var));
         int keyLength = key.length;
         return getRandomData(keyLength);
@@ -9384,7 +9824,7 @@ fileSize: 128
      * @return 8 bytes long byte[]
      */
     private byte[] getRandomData(int length) {
-        log("getRandomData", "length: " + length, true);
+        if (isTraceInfoEnabled()) log("getRandomData", "length: " + length, true);
         //Log.d(TAG, "getRandomData " + " length: " + length);
         byte[] value = new byte[length];
         SecureRandom secureRandom = new SecureRandom();
@@ -9394,7 +9834,7 @@ fileSize: 128
 
     // rotate the array one byte to the left
     private byte[] rotateLeft(byte[] data) {
-        log("rotateLeft", printData("data", data), true);
+        if (isTraceInfoEnabled()) log("rotateLeft", printData("data", data), true);
         byte[] ret = new byte[data.length];
         System.arraycopy(data, 1, ret, 0, data.length - 1);
         ret[data.length - 1] = data[0];
@@ -9424,7 +9864,7 @@ fileSize: 128
     }
 
     private byte[] xor(byte[] dataA, byte[] dataB) {
-        log("xor", printData("dataA", dataA) + printData(" dataB", dataB), true);
+        if (isTraceInfoEnabled()) log("xor", printData("dataA", dataA) + printData(" dataB", dataB), true);
         if ((dataA == null) || (dataB == null)) {
             Log.e(TAG, "xor - dataA or dataB is NULL, aborted");
             return null;
@@ -9443,7 +9883,34 @@ fileSize: 128
     }
 
     private byte[] calculateDiverseKey(byte[] masterKey, byte[] input) {
-        Log.d(TAG, "calculateDiverseKey" + printData(" masterKey", masterKey) + printData(" input", input));
+        return calculateDiverseKey(null, masterKey, input);
+    }
+
+    /**
+     * calculates the CMAC of the input
+     *
+     * @param context   | the secure messaging context of the session when masterKey is the SesAuthMACKey (the MAC
+     *                  uses the precomputed subkeys of the context), NULL for any other key
+     * @param masterKey | the AES key, used when the context is NULL
+     * @param input     | the data
+     */
+    private byte[] calculateDiverseKey(SecureMessagingContext context, byte[] masterKey, byte[] input) {
+        logcat("calculateDiverseKey masterKey", masterKey);
+        logcat("calculateDiverseKey input", input);
+        if (metrics.isEnabled()) {
+            long startNanos = System.nanoTime();
+            byte[] result = calculateCmac(context, masterKey, input);
+            metrics.recordCrypto(System.nanoTime() - startNanos);
+            return result;
+        }
+        return calculateCmac(context, masterKey, input);
+    }
+
+    private byte[] calculateCmac(SecureMessagingContext context, byte[] masterKey, byte[] input) {
+        if (context != null) {
+            // the MACs of the secure messaging use the precomputed subkeys
+            return context.cmac(input);
+        }
         AesCmac mac = null;
         try {
             mac = new AesCmac();
@@ -9463,6 +9930,27 @@ fileSize: 128
      * section for keys
      */
 
+    /**
+     * changes an application key to the diversified key of the new key version (AN10922, see KeyDiversifier),
+     * the old key is the diversified key of the old key version
+     *
+     * @param keyNumber      | the key to change
+     * @param keyVersion     | the new key version, the new key is derived with the master key of this version
+     * @param keyDiversifier | derives the keys of the card
+     * @param cardUid        | UID of the card (e.g. tag.getId())
+     * @param keyVersionOld  | the key version on the card
+     * @return TRUE on success
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+    public boolean changeApplicationKeyFull(byte keyNumber, byte keyVersion, KeyDiversifier keyDiversifier, byte[] cardUid, int keyVersionOld) {
+        final String methodName = "changeApplicationKeyFull";
+        byte[] keyNew = getDiversifiedKey(methodName, keyNumber, keyDiversifier, cardUid, keyVersion & 0xff);
+        if (keyNew == null) return false;
+        byte[] keyOld = getDiversifiedKey(methodName, keyNumber, keyDiversifier, cardUid, keyVersionOld);
+        if (keyOld == null) return false;
+        return changeApplicationKeyFull(keyNumber, keyVersion, keyNew, keyOld);
+    }
+
     public boolean changeApplicationKeyFull(byte keyNumber, byte keyVersion, byte[] keyNew, byte[] keyOld) {
         // see Mifare DESFire Light Features and Hints AN12343.pdf pages 76 - 80
         // this is based on the key change of an application key on a DESFire Light card
@@ -9472,10 +9960,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isTraceDebugEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        log(methodName, "keyNew", keyNew);
+        log(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9484,16 +9972,16 @@ fileSize: 128
         if (!checkIsoDep()) return false;
 
 
-        final byte KEY_VERSION = (byte) 0x00; // fixed
+        final byte KEY_VERSION = keyVersion; // read back with getKeyVersion
 
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
+        byte[] ivInput = getIvInput(CHANGE_KEY_SECURE_COMMAND);
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -9501,13 +9989,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9527,9 +10015,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            log(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9546,11 +10034,11 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
@@ -9564,15 +10052,15 @@ fileSize: 128
         baosMacInput.write(keyNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9580,20 +10068,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9601,16 +10089,15 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9621,12 +10108,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9642,10 +10129,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isTraceDebugEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        log(methodName, "keyNew", keyNew);
+        log(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         //if (!checkKeyNumber(keyNumber)) return false;
@@ -9654,16 +10141,16 @@ fileSize: 128
         if (!checkIsoDep()) return false;
 
 
-        final byte KEY_VERSION = (byte) 0x00; // fixed
+        final byte KEY_VERSION = keyVersion; // read back with getKeyVersion
 
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
+        byte[] ivInput = getIvInput(CHANGE_KEY_SECURE_COMMAND);
         /*
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -9671,13 +10158,13 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();*/
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9697,9 +10184,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            log(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9716,11 +10203,11 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
@@ -9734,15 +10221,15 @@ fileSize: 128
         baosMacInput.write(keyNumber);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();*/
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9750,20 +10237,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9771,16 +10258,15 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9791,12 +10277,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9812,10 +10298,10 @@ fileSize: 128
         String logData = "";
         final String methodName = "changeApplicationKeyToDesFull";
         log(methodName, "started", true);
-        log(methodName, "keyNumber: " + keyNumber);
-        log(methodName, "keyVersion: " + keyVersion);
-        log(methodName, printData("keyNew", keyNew));
-        log(methodName, printData("keyOld", keyOld));
+        if (isTraceDebugEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        if (isTraceDebugEnabled()) log(methodName, "keyVersion: " + keyVersion);
+        log(methodName, "keyNew", keyNew);
+        log(methodName, "keyOld", keyOld);
         // sanity checks
         if (!checkAuthentication()) return false;
         if (!checkKeyNumber(keyNumber)) return false;
@@ -9828,14 +10314,14 @@ fileSize: 128
         // Encrypting the Command Data
 
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(CHANGE_KEY_SECURE_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         // Data (New KeyValue || New KeyVersion || CRC32 of New KeyValue || Padding)
         // 0123456789012345678901234567890100A0A608688000000000000000000000
@@ -9855,9 +10341,9 @@ fileSize: 128
             for (int i = 0; i < keyOld.length; i++) {
                 keyNewXor[i] ^= keyOld[i % keyOld.length];
             }
-            log(methodName, printData("keyNewXor", keyNewXor));
+            log(methodName, "keyNewXor", keyNewXor);
             byte[] crc32 = CRC32.get(keyNew);
-            log(methodName, printData("crc32 of keyNew", crc32));
+            log(methodName, "crc32 of keyNew", crc32);
             byte[] padding = hexStringToByteArray("8000000000000000000000");
             ByteArrayOutputStream baosData = new ByteArrayOutputStream();
             baosData.write(keyNewXor, 0, keyNewXor.length);
@@ -9874,25 +10360,25 @@ fileSize: 128
             baosData.write(padding, 0, padding.length);
             data = baosData.toByteArray();
         }
-        log(methodName, printData("data", data));
+        log(methodName, "data", data);
 
         // Encrypt the Command Data = E(KSesAuthENC, Data)
-        byte[] encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, data);
-        log(methodName, printData("encryptedData", encryptedData));
+        byte[] encryptedData = aesEncrypt(secureMessagingContext, ivForCmdData, SesAuthENCKey, data);
+        log(methodName, "encryptedData", encryptedData);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader = keyNumber || Encrypted CmdData )
         // C40000BC354CD50180D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         // C4 0000 BC354CD5 01 80D40DB52D5D8CA136249A0A14154DBA1BE0D67C408AB24CF0F3D3B4FE333C6A
         byte[] macInput = getMacInput(CHANGE_KEY_SECURE_COMMAND, new byte[]{keyNumber}, encryptedData);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = keyNumber || Encrypted Data || MAC)
         ByteArrayOutputStream baosChangeKeyCommand = new ByteArrayOutputStream();
@@ -9900,20 +10386,20 @@ fileSize: 128
         baosChangeKeyCommand.write(encryptedData, 0, encryptedData.length);
         baosChangeKeyCommand.write(macTruncated, 0, macTruncated.length);
         byte[] changeKeyCommand = baosChangeKeyCommand.toByteArray();
-        log(methodName, printData("changeKeyCommand", changeKeyCommand));
+        log(methodName, "changeKeyCommand", changeKeyCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(CHANGE_KEY_SECURE_COMMAND, changeKeyCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -9921,16 +10407,15 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received data");
+            logcat(methodName + " SUCCESS, now verifying the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
 
         // in case 2 (auth key number == key number to change) there is NO received MAC so 0x9100 tells us - everything was OK
@@ -9941,12 +10426,12 @@ fileSize: 128
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
 
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
@@ -9971,23 +10456,23 @@ fileSize: 128
         byte[] apdu;
         try {
             apdu = wrapMessage(PREPARE_PROXIMITY_CHECK_COMMAND, null);
-            Log.d(TAG, printData("apdu", apdu));
+            logcat("apdu", apdu);
             response = sendData(apdu);
-            Log.d(TAG, printData("response", response));
+            logcat("response", response);
             System.arraycopy(response, 0, errorCode, 0, 2);
             // unauthenticated response: response IS NOT 9100 but 010320009190
             /*
             if (checkResponse(response)) {
-                Log.d(TAG, stepString + " SUCCESS");
+                logcat(stepString + " SUCCESS");
                 return true;
             } else {
-                Log.d(TAG, stepString + " FAILURE");
+                logcat(stepString + " FAILURE");
                 return false;
             }
              */
         } catch (IOException e) {
-            Log.d(TAG, stepString + " FAILURE, Exception: " + e.getMessage());
-            log(methodName, "IOException: " + e.getMessage());
+            logcat(stepString + " FAILURE, Exception: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -10003,10 +10488,10 @@ fileSize: 128
                 byte[] response;
                 try {
                     apdu = wrapMessage(PREPARE_PROXIMITY_CHECK_COMMAND, null);
-                    Log.d(TAG, printData(" apdu", apdu));
-                    response = isoDep.transceive(apdu);
+                    logcat(" apdu", apdu);
+                    response = transceive(apdu);
                     writeToUiAppend(output, printData("response", response));
-                    Log.d(TAG, printData(" response", response));
+                    logcat(" response", response);
                 } catch (IOException e) {
                     writeToUiAppend(output, "IOException: " + e.getMessage());
                     writeToUiAppendBorderColor(errorCode, errorCodeLayout, "IOException", COLOR_RED);
@@ -10061,10 +10546,10 @@ fileSize: 128
                 byte[] challenge1 = Utils.hexStringToByteArray("08F6DE23025C46DAE7");
                 try {
                     apdu = wrapMessage(RUN_PROXIMITY_CHECK_COMMAND, challenge1);
-                    Log.d(TAG, printData(" apdu", apdu));
-                    response = isoDep.transceive(apdu);
+                    logcat(" apdu", apdu);
+                    response = transceive(apdu);
                     writeToUiAppend(output, printData("response", response));
-                    Log.d(TAG, printData(" response", response));
+                    logcat(" response", response);
                     // 910c
                 } catch (IOException e) {
                     writeToUiAppend(output, "IOException: " + e.getMessage());
@@ -10092,7 +10577,7 @@ fileSize: 128
             bytes = sendRequest(GET_VERSION_INFO_COMMAND);
             return new VersionInfo(bytes);
         } catch (Exception e) {
-            log("getVersionInformation", "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log("getVersionInformation", "IOException: " + e.getMessage());
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
         }
         return null;
@@ -10167,7 +10652,7 @@ fileSize: 128
     UID, even if the Random ID is used.
      */
     public byte[] getCardUidFull() {
-        logData = "";
+        trace.clear();
         final String methodName = "getCardUidFull";
         log(methodName, methodName);
 
@@ -10177,15 +10662,15 @@ fileSize: 128
         // Constructing the full GetCardUID Command APDU
         // Data = MAC over command = MACKSesAuthMACKey(Ins || CmdCtr || TI)
         byte[] macInput = getMacInput(GET_CARD_UID_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Cmd.GetCardUID C-APDU (Part 1)
         //(Cmd || Ins || P1 || P2 || Lc || Data || Le)
@@ -10194,7 +10679,7 @@ fileSize: 128
         ByteArrayOutputStream baosCommand = new ByteArrayOutputStream();
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] command = baosCommand.toByteArray();
-        log(methodName, printData("command", command));
+        log(methodName, "command", command);
 
         byte[] response;
         byte[] apdu;
@@ -10205,7 +10690,7 @@ fileSize: 128
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10213,25 +10698,24 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         byte[] fullEncryptedData = getData(response);
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
@@ -10243,22 +10727,22 @@ fileSize: 128
         decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        byte[] decryptedData = aesDecrypt(secureMessagingContext, ivResponse, SesAuthENCKey, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         final int UIDLength = 7;
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, UIDLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -10266,13 +10750,13 @@ fileSize: 128
     }
 
     public boolean formatPicc() {
-        logData = "";
+        trace.clear();
         final String methodName = "formatPicc";
         log(methodName, methodName);
 
         if (!checkIsoDep()) return false;
         /*
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             log(methodName, "no or lost connection to the card, aborted");
             Log.e(TAG, methodName + " no or lost connection to the card, aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
@@ -10301,9 +10785,9 @@ fileSize: 128
         byte[] wrappedCommand;
         try {
             wrappedCommand = wrapMessage(FORMAT_PICC_COMMAND, null);
-            Log.d(TAG, printData("wrappedCommand", wrappedCommand));
-            response = isoDep.transceive(wrappedCommand);
-            Log.d(TAG, printData("response", response));
+            logcat("wrappedCommand", wrappedCommand);
+            response = transceive(wrappedCommand);
+            logcat("response", response);
             System.arraycopy(response, 0, errorCode, 0, 2);
             if (checkResponse(response)) {
                 return true;
@@ -10311,7 +10795,7 @@ fileSize: 128
                 return false;
             }
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -10353,9 +10837,9 @@ fileSize: 128
 
         // todo fill with life, see protocol page 5 and D40 page 36
         // returns 2 bytes: key settings || max number of keys
-        logData = "";
+        trace.clear();
         final String methodName = "getKeySettings";
-        log(methodName, methodName + " started");
+        if (isTraceDebugEnabled()) log(methodName, methodName + " started");
 
         // sanity checks
         if (!checkIsoDep()) return null;
@@ -10370,7 +10854,7 @@ fileSize: 128
             apdu = wrapMessage(GET_KEY_SETTINGS_COMMAND, null);
             response = sendData(apdu);
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10385,6 +10869,48 @@ fileSize: 128
         }
     }
 
+    /**
+     * get the version of a key in the selected application (or of the Master Application key when the
+     * Master Application is selected). The version is written with changeApplicationKey, so it tells a
+     * changed key apart without an authentication with the key.
+     * In the authenticated state the response is MACed and verified in sendData.
+     *
+     * @param keyNumber | in range 0..13
+     * @return the key version in range 0..255 or -1 on failure
+     * Note: check errorCode and errorCodeReason in case of failure
+     */
+
+    public int getKeyVersion(byte keyNumber) {
+        final String methodName = "getKeyVersion";
+        log(methodName, "started", true);
+        if (isTraceDebugEnabled()) log(methodName, "keyNumber: " + keyNumber);
+        errorCode = new byte[2];
+        // sanity checks
+        if ((keyNumber < 0) || (keyNumber > 13)) {
+            Log.e(TAG, methodName + " keyNumber is not in range 0..13, aborted");
+            errorCode = RESPONSE_PARAMETER_ERROR.clone();
+            errorCodeReason = "keyNumber is not in range 0..13";
+            return -1;
+        }
+        if (!checkIsoDep()) return -1;
+        byte[] response = sendRequest(GET_KEY_VERSION_COMMAND, new byte[]{keyNumber});
+        byte[] responseBytes = returnStatusBytes(response);
+        System.arraycopy(responseBytes, 0, errorCode, 0, 2);
+        if (!checkResponse(response)) {
+            log(methodName, "FAILURE with ", "errorCode", errorCode);
+            errorCodeReason = methodName + " FAILURE";
+            return -1;
+        }
+        byte[] keyVersion = getData(response);
+        if ((keyVersion == null) || (keyVersion.length != 1)) {
+            errorCode = RESPONSE_FAILURE.clone();
+            errorCodeReason = "the response data is not of length 1";
+            return -1;
+        }
+        errorCodeReason = methodName + " SUCCESS";
+        return keyVersion[0] & 0xFF;
+    }
+
     /**
      * get the get key settings of an application after a preceding authenticateAesEv2First/NonFirst
      * Note: depending on the application master key settings this requires a preceding authentication
@@ -10404,21 +10930,21 @@ fileSize: 128
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader (=Option) )
         byte[] macInput = getMacInput(GET_KEY_SETTINGS_COMMAND, null);
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // construction the abort Transaction
         ByteArrayOutputStream baosGetKeySettingsCommand = new ByteArrayOutputStream();
         baosGetKeySettingsCommand.write(macTruncated, 0, macTruncated.length);
         byte[] getKeySettingsCommand = baosGetKeySettingsCommand.toByteArray();
-        log(methodName, printData("getKeySettingsCommand", getKeySettingsCommand));
+        log(methodName, "getKeySettingsCommand", getKeySettingsCommand);
         //byte[] apdu = new byte[0];
         byte[] response = new byte[0];
         byte[] fullResponseData;
@@ -10427,39 +10953,37 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now verifying the received MAC");
+            logcat(methodName + " SUCCESS, now verifying the received MAC");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             errorCodeReason = "checkResponse data failure";
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         byte[] fullMacedData = getData(response);
         if ((fullMacedData == null) || (fullMacedData.length < 6)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             errorCodeReason = "data returned too small";
             return null;
         }
         int macedDataLength = fullMacedData.length - 8;
-        log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The macedData length is " + macedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The fullMacedData is of length " + fullMacedData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The macedData length is " + macedDataLength);
         byte[] macedData = Arrays.copyOfRange(fullMacedData, 0, macedDataLength);
         byte[] responseMACTruncatedReceived = Arrays.copyOfRange(fullMacedData, macedDataLength, fullMacedData.length);
-        log(methodName, printData("macedData", macedData));
+        log(methodName, "macedData", macedData);
         byte[] readData = Arrays.copyOfRange(macedData, 0, macedDataLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         if (verifyResponseMac(responseMACTruncatedReceived, macedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -10489,9 +11013,9 @@ fileSize: 128
 
         // Mifare DESFire Light MF2DLHX0.pdf pages 117 ff
         // returns 2 bytes: key settings || max number of keys
-        logData = "";
+        trace.clear();
         final String methodName = "readSignature";
-        log(methodName, methodName + " started");
+        if (isTraceDebugEnabled()) log(methodName, methodName + " started");
 
         // sanity checks
         if (!checkIsoDep()) return null;
@@ -10506,7 +11030,7 @@ fileSize: 128
             apdu = wrapMessage(READ_SIGNATURE_COMMAND, new byte[]{(byte) 0x00});
             response = sendData(apdu);
         } catch (IOException e) {
-            log(methodName, "IOException: " + e.getMessage());
+            if (isTraceDebugEnabled()) log(methodName, "IOException: " + e.getMessage());
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10527,37 +11051,37 @@ fileSize: 128
     }
 
     public byte[] readSignatureFull() {
-        logData = "";
+        trace.clear();
         final String methodName = "readSignatureFull";
-        log(methodName, methodName + " started");
+        if (isTraceDebugEnabled()) log(methodName, methodName + " started");
 
         if (!checkAuthentication()) return null;
         if (!checkIsoDep()) return null;
 
         // encrypting the command data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
-        byte[] ivInput = getIvInput();
-        log(methodName, printData("ivInput", ivInput));
+        byte[] ivInput = getIvInput(READ_SIGNATURE_COMMAND);
+        log(methodName, "ivInput", ivInput);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader ( = File number) )
         byte TargetingNXPOriginalitySignature = (byte) 0x00;
         byte[] macInput = getMacInput(READ_SIGNATURE_COMMAND, new byte[]{TargetingNXPOriginalitySignature});
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the (truncated) MAC (CMAC) with the SesAuthMACKey: MAC = CMAC(KSesAuthMAC, MAC_ Input)
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Data (CmdHeader = File number || MAC)
         ByteArrayOutputStream baosCommand = new ByteArrayOutputStream();
         baosCommand.write(TargetingNXPOriginalitySignature);
         baosCommand.write(macTruncated, 0, macTruncated.length);
         byte[] command = baosCommand.toByteArray();
-        log(methodName, printData("command", command));
+        log(methodName, "command", command);
 
         byte[] response;
         byte[] apdu;
@@ -10567,7 +11091,7 @@ fileSize: 128
             response = sendData(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -10576,31 +11100,30 @@ fileSize: 128
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         byte responseCode = (byte) 0x00;
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
             // check for 0x9190
             if (checkResponseUnauthenticated(response)) {
                 log(methodName, "we received the status code 0x9190 meaning that the command is run unnecessary in Full mode, proceed");
                 responseCode = (byte) 0x90;
             } else {
-                Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-                Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+                logcatFailure(methodName, responseBytes);
                 return null;
             }
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         // the fullEncryptedData is 72 bytes long, the first 56 bytes are encryptedData || padding 8 bytes || the last 8 bytes are the responseMAC
         byte[] fullEncryptedData = getData(response);
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         byte[] encryptedDataD = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedDataD", encryptedDataD));
+        log(methodName, "encryptedDataD", encryptedDataD);
 
         // start decrypting the data
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
@@ -10612,23 +11135,23 @@ fileSize: 128
         decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIvD, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedDataD);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIvD, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        byte[] decryptedData = aesDecrypt(secureMessagingContext, ivResponse, SesAuthENCKey, encryptedDataD);
+        log(methodName, "decryptedData", decryptedData);
         final int SignatureLength = 56;
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, SignatureLength);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
         // we need to use the responseCode option/parameter as if "unnecessary authentication" response
         // from PICC (0x9190) the verification of the response MAC fails on regular method
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedDataD, responseCode)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -10700,24 +11223,390 @@ fileSize: 128
             return returnData;
         } catch (IOException e) {
             Log.e(TAG, "transceive failed, IOException:\n" + e.getMessage());
-            log("sendRequest", "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log("sendRequest", "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return RESPONSE_FAILURE.clone();
         }
     }
 
+    /**
+     * sends the apdu and collects the data of all frames when the PICC chains the response with '0xAF'
+     *
+     * @param apdu
+     * @return the full received data including the status bytes of the last frame or NULL on failure
+     */
+    private byte[] sendDataChained(byte[] apdu) throws IOException {
+        byte[] response = sendData(apdu);
+        if (response == null) throw new IOException(errorCodeReason); // e.g. a TagLostException, see sendData
+        if (!ApduBuffer.hasStatus(response, RESPONSE_MORE_DATA_AVAILABLE)) {
+            return response;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        while (ApduBuffer.hasStatus(response, RESPONSE_MORE_DATA_AVAILABLE)) {
+            baos.write(response, 0, response.length - 2);
+            response = sendData(wrapMessage(MORE_DATA_COMMAND, null));
+        }
+        if (response == null) throw new IOException(errorCodeReason);
+        baos.write(response, 0, response.length);
+        return baos.toByteArray();
+    }
+
+    /**
+     * sends a command to the PICC. If the command data exceeds the negotiated frame size the command is
+     * send in several frames: the first frame carries the command code, the following frames the
+     * '0xAF' additional frame code. The PICC answers each intermediate frame with '0x91AF', the response
+     * of the last frame is the response of the complete command. This way one secure messaging command
+     * (one MAC, one CmdCounter increment) covers the complete data.
+     *
+     * @param command     | the native DESFire command
+     * @param commandData | the complete command data (header, data and MAC)
+     * @return the response of the last frame
+     * @throws IOException | when a frame gets no response (e.g. the tag was lost), the message is the errorCodeReason
+     */
+    private byte[] sendCommandChained(byte command, byte[] commandData) throws IOException {
+        final String methodName = "sendCommandChained";
+        int frameLength = getMaximumFrameDataLength();
+        if ((commandData == null) || (commandData.length <= frameLength)) {
+            byte[] response = sendData(wrapMessage(command, commandData));
+            if (response == null) throw new IOException(errorCodeReason); // e.g. a TagLostException, see sendData
+            return response;
+        }
+        int numberOfFrames = (commandData.length + frameLength - 1) / frameLength;
+        if (isTraceDebugEnabled()) log(methodName, "command data length: " + commandData.length + " numberOfFrames: " + numberOfFrames);
+        byte[] response = null;
+        for (int i = 0; i < numberOfFrames; i++) {
+            int frameStart = i * frameLength;
+            int frameDataLength = Math.min(commandData.length, frameStart + frameLength) - frameStart;
+            response = sendData(apduBuffer.start((i == 0) ? command : MORE_DATA_COMMAND).put(commandData, frameStart, frameDataLength).toApdu(true, true));
+            if (response == null) throw new IOException(errorCodeReason);
+            boolean isLastFrame = (i == numberOfFrames - 1);
+            if ((!isLastFrame) && (!ApduBuffer.hasStatus(response, RESPONSE_MORE_DATA_AVAILABLE))) {
+                // the PICC rejected the command before all frames were send
+                return response;
+            }
+        }
+        return response;
+    }
+
+    /**
+     * section for frame size negotiation
+     */
+
+    /**
+     * The maximum length of the data field in a command APDU is negotiated with the reader: it is
+     * derived from the maximum transceive length minus the APDU overhead and limited to 255 bytes as
+     * all commands are send as short APDUs (the PICC frame size of DESFire EV2/EV3 is 256 bytes, so
+     * extended length support of the reader does not enlarge the frame).
+     * If the reader does not report a maximum transceive length the fixed length of
+     * MAXIMUM_WRITE_MESSAGE_LENGTH is used.
+     *
+     * @return the maximum number of bytes in the data field of a command APDU
+     */
+    public int getMaximumFrameDataLength() {
+        if (maximumFrameDataLength > 0) return maximumFrameDataLength;
+        final String methodName = "getMaximumFrameDataLength";
+        int maxTransceiveLength = cardTransport.getMaxTransceiveLength();
+        if (maxTransceiveLength <= APDU_OVERHEAD_LENGTH) {
+            if (isTraceDebugEnabled()) log(methodName, "no maximum transceive length reported, using the fixed length of " + MAXIMUM_WRITE_MESSAGE_LENGTH);
+            // a frame for 40 data bytes in Full enciphered mode: header, data padded to 48 bytes and the MAC
+            maximumFrameDataLength = DATA_COMMAND_HEADER_LENGTH + MAXIMUM_WRITE_MESSAGE_LENGTH + 8 + 8;
+        } else {
+            maximumFrameDataLength = Math.min(maxTransceiveLength - APDU_OVERHEAD_LENGTH, MAXIMUM_SHORT_APDU_DATA_LENGTH);
+            if (isTraceDebugEnabled()) log(methodName, "maxTransceiveLength: " + maxTransceiveLength + " extendedLengthApduSupported: "
+                    + cardTransport.isExtendedLengthApduSupported() + " maximumFrameDataLength: " + maximumFrameDataLength);
+        }
+        return maximumFrameDataLength;
+    }
+
+    /**
+     * Overrides the negotiated frame size, e.g. 63 to get the 40 byte chunks of older versions
+     *
+     * @param maximumFrameDataLength | maximum number of bytes in the data field of a command APDU, 0 = negotiate with the reader
+     */
+    public void setMaximumFrameDataLength(int maximumFrameDataLength) {
+        this.maximumFrameDataLength = Math.min(Math.max(maximumFrameDataLength, 0), MAXIMUM_SHORT_APDU_DATA_LENGTH);
+    }
+
+    /**
+     * When chaining is enabled a WriteData or WriteRecord command can carry the complete data as it
+     * is send in several frames, otherwise the data is written in chunks of one frame each
+     *
+     * @param chainedWriteEnabled | true = one command for the complete data (default), false = one command per frame
+     */
+    public void setChainedWriteEnabled(boolean chainedWriteEnabled) {
+        this.chainedWriteEnabled = chainedWriteEnabled;
+    }
+
+    /**
+     * When the pipelined read is enabled readFromADataFile verifies (and decrypts) a chunk of a MACed or Full
+     * enciphered file on a worker thread while the next chunk is read, this hides the crypto time behind
+     * the RF time on slow devices. A read of one chunk is not affected.
+     *
+     * @param pipelinedReadEnabled | true = pipelined, false = one chunk after the other (default)
+     */
+    public void setPipelinedReadEnabled(boolean pipelinedReadEnabled) {
+        this.pipelinedReadEnabled = pipelinedReadEnabled;
+    }
+
+    /**
+     * section for the session threads
+     */
+
+    /**
+     * The worker thread of readFromADataFilePipelined is created once per session and reused by all reads,
+     * the chunks of all reads are verified on the same thread so workerSecureMessagingContext is not shared.
+     */
+    synchronized ExecutorService getPipelinedReadExecutor() {
+        if (pipelinedReadExecutor == null) pipelinedReadExecutor = newSessionExecutor("readFromADataFilePipelined");
+        return pipelinedReadExecutor;
+    }
+
+    /**
+     * The card thread of DesfireFileInputStream is created once per session and reused by all streams, it is
+     * not the worker of readFromADataFilePipelined as a prefetched read may be pipelined.
+     */
+    synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) prefetchExecutor = newSessionExecutor("DesfireFileInputStream");
+        return prefetchExecutor;
+    }
+
+    /**
+     * @return an executor with one daemon thread that ends after SESSION_THREAD_IDLE_SECONDS without a task
+     * and gets started again by the next task
+     */
+    private static ExecutorService newSessionExecutor(final String threadName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, SESSION_THREAD_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * When an AuthenticationPrecomputer is set authenticateAesEv2First and authenticateAesEv2NonFirst take the
+     * rndA and the key schedule of the authentication key from it, so the reader side work between the two
+     * authentication frames gets shorter. Prepare the key with precomputer.prepareKey(key) before the tap.
+     *
+     * @param authenticationPrecomputer | the precomputer or NULL to compute everything during the authentication (default)
+     */
+    public void setAuthenticationPrecomputer(AuthenticationPrecomputer authenticationPrecomputer) {
+        this.authenticationPrecomputer = authenticationPrecomputer;
+    }
+
+    /**
+     * get the reader side time between the response of the first authentication frame and the sending of the
+     * second frame (decryption of rndB, generation of rndA and encryption of rndA || rndB') of the last
+     * authenticateAesEv2First or authenticateAesEv2NonFirst
+     *
+     * @return the time in nanoseconds or -1 if there was no authentication
+     */
+    public long getLastAuthenticationGapNanos() {
+        return lastAuthenticationGapNanos;
+    }
+
+    /**
+     * get the number of data bytes that readFromADataFile reads with one ReadData command from a file in
+     * the selected application, a read of this length (or less) is send as one command
+     *
+     * @param fileNumber | in range 0..31
+     * @return the chunk length for the communication mode of the file or -1 if the file settings are unknown
+     */
+    public int getMaximumReadDataLength(byte fileNumber) {
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) return -1;
+        return getReadChunkLength(fileSettings.getCommunicationSettings());
+    }
+
+    /**
+     * get the maximum number of data bytes for one WriteData or WriteRecord command
+     *
+     * @param communicationSettings | Plain, MACed or Full enciphered
+     * @param dataLength            | the length of the complete data to write
+     * @return if chained writing is enabled dataLength limited to the length of one chained command,
+     * otherwise the maximum length of one frame
+     */
+    private int getMaximumWriteDataLength(byte communicationSettings, int dataLength) {
+        if (chainedWriteEnabled) return Math.min(dataLength, getChainedWriteChunkLength(communicationSettings));
+        return getWriteChunkLength(communicationSettings);
+    }
+
+    /**
+     * get the maximum number of data bytes that can be written with one chained WriteData or WriteRecord
+     * command of MAXIMUM_NUMBER_OF_FRAMES frames, longer data is written with several commands
+     *
+     * @param communicationSettings | Plain, MACed or Full enciphered
+     * @return the maximum chunk length
+     */
+    private int getChainedWriteChunkLength(byte communicationSettings) {
+        return getChunkLength((getMaximumFrameDataLength() * MAXIMUM_NUMBER_OF_FRAMES) - DATA_COMMAND_HEADER_LENGTH, communicationSettings);
+    }
+
+    /**
+     * get the maximum number of data bytes that can be written with one WriteData or WriteRecord command
+     * in a single frame
+     *
+     * @param communicationSettings | Plain, MACed or Full enciphered
+     * @return the maximum chunk length
+     */
+    private int getWriteChunkLength(byte communicationSettings) {
+        return getChunkLength(getMaximumFrameDataLength() - DATA_COMMAND_HEADER_LENGTH, communicationSettings);
+    }
+
+    /**
+     * get the maximum number of data bytes that are read with one ReadData command, the response data
+     * gets the same limit as the command data
+     *
+     * @param communicationSettings | Plain, MACed or Full enciphered
+     * @return the maximum chunk length
+     */
+    private int getReadChunkLength(byte communicationSettings) {
+        return getChunkLength(getMaximumFrameDataLength(), communicationSettings);
+    }
+
+    private int getChunkLength(int frameLength, byte communicationSettings) {
+        int chunkLength;
+        if (communicationSettings == FILE_COMMUNICATION_SETTINGS_MACED) {
+            chunkLength = frameLength - 8; // MAC
+        } else if (communicationSettings == FILE_COMMUNICATION_SETTINGS_FULL) {
+            // the padding adds at least 1 byte and fills up to a multiple of 16 bytes, then the MAC is appended
+            chunkLength = (((frameLength - 8) / 16) * 16) - 1;
+        } else {
+            chunkLength = frameLength;
+        }
+        return Math.max(chunkLength, 1);
+    }
+
+    /**
+     * all APDUs are exchanged with the card here, when the metrics are enabled the exchange gets recorded
+     */
+    private byte[] transceive(byte[] apdu) throws IOException {
+        byte[] response = null;
+        isTransceiveFailed = true; // stays true when the transport throws (e.g. a TagLostException)
+        if (!metrics.isEnabled()) {
+            response = cardTransport.transceive(apdu);
+        } else {
+            long startNanos = System.nanoTime();
+            try {
+                response = cardTransport.transceive(apdu);
+            } finally {
+                metrics.recordExchange(apdu, response, System.nanoTime() - startNanos);
+            }
+        }
+        isTransceiveFailed = (response == null);
+        if ((response != null) && (response.length >= 2)) lastCardStatus = returnStatusBytes(response);
+        if (fileSettingsCache != null) updateFileSettingsCache(apdu, response);
+        return response;
+    }
+
+    /**
+     * the AES operations, when the metrics are enabled the crypto time gets recorded
+     */
+    private byte[] aesEncrypt(byte[] iv, byte[] key, byte[] data) {
+        return aesEncrypt(null, iv, key, data);
+    }
+
+    private byte[] aesDecrypt(byte[] iv, byte[] key, byte[] data) {
+        return aesDecrypt(null, iv, key, data);
+    }
+
+    /**
+     * @param context | the secure messaging context of the session when key is the SesAuthENCKey (the operation
+     *                uses the cached Ciphers of the context), NULL for any other key (e.g. the application key
+     *                during the authentication)
+     * @param iv      | 16 bytes
+     * @param key     | the AES key, used when the context is NULL
+     * @param data    | length is a multiple of 16
+     */
+    private byte[] aesEncrypt(SecureMessagingContext context, byte[] iv, byte[] key, byte[] data) {
+        long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        byte[] result = (context != null) ? context.encrypt(iv, data) : AES.encrypt(iv, key, data);
+        if (metrics.isEnabled()) metrics.recordCrypto(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    private byte[] aesDecrypt(SecureMessagingContext context, byte[] iv, byte[] key, byte[] data) {
+        long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        byte[] result = (context != null) ? context.decrypt(iv, data) : AES.decrypt(iv, key, data);
+        if (metrics.isEnabled()) metrics.recordCrypto(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    /**
+     * pads the command data (ISO 9797-M2, see paddingWriteData) and encrypts the complete padded data
+     * with the SesAuthENCKey in one CBC pass, the padding is fused into the encryption of the last block
+     *
+     * @param ivForCmdData | IV for the command data
+     * @param data         | unpadded data
+     * @return the encrypted data or NULL on failure
+     */
+    private byte[] encryptPaddedCommandData(byte[] ivForCmdData, byte[] data) {
+        long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        byte[] encryptedData;
+        SecureMessagingContext context = secureMessagingContext;
+        if (context != null) {
+            encryptedData = new byte[SecureMessagingContext.getPaddedLength(data.length)];
+            if (context.encryptPadded(ivForCmdData, data, 0, data.length, encryptedData, 0) < 0) {
+                encryptedData = null;
+            }
+        } else {
+            encryptedData = AES.encrypt(ivForCmdData, SesAuthENCKey, paddingWriteData(data));
+        }
+        if (metrics.isEnabled()) metrics.recordCrypto(System.nanoTime() - startNanos);
+        return encryptedData;
+    }
+
+    /**
+     * decrypts the response data with the SesAuthENCKey in one CBC pass and removes the ISO 9797-M2
+     * padding in the same pass
+     * Note: the encryptedData array gets overwritten with the decrypted data, verify the response MAC first
+     *
+     * @param ivResponse    | IV for the response data
+     * @param encryptedData | encrypted data (multiple of 16 bytes)
+     * @return the decrypted data without padding or NULL on failure or a wrong padding
+     */
+    private byte[] decryptResponseData(byte[] ivResponse, byte[] encryptedData) {
+        return decryptResponseData(ivResponse, encryptedData, encryptedData.length);
+    }
+
+    /**
+     * decrypts the encrypted response data at the beginning of the response (EncryptedData || MAC || SW1 SW2)
+     * in place, see decryptResponseData(byte[], byte[])
+     *
+     * @param ivResponse          | IV for the response data
+     * @param response            | the response, the encrypted data gets overwritten with the decrypted data
+     * @param encryptedDataLength | length of the encrypted data (multiple of 16 bytes)
+     * @return the decrypted data without padding or NULL on failure or a wrong padding
+     */
+    private byte[] decryptResponseData(byte[] ivResponse, byte[] response, int encryptedDataLength) {
+        if (encryptedDataLength < 0) return null;
+        long startNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        byte[] decryptedData;
+        int decryptedLength;
+        SecureMessagingContext context = secureMessagingContext;
+        if (context != null) {
+            decryptedData = response;
+            decryptedLength = context.decryptInPlaceUnpadded(ivResponse, response, 0, encryptedDataLength);
+        } else {
+            decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, Arrays.copyOf(response, encryptedDataLength));
+            decryptedLength = (decryptedData == null) ? -1 : SecureMessagingContext.getUnpaddedLength(decryptedData, 0, decryptedData.length);
+        }
+        if (metrics.isEnabled()) metrics.recordCrypto(System.nanoTime() - startNanos);
+        if (decryptedLength < 0) return null;
+        return Arrays.copyOf(decryptedData, decryptedLength);
+    }
+
     private byte[] sendData(byte[] apdu) {
         String methodName = "sendData";
-        if (isoDep == null) {
-            Log.e(TAG, methodName + " isoDep is NULL");
-            log(methodName, "isoDep is NULL, aborted");
-            return null;
-        }
-        log(methodName, printData("send apdu -->", apdu));
+        log(methodName, "send apdu -->", apdu);
         byte[] recvBuffer;
         try {
-            recvBuffer = isoDep.transceive(apdu);
+            recvBuffer = transceive(apdu);
         } catch (TagLostException e) {
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "TagLostException: " + e.getMessage();
@@ -10731,7 +11620,7 @@ fileSize: 128
             e.printStackTrace();
             return null;
         }
-        log(methodName, printData("received  <--", recvBuffer));
+        log(methodName, "received  <--", recvBuffer);
         return recvBuffer;
     }
 
@@ -10743,17 +11632,7 @@ fileSize: 128
         // (e.g. CREATE_STANDARD_FILE / CREATE_BACKUP_FILE / FORMAT_PICC), EV3 is
         // stricter about the APDU case and may return 0x917E if Le is present.
         // For those, use wrapMessageNoLe() below so the APDU becomes "Case 3".
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        stream.write((byte) 0x90);
-        stream.write(command);
-        stream.write((byte) 0x00);
-        stream.write((byte) 0x00);
-        if (parameters != null) {
-            stream.write((byte) parameters.length);
-            stream.write(parameters);
-        }
-        stream.write((byte) 0x00);
-        return stream.toByteArray();
+        return apduBuffer.start(command).put(parameters).toApdu((parameters != null), true);
     }
 
     // Variant for ISO/IEC 7816-4 Case 3: command has a data field but does not
@@ -10761,16 +11640,7 @@ fileSize: 128
     // the APDU length exactly matches CLA INS P1 P2 Lc Data and avoids 0x917E
     // (Length error) on stricter EV3 firmware when creating files.
     private byte[] wrapMessageNoLe(byte command, byte[] parameters) throws IOException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        stream.write((byte) 0x90);
-        stream.write(command);
-        stream.write((byte) 0x00);
-        stream.write((byte) 0x00);
-        if (parameters != null) {
-            stream.write((byte) parameters.length);
-            stream.write(parameters);
-        }
-        return stream.toByteArray();
+        return apduBuffer.start(command).put(parameters).toApdu((parameters != null), false);
     }
 
     private byte[] returnStatusBytes(byte[] data) {
@@ -10785,14 +11655,14 @@ fileSize: 128
      * byte array if this APDU has no body.
      */
     private byte[] getData(byte[] responseAPDU) {
-        log("getData", printData("responseAPDU", responseAPDU), true);
+        if (isTraceInfoEnabled()) log("getData", printData("responseAPDU", responseAPDU), true);
         if ((responseAPDU == null) || (responseAPDU.length < 2)) {
             Log.e(TAG, "responseApdu is NULL or length is < 2, aborted");
             return null;
         }
         byte[] data = new byte[responseAPDU.length - 2];
         System.arraycopy(responseAPDU, 0, data, 0, data.length);
-        log("getData", printData("responseData", data));
+        log("getData", "responseData", data);
         return data;
     }
 
@@ -10805,42 +11675,16 @@ fileSize: 128
      * @return
      */
     private boolean checkResponse(byte[] data) {
-        if (data == null) return false;
-        // simple sanity check
-        if (data.length < 2) {
-            return false;
-        } // not ok
-        if (Arrays.equals(RESPONSE_OK, returnStatusBytes(data))) {
-            return true;
-        } else {
-            return false;
-        }
+        return ApduBuffer.hasStatus(data, RESPONSE_OK);
     }
 
     // this may occur when a command is run in Plain communication, it better should be run in MACed or Full communication (e.g. readSignature)
     private boolean checkResponseUnauthenticated(byte[] data) {
-        if (data == null) return false;
-        // simple sanity check
-        if (data.length < 2) {
-            return false;
-        } // not ok
-        if (Arrays.equals(RESPONSE_UNAUTHENTICATED_OK, returnStatusBytes(data))) {
-            return true;
-        } else {
-            return false;
-        }
+        return ApduBuffer.hasStatus(data, RESPONSE_UNAUTHENTICATED_OK);
     }
 
     private boolean checkResponseIso(@NonNull byte[] data) {
-        // simple sanity check
-        if (data.length < 2) {
-            return false;
-        } // not ok
-        if (Arrays.equals(RESPONSE_ISO_OK, returnStatusBytes(data))) {
-            return true;
-        } else {
-            return false;
-        }
+        return ApduBuffer.hasStatus(data, RESPONSE_ISO_OK);
     }
 
     /**
@@ -10852,15 +11696,7 @@ fileSize: 128
      * @return
      */
     private boolean checkResponseMoreData(@NonNull byte[] data) {
-        // simple sanity check
-        if (data.length < 2) {
-            return false;
-        } // not ok
-        if (Arrays.equals(RESPONSE_MORE_DATA_AVAILABLE, returnStatusBytes(data))) {
-            return true;
-        } else {
-            return false;
-        }
+        return ApduBuffer.hasStatus(data, RESPONSE_MORE_DATA_AVAILABLE);
     }
 
     /**
@@ -10933,20 +11769,20 @@ fileSize: 128
         if (!checkFileNumber(fileNumber)) return false;
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
             int fileSize = fileSettings.getFileSizeInt(); // if the file is not existing we get an NPE
         } catch (NullPointerException e) {
-            Log.d(TAG, "fileNumber " + fileNumber + " is not existing");
+            logcat("fileNumber " + fileNumber + " is not existing");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileNumber " + fileNumber + " is not existing";
             return false;
         }
-        Log.d(TAG, "fileNumber " + fileNumber + " is existing");
+        logcat("fileNumber " + fileNumber + " is existing");
         return true;
     }
 
     private boolean checkFileTypeStandard(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) {
             return true;
         } else {
@@ -10956,7 +11792,7 @@ fileSize: 128
     }
 
     private boolean checkFileTypeBackup(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE) {
             return true;
         } else {
@@ -10966,7 +11802,7 @@ fileSize: 128
     }
 
     private boolean checkFileTypeValue(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
             return true;
         } else {
@@ -10976,7 +11812,7 @@ fileSize: 128
     }
 
     private boolean checkFileTypeLinearRecord(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) {
             return true;
         } else {
@@ -10986,7 +11822,7 @@ fileSize: 128
     }
 
     private boolean checkFileTypeCyclicRecord(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE) {
             return true;
         } else {
@@ -10996,7 +11832,7 @@ fileSize: 128
     }
 
     private boolean checkFileTypeTransactionMac(byte fileNumber) {
-        FileSettings fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+        FileSettings fileSettings = getApplicationFileSettings(fileNumber);
         if (fileSettings.getFileType() == FileSettings.TRANSACTION_MAC_FILE_TYPE) {
             return true;
         } else {
@@ -11087,7 +11923,7 @@ fileSize: 128
         String methodName = "checkIsDataFileType";
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -11097,10 +11933,10 @@ fileSize: 128
         }
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Standard or Backup file";
             return false;
@@ -11111,7 +11947,7 @@ fileSize: 128
         String methodName = "checkIsValueFileType";
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -11120,10 +11956,10 @@ fileSize: 128
             return false;
         }
         if (fileSettings.getFileType() == FileSettings.VALUE_FILE_TYPE) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Value file";
             return false;
@@ -11134,7 +11970,7 @@ fileSize: 128
         String methodName = "checkIsRecordFileType";
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -11144,10 +11980,10 @@ fileSize: 128
         }
         if ((fileSettings.getFileType() == FileSettings.LINEAR_RECORD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
             return true;
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "fileType is not a Linear or Cyclic Record file";
             return false;
@@ -11159,8 +11995,8 @@ fileSize: 128
         String methodName = "checkIsTransactionFileType";
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
-            log(methodName, "fileNumber is a " + fileSettings.getFileTypeName());
+            fileSettings = getApplicationFileSettings(fileNumber);
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber is a " + fileSettings.getFileTypeName());
             if (fileSettings.getFileType() == FileSettings.TRANSACTION_MAC_FILE_TYPE) {
                 log(methodName, "Transaction MAC file detected");
                 return true;
@@ -11188,10 +12024,11 @@ fileSize: 128
     }
 
     private boolean checkIsoDep() {
-        if ((isoDep == null) || (!isoDep.isConnected())) {
+        if (!cardTransport.isConnected()) {
             log("checkIsoDep", "lost connection to the card, aborted");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "lost connection to the card";
+            isTransceiveFailed = true;
             return false;
         }
         return true;
@@ -11251,8 +12088,6 @@ fileSize: 128
         System.arraycopy(PADDING_FULL, 0, fullPaddedData, unpaddedDataLength, paddingBytesLength);
         // this is maybe too long, trunc to multiple of 16 bytes
         int mult16 = fullPaddedData.length / 16;
-        Log.d(TAG, "fullPaddedData.length: " + fullPaddedData.length);
-        Log.d(TAG, "mult16               : " + mult16);
         return Arrays.copyOfRange(fullPaddedData, 0, (mult16 * 16));
     }
 
@@ -11298,7 +12133,7 @@ fileSize: 128
 
     private void invalidateAllNonAuthenticationData() {
         selectedApplicationId = null;
-        APPLICATION_ALL_FILE_SETTINGS = null;
+        applicationAllFileSettings = null;
         isTransactionMacFilePresent = false;
         transactionMacFileSettings = null;
         isTransactionMacCommitReaderId = false;
@@ -11310,6 +12145,8 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessagingContext = null;
+        workerSecureMessagingContext = null;
         CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -11320,6 +12157,8 @@ fileSize: 128
         keyNumberUsedForAuthentication = -1;
         SesAuthENCKey = null; // filled by authenticateAesEv2First
         SesAuthMACKey = null; // filled by authenticateAesEv2First
+        secureMessagingContext = null;
+        workerSecureMessagingContext = null;
         //CmdCounter = 0; // filled / resetted by authenticateAesEv2First
         //TransactionIdentifier = null; // resetted by authenticateAesEv2First
     }
@@ -11334,16 +12173,62 @@ fileSize: 128
      * section for logging
      */
 
+    /**
+     * log and Log.d calls that concatenate strings or encode byte arrays are guarded by these checks,
+     * so nothing is build when the level is disabled
+     */
+    private boolean isTraceDebugEnabled() {
+        return trace.isEnabled(DesfireTrace.Level.DEBUG);
+    }
+
+    private boolean isTraceInfoEnabled() {
+        return trace.isEnabled(DesfireTrace.Level.INFO);
+    }
+
+    private boolean isLogcatDebugEnabled() {
+        return trace.isLogcatEnabled() && trace.isEnabled(DesfireTrace.Level.DEBUG);
+    }
+
+    /**
+     * writes a message to logcat when the trace has logcat and the DEBUG level enabled
+     */
+    private void logcat(String message) {
+        if (isLogcatDebugEnabled()) Log.d(TAG, message);
+    }
+
+    /**
+     * writes a byte array to logcat, the hex encoding is done only when logcat and the DEBUG level are enabled
+     */
+    private void logcat(String dataName, byte[] data) {
+        if (isLogcatDebugEnabled()) Log.d(TAG, printData(dataName, data));
+    }
+
+    /**
+     * writes the error code of a failed command to logcat
+     */
+    private void logcatFailure(String methodName, byte[] responseBytes) {
+        if (!isLogcatDebugEnabled()) return;
+        Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
+        Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+    }
+
     private void log(String methodName, String data) {
         log(methodName, data, false);
     }
 
     private void log(String methodName, String data, boolean isMethodHeader) {
-        if (printToLog) {
-            logData += "method: " + methodName + "\n" + data + "\n";
-            //logData += "\n" + methodName + ":\n" + data + "\n\n";
-            Log.d(TAG, "method: " + methodName + ": " + data);
-        }
+        trace.add(isMethodHeader ? DesfireTrace.Level.INFO : DesfireTrace.Level.DEBUG, methodName, data);
+    }
+
+    /**
+     * logs a byte array, the hex encoding is done only when the trace gets rendered
+     */
+    private void log(String methodName, String dataName, byte[] data) {
+        trace.add(DesfireTrace.Level.DEBUG, methodName, dataName, data);
+    }
+
+    private void log(String methodName, String message, String dataName, byte[] data) {
+        trace.add(DesfireTrace.Level.DEBUG, methodName, message, dataName, data);
     }
 
     /**
@@ -11351,16 +12236,52 @@ fileSize: 128
      */
 
 
+    /**
+     * the per command metrics of this session, disabled by default, enable them with getMetrics().setEnabled(true)
+     */
+    public DesfireCommandMetrics getMetrics() {
+        return metrics;
+    }
+
     public byte[] getErrorCode() {
         return errorCode;
     }
 
+    /**
+     * The errorCode RESPONSE_FAILURE (0x91FF) is used for a lost card and for local failures (e.g. a response
+     * MAC that does not match), this tells them apart.
+     *
+     * @return true when the card did not answer the last APDU (e.g. a TagLostException) or the connection
+     * is lost, the state of the card after this command is unknown
+     */
+    public boolean isTransceiveFailed() {
+        return isTransceiveFailed;
+    }
+
+    /**
+     * The errorCode is set by local failures (e.g. 0x91FC on a wrong parameter) as well, this returns the
+     * status that the card sent with its last response.
+     *
+     * @return the status bytes of the last response of the card (e.g. 0x9100) or NULL when the card did not
+     * answer any APDU of this session yet
+     */
+    public byte[] getLastCardStatus() {
+        return (lastCardStatus == null) ? null : lastCardStatus.clone();
+    }
+
     public String getErrorCodeReason() {
         return errorCodeReason;
     }
 
     public String getLogData() {
-        return logData;
+        return trace.render();
+    }
+
+    /**
+     * the trace behind getLogData, use it to set the level (e.g. DesfireTrace.Level.OFF in production)
+     */
+    public DesfireTrace getTrace() {
+        return trace;
     }
 
     public boolean isApplicationSelected() {
@@ -11391,12 +12312,18 @@ fileSize: 128
         return keyNumberUsedForLegacyAuthentication;
     }
 
-    public static byte[] getApplicationAllFileIds() {
-        return APPLICATION_ALL_FILE_IDS;
+    public byte[] getApplicationAllFileIds() {
+        return applicationAllFileIds;
     }
 
-    public static FileSettings[] getApplicationAllFileSettings() {
-        return APPLICATION_ALL_FILE_SETTINGS;
+    /**
+     * returns the file settings of all files in the selected application indexed by the file number, the
+     * settings that are not known yet are read from the card before. When only one file is accessed use
+     * getApplicationFileSettings.
+     */
+    public FileSettings[] getApplicationAllFileSettings() {
+        loadMissingFileSettings();
+        return applicationAllFileSettings;
     }
 
     public List<byte[]> getIsoFileIdsList() {
@@ -11408,10 +12335,12 @@ fileSize: 128
     }
 
     public boolean isTransactionMacFilePresent() {
+        loadMissingFileSettings();
         return isTransactionMacFilePresent;
     }
 
     public boolean isTransactionMacCommitReaderId() {
+        loadMissingFileSettings();
         return isTransactionMacCommitReaderId;
     }
 
@@ -11435,7 +12364,7 @@ fileSize: 128
      * uses the 'Full' path. If the comm mode is 'MACed' the method ends a there is no method available
      * within this class to handle those files, sorry.
      * <p>
-     * If the data length exceeds the MAXIMUM_READ_MESSAGE_LENGTH the data will be read in chunks.
+     * If the data length exceeds the negotiated frame size (see getMaximumFrameDataLength) the data will be read in chunks.
      * If the data length exceeds MAXIMUM_FILE_LENGTH the methods returns a FAILURE
      *
      * @param fileNumber | in range 0..31 AND file is a Standard file
@@ -11448,7 +12377,7 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromAStandardFile";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
 
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
@@ -11456,7 +12385,7 @@ fileSize: 128
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -11474,7 +12403,7 @@ fileSize: 128
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -11489,9 +12418,9 @@ fileSize: 128
         /*
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return null;
         }
@@ -11519,17 +12448,18 @@ fileSize: 128
         // bytes including all overhead and attached MAC
 
         int dataLength = length;
-        int numberOfRounds = dataLength / MAXIMUM_READ_MESSAGE_LENGTH;
-        int numberOfRoundsMod = Utils.mod(dataLength, MAXIMUM_READ_MESSAGE_LENGTH);
+        int readChunkLength = getReadChunkLength(fileSettings.getCommunicationSettings());
+        int numberOfRounds = dataLength / readChunkLength;
+        int numberOfRoundsMod = Utils.mod(dataLength, readChunkLength);
         if (numberOfRoundsMod > 0) numberOfRounds++; // one extra round for the remainder
-        Log.d(TAG, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
+        if (isTraceDebugEnabled()) log(methodName, "data length: " + dataLength + " numberOfRounds: " + numberOfRounds);
         boolean completeSuccess = true;
         int offsetChunk = offset;
-        int numberOfDataToRead = MAXIMUM_READ_MESSAGE_LENGTH; // we are starting with a maximum length
+        int numberOfDataToRead = readChunkLength; // we are starting with a maximum length
         byte[] dataToRead = new byte[length]; // complete data
         for (int i = 0; i < numberOfRounds; i++) {
-            if (offsetChunk + numberOfDataToRead > dataLength) {
-                numberOfDataToRead = dataLength - offsetChunk;
+            if ((offsetChunk - offset) + numberOfDataToRead > dataLength) {
+                numberOfDataToRead = dataLength - (offsetChunk - offset);
             }
             byte[] dataToReadChunk;
             if (isPlainMode) {
@@ -11547,9 +12477,9 @@ fileSize: 128
             }
             {
                 // copy the dataToReadChunk in the complete data array
-                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * MAXIMUM_READ_MESSAGE_LENGTH), dataToReadChunk.length);
+                System.arraycopy(dataToReadChunk, 0, dataToRead, (i * readChunkLength), dataToReadChunk.length);
             }
-            log(methodName, Utils.printData("dataToRead", dataToRead));
+            log(methodName, "dataToRead", dataToRead);
         }
         errorCode = RESPONSE_OK.clone();
         log(methodName, "SUCCESS");
@@ -11587,14 +12517,14 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromStandardFileRawPlain";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -11612,7 +12542,7 @@ fileSize: 128
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -11639,8 +12569,7 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (!checkResponse(response)) {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
         errorCode = RESPONSE_OK.clone();
@@ -11670,21 +12599,22 @@ fileSize: 128
         String logData = "";
         final String methodName = "readFromStandardFileRawFull";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + " offset: " + offset + " size: " + length);
         // sanity checks
         if (!checkAuthentication()) return null; // logFile and errorCode are updated
         if (!checkOffsetMinus(offset)) return null;
-        if (length > MAXIMUM_READ_MESSAGE_LENGTH) {
-            Log.e(TAG, methodName + " length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
-            log(methodName, "length is > MAXIMUM_READ_MESSAGE_LENGTH, aborted");
+        int maximumDataLength = getReadChunkLength(FILE_COMMUNICATION_SETTINGS_FULL);
+        if (length > maximumDataLength) {
+            Log.e(TAG, methodName + " length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "length is > MAXIMUM_READ_MESSAGE_LENGTH";
+            errorCodeReason = "length is > " + maximumDataLength;
             return null;
         }
         // getFileSettings for file type and length information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings, aborted");
@@ -11702,7 +12632,7 @@ fileSize: 128
         }
         if ((offset + length) > fileSize) {
             Log.e(TAG, methodName + " (offset + length) is > fileSize, aborted");
-            log(methodName, "(offset + length) is > fileSize, aborted");
+            if (isTraceDebugEnabled()) log(methodName, "(offset + length) is > fileSize, aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
             errorCodeReason = "(offset + length) is > fileSize";
             return null;
@@ -11717,9 +12647,9 @@ fileSize: 128
         /*
         if ((fileSettings.getFileType() == FileSettings.STANDARD_FILE_TYPE) ||
                 (fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE)) {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", proceed");
         } else {
-            log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "fileNumber to read is a " + fileSettings.getFileTypeName() + ", aborted");
             System.arraycopy(RESPONSE_FAILURE, 0, errorCode, 0, 2);
             return null;
         }
@@ -11729,39 +12659,35 @@ fileSize: 128
         // command header
         byte[] offsetBytes = Utils.intTo3ByteArrayInversed(offset); // LSB order
         byte[] lengthBytes = Utils.intTo3ByteArrayInversed(length); // LSB order
-        ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
-        baosCmdHeader.write(fileNumber);
-        baosCmdHeader.write(offsetBytes, 0, offsetBytes.length);
-        baosCmdHeader.write(lengthBytes, 0, lengthBytes.length);
-        byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        byte[] cmdHeader = getDataCommandHeader(fileNumber, offsetBytes, lengthBytes);
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
         baosMacInput.write(READ_STANDARD_FILE_SECURE_COMMAND); // 0xAD
         baosMacInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosMacInput.write(TransactionIdentifier, 0, TransactionIdentifier.length);
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // Constructing the full ReadData Command APDU
         ByteArrayOutputStream baosReadDataCommand = new ByteArrayOutputStream();
         baosReadDataCommand.write(cmdHeader, 0, cmdHeader.length);
         baosReadDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] readDataCommand = baosReadDataCommand.toByteArray();
-        log(methodName, printData("readDataCommand", readDataCommand));
+        log(methodName, "readDataCommand", readDataCommand);
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] fullEncryptedData;
@@ -11769,10 +12695,11 @@ fileSize: 128
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(READ_STANDARD_FILE_SECURE_COMMAND, readDataCommand);
-            response = sendData(apdu);
+            // the PICC chains a response that exceeds its frame size
+            response = sendDataChained(apdu);
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return null;
@@ -11781,25 +12708,24 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
             fullEncryptedData = Arrays.copyOf(response, response.length - 2);
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return null;
         }
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
         // response length: 58 data: 8b61541d54f73901c8498c71dd45bae80578c4b1581aad439a806f37517c86ad4df8970279bbb8874ef279149aaa264c3e5eceb0e37a87699100
 
         // the fullEncryptedData is 56 bytes long, the first 48 bytes are encryptedData and the last 8 bytes are the responseMAC
         int encryptedDataLength = fullEncryptedData.length - 8;
-        log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
-        log(methodName, "The encryptedData length is " + encryptedDataLength);
+        if (isTraceDebugEnabled()) log(methodName, "The fullEncryptedData is of length " + fullEncryptedData.length + " that includes 8 bytes for MAC");
+        if (isTraceDebugEnabled()) log(methodName, "The encryptedData length is " + encryptedDataLength);
         encryptedData = Arrays.copyOfRange(fullEncryptedData, 0, encryptedDataLength);
         responseMACTruncatedReceived = Arrays.copyOfRange(fullEncryptedData, encryptedDataLength, fullEncryptedData.length);
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // start decrypting the data
         byte[] commandCounterLsb2 = intTo2ByteArrayInversed(CmdCounter);
@@ -11811,22 +12737,22 @@ fileSize: 128
         decryptBaos.write(commandCounterLsb2, 0, commandCounterLsb2.length);
         decryptBaos.write(padding, 0, padding.length);
         byte[] ivInputResponse = decryptBaos.toByteArray();
-        log(methodName, printData("ivInputResponse", ivInputResponse));
-        byte[] ivResponse = AES.encrypt(startingIv, SesAuthENCKey, ivInputResponse);
-        log(methodName, printData("ivResponse", ivResponse));
-        byte[] decryptedData = AES.decrypt(ivResponse, SesAuthENCKey, encryptedData);
-        log(methodName, printData("decryptedData", decryptedData));
+        log(methodName, "ivInputResponse", ivInputResponse);
+        byte[] ivResponse = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInputResponse);
+        log(methodName, "ivResponse", ivResponse);
+        byte[] decryptedData = aesDecrypt(secureMessagingContext, ivResponse, SesAuthENCKey, encryptedData);
+        log(methodName, "decryptedData", decryptedData);
         byte[] readData = Arrays.copyOfRange(decryptedData, 0, length);
-        log(methodName, printData("readData", readData));
+        log(methodName, "readData", readData);
 
 
         if (verifyResponseMac(responseMACTruncatedReceived, encryptedData)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return readData;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return null;
@@ -11840,21 +12766,22 @@ fileSize: 128
         //int offsetA = 0;
         final String methodName = "writeToStandardFileRawFull EV2";
         log(methodName, "started", true);
-        log(methodName, "fileNumber: " + fileNumber + Utils.printData(" data", dataToWrite) + " offset: " + offsetInt);
+        if (isTraceDebugEnabled()) log(methodName, "fileNumber: " + fileNumber + Utils.printData(" data", dataToWrite) + " offset: " + offsetInt);
         // sanity checks
         if (!checkFileNumber(fileNumber)) return false; // logFile and errorCode are updated
-        if ((dataToWrite == null) || (dataToWrite.length > 40)) {
-            Log.e(TAG, methodName + " data is NULL or length is > 40, aborted");
-            log(methodName, "data is NULL or length is > 40, aborted");
+        int maximumDataLength = getWriteChunkLength(FILE_COMMUNICATION_SETTINGS_FULL); // the command is send in one frame
+        if ((dataToWrite == null) || (dataToWrite.length > maximumDataLength)) {
+            Log.e(TAG, methodName + " data is NULL or length is > " + maximumDataLength + ", aborted");
+            if (isTraceDebugEnabled()) log(methodName, "data is NULL or length is > " + maximumDataLength + ", aborted");
             errorCode = RESPONSE_PARAMETER_ERROR.clone();
-            errorCodeReason = "data is NULL or length is > 40";
+            errorCodeReason = "data is NULL or length is > " + maximumDataLength;
             return false;
         }
         if (checkOffsetMinus(offsetInt)) return false;
         // getFileSettings for file type and size information
         FileSettings fileSettings;
         try {
-            fileSettings = APPLICATION_ALL_FILE_SETTINGS[fileNumber];
+            fileSettings = getApplicationFileSettings(fileNumber);
         } catch (NullPointerException e) {
             Log.e(TAG, methodName + " could not read fileSettings, aborted");
             log(methodName, "could not read fileSettings");
@@ -11888,7 +12815,7 @@ fileSize: 128
         // Answer: I'm trimming the data to selectedFileSize
         byte[] dataToWriteCorrectLength;
         if (dataToWrite.length > selectedFileSize) {
-            log(methodName, "trimming dataToWrite to length of selected fileNumber: " + selectedFileSize);
+            if (isTraceDebugEnabled()) log(methodName, "trimming dataToWrite to length of selected fileNumber: " + selectedFileSize);
             dataToWriteCorrectLength = Arrays.copyOfRange(dataToWrite, 0, selectedFileSize);
         } else {
             dataToWriteCorrectLength = dataToWrite.clone();
@@ -11896,21 +12823,22 @@ fileSize: 128
 
         // next step is to pad the data according to padding rules in DESFire EV2/3 for AES Secure Messaging fullMode
         byte[] dataPadded = paddingWriteData(dataToWriteCorrectLength);
-        log(methodName, printData("data unpad", dataToWriteCorrectLength));
-        log(methodName, printData("data pad  ", dataPadded));
+        log(methodName, "data unpad", dataToWriteCorrectLength);
+        log(methodName, "data pad  ", dataPadded);
 
         int numberOfDataBlocks = dataPadded.length / 16;
-        log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
+        if (isTraceDebugEnabled()) log(methodName, "number of dataBlocks: " + numberOfDataBlocks);
         List<byte[]> dataBlockList = Utils.divideArrayToList(dataPadded, 16);
 
         // Encrypting the Command Data
         // IV_Input (IV_Label || TI || CmdCounter || Padding)
         // MAC_Input
         byte[] commandCounterLsb1 = intTo2ByteArrayInversed(CmdCounter);
-        log(methodName, "CmdCounter: " + CmdCounter);
-        log(methodName, printData("commandCounterLsb1", commandCounterLsb1));
+        if (isTraceDebugEnabled()) log(methodName, "CmdCounter: " + CmdCounter);
+        log(methodName, "commandCounterLsb1", commandCounterLsb1);
         byte[] header = new byte[]{(byte) (0xA5), (byte) (0x5A)}; // fixed to 0xA55A
         byte[] padding1 = hexStringToByteArray("0000000000000000"); // 8 bytes
+        if (metrics.isEnabled()) metrics.setPreparedCommand(WRITE_STANDARD_FILE_SECURE_COMMAND);
         ByteArrayOutputStream baosIvInput = new ByteArrayOutputStream();
         //baosIvInput.write(header, 0, header.length);
         baosIvInput.write(IV_LABEL_ENC, 0, IV_LABEL_ENC.length);
@@ -11918,30 +12846,30 @@ fileSize: 128
         baosIvInput.write(commandCounterLsb1, 0, commandCounterLsb1.length);
         baosIvInput.write(padding1, 0, padding1.length);
         byte[] ivInput = baosIvInput.toByteArray();
-        log(methodName, printData("ivInput", ivInput));
+        log(methodName, "ivInput", ivInput);
 
         // IV for CmdData = Enc(KSesAuthENC, IV_Input)
-        log(methodName, printData("SesAuthENCKey", SesAuthENCKey));
+        log(methodName, "SesAuthENCKey", SesAuthENCKey);
         byte[] startingIv = new byte[16];
-        byte[] ivForCmdData = AES.encrypt(startingIv, SesAuthENCKey, ivInput);
-        log(methodName, printData("ivForCmdData", ivForCmdData));
+        byte[] ivForCmdData = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, ivInput);
+        log(methodName, "ivForCmdData", ivForCmdData);
 
         List<byte[]> dataBlockEncryptedList = new ArrayList<>();
         byte[] ivDataEncryption = ivForCmdData.clone(); // the "starting iv"
 
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            byte[] dataBlockEncrypted = AES.encrypt(ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
+            byte[] dataBlockEncrypted = aesEncrypt(secureMessagingContext, ivDataEncryption, SesAuthENCKey, dataBlockList.get(i));
             dataBlockEncryptedList.add(dataBlockEncrypted);
             ivDataEncryption = dataBlockEncrypted.clone(); // new, subsequent iv for next encryption
         }
 
-        //byte[] dataBlock2Encrypted = AES.encrypt(startingIv, SesAuthENCKey, dataBlock2); // todo is this correct ? or startingIv ?
-//        log(methodName, printData("startingIv", startingIv));
+        //byte[] dataBlock2Encrypted = aesEncrypt(secureMessagingContext, startingIv, SesAuthENCKey, dataBlock2); // todo is this correct ? or startingIv ?
+//        log(methodName, "startingIv", startingIv);
         for (int i = 0; i < numberOfDataBlocks; i++) {
-            log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
+            if (isTraceDebugEnabled()) log(methodName, printData("dataBlock" + i + "Encrypted", dataBlockEncryptedList.get(i)));
         }
-        //log(methodName, printData("dataBlock1Encrypted", dataBlock1Encrypted));
-        //log(methodName, printData("dataBlock2Encrypted", dataBlock2Encrypted));
+        //log(methodName, "dataBlock1Encrypted", dataBlock1Encrypted);
+        //log(methodName, "dataBlock2Encrypted", dataBlock2Encrypted);
 
         // Encrypted Data (complete), concatenate all byte arrays
 
@@ -11958,7 +12886,7 @@ fileSize: 128
             }
         }
         byte[] encryptedData = baosDataEncrypted.toByteArray();
-        log(methodName, printData("encryptedData", encryptedData));
+        log(methodName, "encryptedData", encryptedData);
 
         // Generating the MAC for the Command APDU
         // CmdHeader (FileNo || Offset || DataLength)
@@ -11967,13 +12895,13 @@ fileSize: 128
         //byte[] offset = Utils.intTo3ByteArrayInversed(offsetBytes); // LSB order
         byte[] offset = Utils.intTo3ByteArrayInversed(offsetInt); // LSB order
         byte[] length = Utils.intTo3ByteArrayInversed(fileSize); // LSB order
-        log(methodName, printData("length", length));
+        log(methodName, "length", length);
         ByteArrayOutputStream baosCmdHeader = new ByteArrayOutputStream();
         baosCmdHeader.write(fileNumber);
         baosCmdHeader.write(offset, 0, 3);
         baosCmdHeader.write(length, 0, 3);
         byte[] cmdHeader = baosCmdHeader.toByteArray();
-        log(methodName, printData("cmdHeader", cmdHeader));
+        log(methodName, "cmdHeader", cmdHeader);
 
         // MAC_Input (Ins || CmdCounter || TI || CmdHeader || Encrypted CmdData )
         ByteArrayOutputStream baosMacInput = new ByteArrayOutputStream();
@@ -11983,15 +12911,15 @@ fileSize: 128
         baosMacInput.write(cmdHeader, 0, cmdHeader.length);
         baosMacInput.write(encryptedData, 0, encryptedData.length);
         byte[] macInput = baosMacInput.toByteArray();
-        log(methodName, printData("macInput", macInput));
+        log(methodName, "macInput", macInput);
 
         // generate the MAC (CMAC) with the SesAuthMACKey
-        log(methodName, printData("SesAuthMACKey", SesAuthMACKey));
-        byte[] macFull = calculateDiverseKey(SesAuthMACKey, macInput);
-        log(methodName, printData("macFull", macFull));
+        log(methodName, "SesAuthMACKey", SesAuthMACKey);
+        byte[] macFull = calculateDiverseKey(secureMessagingContext, SesAuthMACKey, macInput);
+        log(methodName, "macFull", macFull);
         // now truncate the MAC
         byte[] macTruncated = truncateMAC(macFull);
-        log(methodName, printData("macTruncated", macTruncated));
+        log(methodName, "macTruncated", macTruncated);
 
         // error in Features and Hints, page 57, point 28:
         // Data (FileNo || Offset || DataLenght || Data) is NOT correct, as well not the Data Message
@@ -12003,20 +12931,20 @@ fileSize: 128
         baosWriteDataCommand.write(encryptedData, 0, encryptedData.length);
         baosWriteDataCommand.write(macTruncated, 0, macTruncated.length);
         byte[] writeDataCommand = baosWriteDataCommand.toByteArray();
-        log(methodName, printData("writeDataCommand", writeDataCommand));
+        log(methodName, "writeDataCommand", writeDataCommand);
 
         byte[] response = new byte[0];
         byte[] apdu = new byte[0];
         byte[] responseMACTruncatedReceived;
         try {
             apdu = wrapMessage(WRITE_STANDARD_FILE_SECURE_COMMAND, writeDataCommand);
-            log(methodName, printData("apdu", apdu));
-            response = isoDep.transceive(apdu);
-            log(methodName, printData("response", response));
+            log(methodName, "apdu", apdu);
+            response = transceive(apdu);
+            log(methodName, "response", response);
             //Log.d(TAG, methodName + printData(" response", response));
         } catch (IOException e) {
             Log.e(TAG, methodName + " transceive failed, IOException:\n" + e.getMessage());
-            log(methodName, "transceive failed: " + e.getMessage(), false);
+            if (isTraceDebugEnabled()) log(methodName, "transceive failed: " + e.getMessage(), false);
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = "IOException: transceive failed: " + e.getMessage();
             return false;
@@ -12024,25 +12952,24 @@ fileSize: 128
         byte[] responseBytes = returnStatusBytes(response);
         System.arraycopy(responseBytes, 0, errorCode, 0, 2);
         if (checkResponse(response)) {
-            Log.d(TAG, methodName + " SUCCESS, now decrypting the received data");
+            logcat(methodName + " SUCCESS, now decrypting the received data");
         } else {
-            Log.d(TAG, methodName + " FAILURE with error code " + Utils.bytesToHexNpeUpperCase(responseBytes));
-            Log.d(TAG, methodName + " error code: " + EV3.getErrorCode(responseBytes));
+            logcatFailure(methodName, responseBytes);
             return false;
         }
 
         // note: after sending data to the card the commandCounter is increased by 1
         CmdCounter++;
-        log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
+        if (isTraceDebugEnabled()) log(methodName, "the CmdCounter is increased by 1 to " + CmdCounter);
 
         responseMACTruncatedReceived = Arrays.copyOf(response, response.length - 2);
         if (verifyResponseMac(responseMACTruncatedReceived, null)) {
-            log(methodName, methodName + " SUCCESS");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " SUCCESS");
             errorCode = RESPONSE_OK.clone();
             errorCodeReason = methodName + " SUCCESS";
             return true;
         } else {
-            log(methodName, methodName + " FAILURE");
+            if (isTraceDebugEnabled()) log(methodName, methodName + " FAILURE");
             errorCode = RESPONSE_FAILURE.clone();
             errorCodeReason = methodName + " FAILURE";
             return false;
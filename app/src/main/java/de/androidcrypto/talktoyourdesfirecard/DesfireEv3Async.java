@@ -0,0 +1,342 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is an asynchronous facade for a DesfireEv3 session. All commands run on one single
+ * threaded executor per card, so the commands are executed in the order of submission and the
+ * DesfireEv3 instance is confined to this thread. Each command returns a Future with a typed
+ * DesfireResult (value or DESFire status) and optionally delivers the result to a Callback, e.g. on
+ * the UI thread by using 'ContextCompat.getMainExecutor(context)' as callback executor.
+ * <p>
+ * Multi step flows (e.g. select, authenticate, read) are submitted one after the other without waiting,
+ * or as one Command that runs the steps on the card thread.
+ * <p>
+ * When the tag is lost call onTagLost: all commands that have not started yet are cancelled and their
+ * callbacks get a cancelled result. A command that is running in this moment is not cancelled, its Future
+ * and callback get the result the command returns (usually a failure as the tag is gone).
+ * <p>
+ * Usage:
+ * DesfireEv3Async desfireAsync = new DesfireEv3Async(desfireEv3, ContextCompat.getMainExecutor(this));
+ * desfireAsync.selectApplicationByAid(aid, null);
+ * desfireAsync.authenticateAesEv2First(keyNumber, key, null);
+ * desfireAsync.readFromADataFile(fileNumber, 0, 32, result -> { if (result.isSuccess()) ... });
+ */
+
+public class DesfireEv3Async {
+
+    /**
+     * a command or a multi step flow that runs on the card thread
+     *
+     * @param <T> | type of the result value, a NULL or Boolean.FALSE value is a failure
+     */
+    public interface Command<T> {
+        T run(DesfireEv3 desfireEv3) throws Exception;
+    }
+
+    public interface Callback<T> {
+        void onResult(DesfireResult<T> result);
+    }
+
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF};
+
+    private final DesfireEv3 desfireEv3;
+    private final Executor callbackExecutor; // null = callbacks run on the card thread
+    private final ExecutorService cardExecutor;
+    private final Set<CardTask<?>> pendingCommands = Collections.synchronizedSet(new HashSet<CardTask<?>>());
+    private volatile boolean isTagLost = false;
+    private volatile String tagLostReason = "";
+
+    public DesfireEv3Async(DesfireEv3 desfireEv3) {
+        this(desfireEv3, null);
+    }
+
+    /**
+     * @param desfireEv3       | the session, do not use it directly while this facade is in use
+     * @param callbackExecutor | executor for the callbacks (e.g. the main thread executor), NULL runs the
+     *                         callbacks on the card thread
+     */
+    public DesfireEv3Async(DesfireEv3 desfireEv3, Executor callbackExecutor) {
+        this.desfireEv3 = desfireEv3;
+        this.callbackExecutor = callbackExecutor;
+        this.cardExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DesfireEv3Async");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * submits a command, the commands run in the order of submission
+     *
+     * @param command  | the command or multi step flow
+     * @param callback | receives the result, may be NULL
+     * @return the future of the result, get() never throws an ExecutionException
+     */
+    public <T> Future<DesfireResult<T>> submit(final Command<T> command, final Callback<T> callback) {
+        Callable<DesfireResult<T>> callable = new Callable<DesfireResult<T>>() {
+            @Override
+            public DesfireResult<T> call() {
+                if (isTagLost) return DesfireResult.cancelled("tag lost: " + tagLostReason);
+                T value;
+                try {
+                    value = command.run(desfireEv3);
+                } catch (Exception e) {
+                    return DesfireResult.failure(RESPONSE_FAILURE, "Exception: " + e.getMessage());
+                }
+                byte[] errorCode = desfireEv3.getErrorCode();
+                String errorCodeReason = desfireEv3.getErrorCodeReason();
+                if ((value == null) || (Boolean.FALSE.equals(value))) {
+                    return DesfireResult.failure(errorCode, errorCodeReason);
+                }
+                return DesfireResult.success(value, errorCode, errorCodeReason);
+            }
+        };
+        CardTask<T> task = new CardTask<>(callable, callback);
+        pendingCommands.add(task);
+        try {
+            cardExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            tagLostReason = "closed";
+            task.cancelIfNotStarted();
+        }
+        return task;
+    }
+
+    /**
+     * a command on the card thread, the facade cancels it only when it has not started yet so a running
+     * command always delivers its real result
+     */
+    private class CardTask<T> extends FutureTask<DesfireResult<T>> {
+        private final Callback<T> callback;
+        private final AtomicBoolean isStartedOrCancelled = new AtomicBoolean(false);
+
+        CardTask(Callable<DesfireResult<T>> callable, Callback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (isStartedOrCancelled.compareAndSet(false, true)) super.run();
+        }
+
+        boolean cancelIfNotStarted() {
+            return isStartedOrCancelled.compareAndSet(false, true) && cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            pendingCommands.remove(this);
+            if (callback != null) deliver(callback, getResult(this));
+        }
+    }
+
+    /**
+     * cancels all commands that have not started yet, new commands are cancelled as well until resetTagLost
+     * is called
+     *
+     * @param reason | reason for the cancelled results, e.g. the message of the TagLostException
+     */
+    public void onTagLost(String reason) {
+        tagLostReason = (reason == null) ? "" : reason;
+        isTagLost = true;
+        cancelPendingCommands();
+    }
+
+    /**
+     * allows new commands after a tag lost, e.g. when the tag was tapped again and the session is reused
+     */
+    public void resetTagLost() {
+        isTagLost = false;
+        tagLostReason = "";
+    }
+
+    public boolean isTagLost() {
+        return isTagLost;
+    }
+
+    public int getNumberOfPendingCommands() {
+        return pendingCommands.size();
+    }
+
+    /**
+     * cancels the commands that have not started yet and stops the card thread after the running command
+     */
+    public void close() {
+        tagLostReason = "closed";
+        cancelPendingCommands();
+        cardExecutor.shutdown();
+    }
+
+    private void cancelPendingCommands() {
+        List<CardTask<?>> commands;
+        synchronized (pendingCommands) {
+            commands = new ArrayList<>(pendingCommands);
+        }
+        for (CardTask<?> command : commands) {
+            command.cancelIfNotStarted();
+        }
+    }
+
+    private <T> DesfireResult<T> getResult(FutureTask<DesfireResult<T>> task) {
+        if (task.isCancelled()) return DesfireResult.cancelled("tag lost: " + tagLostReason);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DesfireResult.cancelled("interrupted");
+        } catch (ExecutionException e) {
+            return DesfireResult.failure(RESPONSE_FAILURE, "Exception: " + e.getCause());
+        }
+    }
+
+    private <T> void deliver(final Callback<T> callback, final DesfireResult<T> result) {
+        if (callbackExecutor == null) {
+            callback.onResult(result);
+        } else {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * section for the commands
+     */
+
+    public Future<DesfireResult<Boolean>> selectApplicationByAid(final byte[] applicationIdentifier, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.selectApplicationByAid(applicationIdentifier);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> authenticateAesEv2First(final byte keyNumber, final byte[] key, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.authenticateAesEv2First(keyNumber, key);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> authenticateAesEv2NonFirst(final byte keyNumber, final byte[] key, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.authenticateAesEv2NonFirst(keyNumber, key);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<byte[]>> readFromADataFile(final byte fileNumber, final int offset, final int length, Callback<byte[]> callback) {
+        return submit(new Command<byte[]>() {
+            @Override
+            public byte[] run(DesfireEv3 desfireEv3) {
+                return desfireEv3.readFromADataFile(fileNumber, offset, length);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> writeToADataFile(final byte fileNumber, final int offset, final byte[] data, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.writeToADataFile(fileNumber, offset, data);
+            }
+        }, callback);
+    }
+
+    /**
+     * as readFromAValueFile returns -1 on failure the errorCode decides if a value of -1 is valid
+     */
+    public Future<DesfireResult<Integer>> readFromAValueFile(final byte fileNumber, Callback<Integer> callback) {
+        return submit(new Command<Integer>() {
+            @Override
+            public Integer run(DesfireEv3 desfireEv3) {
+                int value = desfireEv3.readFromAValueFile(fileNumber);
+                if ((value == -1) && (!Arrays.equals(desfireEv3.getErrorCode(), RESPONSE_OK))) return null;
+                return value;
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> changeAValueFile(final byte fileNumber, final int changeValue, final boolean isCredit, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.changeAValueFile(fileNumber, changeValue, isCredit);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<byte[]>> readFromARecordFile(final byte fileNumber, final int offsetRecord, final int numberOfRecordsToRead, Callback<byte[]> callback) {
+        return submit(new Command<byte[]>() {
+            @Override
+            public byte[] run(DesfireEv3 desfireEv3) {
+                return desfireEv3.readFromARecordFile(fileNumber, offsetRecord, numberOfRecordsToRead);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> writeToARecordFile(final byte fileNumber, final int offset, final byte[] data, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.writeToARecordFile(fileNumber, offset, data);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> commitTransactionFull(final boolean isEnabledReturnTmcv, Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.commitTransactionFull(isEnabledReturnTmcv);
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<Boolean>> abortATransaction(Callback<Boolean> callback) {
+        return submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.abortATransaction();
+            }
+        }, callback);
+    }
+
+    public Future<DesfireResult<byte[]>> getCardUidFull(Callback<byte[]> callback) {
+        return submit(new Command<byte[]>() {
+            @Override
+            public byte[] run(DesfireEv3 desfireEv3) {
+                return desfireEv3.getCardUidFull();
+            }
+        }, callback);
+    }
+}
@@ -0,0 +1,1308 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.nfc.TagLostException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.androidcrypto.talktoyourdesfirecard.nfcjlib.CRC32;
+
+/**
+ * This class simulates a Mifare DESFire EV3 PICC in-process, so DesfireEv3 can be run on a plain JVM
+ * (unit tests, benchmarks) without a tapped tag. It implements the CardTransport interface and
+ * answers the native DESFire commands wrapped in ISO 7816-4 APDUs (90 INS 00 00 Lc Data Le).
+ * <p>
+ * supported features:
+ * - applications with AES keys (default keys are 16 * 0x00), the Master Application 000000 with 1 key
+ * - Standard, Backup, Value, Linear Record and Cyclic Record files
+ * - transactions: Backup, Value and Record files get updated on CommitTransaction, AbortTransaction discards the changes
+ * - access rights including free access (0x0E) and never (0x0F)
+ * - authenticateAesEv2First and authenticateAesEv2NonFirst including the secure messaging in
+ *   communication modes Plain, MACed and Full enciphered (CmdCounter, Transaction Identifier)
+ * - chaining of the response (0xAF) when a response exceeds maxResponseDataLength and chaining of
+ *   WriteData and WriteRecord commands that are send in more than one frame
+ * - simulation of a lost tag (setFieldOn(false)) that throws a TagLostException on transceive
+ * <p>
+ * Not supported: DES/TDES/legacy authentication, Transaction MAC files, Secure Dynamic Messaging,
+ * ISO select commands. These commands are answered with an ILLEGAL_COMMAND_CODE error.
+ * <p>
+ * Note: the secure messaging follows the card (see MIFARE DESFire EV3 MF3D(H)x3 secure messaging): in
+ * the authenticated state the CmdCounter is increased on every command-response pair except the
+ * authentication itself, regardless of the communication mode. A response in communication mode Plain
+ * has no MAC. A service command (e.g. GetFileIDs, CreateFile) is answered like the DesfireEv3 class
+ * expects it: when the command carries a MAC the MAC is verified and the response is MACed, a service
+ * command without a MAC is answered without a MAC and does not increase the CmdCounter.
+ * Note: the class is not designed for multi threading, all public methods are synchronized.
+ */
+
+public class DesfireEv3Simulator implements CardTransport {
+
+    private static final String TAG = DesfireEv3Simulator.class.getName();
+
+    public static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 261; // short APDU with 255 bytes of data
+    public static final int DEFAULT_MAX_RESPONSE_DATA_LENGTH = 59; // a longer response is chained with 0xAF
+    public static final byte[] DEFAULT_UID = Utils.hexStringToByteArray("04112233445566");
+    public static final byte[] DEFAULT_AES_KEY = new byte[16];
+
+    // commands
+    private static final byte GET_VERSION_COMMAND = (byte) 0x60;
+    private static final byte GET_CARD_UID_COMMAND = (byte) 0x51;
+    private static final byte SELECT_APPLICATION_COMMAND = (byte) 0x5A;
+    private static final byte CREATE_APPLICATION_COMMAND = (byte) 0xCA;
+    private static final byte DELETE_APPLICATION_COMMAND = (byte) 0xDA;
+    private static final byte GET_APPLICATION_IDS_COMMAND = (byte) 0x6A;
+    private static final byte GET_KEY_SETTINGS_COMMAND = (byte) 0x45;
+    private static final byte GET_KEY_VERSION_COMMAND = (byte) 0x64;
+    private static final byte GET_FREE_MEMORY_COMMAND = (byte) 0x6E;
+    private static final byte FORMAT_PICC_COMMAND = (byte) 0xFC;
+    private static final byte CHANGE_KEY_COMMAND = (byte) 0xC4;
+    private static final byte CREATE_STANDARD_FILE_COMMAND = (byte) 0xCD;
+    private static final byte CREATE_BACKUP_FILE_COMMAND = (byte) 0xCB;
+    private static final byte CREATE_VALUE_FILE_COMMAND = (byte) 0xCC;
+    private static final byte CREATE_LINEAR_RECORD_FILE_COMMAND = (byte) 0xC1;
+    private static final byte CREATE_CYCLIC_RECORD_FILE_COMMAND = (byte) 0xC0;
+    private static final byte DELETE_FILE_COMMAND = (byte) 0xDF;
+    private static final byte GET_FILE_IDS_COMMAND = (byte) 0x6F;
+    private static final byte GET_FILE_SETTINGS_COMMAND = (byte) 0xF5;
+    private static final byte CHANGE_FILE_SETTINGS_COMMAND = (byte) 0x5F;
+    private static final byte READ_DATA_FILE_COMMAND = (byte) 0xBD;
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+    private static final byte WRITE_DATA_FILE_COMMAND = (byte) 0x3D;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte GET_VALUE_COMMAND = (byte) 0x6C;
+    private static final byte CREDIT_VALUE_COMMAND = (byte) 0x0C;
+    private static final byte DEBIT_VALUE_COMMAND = (byte) 0xDC;
+    private static final byte LIMITED_CREDIT_VALUE_COMMAND = (byte) 0x1C;
+    private static final byte WRITE_RECORD_FILE_COMMAND = (byte) 0x3B;
+    private static final byte WRITE_RECORD_FILE_SECURE_COMMAND = (byte) 0x8B;
+    private static final byte READ_RECORD_FILE_COMMAND = (byte) 0xBB;
+    private static final byte READ_RECORD_FILE_SECURE_COMMAND = (byte) 0xAB;
+    private static final byte CLEAR_RECORD_FILE_COMMAND = (byte) 0xEB;
+    private static final byte COMMIT_TRANSACTION_COMMAND = (byte) 0xC7;
+    private static final byte ABORT_TRANSACTION_COMMAND = (byte) 0xA7;
+    private static final byte AUTHENTICATE_AES_EV2_FIRST_COMMAND = (byte) 0x71;
+    private static final byte AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND = (byte) 0x77;
+    private static final byte MORE_DATA_COMMAND = (byte) 0xAF;
+
+    // status codes, the first status byte is always 0x91
+    private static final byte OPERATION_OK = (byte) 0x00;
+    private static final byte ILLEGAL_COMMAND_CODE = (byte) 0x1C;
+    private static final byte INTEGRITY_ERROR = (byte) 0x1E;
+    private static final byte NO_SUCH_KEY = (byte) 0x40;
+    private static final byte LENGTH_ERROR = (byte) 0x7E;
+    private static final byte PERMISSION_DENIED = (byte) 0x9D;
+    private static final byte PARAMETER_ERROR = (byte) 0x9E;
+    private static final byte APPLICATION_NOT_FOUND = (byte) 0xA0;
+    private static final byte AUTHENTICATION_ERROR = (byte) 0xAE;
+    private static final byte ADDITIONAL_FRAME = (byte) 0xAF;
+    private static final byte BOUNDARY_ERROR = (byte) 0xBE;
+    private static final byte COMMAND_ABORTED = (byte) 0xCA;
+    private static final byte DUPLICATE_ERROR = (byte) 0xDE;
+    private static final byte FILE_NOT_FOUND = (byte) 0xF0;
+
+    // file types as returned by getFileSettings
+    private static final byte FILE_TYPE_STANDARD = (byte) 0x00;
+    private static final byte FILE_TYPE_BACKUP = (byte) 0x01;
+    private static final byte FILE_TYPE_VALUE = (byte) 0x02;
+    private static final byte FILE_TYPE_LINEAR_RECORD = (byte) 0x03;
+    private static final byte FILE_TYPE_CYCLIC_RECORD = (byte) 0x04;
+
+    // communication modes
+    private static final int COMM_MODE_PLAIN = 0;
+    private static final int COMM_MODE_MACED = 1;
+    private static final int COMM_MODE_FULL = 3;
+    private static final int ACCESS_DENIED = -1;
+
+    private static final int ACCESS_KEY_FREE = 0x0E;
+    private static final byte FILE_OPTION_SDM = (byte) 0x40; // Secure Dynamic Messaging and mirroring enabled
+    private static final int MAC_LENGTH = 8;
+    private static final int TOTAL_MEMORY = 8192; // an 8K tag
+    private static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    private static final byte[] IV_LABEL_ENC = new byte[]{(byte) 0xA5, (byte) 0x5A};
+    private static final byte[] IV_LABEL_DEC = new byte[]{(byte) 0x5A, (byte) 0xA5};
+
+    private final byte[] uid;
+    private final Map<Integer, SimApplication> applications = new TreeMap<>();
+    private SimApplication selectedApplication;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private boolean fieldOn = true;
+    private int maxTransceiveLength = DEFAULT_MAX_TRANSCEIVE_LENGTH;
+    private boolean extendedLengthApduSupported = false;
+    private int maxResponseDataLength = DEFAULT_MAX_RESPONSE_DATA_LENGTH;
+    private long transceiveCounter = 0;
+
+    // authentication and secure messaging
+    private boolean authenticated = false;
+    private int keyNumberUsedForAuthentication = -1;
+    private byte pendingAuthenticationCommand = 0; // 0x71 or 0x77 when waiting for the second part
+    private int pendingAuthenticationKeyNumber = -1;
+    private byte[] rndB;
+    private byte[] sesAuthEncKey;
+    private byte[] sesAuthMacKey;
+    private byte[] transactionIdentifier;
+    private int cmdCounter = 0;
+
+    // chaining
+    private final Deque<byte[]> pendingResponseFrames = new ArrayDeque<>();
+    private ByteArrayOutputStream pendingCommandData;
+    private byte pendingCommand;
+    private int pendingCommandLength;
+    private byte lastUnwrapStatus = OPERATION_OK; // status of the last unwrapCommandData call
+
+    public DesfireEv3Simulator() {
+        this(DEFAULT_UID);
+    }
+
+    public DesfireEv3Simulator(byte[] uid) {
+        this.uid = uid.clone();
+        formatPicc();
+    }
+
+    /**
+     * section for the CardTransport interface
+     */
+
+    @Override
+    public synchronized byte[] transceive(byte[] apdu) throws IOException {
+        if (!fieldOn) {
+            throw new TagLostException("Tag was lost.");
+        }
+        if (apdu == null) {
+            throw new IOException("apdu is NULL");
+        }
+        if (apdu.length > maxTransceiveLength) {
+            throw new IOException("Transceive length exceeds supported maximum");
+        }
+        transceiveCounter++;
+        if ((apdu.length < 5) || (apdu[0] != (byte) 0x90)) {
+            return new byte[]{(byte) 0x6E, (byte) 0x00}; // class not supported
+        }
+        byte command = apdu[1];
+        byte[] data;
+        if (apdu.length == 5) {
+            data = new byte[0];
+        } else if ((apdu[4] == (byte) 0x00) && (apdu.length > 7)) {
+            // extended length APDU
+            int lc = ((apdu[5] & 0xFF) << 8) | (apdu[6] & 0xFF);
+            if (7 + lc > apdu.length) return status(LENGTH_ERROR);
+            data = Arrays.copyOfRange(apdu, 7, 7 + lc);
+        } else {
+            int lc = apdu[4] & 0xFF;
+            if (5 + lc > apdu.length) return status(LENGTH_ERROR);
+            data = Arrays.copyOfRange(apdu, 5, 5 + lc);
+        }
+        byte[] response = processCommand(command, data);
+        if ((authenticated) && (response.length == 2) && (response[1] != OPERATION_OK) && (response[1] != ADDITIONAL_FRAME)) {
+            // an error in the authenticated state resets the authentication
+            resetAuthentication();
+        }
+        return response;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return fieldOn;
+    }
+
+    @Override
+    public synchronized int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    @Override
+    public synchronized boolean isExtendedLengthApduSupported() {
+        return extendedLengthApduSupported;
+    }
+
+    /**
+     * section for the configuration of the simulator
+     */
+
+    /**
+     * switch the RF field on or off. When the field is off every transceive throws a TagLostException.
+     * Switching the field on again is like a new tap: the authentication, the selected application
+     * and any open transaction are lost.
+     *
+     * @param fieldOn | true = tag is present
+     */
+    public synchronized void setFieldOn(boolean fieldOn) {
+        if (this.fieldOn && !fieldOn) {
+            abortTransaction();
+            resetAuthentication();
+            selectedApplication = applications.get(aidToInt(MASTER_APPLICATION_IDENTIFIER));
+            clearChaining();
+        }
+        this.fieldOn = fieldOn;
+    }
+
+    public synchronized void setMaxTransceiveLength(int maxTransceiveLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    public synchronized void setExtendedLengthApduSupported(boolean extendedLengthApduSupported) {
+        this.extendedLengthApduSupported = extendedLengthApduSupported;
+    }
+
+    public synchronized void setMaxResponseDataLength(int maxResponseDataLength) {
+        this.maxResponseDataLength = maxResponseDataLength;
+    }
+
+    /**
+     * @return the number of transceive calls since the creation of the simulator
+     */
+    public synchronized long getTransceiveCounter() {
+        return transceiveCounter;
+    }
+
+    public byte[] getUid() {
+        return uid.clone();
+    }
+
+    /**
+     * section for processing the commands
+     */
+
+    private byte[] processCommand(byte command, byte[] data) {
+        if (command == MORE_DATA_COMMAND) {
+            if (!pendingResponseFrames.isEmpty()) {
+                return nextResponseFrame();
+            }
+            if (pendingCommandData != null) {
+                pendingCommandData.write(data, 0, data.length);
+                if (pendingCommandData.size() < pendingCommandLength) {
+                    return status(ADDITIONAL_FRAME);
+                }
+                byte[] completeData = pendingCommandData.toByteArray();
+                byte completeCommand = pendingCommand;
+                clearChaining();
+                return executeCommand(completeCommand, completeData);
+            }
+            if (pendingAuthenticationCommand != 0) {
+                return authenticatePart2(data);
+            }
+            return status(ILLEGAL_COMMAND_CODE);
+        }
+        // any other command aborts a pending chaining
+        clearChaining();
+        pendingAuthenticationCommand = 0;
+        int expectedLength = getExpectedCommandLength(command, data);
+        if ((expectedLength > 0) && (data.length < expectedLength)) {
+            pendingCommand = command;
+            pendingCommandLength = expectedLength;
+            pendingCommandData = new ByteArrayOutputStream();
+            pendingCommandData.write(data, 0, data.length);
+            return status(ADDITIONAL_FRAME);
+        }
+        return executeCommand(command, data);
+    }
+
+    private byte[] executeCommand(byte command, byte[] data) {
+        switch (command) {
+            case GET_VERSION_COMMAND:
+                return getVersion(data);
+            case GET_CARD_UID_COMMAND:
+                return getCardUid(data);
+            case SELECT_APPLICATION_COMMAND:
+                return selectApplication(data);
+            case CREATE_APPLICATION_COMMAND:
+                return createApplication(data);
+            case DELETE_APPLICATION_COMMAND:
+                return deleteApplication(data);
+            case GET_APPLICATION_IDS_COMMAND:
+                return getApplicationIds(data);
+            case GET_KEY_SETTINGS_COMMAND:
+                return getKeySettings(data);
+            case GET_KEY_VERSION_COMMAND:
+                return getKeyVersion(data);
+            case GET_FREE_MEMORY_COMMAND:
+                return serviceResponse(GET_FREE_MEMORY_COMMAND, data, 0, Utils.intTo3ByteArrayInversed(getFreeMemory()));
+            case FORMAT_PICC_COMMAND:
+                if (!selectedApplication.isMasterApplication()) return status(PERMISSION_DENIED);
+                formatPicc();
+                return status(OPERATION_OK);
+            case CHANGE_KEY_COMMAND:
+                return changeKey(data);
+            case CREATE_STANDARD_FILE_COMMAND:
+            case CREATE_BACKUP_FILE_COMMAND:
+            case CREATE_VALUE_FILE_COMMAND:
+            case CREATE_LINEAR_RECORD_FILE_COMMAND:
+            case CREATE_CYCLIC_RECORD_FILE_COMMAND:
+                return createFile(command, data);
+            case DELETE_FILE_COMMAND:
+                return deleteFile(data);
+            case GET_FILE_IDS_COMMAND:
+                return getFileIds(data);
+            case GET_FILE_SETTINGS_COMMAND:
+                return getFileSettings(data);
+            case CHANGE_FILE_SETTINGS_COMMAND:
+                return changeFileSettings(data);
+            case READ_DATA_FILE_COMMAND:
+            case READ_DATA_FILE_SECURE_COMMAND:
+                return readData(command, data);
+            case WRITE_DATA_FILE_COMMAND:
+            case WRITE_DATA_FILE_SECURE_COMMAND:
+                return writeData(command, data);
+            case GET_VALUE_COMMAND:
+                return getValue(data);
+            case CREDIT_VALUE_COMMAND:
+            case DEBIT_VALUE_COMMAND:
+            case LIMITED_CREDIT_VALUE_COMMAND:
+                return changeValue(command, data);
+            case WRITE_RECORD_FILE_COMMAND:
+            case WRITE_RECORD_FILE_SECURE_COMMAND:
+                return writeRecord(command, data);
+            case READ_RECORD_FILE_COMMAND:
+            case READ_RECORD_FILE_SECURE_COMMAND:
+                return readRecords(command, data);
+            case CLEAR_RECORD_FILE_COMMAND:
+                return clearRecordFile(data);
+            case COMMIT_TRANSACTION_COMMAND:
+                return commitTransaction(data);
+            case ABORT_TRANSACTION_COMMAND:
+                return abortTransaction(data);
+            case AUTHENTICATE_AES_EV2_FIRST_COMMAND:
+            case AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND:
+                return authenticatePart1(command, data);
+            default:
+                return status(ILLEGAL_COMMAND_CODE);
+        }
+    }
+
+    /**
+     * The WriteData and WriteRecord commands can be send in more than one frame (chaining with 0xAF).
+     * The complete length is calculated from the command header (fileNumber || offset || length).
+     *
+     * @return the expected length of the complete command data or -1 if the command is not chained
+     */
+    private int getExpectedCommandLength(byte command, byte[] data) {
+        if ((command != WRITE_DATA_FILE_COMMAND) && (command != WRITE_DATA_FILE_SECURE_COMMAND)
+                && (command != WRITE_RECORD_FILE_COMMAND) && (command != WRITE_RECORD_FILE_SECURE_COMMAND)) {
+            return -1;
+        }
+        if (data.length < 7) return -1;
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return -1;
+        int commMode = getCommMode(file, file.getWriteKeys());
+        if (commMode == ACCESS_DENIED) return -1;
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        return 7 + getSecuredLength(length, commMode);
+    }
+
+    private int getSecuredLength(int plainLength, int commMode) {
+        if (!authenticated) return plainLength;
+        if (commMode == COMM_MODE_MACED) return plainLength + MAC_LENGTH;
+        if (commMode == COMM_MODE_FULL) return ((plainLength / 16) + 1) * 16 + MAC_LENGTH;
+        return plainLength;
+    }
+
+    /**
+     * section for PICC and application commands
+     */
+
+    private byte[] getVersion(byte[] data) {
+        byte[] commandStatus = checkServiceCommandMac(GET_VERSION_COMMAND, data, 0);
+        if (commandStatus != null) return commandStatus;
+        // hardware info (7 bytes) || software info (7 bytes) || production info (14 bytes), in 3 frames
+        byte[] versionInfo = new byte[28];
+        System.arraycopy(Utils.hexStringToByteArray("04010133001A05"), 0, versionInfo, 0, 7); // DESFire EV3, 8K
+        System.arraycopy(Utils.hexStringToByteArray("04010103001A05"), 0, versionInfo, 7, 7);
+        System.arraycopy(uid, 0, versionInfo, 14, uid.length);
+        System.arraycopy(Utils.hexStringToByteArray("BA5486E4502122"), 0, versionInfo, 21, 7); // batch no, week and year
+        // a MAC is appended to the last frame when the command was MACed
+        byte[] securedVersionInfo = secureServiceResponseData(data, 0, versionInfo);
+        pendingResponseFrames.add(Arrays.copyOfRange(securedVersionInfo, 7, 14));
+        pendingResponseFrames.add(Arrays.copyOfRange(securedVersionInfo, 14, securedVersionInfo.length));
+        return frame(Arrays.copyOf(securedVersionInfo, 7), ADDITIONAL_FRAME);
+    }
+
+    private byte[] getCardUid(byte[] data) {
+        if (!authenticated) return status(AUTHENTICATION_ERROR);
+        if (data.length != MAC_LENGTH) return status(LENGTH_ERROR);
+        if (!verifyCommandMac(GET_CARD_UID_COMMAND, data, 0)) return status(INTEGRITY_ERROR);
+        return response(secureResponseData(uid, COMM_MODE_FULL));
+    }
+
+    private byte[] selectApplication(byte[] data) {
+        if (data.length != 3) return status(LENGTH_ERROR);
+        SimApplication application = applications.get(aidToInt(data));
+        if (application == null) return status(APPLICATION_NOT_FOUND);
+        abortTransaction();
+        resetAuthentication();
+        selectedApplication = application;
+        return status(OPERATION_OK);
+    }
+
+    private byte[] createApplication(byte[] data) {
+        if (data.length < 5) return status(LENGTH_ERROR);
+        if (!selectedApplication.isMasterApplication()) return status(PERMISSION_DENIED);
+        int aid = aidToInt(data);
+        if (aid == 0) return status(PARAMETER_ERROR);
+        if (applications.containsKey(aid)) return status(DUPLICATE_ERROR);
+        int numberOfKeys = data[4] & 0x0F;
+        if ((numberOfKeys < 1) || (numberOfKeys > 14)) return status(PARAMETER_ERROR);
+        applications.put(aid, new SimApplication(Arrays.copyOf(data, 3), data[3], data[4]));
+        return serviceResponse(CREATE_APPLICATION_COMMAND, data, data.length, new byte[0]);
+    }
+
+    private byte[] deleteApplication(byte[] data) {
+        byte[] commandStatus = checkServiceCommandMac(DELETE_APPLICATION_COMMAND, data, 3);
+        if (commandStatus != null) return commandStatus;
+        int aid = aidToInt(data);
+        if (aid == 0) return status(PERMISSION_DENIED);
+        if (applications.remove(aid) == null) return status(APPLICATION_NOT_FOUND);
+        // a MACed response uses the session of the deleted application, then the authentication ends
+        byte[] response = response(secureServiceResponseData(data, 3, new byte[0]));
+        if (aidToInt(selectedApplication.aid) == aid) {
+            resetAuthentication();
+            selectedApplication = applications.get(0);
+        }
+        return response;
+    }
+
+    private byte[] getApplicationIds(byte[] data) {
+        if (!selectedApplication.isMasterApplication()) return status(PERMISSION_DENIED);
+        byte[] commandStatus = checkServiceCommandMac(GET_APPLICATION_IDS_COMMAND, data, 0);
+        if (commandStatus != null) return commandStatus;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (SimApplication application : applications.values()) {
+            if (application.isMasterApplication()) continue;
+            baos.write(application.aid, 0, 3);
+        }
+        return response(secureServiceResponseData(data, 0, baos.toByteArray()));
+    }
+
+    private byte[] getKeySettings(byte[] data) {
+        byte[] keySettings = new byte[]{selectedApplication.keySettings1, selectedApplication.keySettings2};
+        return serviceResponse(GET_KEY_SETTINGS_COMMAND, data, 0, keySettings);
+    }
+
+    private byte[] getKeyVersion(byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        int keyNumber = data[0] & 0x0F;
+        if (keyNumber >= selectedApplication.keys.length) return status(NO_SUCH_KEY);
+        return serviceResponse(GET_KEY_VERSION_COMMAND, data, 1, new byte[]{selectedApplication.keyVersions[keyNumber]});
+    }
+
+    private int getFreeMemory() {
+        int usedMemory = 0;
+        for (SimApplication application : applications.values()) {
+            for (SimFile file : application.files.values()) {
+                usedMemory += file.getMemorySize();
+            }
+        }
+        return Math.max(0, TOTAL_MEMORY - usedMemory);
+    }
+
+    private void formatPicc() {
+        applications.clear();
+        SimApplication masterApplication = new SimApplication(MASTER_APPLICATION_IDENTIFIER.clone(), (byte) 0x0F, (byte) 0x81);
+        applications.put(0, masterApplication);
+        selectedApplication = masterApplication;
+        resetAuthentication();
+    }
+
+    private byte[] changeKey(byte[] data) {
+        if (!authenticated) return status(AUTHENTICATION_ERROR);
+        // keyNumber || encrypted key data (32 bytes) || MAC
+        if (data.length != 1 + 32 + MAC_LENGTH) return status(LENGTH_ERROR);
+        int keyNumber = data[0] & 0x0F;
+        if (keyNumber >= selectedApplication.keys.length) return status(NO_SUCH_KEY);
+        if ((keyNumberUsedForAuthentication != 0) && (keyNumberUsedForAuthentication != keyNumber)) {
+            return status(PERMISSION_DENIED);
+        }
+        if (!verifyCommandMacAt(CHANGE_KEY_COMMAND, data, 1 + 32)) return status(INTEGRITY_ERROR);
+        byte[] keyData = decryptCommandData(Arrays.copyOfRange(data, 1, 33));
+        byte[] newKey = Arrays.copyOf(keyData, 16);
+        byte keyVersion = keyData[16];
+        boolean isSameKey = (keyNumber == keyNumberUsedForAuthentication);
+        if (!isSameKey) {
+            byte[] oldKey = selectedApplication.keys[keyNumber];
+            for (int i = 0; i < 16; i++) {
+                newKey[i] ^= oldKey[i];
+            }
+            byte[] crc32 = Arrays.copyOfRange(keyData, 17, 21);
+            if (!Arrays.equals(crc32, CRC32.get(newKey))) return status(INTEGRITY_ERROR);
+        }
+        selectedApplication.keys[keyNumber] = newKey;
+        selectedApplication.keyVersions[keyNumber] = keyVersion;
+        if (isSameKey) {
+            // changing the key used for authentication ends the authenticated state, no MAC is returned
+            resetAuthentication();
+            return status(OPERATION_OK);
+        }
+        return response(secureResponseData(new byte[0], COMM_MODE_MACED));
+    }
+
+    /**
+     * section for file commands
+     */
+
+    private byte[] createFile(byte command, byte[] data) {
+        if (selectedApplication.isMasterApplication()) return status(PERMISSION_DENIED);
+        if (data.length < 1) return status(LENGTH_ERROR);
+        int fileNumber = data[0] & 0xFF;
+        if (fileNumber > 31) return status(PARAMETER_ERROR);
+        if (selectedApplication.files.containsKey(fileNumber)) return status(DUPLICATE_ERROR);
+        SimFile file = new SimFile();
+        file.fileNumber = (byte) fileNumber;
+        int position;
+        switch (command) {
+            case CREATE_STANDARD_FILE_COMMAND:
+            case CREATE_BACKUP_FILE_COMMAND: {
+                // fileNumber || [ISO file id] || commSettings || access rights || file size
+                if ((data.length != 7) && (data.length != 9)) return status(LENGTH_ERROR);
+                position = data.length - 6;
+                file.fileType = (command == CREATE_STANDARD_FILE_COMMAND) ? FILE_TYPE_STANDARD : FILE_TYPE_BACKUP;
+                int fileSize = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, position + 3, position + 6));
+                if (fileSize < 1) return status(BOUNDARY_ERROR);
+                file.data = new byte[fileSize];
+                break;
+            }
+            case CREATE_VALUE_FILE_COMMAND: {
+                // fileNumber || commSettings || access rights || lower limit || upper limit || value || limited credit enabled
+                if (data.length != 17) return status(LENGTH_ERROR);
+                position = 1;
+                file.fileType = FILE_TYPE_VALUE;
+                file.lowerLimit = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 4, 8));
+                file.upperLimit = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 8, 12));
+                file.value = Utils.intFrom4ByteArrayInversed(Arrays.copyOfRange(data, 12, 16));
+                file.limitedCreditEnabled = data[16];
+                if ((file.lowerLimit > file.upperLimit) || (file.value < file.lowerLimit) || (file.value > file.upperLimit)) {
+                    return status(BOUNDARY_ERROR);
+                }
+                break;
+            }
+            default: {
+                // fileNumber || [ISO file id] || commSettings || access rights || record size || maximum number of records
+                if ((data.length != 10) && (data.length != 12)) return status(LENGTH_ERROR);
+                position = data.length - 9;
+                file.fileType = (command == CREATE_LINEAR_RECORD_FILE_COMMAND) ? FILE_TYPE_LINEAR_RECORD : FILE_TYPE_CYCLIC_RECORD;
+                file.recordSize = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, position + 3, position + 6));
+                file.maximumRecords = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, position + 6, position + 9));
+                if ((file.recordSize < 1) || (file.maximumRecords < 1)) return status(BOUNDARY_ERROR);
+                if ((file.fileType == FILE_TYPE_CYCLIC_RECORD) && (file.maximumRecords < 2)) return status(BOUNDARY_ERROR);
+                file.records = new ArrayList<>();
+                break;
+            }
+        }
+        file.communicationSettings = data[position];
+        file.accessRightsRwCar = data[position + 1];
+        file.accessRightsRW = data[position + 2];
+        if ((file.communicationSettings & FILE_OPTION_SDM) != 0) {
+            // a pre-enabled SDM has no mirroring until the SDM settings are changed
+            file.sdmSettings = new byte[]{(byte) 0x01, (byte) 0xFF, (byte) 0xFF};
+        }
+        if (file.getMemorySize() > getFreeMemory()) return status((byte) 0x0E); // out of EEPROM
+        selectedApplication.files.put(fileNumber, file);
+        return serviceResponse(command, data, data.length, new byte[0]);
+    }
+
+    private byte[] deleteFile(byte[] data) {
+        byte[] commandStatus = checkServiceCommandMac(DELETE_FILE_COMMAND, data, 1);
+        if (commandStatus != null) return commandStatus;
+        if (selectedApplication.files.remove(data[0] & 0xFF) == null) return status(FILE_NOT_FOUND);
+        return response(secureServiceResponseData(data, 1, new byte[0]));
+    }
+
+    private byte[] getFileIds(byte[] data) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (SimFile file : selectedApplication.files.values()) {
+            baos.write(file.fileNumber);
+        }
+        return serviceResponse(GET_FILE_IDS_COMMAND, data, 0, baos.toByteArray());
+    }
+
+    private byte[] getFileSettings(byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        return serviceResponse(GET_FILE_SETTINGS_COMMAND, data, 1, file.getFileSettings());
+    }
+
+    private byte[] changeFileSettings(byte[] data) {
+        // fileNumber || encrypted settings (multiple of 16 bytes) || MAC
+        if (!authenticated) return status(AUTHENTICATION_ERROR);
+        int macPosition = data.length - MAC_LENGTH;
+        if ((macPosition < 17) || ((macPosition - 1) % 16 != 0)) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if (getCommMode(file, new int[]{(file.accessRightsRwCar & 0x0F)}) == ACCESS_DENIED) {
+            return status(PERMISSION_DENIED);
+        }
+        if (!verifyCommandMacAt(CHANGE_FILE_SETTINGS_COMMAND, data, macPosition)) return status(INTEGRITY_ERROR);
+        byte[] settings = decryptCommandData(Arrays.copyOfRange(data, 1, macPosition));
+        byte[] sdmSettings = null;
+        if ((settings[0] & FILE_OPTION_SDM) != 0) {
+            if ((file.fileType != FILE_TYPE_STANDARD) && (file.fileType != FILE_TYPE_BACKUP)) return status(PARAMETER_ERROR);
+            int sdmSettingsLength = getSdmSettingsLength(settings, 3);
+            if (3 + sdmSettingsLength > settings.length) return status(LENGTH_ERROR);
+            sdmSettings = Arrays.copyOfRange(settings, 3, 3 + sdmSettingsLength);
+        }
+        file.communicationSettings = settings[0];
+        file.accessRightsRwCar = settings[1];
+        file.accessRightsRW = settings[2];
+        file.sdmSettings = sdmSettings;
+        return response(secureResponseData(new byte[0], COMM_MODE_MACED));
+    }
+
+    /**
+     * the length of the SDM settings depends on the SDM options and access rights (see NTAG 424 DNA
+     * NT4H2421Gx.pdf, ChangeFileSettings), the mirroring itself is not simulated
+     */
+    private static int getSdmSettingsLength(byte[] settings, int position) {
+        if (settings.length < position + 3) return 3;
+        byte sdmOptions = settings[position];
+        int metaRead = (settings[position + 2] >> 4) & 0x0F;
+        int fileRead = settings[position + 2] & 0x0F;
+        int length = 3;
+        if (((sdmOptions & 0x80) != 0) && (metaRead == ACCESS_KEY_FREE)) length += 3; // UID offset
+        if (((sdmOptions & 0x40) != 0) && (metaRead == ACCESS_KEY_FREE)) length += 3; // SDMReadCtr offset
+        if (metaRead < ACCESS_KEY_FREE) length += 3; // PICCData offset
+        if (fileRead != 0x0F) length += 6; // SDMMACInput offset and SDMMAC offset
+        if (((sdmOptions & 0x10) != 0) && (fileRead != 0x0F)) length += 6; // SDMENC offset and length
+        if ((sdmOptions & 0x20) != 0) length += 3; // SDMReadCtrLimit
+        return length;
+    }
+
+    private byte[] readData(byte command, byte[] data) {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != FILE_TYPE_STANDARD) && (file.fileType != FILE_TYPE_BACKUP)) {
+            return status(PARAMETER_ERROR);
+        }
+        int commMode = getCommMode(file, file.getReadKeys());
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        byte[] commandStatus = checkCommandMac(command, data, 7, commMode);
+        if (commandStatus != null) return commandStatus;
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        if (length == 0) length = file.data.length - offset;
+        if ((offset < 0) || (length < 0) || (offset + length > file.data.length)) return status(BOUNDARY_ERROR);
+        byte[] fileData = Arrays.copyOfRange(file.data, offset, offset + length);
+        return response(secureResponseData(fileData, commMode));
+    }
+
+    private byte[] writeData(byte command, byte[] data) {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != FILE_TYPE_STANDARD) && (file.fileType != FILE_TYPE_BACKUP)) {
+            return status(PARAMETER_ERROR);
+        }
+        int commMode = getCommMode(file, file.getWriteKeys());
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        byte[] plainData = unwrapCommandData(command, data, 7, length, commMode);
+        if (plainData == null) return status(lastUnwrapStatus);
+        if ((offset < 0) || (offset + length > file.data.length)) return status(BOUNDARY_ERROR);
+        if (file.fileType == FILE_TYPE_BACKUP) {
+            if (file.pendingData == null) file.pendingData = file.data.clone();
+            System.arraycopy(plainData, 0, file.pendingData, offset, length);
+        } else {
+            System.arraycopy(plainData, 0, file.data, offset, length);
+        }
+        return response(secureResponseData(new byte[0], commMode));
+    }
+
+    private byte[] getValue(byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if (file.fileType != FILE_TYPE_VALUE) return status(PARAMETER_ERROR);
+        int commMode = getCommMode(file, file.getReadWriteKeys());
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        byte[] commandStatus = checkCommandMac(GET_VALUE_COMMAND, data, 1, commMode);
+        if (commandStatus != null) return commandStatus;
+        return response(secureResponseData(Utils.intTo4ByteArrayInversed(file.value), commMode));
+    }
+
+    private byte[] changeValue(byte command, byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if (file.fileType != FILE_TYPE_VALUE) return status(PARAMETER_ERROR);
+        int[] keys;
+        if (command == CREDIT_VALUE_COMMAND) {
+            keys = new int[]{(file.accessRightsRwCar >> 4) & 0x0F};
+        } else if (command == DEBIT_VALUE_COMMAND) {
+            keys = file.getReadWriteKeys();
+        } else {
+            keys = file.getWriteKeys();
+        }
+        int commMode = getCommMode(file, keys);
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        byte[] plainData = unwrapCommandData(command, data, 1, 4, commMode);
+        if (plainData == null) return status(lastUnwrapStatus);
+        int amount = Utils.intFrom4ByteArrayInversed(plainData);
+        if (amount < 0) return status(PARAMETER_ERROR);
+        long workingValue = (file.pendingValue != null) ? file.pendingValue : file.value;
+        if (command == DEBIT_VALUE_COMMAND) {
+            workingValue -= amount;
+        } else {
+            if ((command == LIMITED_CREDIT_VALUE_COMMAND) && ((file.limitedCreditEnabled & 0x01) == 0)) {
+                return status(PERMISSION_DENIED);
+            }
+            workingValue += amount;
+        }
+        if ((workingValue < file.lowerLimit) || (workingValue > file.upperLimit)) return status(BOUNDARY_ERROR);
+        file.pendingValue = (int) workingValue;
+        return response(secureResponseData(new byte[0], commMode));
+    }
+
+    private byte[] writeRecord(byte command, byte[] data) {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != FILE_TYPE_LINEAR_RECORD) && (file.fileType != FILE_TYPE_CYCLIC_RECORD)) {
+            return status(PARAMETER_ERROR);
+        }
+        int commMode = getCommMode(file, file.getWriteKeys());
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        int offset = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int length = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        byte[] plainData = unwrapCommandData(command, data, 7, length, commMode);
+        if (plainData == null) return status(lastUnwrapStatus);
+        if ((length < 1) || (offset < 0) || (offset + length > file.recordSize)) return status(BOUNDARY_ERROR);
+        if (file.pendingRecord == null) {
+            int existingRecords = file.pendingClear ? 0 : file.records.size();
+            if ((file.fileType == FILE_TYPE_LINEAR_RECORD) && (existingRecords >= file.maximumRecords)) {
+                return status(BOUNDARY_ERROR);
+            }
+            file.pendingRecord = new byte[file.recordSize];
+        }
+        System.arraycopy(plainData, 0, file.pendingRecord, offset, length);
+        return response(secureResponseData(new byte[0], commMode));
+    }
+
+    private byte[] readRecords(byte command, byte[] data) {
+        if (data.length < 7) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != FILE_TYPE_LINEAR_RECORD) && (file.fileType != FILE_TYPE_CYCLIC_RECORD)) {
+            return status(PARAMETER_ERROR);
+        }
+        int commMode = getCommMode(file, file.getReadKeys());
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        byte[] commandStatus = checkCommandMac(command, data, 7, commMode);
+        if (commandStatus != null) return commandStatus;
+        int offsetRecord = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 1, 4));
+        int numberOfRecords = Utils.intFrom3ByteArrayInversed(Arrays.copyOfRange(data, 4, 7));
+        int existingRecords = file.records.size();
+        if ((existingRecords == 0) || (offsetRecord >= existingRecords)) return status(BOUNDARY_ERROR);
+        // offset 0 is the newest record, the records are returned in chronological order
+        int newestIndex = existingRecords - 1 - offsetRecord;
+        if (numberOfRecords == 0) numberOfRecords = newestIndex + 1;
+        if (numberOfRecords > newestIndex + 1) return status(BOUNDARY_ERROR);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = newestIndex - numberOfRecords + 1; i <= newestIndex; i++) {
+            baos.write(file.records.get(i), 0, file.recordSize);
+        }
+        return response(secureResponseData(baos.toByteArray(), commMode));
+    }
+
+    private byte[] clearRecordFile(byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        SimFile file = selectedApplication.files.get(data[0] & 0xFF);
+        if (file == null) return status(FILE_NOT_FOUND);
+        if ((file.fileType != FILE_TYPE_LINEAR_RECORD) && (file.fileType != FILE_TYPE_CYCLIC_RECORD)) {
+            return status(PARAMETER_ERROR);
+        }
+        int commMode = getCommMode(file, new int[]{(file.accessRightsRwCar >> 4) & 0x0F});
+        if (commMode == ACCESS_DENIED) return status(deniedStatus());
+        // the command is always MACed in authenticated state
+        byte[] commandStatus = checkCommandMac(CLEAR_RECORD_FILE_COMMAND, data, 1, (data.length > 1) ? COMM_MODE_MACED : COMM_MODE_PLAIN);
+        if (commandStatus != null) return commandStatus;
+        file.pendingClear = true;
+        file.pendingRecord = null;
+        return response(secureResponseData(new byte[0], (data.length > 1) ? COMM_MODE_MACED : COMM_MODE_PLAIN));
+    }
+
+    private byte[] commitTransaction(byte[] data) {
+        // [option] || [MAC]
+        int headerLength = (data.length == 0 || data.length == MAC_LENGTH) ? 0 : 1;
+        int commMode = (data.length > headerLength) ? COMM_MODE_MACED : COMM_MODE_PLAIN;
+        byte[] commandStatus = checkCommandMac(COMMIT_TRANSACTION_COMMAND, data, headerLength, commMode);
+        if (commandStatus != null) return commandStatus;
+        for (SimFile file : selectedApplication.files.values()) {
+            file.commit();
+        }
+        return response(secureResponseData(new byte[0], commMode));
+    }
+
+    private byte[] abortTransaction(byte[] data) {
+        int commMode = (data.length > 0) ? COMM_MODE_MACED : COMM_MODE_PLAIN;
+        byte[] commandStatus = checkCommandMac(ABORT_TRANSACTION_COMMAND, data, 0, commMode);
+        if (commandStatus != null) return commandStatus;
+        abortTransaction();
+        return response(secureResponseData(new byte[0], commMode));
+    }
+
+    private void abortTransaction() {
+        if (selectedApplication == null) return;
+        for (SimFile file : selectedApplication.files.values()) {
+            file.abort();
+        }
+    }
+
+    /**
+     * section for authentication
+     */
+
+    private byte[] authenticatePart1(byte command, byte[] data) {
+        if (data.length < 1) return status(LENGTH_ERROR);
+        int keyNumber = data[0] & 0x0F;
+        if (keyNumber >= selectedApplication.keys.length) return status(NO_SUCH_KEY);
+        if ((command == AUTHENTICATE_AES_EV2_NON_FIRST_COMMAND) && (!authenticated)) {
+            return status(PERMISSION_DENIED);
+        }
+        if (command == AUTHENTICATE_AES_EV2_FIRST_COMMAND) {
+            resetAuthentication();
+        }
+        rndB = new byte[16];
+        secureRandom.nextBytes(rndB);
+        pendingAuthenticationCommand = command;
+        pendingAuthenticationKeyNumber = keyNumber;
+        byte[] rndBEnc = aesCbc(Cipher.ENCRYPT_MODE, selectedApplication.keys[keyNumber], new byte[16], rndB);
+        return frame(rndBEnc, ADDITIONAL_FRAME);
+    }
+
+    private byte[] authenticatePart2(byte[] data) {
+        byte command = pendingAuthenticationCommand;
+        pendingAuthenticationCommand = 0;
+        if (data.length != 32) {
+            resetAuthentication();
+            return status(LENGTH_ERROR);
+        }
+        byte[] key = selectedApplication.keys[pendingAuthenticationKeyNumber];
+        byte[] rndArndBLeftRotated = aesCbc(Cipher.DECRYPT_MODE, key, new byte[16], data);
+        byte[] rndA = Arrays.copyOf(rndArndBLeftRotated, 16);
+        byte[] rndBLeftRotated = Arrays.copyOfRange(rndArndBLeftRotated, 16, 32);
+        if (!Arrays.equals(rndBLeftRotated, rotateLeft(rndB))) {
+            resetAuthentication();
+            return status(AUTHENTICATION_ERROR);
+        }
+        byte[] responseData;
+        if (command == AUTHENTICATE_AES_EV2_FIRST_COMMAND) {
+            transactionIdentifier = new byte[4];
+            secureRandom.nextBytes(transactionIdentifier);
+            cmdCounter = 0;
+            // TI || rndA' || PDcap2 || PCDcap2
+            byte[] plainResponse = new byte[32];
+            System.arraycopy(transactionIdentifier, 0, plainResponse, 0, 4);
+            System.arraycopy(rotateLeft(rndA), 0, plainResponse, 4, 16);
+            responseData = aesCbc(Cipher.ENCRYPT_MODE, key, new byte[16], plainResponse);
+        } else {
+            // the Transaction Identifier and CmdCounter are kept in authenticateEV2NonFirst
+            responseData = aesCbc(Cipher.ENCRYPT_MODE, key, new byte[16], rotateLeft(rndA));
+        }
+        sesAuthEncKey = getSessionKey(IV_LABEL_ENC, rndA, rndB, key);
+        sesAuthMacKey = getSessionKey(IV_LABEL_DEC, rndA, rndB, key);
+        keyNumberUsedForAuthentication = pendingAuthenticationKeyNumber;
+        authenticated = true;
+        return frame(responseData, OPERATION_OK);
+    }
+
+    private byte[] getSessionKey(byte[] label, byte[] rndA, byte[] rndB, byte[] key) {
+        // label || 0x0001 || 0x0080 || RndA[15..14] || (RndA[13..8] XOR RndB[15..10]) || RndB[9..0] || RndA[7..0]
+        byte[] cmacInput = new byte[32];
+        System.arraycopy(label, 0, cmacInput, 0, 2);
+        cmacInput[3] = (byte) 0x01;
+        cmacInput[5] = (byte) 0x80;
+        System.arraycopy(rndA, 0, cmacInput, 6, 2);
+        for (int i = 0; i < 6; i++) {
+            cmacInput[8 + i] = (byte) (rndA[2 + i] ^ rndB[i]);
+        }
+        System.arraycopy(rndB, 6, cmacInput, 14, 10);
+        System.arraycopy(rndA, 8, cmacInput, 24, 8);
+        return cmac(key, cmacInput);
+    }
+
+    private void resetAuthentication() {
+        authenticated = false;
+        keyNumberUsedForAuthentication = -1;
+        pendingAuthenticationCommand = 0;
+        sesAuthEncKey = null;
+        sesAuthMacKey = null;
+        transactionIdentifier = null;
+        cmdCounter = 0;
+    }
+
+    /**
+     * section for secure messaging
+     */
+
+    /**
+     * get the communication mode for a file access with one of the given access keys
+     *
+     * @return the communication mode or ACCESS_DENIED
+     */
+    private int getCommMode(SimFile file, int[] accessKeys) {
+        boolean freeAccess = false;
+        for (int accessKey : accessKeys) {
+            if ((authenticated) && (accessKey == keyNumberUsedForAuthentication)) {
+                int commMode = file.communicationSettings & 0x03;
+                return (commMode == 2) ? COMM_MODE_PLAIN : commMode;
+            }
+            if (accessKey == ACCESS_KEY_FREE) freeAccess = true;
+        }
+        return freeAccess ? COMM_MODE_PLAIN : ACCESS_DENIED;
+    }
+
+    private byte deniedStatus() {
+        return authenticated ? PERMISSION_DENIED : AUTHENTICATION_ERROR;
+    }
+
+    /**
+     * checks the MAC of a command without command data (e.g. a read command)
+     *
+     * @return null on success or the status response on failure
+     */
+    private byte[] checkCommandMac(byte command, byte[] data, int headerLength, int commMode) {
+        if ((!authenticated) || (commMode == COMM_MODE_PLAIN)) {
+            if (data.length < headerLength) return status(LENGTH_ERROR);
+            return null;
+        }
+        if (data.length != headerLength + MAC_LENGTH) return status(LENGTH_ERROR);
+        if (!verifyCommandMac(command, data, headerLength)) return status(INTEGRITY_ERROR);
+        return null;
+    }
+
+    /**
+     * checks the command data length of a service command and the MAC when present
+     *
+     * @return null on success or the status response on failure
+     */
+    private byte[] checkServiceCommandMac(byte command, byte[] data, int headerLength) {
+        if (data.length == headerLength) return null;
+        if ((!authenticated) || (data.length != headerLength + MAC_LENGTH)) return status(LENGTH_ERROR);
+        if (!verifyCommandMac(command, data, headerLength)) return status(INTEGRITY_ERROR);
+        return null;
+    }
+
+    /**
+     * builds the response of a service command, a MACed command is answered in communication mode MACed
+     *
+     * @param headerLength | the length of the command data without MAC, data.length when the command data has a variable length
+     */
+    private byte[] serviceResponse(byte command, byte[] data, int headerLength, byte[] responseData) {
+        byte[] commandStatus = checkServiceCommandMac(command, data, headerLength);
+        if (commandStatus != null) return commandStatus;
+        return response(secureServiceResponseData(data, headerLength, responseData));
+    }
+
+    /**
+     * the response data of a service command that passed checkServiceCommandMac, a command without a MAC
+     * is answered in plain and does not increase the CmdCounter
+     */
+    private byte[] secureServiceResponseData(byte[] data, int headerLength, byte[] responseData) {
+        if (data.length == headerLength) return responseData;
+        return secureResponseData(responseData, COMM_MODE_MACED);
+    }
+
+    /**
+     * get the plain command data of a write command in the given communication mode
+     *
+     * @return the plain data or null on failure, the status is in lastUnwrapStatus
+     */
+    private byte[] unwrapCommandData(byte command, byte[] data, int headerLength, int plainLength, int commMode) {
+        int securedLength = getSecuredLength(plainLength, commMode);
+        if (data.length != headerLength + securedLength) {
+            lastUnwrapStatus = LENGTH_ERROR;
+            return null;
+        }
+        if ((!authenticated) || (commMode == COMM_MODE_PLAIN)) {
+            return Arrays.copyOfRange(data, headerLength, headerLength + plainLength);
+        }
+        int macOffset = data.length - MAC_LENGTH;
+        if (!verifyCommandMacAt(command, data, macOffset)) {
+            lastUnwrapStatus = INTEGRITY_ERROR;
+            return null;
+        }
+        if (commMode == COMM_MODE_MACED) {
+            return Arrays.copyOfRange(data, headerLength, headerLength + plainLength);
+        }
+        byte[] decrypted = decryptCommandData(Arrays.copyOfRange(data, headerLength, macOffset));
+        return Arrays.copyOf(decrypted, plainLength);
+    }
+
+    /**
+     * verifies the MAC that follows the command header
+     */
+    private boolean verifyCommandMac(byte command, byte[] data, int headerLength) {
+        if (data.length != headerLength + MAC_LENGTH) return false;
+        return verifyCommandMacAt(command, data, headerLength);
+    }
+
+    private boolean verifyCommandMacAt(byte command, byte[] data, int macOffset) {
+        // MAC input: command || CmdCounter || TI || command header || command data
+        byte[] macInput = new byte[1 + 2 + 4 + macOffset];
+        macInput[0] = command;
+        System.arraycopy(Utils.intTo2ByteArrayInversed(cmdCounter), 0, macInput, 1, 2);
+        System.arraycopy(transactionIdentifier, 0, macInput, 3, 4);
+        System.arraycopy(data, 0, macInput, 7, macOffset);
+        byte[] macCalculated = truncateMac(cmac(sesAuthMacKey, macInput));
+        return Arrays.equals(macCalculated, Arrays.copyOfRange(data, macOffset, macOffset + MAC_LENGTH));
+    }
+
+    private byte[] decryptCommandData(byte[] encryptedData) {
+        byte[] iv = getIv(IV_LABEL_ENC, cmdCounter);
+        return aesCbc(Cipher.DECRYPT_MODE, sesAuthEncKey, iv, encryptedData);
+    }
+
+    /**
+     * builds the response data in the given communication mode. In authenticated state the CmdCounter is
+     * increased, in communication mode MACed and Full enciphered a MAC gets appended.
+     */
+    private byte[] secureResponseData(byte[] responseData, int commMode) {
+        if (!authenticated) return responseData;
+        cmdCounter++;
+        if (commMode == COMM_MODE_PLAIN) return responseData;
+        byte[] body = responseData;
+        if ((commMode == COMM_MODE_FULL) && (responseData.length > 0)) {
+            byte[] padded = Arrays.copyOf(responseData, ((responseData.length / 16) + 1) * 16);
+            padded[responseData.length] = (byte) 0x80;
+            body = aesCbc(Cipher.ENCRYPT_MODE, sesAuthEncKey, getIv(IV_LABEL_DEC, cmdCounter), padded);
+        }
+        // MAC input: response code || CmdCounter || TI || response data
+        byte[] macInput = new byte[1 + 2 + 4 + body.length];
+        System.arraycopy(Utils.intTo2ByteArrayInversed(cmdCounter), 0, macInput, 1, 2);
+        System.arraycopy(transactionIdentifier, 0, macInput, 3, 4);
+        System.arraycopy(body, 0, macInput, 7, body.length);
+        byte[] mac = truncateMac(cmac(sesAuthMacKey, macInput));
+        byte[] securedData = Arrays.copyOf(body, body.length + MAC_LENGTH);
+        System.arraycopy(mac, 0, securedData, body.length, MAC_LENGTH);
+        return securedData;
+    }
+
+    private byte[] getIv(byte[] label, int counter) {
+        // label || TI || CmdCounter || 8 * 0x00, encrypted with SesAuthENCKey
+        byte[] ivInput = new byte[16];
+        System.arraycopy(label, 0, ivInput, 0, 2);
+        System.arraycopy(transactionIdentifier, 0, ivInput, 2, 4);
+        System.arraycopy(Utils.intTo2ByteArrayInversed(counter), 0, ivInput, 6, 2);
+        return aesCbc(Cipher.ENCRYPT_MODE, sesAuthEncKey, new byte[16], ivInput);
+    }
+
+    /**
+     * section for response framing
+     */
+
+    private byte[] response(byte[] data) {
+        if (data.length <= maxResponseDataLength) {
+            return frame(data, OPERATION_OK);
+        }
+        for (int position = maxResponseDataLength; position < data.length; position += maxResponseDataLength) {
+            pendingResponseFrames.add(Arrays.copyOfRange(data, position, Math.min(data.length, position + maxResponseDataLength)));
+        }
+        return frame(Arrays.copyOf(data, maxResponseDataLength), ADDITIONAL_FRAME);
+    }
+
+    private byte[] nextResponseFrame() {
+        byte[] data = pendingResponseFrames.poll();
+        return frame(data, pendingResponseFrames.isEmpty() ? OPERATION_OK : ADDITIONAL_FRAME);
+    }
+
+    private byte[] frame(byte[] data, byte status) {
+        byte[] response = Arrays.copyOf(data, data.length + 2);
+        response[data.length] = (byte) 0x91;
+        response[data.length + 1] = status;
+        return response;
+    }
+
+    private byte[] status(byte status) {
+        return new byte[]{(byte) 0x91, status};
+    }
+
+    private void clearChaining() {
+        pendingResponseFrames.clear();
+        pendingCommandData = null;
+        pendingCommand = 0;
+        pendingCommandLength = 0;
+    }
+
+    /**
+     * section for crypto helper
+     */
+
+    private byte[] aesCbc(int mode, byte[] key, byte[] iv, byte[] data) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            cipher.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES failure: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] cmac(byte[] key, byte[] data) {
+        try {
+            AesCmac mac = new AesCmac();
+            mac.init(new SecretKeySpec(key, "AES"));
+            return mac.calculateHash(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("CMAC failure: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] truncateMac(byte[] fullMac) {
+        byte[] truncatedMac = new byte[fullMac.length / 2];
+        for (int i = 1, j = 0; i < fullMac.length; i += 2, j++) {
+            truncatedMac[j] = fullMac[i];
+        }
+        return truncatedMac;
+    }
+
+    private byte[] rotateLeft(byte[] data) {
+        byte[] rotated = new byte[data.length];
+        System.arraycopy(data, 1, rotated, 0, data.length - 1);
+        rotated[data.length - 1] = data[0];
+        return rotated;
+    }
+
+    private static int aidToInt(byte[] aid) {
+        return (aid[0] & 0xFF) | ((aid[1] & 0xFF) << 8) | ((aid[2] & 0xFF) << 16);
+    }
+
+    /**
+     * section for the internal card structure
+     */
+
+    private static class SimApplication {
+        private final byte[] aid;
+        private final byte keySettings1;
+        private final byte keySettings2;
+        private final byte[][] keys;
+        private final byte[] keyVersions;
+        private final Map<Integer, SimFile> files = new TreeMap<>();
+
+        SimApplication(byte[] aid, byte keySettings1, byte keySettings2) {
+            this.aid = aid;
+            this.keySettings1 = keySettings1;
+            this.keySettings2 = keySettings2;
+            int numberOfKeys = keySettings2 & 0x0F;
+            keys = new byte[numberOfKeys][];
+            keyVersions = new byte[numberOfKeys];
+            for (int i = 0; i < numberOfKeys; i++) {
+                keys[i] = DEFAULT_AES_KEY.clone();
+            }
+        }
+
+        boolean isMasterApplication() {
+            return aidToInt(aid) == 0;
+        }
+    }
+
+    private static class SimFile {
+        private byte fileNumber;
+        private byte fileType;
+        private byte communicationSettings;
+        private byte accessRightsRwCar;
+        private byte accessRightsRW;
+        // Standard and Backup file
+        private byte[] data;
+        private byte[] pendingData;
+        private byte[] sdmSettings; // SDM options || SDM access rights || offsets, if the file option has bit 6 set
+        // Value file
+        private int lowerLimit;
+        private int upperLimit;
+        private int value;
+        private Integer pendingValue;
+        private byte limitedCreditEnabled;
+        // Linear and Cyclic Record file
+        private int recordSize;
+        private int maximumRecords;
+        private List<byte[]> records;
+        private byte[] pendingRecord;
+        private boolean pendingClear;
+
+        int[] getReadKeys() {
+            return new int[]{(accessRightsRW >> 4) & 0x0F, (accessRightsRwCar >> 4) & 0x0F};
+        }
+
+        int[] getWriteKeys() {
+            return new int[]{accessRightsRW & 0x0F, (accessRightsRwCar >> 4) & 0x0F};
+        }
+
+        int[] getReadWriteKeys() {
+            return new int[]{(accessRightsRW >> 4) & 0x0F, accessRightsRW & 0x0F, (accessRightsRwCar >> 4) & 0x0F};
+        }
+
+        int getMemorySize() {
+            int size;
+            if (fileType == FILE_TYPE_VALUE) {
+                size = 4;
+            } else if ((fileType == FILE_TYPE_LINEAR_RECORD) || (fileType == FILE_TYPE_CYCLIC_RECORD)) {
+                size = recordSize * maximumRecords;
+            } else {
+                size = (fileType == FILE_TYPE_BACKUP) ? 2 * data.length : data.length;
+            }
+            return ((size + 31) / 32) * 32; // memory is allocated in blocks of 32 bytes
+        }
+
+        byte[] getFileSettings() {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(fileType);
+            baos.write(communicationSettings);
+            baos.write(accessRightsRwCar);
+            baos.write(accessRightsRW);
+            if (fileType == FILE_TYPE_VALUE) {
+                baos.write(Utils.intTo4ByteArrayInversed(lowerLimit), 0, 4);
+                baos.write(Utils.intTo4ByteArrayInversed(upperLimit), 0, 4);
+                baos.write(Utils.intTo4ByteArrayInversed(0), 0, 4); // limited credit value
+                baos.write(limitedCreditEnabled);
+            } else if ((fileType == FILE_TYPE_LINEAR_RECORD) || (fileType == FILE_TYPE_CYCLIC_RECORD)) {
+                baos.write(Utils.intTo3ByteArrayInversed(recordSize), 0, 3);
+                baos.write(Utils.intTo3ByteArrayInversed(maximumRecords), 0, 3);
+                baos.write(Utils.intTo3ByteArrayInversed(records.size()), 0, 3);
+            } else {
+                baos.write(Utils.intTo3ByteArrayInversed(data.length), 0, 3);
+                if (((communicationSettings & FILE_OPTION_SDM) != 0) && (sdmSettings != null)) {
+                    baos.write(sdmSettings, 0, sdmSettings.length);
+                }
+            }
+            return baos.toByteArray();
+        }
+
+        void commit() {
+            if (pendingData != null) {
+                data = pendingData;
+            }
+            if (pendingValue != null) {
+                value = pendingValue;
+            }
+            if (pendingClear) {
+                records.clear();
+            }
+            if (pendingRecord != null) {
+                if ((fileType == FILE_TYPE_CYCLIC_RECORD) && (records.size() >= maximumRecords - 1)) {
+                    records.remove(0); // the oldest record gets overwritten
+                }
+                records.add(pendingRecord);
+            }
+            abort();
+        }
+
+        void abort() {
+            pendingData = null;
+            pendingValue = null;
+            pendingRecord = null;
+            pendingClear = false;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is an InputStream view on a Data file (Standard or Backup file) or a Record file of the
+ * selected application. The file is read in chunks of one ReadData (or ReadRecords) command each, so
+ * the memory is bounded by the chunk length and the caller can process the first bytes before the
+ * complete file is read. Each chunk is a complete secure messaging command, its response MAC is verified
+ * (and the data decrypted in Full mode) by DesfireEv3 before the bytes are delivered.
+ * <p>
+ * With prefetch the next chunk is read on the card thread of the session while the caller consumes the
+ * current chunk. The commands are send in the order of the chunks, so the CmdCounter stays in order. At
+ * most two chunks are held in memory. When a chunk fails the prefetched chunk behind it is not send, the
+ * stream fails from then on.
+ * <p>
+ * A Record file is streamed from the oldest to the newest record, the number of records is read with
+ * getFileSettings when the stream is opened.
+ * <p>
+ * Usage:
+ * desfireEv3.selectApplicationByAid(aid);
+ * desfireEv3.authenticateAesEv2First(keyNumber, key);
+ * try (InputStream inputStream = DesfireFileInputStream.openDataFile(desfireEv3, fileNumber, 0, length, true)) {
+ * ... inputStream.read(buffer) ...
+ * }
+ * Note: do not use the DesfireEv3 session while the stream is open, after close the session is free again.
+ * A failing read throws an IOException with the errorCodeReason of DesfireEv3.
+ */
+
+public class DesfireFileInputStream extends InputStream {
+
+    private final DesfireEv3 desfireEv3;
+    private final byte fileNumber;
+    private final boolean isRecordFile;
+    private final int offset; // offset in a Data file
+    private final int length; // complete length of the stream
+    private final int chunkLength; // data bytes (a multiple of the record size on a Record file)
+    private final int recordSize;
+    private final int numberOfRecords;
+    private int requestedLength = 0; // bytes requested from the card so far
+    private byte[] chunk = new byte[0];
+    private int chunkPosition = 0;
+    private final ExecutorService prefetchExecutor; // null = no prefetch
+    private Future<byte[]> nextChunk;
+    private ChunkRequest nextChunkRequest;
+    private IOException failure; // the stream fails after the first failed chunk
+    private volatile boolean isChunkFailed = false; // set on the card thread, a queued chunk is not read after a failed one
+    private boolean isClosed = false;
+
+    private DesfireFileInputStream(DesfireEv3 desfireEv3, byte fileNumber, boolean isRecordFile, int offset, int length, int chunkLength, int recordSize, boolean isPrefetch) {
+        this.desfireEv3 = desfireEv3;
+        this.fileNumber = fileNumber;
+        this.isRecordFile = isRecordFile;
+        this.offset = offset;
+        this.length = length;
+        this.chunkLength = chunkLength;
+        this.recordSize = recordSize;
+        this.numberOfRecords = isRecordFile ? length / recordSize : 0;
+        this.prefetchExecutor = ((isPrefetch) && (length > chunkLength)) ? desfireEv3.getPrefetchExecutor() : null;
+    }
+
+    /**
+     * opens a stream on a Standard or Backup file in the selected application
+     *
+     * @param desfireEv3 | the session with the selected application and a valid authentication
+     * @param fileNumber | in range 0..31 AND file is a Standard or Backup file
+     * @param offset     | the position in the file where the stream starts
+     * @param length     | the number of bytes to read
+     * @param isPrefetch | true reads the next chunk while the current one is consumed
+     * @throws IOException | when the file is not in the selected application or the range is out of the file
+     */
+    public static DesfireFileInputStream openDataFile(DesfireEv3 desfireEv3, byte fileNumber, int offset, int length, boolean isPrefetch) throws IOException {
+        FileSettings fileSettings = getFileSettings(desfireEv3, fileNumber);
+        if ((fileSettings.getFileType() != FileSettings.STANDARD_FILE_TYPE) && (fileSettings.getFileType() != FileSettings.BACKUP_FILE_TYPE)) {
+            throw new IOException("file " + fileNumber + " is not a Standard or Backup file");
+        }
+        if ((offset < 0) || (length < 0) || (offset + length > fileSettings.getFileSizeInt())) {
+            throw new IOException("offset " + offset + " and length " + length + " are out of the file size " + fileSettings.getFileSizeInt());
+        }
+        int chunkLength = desfireEv3.getMaximumReadDataLength(fileNumber);
+        return new DesfireFileInputStream(desfireEv3, fileNumber, false, offset, length, chunkLength, 0, isPrefetch);
+    }
+
+    /**
+     * opens a stream on all existing records of a Linear or Cyclic Record file in the selected application
+     *
+     * @param desfireEv3 | the session with the selected application and a valid authentication
+     * @param fileNumber | in range 0..31 AND file is a Linear or Cyclic Record file
+     * @param isPrefetch | true reads the next chunk while the current one is consumed
+     * @throws IOException | when the file is not in the selected application
+     */
+    public static DesfireFileInputStream openRecordFile(DesfireEv3 desfireEv3, byte fileNumber, boolean isPrefetch) throws IOException {
+        getFileSettings(desfireEv3, fileNumber);
+        // the number of existing records changes with each committed write, so the settings are read again
+        byte[] fileSettingsBytes = desfireEv3.getFileSettings(fileNumber);
+        if (fileSettingsBytes == null) {
+            throw new IOException("could not read the file settings: " + desfireEv3.getErrorCodeReason());
+        }
+        FileSettings fileSettings = new FileSettings(fileNumber, fileSettingsBytes);
+        if ((fileSettings.getFileType() != FileSettings.LINEAR_RECORD_FILE_TYPE) && (fileSettings.getFileType() != FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
+            throw new IOException("file " + fileNumber + " is not a Record file");
+        }
+        int recordSize = fileSettings.getRecordSizeInt();
+        int recordsPerChunk = Math.max(desfireEv3.getMaximumReadDataLength(fileNumber) / recordSize, 1);
+        return new DesfireFileInputStream(desfireEv3, fileNumber, true, 0, fileSettings.getRecordsExistingInt() * recordSize, recordsPerChunk * recordSize, recordSize, isPrefetch);
+    }
+
+    private static FileSettings getFileSettings(DesfireEv3 desfireEv3, byte fileNumber) throws IOException {
+        if (desfireEv3 == null) throw new IOException("desfireEv3 is NULL");
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) {
+            throw new IOException("file " + fileNumber + " is not in the selected application");
+        }
+        return fileSettings;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillChunk()) return -1;
+        return chunk[chunkPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int bufferOffset, int bufferLength) throws IOException {
+        if ((bufferOffset < 0) || (bufferLength < 0) || (bufferLength > buffer.length - bufferOffset)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (bufferLength == 0) return 0;
+        if (!fillChunk()) return -1;
+        int copyLength = Math.min(bufferLength, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, buffer, bufferOffset, copyLength);
+        chunkPosition += copyLength;
+        return copyLength;
+    }
+
+    /**
+     * @return the number of bytes of the current chunk, they are read without a command to the card
+     */
+    @Override
+    public int available() {
+        return chunk.length - chunkPosition;
+    }
+
+    /**
+     * @return the complete length of the stream
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * cancels or waits for a prefetched command, after close the session can be used again
+     */
+    @Override
+    public void close() {
+        if (isClosed) return;
+        isClosed = true;
+        chunk = new byte[0];
+        cancelNextChunk();
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean fillChunk() throws IOException {
+        if (isClosed) throw new IOException("stream is closed");
+        if (failure != null) throw new IOException(failure.getMessage(), failure);
+        if (chunkPosition < chunk.length) return true;
+        if ((nextChunk == null) && (requestedLength >= length)) return false;
+        try {
+            if (prefetchExecutor == null) {
+                chunk = requestChunk().call();
+            } else {
+                Future<byte[]> currentChunk = (nextChunk == null) ? prefetchExecutor.submit(requestChunk()) : nextChunk;
+                // the next command is queued behind the current one, the card thread starts it without waiting for the caller
+                nextChunkRequest = (requestedLength < length) ? requestChunk() : null;
+                nextChunk = (nextChunkRequest != null) ? prefetchExecutor.submit(nextChunkRequest) : null;
+                chunk = getChunk(currentChunk);
+            }
+        } catch (IOException e) {
+            failure = e;
+            chunk = new byte[0];
+            cancelNextChunk();
+            throw e;
+        }
+        chunkPosition = 0;
+        return chunk.length > 0;
+    }
+
+    /**
+     * a queued command is not send, a running command is awaited so the session is free afterwards
+     */
+    private void cancelNextChunk() {
+        if (nextChunk == null) return;
+        if (!nextChunkRequest.cancelIfNotStarted()) {
+            try {
+                nextChunk.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the prefetched chunk is discarded, the failure is not of interest
+            }
+        }
+        nextChunk = null;
+        nextChunkRequest = null;
+    }
+
+    private byte[] getChunk(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * takes the position of the next chunk, the command is run by call()
+     */
+    private ChunkRequest requestChunk() {
+        int chunkOffset = requestedLength;
+        int length = Math.min(chunkLength, this.length - requestedLength);
+        requestedLength += length;
+        return new ChunkRequest(chunkOffset, length);
+    }
+
+    private class ChunkRequest implements Callable<byte[]> {
+        private final int chunkOffset;
+        private final int length;
+        private final AtomicBoolean isStartedOrCancelled = new AtomicBoolean(false);
+
+        ChunkRequest(int chunkOffset, int length) {
+            this.chunkOffset = chunkOffset;
+            this.length = length;
+        }
+
+        /**
+         * @return true when the command will not be send, false when it is already running or done
+         */
+        boolean cancelIfNotStarted() {
+            return isStartedOrCancelled.compareAndSet(false, true);
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            if (!isStartedOrCancelled.compareAndSet(false, true)) return null; // cancelled, nobody waits for the result
+            if (isChunkFailed) throw new IOException("not read at position " + chunkOffset + ", a previous chunk failed");
+            byte[] data;
+            if (isRecordFile) {
+                // offset 0 is the newest record, the records of one command are returned in chronological order
+                int numberOfRecordsToRead = length / recordSize;
+                int offsetRecord = numberOfRecords - (chunkOffset / recordSize) - numberOfRecordsToRead;
+                data = desfireEv3.readFromARecordFile(fileNumber, offsetRecord, numberOfRecordsToRead);
+            } else {
+                data = desfireEv3.readFromADataFile(fileNumber, offset + chunkOffset, length);
+            }
+            if ((data == null) || (data.length < length)) {
+                isChunkFailed = true;
+                throw new IOException("read failed at position " + chunkOffset + ": " + desfireEv3.getErrorCodeReason());
+            }
+            return data;
+        }
+    }
+}
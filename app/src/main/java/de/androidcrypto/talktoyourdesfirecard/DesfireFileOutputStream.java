@@ -0,0 +1,146 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class is an OutputStream view on a Data file (Standard or Backup file) of the selected application.
+ * The bytes are collected in a buffer of bounded length and written with one WriteData command per
+ * buffer, so the caller does not need to hold the complete data in memory. Each command is a complete
+ * secure messaging command (MAC or encryption in Full mode is done by DesfireEv3).
+ * <p>
+ * On a Backup file the written data gets valid with the commitTransaction on close, a stream that is
+ * not closed (e.g. the tag is lost) leaves the file unchanged.
+ * <p>
+ * Usage:
+ * try (OutputStream outputStream = DesfireFileOutputStream.openDataFile(desfireEv3, fileNumber, 0)) {
+ * ... outputStream.write(data) ...
+ * }
+ * Note: do not use the DesfireEv3 session while the stream is open. A failing write throws an IOException
+ * with the errorCodeReason of DesfireEv3. Records are written with writeToARecordFile as each record is
+ * written as a whole.
+ */
+
+public class DesfireFileOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BUFFER_LENGTH = 256; // one chained WriteData command per buffer
+
+    private final DesfireEv3 desfireEv3;
+    private final byte fileNumber;
+    private final boolean isBackupFile;
+    private final int fileSize;
+    private final byte[] buffer;
+    private int bufferPosition = 0;
+    private int position; // position of the buffer in the file
+    private boolean isClosed = false;
+
+    private DesfireFileOutputStream(DesfireEv3 desfireEv3, byte fileNumber, boolean isBackupFile, int fileSize, int offset, int bufferLength) {
+        this.desfireEv3 = desfireEv3;
+        this.fileNumber = fileNumber;
+        this.isBackupFile = isBackupFile;
+        this.fileSize = fileSize;
+        this.position = offset;
+        this.buffer = new byte[bufferLength];
+    }
+
+    public static DesfireFileOutputStream openDataFile(DesfireEv3 desfireEv3, byte fileNumber, int offset) throws IOException {
+        return openDataFile(desfireEv3, fileNumber, offset, DEFAULT_BUFFER_LENGTH);
+    }
+
+    /**
+     * opens a stream on a Standard or Backup file in the selected application
+     *
+     * @param desfireEv3   | the session with the selected application and a valid authentication
+     * @param fileNumber   | in range 0..31 AND file is a Standard or Backup file
+     * @param offset       | the position in the file where the stream starts
+     * @param bufferLength | number of bytes written with one command
+     * @throws IOException | when the file is not in the selected application or the offset is out of the file
+     */
+    public static DesfireFileOutputStream openDataFile(DesfireEv3 desfireEv3, byte fileNumber, int offset, int bufferLength) throws IOException {
+        if (desfireEv3 == null) throw new IOException("desfireEv3 is NULL");
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) {
+            throw new IOException("file " + fileNumber + " is not in the selected application");
+        }
+        if ((fileSettings.getFileType() != FileSettings.STANDARD_FILE_TYPE) && (fileSettings.getFileType() != FileSettings.BACKUP_FILE_TYPE)) {
+            throw new IOException("file " + fileNumber + " is not a Standard or Backup file");
+        }
+        if ((offset < 0) || (offset > fileSettings.getFileSizeInt())) {
+            throw new IOException("offset " + offset + " is out of the file size " + fileSettings.getFileSizeInt());
+        }
+        if (bufferLength < 1) throw new IOException("bufferLength is < 1");
+        boolean isBackupFile = fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE;
+        return new DesfireFileOutputStream(desfireEv3, fileNumber, isBackupFile, fileSettings.getFileSizeInt(), offset, bufferLength);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        checkFileSize(1);
+        buffer[bufferPosition++] = (byte) b;
+        if (bufferPosition == buffer.length) writeBuffer();
+    }
+
+    @Override
+    public void write(byte[] data, int dataOffset, int dataLength) throws IOException {
+        if ((dataOffset < 0) || (dataLength < 0) || (dataLength > data.length - dataOffset)) {
+            throw new IndexOutOfBoundsException();
+        }
+        checkOpen();
+        checkFileSize(dataLength);
+        while (dataLength > 0) {
+            int copyLength = Math.min(dataLength, buffer.length - bufferPosition);
+            System.arraycopy(data, dataOffset, buffer, bufferPosition, copyLength);
+            bufferPosition += copyLength;
+            dataOffset += copyLength;
+            dataLength -= copyLength;
+            if (bufferPosition == buffer.length) writeBuffer();
+        }
+    }
+
+    /**
+     * writes the buffered bytes to the card, on a Backup file they get valid on close
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        writeBuffer();
+    }
+
+    /**
+     * writes the buffered bytes and commits the transaction on a Backup file
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) return;
+        writeBuffer();
+        isClosed = true;
+        if ((isBackupFile) && (!desfireEv3.commitTransactionFull(false))) {
+            throw new IOException("commit failed: " + desfireEv3.getErrorCodeReason());
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (bufferPosition == 0) return;
+        byte[] data = new byte[bufferPosition];
+        System.arraycopy(buffer, 0, data, 0, bufferPosition);
+        if (!desfireEv3.writeToADataFile(fileNumber, position, data)) {
+            throw new IOException("write failed at offset " + position + ": " + desfireEv3.getErrorCodeReason());
+        }
+        position += bufferPosition;
+        bufferPosition = 0;
+    }
+
+    private void checkOpen() throws IOException {
+        if (isClosed) throw new IOException("stream is closed");
+    }
+
+    /**
+     * the file size is checked before the data is buffered as writeToADataFile truncates the data at the end of the file
+     */
+    private void checkFileSize(int dataLength) throws IOException {
+        if (position + bufferPosition + dataLength > fileSize) {
+            throw new IOException("the data exceeds the file size of " + fileSize);
+        }
+    }
+}
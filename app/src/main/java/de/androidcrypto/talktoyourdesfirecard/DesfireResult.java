@@ -0,0 +1,79 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+/**
+ * This class is the typed result of a command that runs in DesfireEv3Async. It carries the result
+ * value on success or the DESFire status (errorCode and errorCodeReason as set by DesfireEv3) on
+ * failure, so the caller does not need to call getErrorCode() on the (possibly busy) DesfireEv3 instance.
+ * A command that did not run (tag lost or closed before the command was executed) is 'cancelled'.
+ *
+ * @param <T> | type of the result value, e.g. Boolean, byte[] or Integer
+ */
+
+public class DesfireResult<T> {
+
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF}; // general, undefined failure
+
+    private final boolean success;
+    private final boolean cancelled;
+    private final T value;
+    private final byte[] errorCode;
+    private final String errorCodeReason;
+
+    private DesfireResult(boolean success, boolean cancelled, T value, byte[] errorCode, String errorCodeReason) {
+        this.success = success;
+        this.cancelled = cancelled;
+        this.value = value;
+        this.errorCode = (errorCode == null) ? RESPONSE_FAILURE.clone() : errorCode.clone();
+        this.errorCodeReason = (errorCodeReason == null) ? "" : errorCodeReason;
+    }
+
+    public static <T> DesfireResult<T> success(T value, byte[] errorCode, String errorCodeReason) {
+        return new DesfireResult<>(true, false, value, errorCode, errorCodeReason);
+    }
+
+    public static <T> DesfireResult<T> failure(byte[] errorCode, String errorCodeReason) {
+        return new DesfireResult<>(false, false, null, errorCode, errorCodeReason);
+    }
+
+    public static <T> DesfireResult<T> cancelled(String reason) {
+        return new DesfireResult<>(false, true, null, RESPONSE_FAILURE, reason);
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the result value or NULL on failure
+     */
+    public T getValue() {
+        return value;
+    }
+
+    public byte[] getErrorCode() {
+        return errorCode.clone();
+    }
+
+    /**
+     * @return the status word (SW1 SW2) as int, e.g. 0x9100 on success or 0x91AE on an authentication error
+     */
+    public int getStatusWord() {
+        return ((errorCode[0] & 0xff) << 8) | (errorCode[1] & 0xff);
+    }
+
+    public String getErrorCodeReason() {
+        return errorCodeReason;
+    }
+
+    @Override
+    public String toString() {
+        if (cancelled) return "cancelled: " + errorCodeReason;
+        String valueString = (value instanceof byte[]) ? Utils.bytesToHexNpeUpperCase((byte[]) value) : String.valueOf(value);
+        return (success ? "success: " + valueString : "failure: " + errorCodeReason)
+                + " errorCode: " + Utils.bytesToHexNpeUpperCase(errorCode);
+    }
+}
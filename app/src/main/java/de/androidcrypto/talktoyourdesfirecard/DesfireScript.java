@@ -0,0 +1,896 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class runs an ordered list of DESFire operations (a script) on a DesfireEv3 session in one tap,
+ * e.g. the personalization of a card:
+ * <p>
+ * DesfireScript script = new DesfireScript()
+ * .formatPicc()
+ * .createApplicationAes(Constants.APPLICATION_IDENTIFIER_AES, Constants.APPLICATION_NUMBER_OF_KEYS_DEFAULT)
+ * .selectApplication(Constants.APPLICATION_IDENTIFIER_AES)
+ * .createAStandardFile(Constants.STANDARD_FILE_FULL_NUMBER, DesfireEv3.CommunicationSettings.Full, Constants.FILE_ACCESS_RIGHTS_DEFAULT, 256)
+ * .authenticateAesEv2First(Constants.APPLICATION_KEY_RW_NUMBER, Constants.APPLICATION_KEY_RW_AES_DEFAULT)
+ * .writeToADataFile(Constants.STANDARD_FILE_FULL_NUMBER, 0, data);
+ * DesfireScript.Report report = script.execute(desfireEv3);
+ * <p>
+ * The script is validated before any command is sent (parameters, file operation without a selected
+ * application, file created twice), an invalid script is not executed. A file operation needs an
+ * authentication before unless the file was created (or changed) in the script with free access (0x0E) for
+ * the operation, the access rights of other files are not known before the execution.
+ * <p>
+ * The engine tracks the selected application and the authentication:
+ * - a selectApplication or authenticate step is skipped when the application is already selected or the
+ * session is already authenticated with the same key
+ * - after creating or deleting files the application is selected again before the next authentication or
+ * file access (the DesfireEv3 class reads the file settings on selection), the last authentication is repeated
+ * - deleteFile does not run in authenticated state, the application is selected again before it
+ * - changing the key used for the authentication ends the authentication, the next file access needs a new
+ * authenticate step
+ * The execution stops at the first failure, the report contains a result for each executed step.
+ * <p>
+ * Note: a custom step may change the selection or authentication, so the application that was selected
+ * before the custom step is selected again (with the last authentication) before the next step.
+ */
+
+public class DesfireScript {
+
+    public interface CustomOperation {
+        /**
+         * @return true on success
+         */
+        boolean run(DesfireEv3 desfireEv3) throws Exception;
+    }
+
+    private enum StepType {
+        FORMAT_PICC, CREATE_APPLICATION, DELETE_APPLICATION, SELECT_APPLICATION, AUTHENTICATE, CREATE_FILE, DELETE_FILE, FILE_ACCESS, CHANGE_KEY, CUSTOM
+    }
+
+    // the access right a file access step needs
+    private enum FileAccess {
+        READ, WRITE, READ_WRITE, CHANGE_ACCESS_RIGHTS
+    }
+
+    private static final byte[] MASTER_APPLICATION_IDENTIFIER = new byte[3];
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF};
+    private static final int MAXIMUM_FILE_NUMBER = 31;
+    private static final int MAXIMUM_KEY_NUMBER = 13;
+    private static final int ACCESS_FREE = 14;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * section for building the script
+     */
+
+    public DesfireScript formatPicc() {
+        return add(new Step(StepType.FORMAT_PICC, "formatPicc") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.formatPicc();
+            }
+        });
+    }
+
+    public DesfireScript createApplicationAes(final byte[] applicationIdentifier, final int numberOfApplicationKeys) {
+        Step step = new Step(StepType.CREATE_APPLICATION, "createApplicationAes") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createApplicationAes(applicationIdentifier, numberOfApplicationKeys);
+            }
+        };
+        step.applicationIdentifier = applicationIdentifier;
+        if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14))
+            step.parameterError = "numberOfApplicationKeys is not in range 1..14";
+        return add(step);
+    }
+
+    public DesfireScript createApplicationAesIso(final byte[] applicationIdentifier, final byte[] isoApplicationIdentifier, final byte[] applicationDfName, final int numberOfApplicationKeys) {
+        Step step = new Step(StepType.CREATE_APPLICATION, "createApplicationAesIso") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createApplicationAesIso(applicationIdentifier, isoApplicationIdentifier, applicationDfName, numberOfApplicationKeys);
+            }
+        };
+        step.applicationIdentifier = applicationIdentifier;
+        if ((numberOfApplicationKeys < 1) || (numberOfApplicationKeys > 14))
+            step.parameterError = "numberOfApplicationKeys is not in range 1..14";
+        if ((isoApplicationIdentifier == null) || (isoApplicationIdentifier.length != 2))
+            step.parameterError = "isoApplicationIdentifier is not of length 2";
+        if ((applicationDfName == null) || (applicationDfName.length < 1) || (applicationDfName.length > 16))
+            step.parameterError = "applicationDfName is not of length 1..16";
+        return add(step);
+    }
+
+    /**
+     * deletes the selected application, the session needs to be authenticated with the application master
+     * key. Afterwards the Master Application is selected and the authentication has ended.
+     */
+    public DesfireScript deleteApplication() {
+        return add(new Step(StepType.DELETE_APPLICATION, "deleteSelectedApplication") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.deleteSelectedApplication();
+            }
+        });
+    }
+
+    public DesfireScript selectApplication(byte[] applicationIdentifier) {
+        Step step = new Step(StepType.SELECT_APPLICATION, "selectApplicationByAid") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.selectApplicationByAid(applicationIdentifier);
+            }
+        };
+        step.applicationIdentifier = applicationIdentifier;
+        return add(step);
+    }
+
+    public DesfireScript authenticateAesEv2First(byte keyNumber, byte[] key) {
+        Step step = new Step(StepType.AUTHENTICATE, "authenticateAesEv2First") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.authenticateAesEv2First(keyNumber, key);
+            }
+        };
+        step.keyNumber = keyNumber;
+        step.key = key;
+        if ((keyNumber < 0) || (keyNumber > MAXIMUM_KEY_NUMBER)) step.parameterError = "keyNumber is not in range 0..13";
+        if ((key == null) || (key.length != 16)) step.parameterError = "key is not of length 16";
+        return add(step);
+    }
+
+    public DesfireScript createAStandardFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int fileSize) {
+        Step step = new Step(StepType.CREATE_FILE, "createAStandardFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createAStandardFile(fileNumber, communicationSettings, accessRights, fileSize, false);
+            }
+        };
+        return add(fileStep(step, fileNumber, communicationSettings, accessRights, fileSize));
+    }
+
+    public DesfireScript createAStandardFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int fileSize, final boolean preEnableSdm) {
+        Step step = new Step(StepType.CREATE_FILE, "createAStandardFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createAStandardFile(fileNumber, communicationSettings, accessRights, fileSize, preEnableSdm);
+            }
+        };
+        return add(fileStep(step, fileNumber, communicationSettings, accessRights, fileSize));
+    }
+
+    public DesfireScript createAStandardFileIso(final byte fileNumber, final byte[] isoFileId, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int fileSize, final boolean preEnableSdm) {
+        Step step = new Step(StepType.CREATE_FILE, "createAStandardFileIso") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createAStandardFileIso(fileNumber, isoFileId, communicationSettings, accessRights, fileSize, preEnableSdm);
+            }
+        };
+        fileStep(step, fileNumber, communicationSettings, accessRights, fileSize);
+        if ((isoFileId == null) || (isoFileId.length != 2)) step.parameterError = "isoFileId is not of length 2";
+        return add(step);
+    }
+
+    public DesfireScript createABackupFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int fileSize) {
+        Step step = new Step(StepType.CREATE_FILE, "createABackupFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createABackupFile(fileNumber, communicationSettings, accessRights, fileSize);
+            }
+        };
+        return add(fileStep(step, fileNumber, communicationSettings, accessRights, fileSize));
+    }
+
+    public DesfireScript createAValueFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int minimumValue, final int maximumValue, final int initialValue, final boolean limitedCreditOperation) {
+        Step step = new Step(StepType.CREATE_FILE, "createAValueFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createAValueFile(fileNumber, communicationSettings, accessRights, minimumValue, maximumValue, initialValue, limitedCreditOperation);
+            }
+        };
+        fileStep(step, fileNumber, communicationSettings, accessRights, 1);
+        step.isValueFile = true;
+        if ((minimumValue > initialValue) || (initialValue > maximumValue))
+            step.parameterError = "initialValue is not in range minimumValue..maximumValue";
+        return add(step);
+    }
+
+    public DesfireScript createALinearRecordFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int recordSize, final int maximumNumberOfRecords) {
+        Step step = new Step(StepType.CREATE_FILE, "createALinearRecordFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createALinearRecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+            }
+        };
+        fileStep(step, fileNumber, communicationSettings, accessRights, recordSize);
+        if (maximumNumberOfRecords < 1) step.parameterError = "maximumNumberOfRecords is < 1";
+        return add(step);
+    }
+
+    public DesfireScript createACyclicRecordFile(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int recordSize, final int maximumNumberOfRecords) {
+        Step step = new Step(StepType.CREATE_FILE, "createACyclicRecordFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createACyclicRecordFile(fileNumber, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+            }
+        };
+        fileStep(step, fileNumber, communicationSettings, accessRights, recordSize);
+        // a cyclic record file needs one additional record for the rotation
+        if (maximumNumberOfRecords < 2) step.parameterError = "maximumNumberOfRecords is < 2";
+        return add(step);
+    }
+
+    public DesfireScript createACyclicRecordFileIso(final byte fileNumber, final byte[] isoFileId, final DesfireEv3.CommunicationSettings communicationSettings, final byte[] accessRights, final int recordSize, final int maximumNumberOfRecords) {
+        Step step = new Step(StepType.CREATE_FILE, "createACyclicRecordFileIso") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createACyclicRecordFileIso(fileNumber, isoFileId, communicationSettings, accessRights, recordSize, maximumNumberOfRecords);
+            }
+        };
+        fileStep(step, fileNumber, communicationSettings, accessRights, recordSize);
+        if (maximumNumberOfRecords < 2) step.parameterError = "maximumNumberOfRecords is < 2";
+        if ((isoFileId == null) || (isoFileId.length != 2)) step.parameterError = "isoFileId is not of length 2";
+        return add(step);
+    }
+
+    public DesfireScript deleteFile(final byte fileNumber) {
+        Step step = new Step(StepType.DELETE_FILE, "deleteFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.deleteFile(fileNumber);
+            }
+        };
+        step.fileNumber = fileNumber;
+        return add(checkFileNumber(step));
+    }
+
+    public DesfireScript writeToADataFile(final byte fileNumber, final int offset, final byte[] data) {
+        Step step = new Step(StepType.FILE_ACCESS, "writeToADataFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.writeToADataFile(fileNumber, offset, data);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = FileAccess.WRITE;
+        if ((data == null) || (data.length == 0)) step.parameterError = "data is NULL or empty";
+        if (offset < 0) step.parameterError = "offset is < 0";
+        return add(checkFileNumber(step));
+    }
+
+    /**
+     * the data read is available in the step result
+     */
+    public DesfireScript readFromADataFile(final byte fileNumber, final int offset, final int length) {
+        Step step = new Step(StepType.FILE_ACCESS, "readFromADataFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.readFromADataFile(fileNumber, offset, length);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = FileAccess.READ;
+        if ((offset < 0) || (length < 0)) step.parameterError = "offset or length is < 0";
+        return add(checkFileNumber(step));
+    }
+
+    public DesfireScript changeAValueFile(final byte fileNumber, final int changeValue, final boolean isCredit) {
+        Step step = new Step(StepType.FILE_ACCESS, isCredit ? "credit" : "debit") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.changeAValueFile(fileNumber, changeValue, isCredit);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = isCredit ? FileAccess.READ_WRITE : FileAccess.READ;
+        if (changeValue < 1) step.parameterError = "changeValue is < 1";
+        return add(checkFileNumber(step));
+    }
+
+    public DesfireScript writeToARecordFile(final byte fileNumber, final int offset, final byte[] data) {
+        Step step = new Step(StepType.FILE_ACCESS, "writeToARecordFile") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.writeToARecordFile(fileNumber, offset, data);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = FileAccess.WRITE;
+        if ((data == null) || (data.length == 0)) step.parameterError = "data is NULL or empty";
+        return add(checkFileNumber(step));
+    }
+
+    public DesfireScript commitTransaction() {
+        return add(new Step(StepType.FILE_ACCESS, "commitTransactionFull") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.commitTransactionFull(false);
+            }
+        });
+    }
+
+    public DesfireScript changeFileSettings(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final int keyRW, final int keyCar, final int keyR, final int keyW) {
+        Step step = new Step(StepType.FILE_ACCESS, "changeFileSettings") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.changeFileSettings(fileNumber, communicationSettings, keyRW, keyCar, keyR, keyW);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = FileAccess.CHANGE_ACCESS_RIGHTS;
+        step.accessRights = getAccessRights(keyRW, keyCar, keyR, keyW);
+        if (communicationSettings == null) step.parameterError = "communicationSettings is NULL";
+        return add(checkFileNumber(step));
+    }
+
+    /**
+     * enables the Secure Dynamic Messaging (SUN) on a file, see DesfireEv3.changeFileSettingsNtag424Dna
+     * for the supported SDM options
+     */
+    public DesfireScript changeFileSettingsSdm(final byte fileNumber, final DesfireEv3.CommunicationSettings communicationSettings, final int keyRW, final int keyCar, final int keyR, final int keyW, final int encPiccDataOffset, final int sdmMacOffset, final int sdmMacInputOffset) {
+        Step step = new Step(StepType.FILE_ACCESS, "changeFileSettingsNtag424Dna") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.changeFileSettingsNtag424Dna(fileNumber, communicationSettings, keyRW, keyCar, keyR, keyW, true, encPiccDataOffset, sdmMacOffset, sdmMacInputOffset);
+            }
+        };
+        step.fileNumber = fileNumber;
+        step.access = FileAccess.CHANGE_ACCESS_RIGHTS;
+        step.accessRights = getAccessRights(keyRW, keyCar, keyR, keyW);
+        if (communicationSettings == null) step.parameterError = "communicationSettings is NULL";
+        if ((encPiccDataOffset < 0) || (sdmMacOffset < 0) || (sdmMacInputOffset < 0)) step.parameterError = "an offset is < 0";
+        if (sdmMacInputOffset > sdmMacOffset) step.parameterError = "sdmMacInputOffset is > sdmMacOffset";
+        return add(checkFileNumber(step));
+    }
+
+    /**
+     * changes an application key, the session needs to be authenticated with the application master key or
+     * the key to change. Changing the key used for the authentication ends the authenticated state.
+     */
+    public DesfireScript changeApplicationKey(final byte keyNumber, final byte keyVersion, final byte[] keyNew, final byte[] keyOld) {
+        Step step = new Step(StepType.CHANGE_KEY, "changeApplicationKeyFull") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.changeApplicationKeyFull(keyNumber, keyVersion, keyNew, keyOld);
+            }
+        };
+        step.keyNumber = keyNumber;
+        step.key = keyNew;
+        if ((keyNumber < 0) || (keyNumber > MAXIMUM_KEY_NUMBER)) step.parameterError = "keyNumber is not in range 0..13";
+        if ((keyNew == null) || (keyNew.length != 16) || (keyOld == null) || (keyOld.length != 16))
+            step.parameterError = "keyNew or keyOld is not of length 16";
+        return add(step);
+    }
+
+    /**
+     * any other operation, e.g. changeFileSettings or writeToStandardFileUrlPlain
+     *
+     * @param name      | name of the step in the report
+     * @param operation | the operation
+     */
+    public DesfireScript custom(String name, final CustomOperation operation) {
+        Step step = new Step(StepType.CUSTOM, name) {
+            @Override
+            Object run(DesfireEv3 desfireEv3) throws Exception {
+                return operation.run(desfireEv3);
+            }
+        };
+        if (operation == null) step.parameterError = "operation is NULL";
+        return add(step);
+    }
+
+    public int getNumberOfSteps() {
+        return steps.size();
+    }
+
+    private DesfireScript add(Step step) {
+        if ((step.applicationIdentifier != null) && (step.applicationIdentifier.length != 3)) {
+            step.parameterError = "applicationIdentifier is not of length 3";
+        }
+        if ((step.type == StepType.CREATE_APPLICATION || step.type == StepType.SELECT_APPLICATION) && (step.applicationIdentifier == null)) {
+            step.parameterError = "applicationIdentifier is NULL";
+        }
+        steps.add(step);
+        return this;
+    }
+
+    private static Step fileStep(Step step, byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, byte[] accessRights, int size) {
+        step.fileNumber = fileNumber;
+        step.accessRights = accessRights;
+        if (communicationSettings == null) step.parameterError = "communicationSettings is NULL";
+        if ((accessRights == null) || (accessRights.length != 2)) step.parameterError = "accessRights is not of length 2";
+        if (size < 1) step.parameterError = "size is < 1";
+        return checkFileNumber(step);
+    }
+
+    /**
+     * @return the access rights bytes RW || CAR, R || W
+     */
+    private static byte[] getAccessRights(int keyRW, int keyCar, int keyR, int keyW) {
+        return new byte[]{(byte) (((keyRW & 0x0F) << 4) | (keyCar & 0x0F)), (byte) (((keyR & 0x0F) << 4) | (keyW & 0x0F))};
+    }
+
+    private static Step checkFileNumber(Step step) {
+        if ((step.fileNumber < 0) || (step.fileNumber > MAXIMUM_FILE_NUMBER)) {
+            step.parameterError = "fileNumber is not in range 0..31";
+        }
+        return step;
+    }
+
+    /**
+     * section for validation
+     */
+
+    /**
+     * validates the script without sending any command
+     *
+     * @return a list of errors, an empty list if the script is valid
+     */
+    public List<String> validate() {
+        List<String> errors = new ArrayList<>();
+        byte[] selectedApplicationIdentifier = null;
+        boolean isAuthenticated = false;
+        int authenticatedKeyNumber = -1;
+        Set<Integer> createdFileNumbers = new HashSet<>();
+        // the access rights of the files created in the script, the value files are noted separately
+        Map<Integer, byte[]> createdFileAccessRights = new HashMap<>();
+        Set<Integer> createdValueFileNumbers = new HashSet<>();
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            String prefix = "step " + i + " (" + step.name + "): ";
+            if (step.parameterError != null) errors.add(prefix + step.parameterError);
+            switch (step.type) {
+                case FORMAT_PICC:
+                    selectedApplicationIdentifier = MASTER_APPLICATION_IDENTIFIER;
+                    isAuthenticated = false;
+                    createdFileNumbers.clear();
+                    createdFileAccessRights.clear();
+                    createdValueFileNumbers.clear();
+                    break;
+                case SELECT_APPLICATION:
+                    if (!Arrays.equals(selectedApplicationIdentifier, step.applicationIdentifier)) {
+                        createdFileNumbers.clear();
+                        createdFileAccessRights.clear();
+                        createdValueFileNumbers.clear();
+                    }
+                    selectedApplicationIdentifier = step.applicationIdentifier;
+                    isAuthenticated = false;
+                    break;
+                case AUTHENTICATE:
+                    isAuthenticated = true;
+                    authenticatedKeyNumber = step.keyNumber;
+                    break;
+                case DELETE_APPLICATION:
+                    if (!isApplicationSelected(selectedApplicationIdentifier)) {
+                        errors.add(prefix + "no application selected before");
+                    } else if (!isAuthenticated) {
+                        errors.add(prefix + "no authentication before");
+                    }
+                    selectedApplicationIdentifier = MASTER_APPLICATION_IDENTIFIER;
+                    isAuthenticated = false;
+                    createdFileNumbers.clear();
+                    createdFileAccessRights.clear();
+                    createdValueFileNumbers.clear();
+                    break;
+                case CREATE_FILE:
+                    if (!isApplicationSelected(selectedApplicationIdentifier)) {
+                        errors.add(prefix + "no application selected before");
+                    } else if (!createdFileNumbers.add((int) step.fileNumber)) {
+                        errors.add(prefix + "fileNumber " + step.fileNumber + " is created twice");
+                    } else {
+                        createdFileAccessRights.put((int) step.fileNumber, step.accessRights);
+                        if (step.isValueFile) createdValueFileNumbers.add((int) step.fileNumber);
+                    }
+                    break;
+                case DELETE_FILE:
+                    if (!isApplicationSelected(selectedApplicationIdentifier)) errors.add(prefix + "no application selected before");
+                    createdFileNumbers.remove((int) step.fileNumber);
+                    createdFileAccessRights.remove((int) step.fileNumber);
+                    createdValueFileNumbers.remove((int) step.fileNumber);
+                    break;
+                case FILE_ACCESS:
+                    if (!isApplicationSelected(selectedApplicationIdentifier)) {
+                        errors.add(prefix + "no application selected before");
+                        break;
+                    }
+                    byte[] accessRights = createdFileAccessRights.get((int) step.fileNumber);
+                    boolean isCreatedFile = createdFileNumbers.contains((int) step.fileNumber);
+                    if ((!isAuthenticated) && (isCreatedFile || (step.access == null))
+                            && (!isFreeAccess(accessRights, createdValueFileNumbers.contains((int) step.fileNumber), step.access))) {
+                        errors.add(prefix + "no authentication before");
+                    }
+                    if ((step.access == FileAccess.CHANGE_ACCESS_RIGHTS) && (isCreatedFile)) {
+                        createdFileAccessRights.put((int) step.fileNumber, step.accessRights);
+                    }
+                    break;
+                case CHANGE_KEY:
+                    if (!isApplicationSelected(selectedApplicationIdentifier)) {
+                        errors.add(prefix + "no application selected before");
+                    } else if (!isAuthenticated) {
+                        errors.add(prefix + "no authentication before");
+                    } else if (step.keyNumber == authenticatedKeyNumber) {
+                        isAuthenticated = false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @param accessRights | RW || CAR, R || W as used on file creation, NULL when unknown
+     * @param isValueFile  | on a Value file the write key has read access as well
+     * @param access       | the access of the step, NULL for a step without file (e.g. commitTransaction)
+     * @return true when the access rights grant the access without authentication
+     */
+    private static boolean isFreeAccess(byte[] accessRights, boolean isValueFile, FileAccess access) {
+        if ((accessRights == null) || (accessRights.length != 2) || (access == null)) return false;
+        int rw = (accessRights[0] >> 4) & 0x0F;
+        int car = accessRights[0] & 0x0F;
+        int r = (accessRights[1] >> 4) & 0x0F;
+        int w = accessRights[1] & 0x0F;
+        switch (access) {
+            case READ:
+                return (r == ACCESS_FREE) || (rw == ACCESS_FREE) || ((isValueFile) && (w == ACCESS_FREE));
+            case WRITE:
+                return (w == ACCESS_FREE) || (rw == ACCESS_FREE);
+            case READ_WRITE:
+                return rw == ACCESS_FREE;
+            case CHANGE_ACCESS_RIGHTS:
+                return car == ACCESS_FREE;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isApplicationSelected(byte[] applicationIdentifier) {
+        return (applicationIdentifier != null) && (!Arrays.equals(applicationIdentifier, MASTER_APPLICATION_IDENTIFIER));
+    }
+
+    /**
+     * section for execution
+     */
+
+    /**
+     * validates and runs the script, the execution stops at the first failure
+     *
+     * @param desfireEv3 | the session of the tapped card
+     * @return the report with a result for each executed step
+     */
+    public Report execute(DesfireEv3 desfireEv3) {
+        Report report = new Report();
+        report.validationErrors.addAll(validate());
+        if (!report.validationErrors.isEmpty()) return report;
+        long startNanos = System.nanoTime();
+        ExecutionState state = new ExecutionState();
+        for (int i = 0; i < steps.size(); i++) {
+            if (!executeStep(desfireEv3, steps.get(i), i, state, report)) break;
+        }
+        report.totalNanos = System.nanoTime() - startNanos;
+        return report;
+    }
+
+    private static class ExecutionState {
+        byte[] selectedApplicationIdentifier;
+        boolean isFileLayoutChanged = false;
+        boolean isSelectionUnknown = false; // after a custom step
+        int authenticatedKeyNumber = -1;
+        byte[] authenticatedKey;
+        Step lastAuthentication; // repeated after an implicit selection
+    }
+
+    private boolean executeStep(DesfireEv3 desfireEv3, Step step, int index, ExecutionState state, Report report) {
+        if ((state.isSelectionUnknown) && (state.selectedApplicationIdentifier != null) && (step.type != StepType.FORMAT_PICC)
+                && (step.type != StepType.SELECT_APPLICATION) && (step.type != StepType.CUSTOM)) {
+            // restore the selection and authentication from before the custom step
+            boolean withAuthentication = (step.type == StepType.FILE_ACCESS) || (step.type == StepType.CHANGE_KEY);
+            if (!selectAgain(desfireEv3, index, state, report, withAuthentication)) return false;
+        }
+        switch (step.type) {
+            case SELECT_APPLICATION:
+                if ((Arrays.equals(state.selectedApplicationIdentifier, step.applicationIdentifier)) && (!state.isFileLayoutChanged)
+                        && (!state.isSelectionUnknown)) {
+                    report.add(StepResult.skipped(index, step.name, "application is already selected"));
+                    return true;
+                }
+                state.lastAuthentication = null;
+                return select(desfireEv3, step, index, false, state, report);
+            case AUTHENTICATE:
+                if ((state.authenticatedKeyNumber == step.keyNumber) && (Arrays.equals(state.authenticatedKey, step.key))) {
+                    report.add(StepResult.skipped(index, step.name, "already authenticated with this key"));
+                    return true;
+                }
+                state.lastAuthentication = step;
+                // select first when files were created, so the authentication is not lost on the next file access
+                if ((state.isFileLayoutChanged) && (!selectAgain(desfireEv3, index, state, report, false))) return false;
+                return authenticate(desfireEv3, step, index, false, state, report);
+            case DELETE_FILE:
+                if ((state.authenticatedKeyNumber >= 0) && (!selectAgain(desfireEv3, index, state, report, false))) return false;
+                break;
+            case FILE_ACCESS:
+            case CHANGE_KEY:
+                if ((state.isFileLayoutChanged) && (!selectAgain(desfireEv3, index, state, report, true))) return false;
+                if ((state.authenticatedKeyNumber < 0) && (state.lastAuthentication != null)
+                        && (!authenticate(desfireEv3, state.lastAuthentication, index, true, state, report))) return false;
+                break;
+            default:
+                break;
+        }
+        boolean success = run(desfireEv3, step, index, false, report);
+        if (!success) return false;
+        switch (step.type) {
+            case FORMAT_PICC:
+            case DELETE_APPLICATION:
+                state.selectedApplicationIdentifier = MASTER_APPLICATION_IDENTIFIER;
+                state.isFileLayoutChanged = false;
+                state.isSelectionUnknown = false;
+                state.authenticatedKeyNumber = -1;
+                state.lastAuthentication = null;
+                break;
+            case CREATE_FILE:
+            case DELETE_FILE:
+                state.isFileLayoutChanged = true;
+                break;
+            case CHANGE_KEY:
+                if (step.keyNumber == state.authenticatedKeyNumber) {
+                    // the authentication ends and the old key of the last authentication is no longer valid
+                    state.authenticatedKeyNumber = -1;
+                    state.authenticatedKey = null;
+                    state.lastAuthentication = null;
+                }
+                break;
+            case CUSTOM:
+                state.isSelectionUnknown = true;
+                state.authenticatedKeyNumber = -1;
+                state.authenticatedKey = null;
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private boolean selectAgain(DesfireEv3 desfireEv3, int index, ExecutionState state, Report report, boolean withAuthentication) {
+        Step select = new Step(StepType.SELECT_APPLICATION, "selectApplicationByAid") {
+            @Override
+            Object run(DesfireEv3 desfireEv3) {
+                return desfireEv3.selectApplicationByAid(applicationIdentifier);
+            }
+        };
+        select.applicationIdentifier = state.selectedApplicationIdentifier;
+        if (!select(desfireEv3, select, index, true, state, report)) return false;
+        if ((withAuthentication) && (state.lastAuthentication != null)) {
+            return authenticate(desfireEv3, state.lastAuthentication, index, true, state, report);
+        }
+        return true;
+    }
+
+    private boolean select(DesfireEv3 desfireEv3, Step step, int index, boolean isImplicit, ExecutionState state, Report report) {
+        state.authenticatedKeyNumber = -1;
+        state.authenticatedKey = null;
+        if (!run(desfireEv3, step, index, isImplicit, report)) return false;
+        state.selectedApplicationIdentifier = step.applicationIdentifier;
+        state.isFileLayoutChanged = false;
+        state.isSelectionUnknown = false;
+        return true;
+    }
+
+    private boolean authenticate(DesfireEv3 desfireEv3, Step step, int index, boolean isImplicit, ExecutionState state, Report report) {
+        if (!run(desfireEv3, step, index, isImplicit, report)) return false;
+        state.authenticatedKeyNumber = step.keyNumber;
+        state.authenticatedKey = step.key;
+        return true;
+    }
+
+    private boolean run(DesfireEv3 desfireEv3, Step step, int index, boolean isImplicit, Report report) {
+        long startNanos = System.nanoTime();
+        Object value;
+        String exceptionMessage = null;
+        try {
+            value = step.run(desfireEv3);
+        } catch (Exception e) {
+            value = null;
+            exceptionMessage = "Exception: " + e.getMessage();
+        }
+        long nanos = System.nanoTime() - startNanos;
+        boolean success = (value != null) && (!Boolean.FALSE.equals(value));
+        byte[] errorCode = (exceptionMessage == null) ? desfireEv3.getErrorCode() : RESPONSE_FAILURE;
+        String errorCodeReason = (exceptionMessage == null) ? desfireEv3.getErrorCodeReason() : exceptionMessage;
+        report.add(new StepResult(index, step.name, success, false, isImplicit, (value instanceof Boolean) ? null : value,
+                errorCode, errorCodeReason, nanos));
+        return success;
+    }
+
+    private abstract static class Step {
+        final StepType type;
+        final String name;
+        byte[] applicationIdentifier;
+        byte fileNumber;
+        byte keyNumber;
+        byte[] key;
+        byte[] accessRights; // of a created file or the new access rights of changeFileSettings
+        boolean isValueFile;
+        FileAccess access; // of a file access step, NULL when the step has no file
+        String parameterError;
+
+        Step(StepType type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        /**
+         * @return a Boolean or the read data, NULL or false on failure
+         */
+        abstract Object run(DesfireEv3 desfireEv3) throws Exception;
+    }
+
+    /**
+     * section for the report
+     */
+
+    public static class StepResult {
+        private final int stepIndex;
+        private final String name;
+        private final boolean success;
+        private final boolean skipped;
+        private final boolean implicit;
+        private final Object value;
+        private final byte[] errorCode;
+        private final String errorCodeReason;
+        private final long nanos;
+
+        private StepResult(int stepIndex, String name, boolean success, boolean skipped, boolean implicit, Object value, byte[] errorCode, String errorCodeReason, long nanos) {
+            this.stepIndex = stepIndex;
+            this.name = name;
+            this.success = success;
+            this.skipped = skipped;
+            this.implicit = implicit;
+            this.value = value;
+            this.errorCode = (errorCode == null) ? null : errorCode.clone();
+            this.errorCodeReason = errorCodeReason;
+            this.nanos = nanos;
+        }
+
+        private static StepResult skipped(int stepIndex, String name, String reason) {
+            return new StepResult(stepIndex, name, true, true, false, null, null, reason, 0);
+        }
+
+        /**
+         * @return the index of the step in the script, an implicit step has the index of the step it runs for
+         */
+        public int getStepIndex() {
+            return stepIndex;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return true if the step was not executed because it was not necessary
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return true if the step was added by the engine (a selection or authentication again)
+         */
+        public boolean isImplicit() {
+            return implicit;
+        }
+
+        /**
+         * @return the data of a read step, otherwise NULL
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        public byte[] getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorCodeReason() {
+            return errorCodeReason;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            String status = skipped ? "SKIPPED" : (success ? "SUCCESS" : "FAILURE");
+            StringBuilder sb = new StringBuilder();
+            sb.append("step ").append(stepIndex).append(implicit ? " (implicit) " : " ").append(name).append(": ").append(status);
+            if (!skipped) {
+                sb.append(" errorCode: ").append(Utils.bytesToHexNpeUpperCase(errorCode));
+                sb.append(String.format(" %.3f ms", nanos / 1000000.0));
+            }
+            if ((!success) || (skipped)) sb.append(" (").append(errorCodeReason).append(")");
+            if (value instanceof byte[]) sb.append(Utils.printData(" data", (byte[]) value));
+            return sb.toString();
+        }
+    }
+
+    public static class Report {
+        private final List<String> validationErrors = new ArrayList<>();
+        private final List<StepResult> stepResults = new ArrayList<>();
+        private long totalNanos = 0;
+
+        private void add(StepResult stepResult) {
+            stepResults.add(stepResult);
+        }
+
+        /**
+         * builds the report of a script that was not executed, e.g. a profile that could not be compiled
+         */
+        static Report invalid(List<String> errors) {
+            Report report = new Report();
+            report.validationErrors.addAll(errors);
+            return report;
+        }
+
+        /**
+         * @return true when the script was valid and all steps succeeded
+         */
+        public boolean isSuccess() {
+            if (!validationErrors.isEmpty()) return false;
+            for (StepResult stepResult : stepResults) {
+                if (!stepResult.isSuccess()) return false;
+            }
+            return true;
+        }
+
+        public List<String> getValidationErrors() {
+            return validationErrors;
+        }
+
+        public List<StepResult> getStepResults() {
+            return stepResults;
+        }
+
+        /**
+         * @return the result of the failed step or NULL if no step failed
+         */
+        public StepResult getFailedStep() {
+            for (StepResult stepResult : stepResults) {
+                if (!stepResult.isSuccess()) return stepResult;
+            }
+            return null;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (String validationError : validationErrors) {
+                sb.append("validation error: ").append(validationError).append("\n");
+            }
+            for (StepResult stepResult : stepResults) {
+                sb.append(stepResult).append("\n");
+            }
+            sb.append(isSuccess() ? "SUCCESS" : "FAILURE");
+            sb.append(String.format(" in %.3f ms", totalNanos / 1000000.0));
+            return sb.toString();
+        }
+    }
+}
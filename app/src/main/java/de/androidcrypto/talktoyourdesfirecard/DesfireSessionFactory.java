@@ -0,0 +1,83 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class builds DesfireEv3 sessions with a shared configuration, e.g. for an encoding station with
+ * several readers where each reader runs in its own thread.
+ * <p>
+ * Each session (DesfireEv3 instance) owns its complete state (selected application, file settings,
+ * authentication state with session keys, Transaction Identifier and CmdCounter), nothing is shared between
+ * the sessions except the thread safe FileSettingsCache. A session is not thread safe and should be used by
+ * one thread only (e.g. the thread that runs onTagDiscovered or the worker thread of the reader), so the
+ * sessions scale with the number of readers without any locking.
+ * <p>
+ * The factory is thread safe, openSession can get called from all reader threads.
+ */
+
+public class DesfireSessionFactory {
+
+    private final FileSettingsCache fileSettingsCache; // may be null
+    private volatile DesfireTrace.Level traceLevel = DesfireTrace.Level.DEBUG;
+    private volatile boolean metricsEnabled = false;
+    private final AtomicLong numberOfOpenedSessions = new AtomicLong();
+
+    public DesfireSessionFactory() {
+        this(null);
+    }
+
+    /**
+     * @param fileSettingsCache | the cache that is shared by all sessions, NULL disables the cache
+     */
+    public DesfireSessionFactory(FileSettingsCache fileSettingsCache) {
+        this.fileSettingsCache = fileSettingsCache;
+    }
+
+    public void setTraceLevel(DesfireTrace.Level traceLevel) {
+        this.traceLevel = traceLevel;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public FileSettingsCache getFileSettingsCache() {
+        return fileSettingsCache;
+    }
+
+    public long getNumberOfOpenedSessions() {
+        return numberOfOpenedSessions.get();
+    }
+
+    /**
+     * opens a session for a discovered tag
+     *
+     * @param isoDep | the connected IsoDep of the tag
+     * @return the session
+     */
+    public DesfireEv3 openSession(IsoDep isoDep) {
+        Tag tag = isoDep.getTag();
+        return openSession(new IsoDepTransport(isoDep), (tag == null) ? null : tag.getId());
+    }
+
+    /**
+     * opens a session on any CardTransport
+     *
+     * @param cardTransport | the transport of the card (e.g. a reader or the DesfireEv3Simulator)
+     * @param cardUid       | the UID of the card for the FileSettingsCache, NULL disables the cache for this session
+     * @return the session
+     */
+    public DesfireEv3 openSession(CardTransport cardTransport, byte[] cardUid) {
+        DesfireEv3 desfireEv3 = new DesfireEv3(cardTransport);
+        desfireEv3.getTrace().setLevel(traceLevel);
+        desfireEv3.getMetrics().setEnabled(metricsEnabled);
+        if ((fileSettingsCache != null) && (cardUid != null)) {
+            desfireEv3.setFileSettingsCache(fileSettingsCache, cardUid);
+        }
+        numberOfOpenedSessions.incrementAndGet();
+        return desfireEv3;
+    }
+}
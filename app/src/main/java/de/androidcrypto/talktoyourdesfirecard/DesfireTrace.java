@@ -0,0 +1,180 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.printData;
+
+import android.util.Log;
+
+/**
+ * This class is a bounded trace buffer for the step by step logging of the DESFire classes. It
+ * replaces the former 'logData += ...' string concatenation that copied the complete log on each step.
+ * <p>
+ * The trace is a ring buffer with a fixed number of entries that is allocated once. When the buffer
+ * is full the oldest entries get overwritten. An entry stores the parts of a log line (method name,
+ * message and the name of and a reference to a byte array), the text and hex encoding is build on
+ * demand in render() only.
+ * <p>
+ * Each entry has a level, entries of a level that is not enabled are not stored and no strings get
+ * build. The default level is DEBUG (everything is stored, as before). Logcat output is enabled by
+ * default like the former logging, the enabled entries are written to logcat as well. Disable it with
+ * setLogcatEnabled(false) when the trace is read with render() only.
+ * <p>
+ * Note: the byte arrays are not copied by default, an array that gets modified after logging (e.g. a
+ * buffer that is decrypted in place) shows its current content in render(). Enable setDataCopyEnabled
+ * to store a copy with the content at the time of logging.
+ */
+
+public class DesfireTrace {
+
+    public enum Level {
+        OFF, ERROR, INFO, DEBUG
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final String tag;
+    private final int capacity;
+    private final Level[] levels;
+    private final String[] methodNames;
+    private final String[] messages;
+    private final String[] dataNames;
+    private final byte[][] data;
+    private int nextIndex = 0;
+    private int size = 0;
+    private long droppedEntries = 0;
+    private volatile Level level = Level.DEBUG;
+    private volatile boolean logcatEnabled = true;
+    private volatile boolean dataCopyEnabled = false;
+
+    public DesfireTrace(String tag) {
+        this(tag, DEFAULT_CAPACITY);
+    }
+
+    public DesfireTrace(String tag, int capacity) {
+        if (capacity < 1) capacity = 1;
+        this.tag = tag;
+        this.capacity = capacity;
+        levels = new Level[capacity];
+        methodNames = new String[capacity];
+        messages = new String[capacity];
+        dataNames = new String[capacity];
+        data = new byte[capacity][];
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = (level == null) ? Level.OFF : level;
+    }
+
+    public boolean isLogcatEnabled() {
+        return logcatEnabled;
+    }
+
+    public void setLogcatEnabled(boolean logcatEnabled) {
+        this.logcatEnabled = logcatEnabled;
+    }
+
+    public boolean isDataCopyEnabled() {
+        return dataCopyEnabled;
+    }
+
+    public void setDataCopyEnabled(boolean dataCopyEnabled) {
+        this.dataCopyEnabled = dataCopyEnabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param entryLevel | level of an entry
+     * @return true if entries of this level are stored
+     */
+    public boolean isEnabled(Level entryLevel) {
+        return (entryLevel != Level.OFF) && (entryLevel.ordinal() <= level.ordinal());
+    }
+
+    public void add(Level entryLevel, String methodName, String message) {
+        add(entryLevel, methodName, message, null, null);
+    }
+
+    public void add(Level entryLevel, String methodName, String dataName, byte[] dataValue) {
+        add(entryLevel, methodName, null, dataName, dataValue);
+    }
+
+    /**
+     * stores one entry, the rendered text is message || printData(dataName, dataValue)
+     *
+     * @param entryLevel | level of the entry
+     * @param methodName | name of the logging method
+     * @param message    | text message, may be NULL
+     * @param dataName   | name of the byte array, NULL if the entry has no byte array
+     * @param dataValue  | the byte array, may be NULL
+     */
+    public void add(Level entryLevel, String methodName, String message, String dataName, byte[] dataValue) {
+        if (!isEnabled(entryLevel)) return;
+        synchronized (this) {
+            levels[nextIndex] = entryLevel;
+            methodNames[nextIndex] = methodName;
+            messages[nextIndex] = message;
+            dataNames[nextIndex] = dataName;
+            data[nextIndex] = ((dataValue == null) || (!dataCopyEnabled)) ? dataValue : dataValue.clone();
+            nextIndex = (nextIndex + 1) % capacity;
+            if (size < capacity) {
+                size++;
+            } else {
+                droppedEntries++;
+            }
+        }
+        if (logcatEnabled) {
+            Log.d(tag, "method: " + methodName + ": " + renderText(message, dataName, dataValue));
+        }
+    }
+
+    /**
+     * removes all entries
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < capacity; i++) {
+            methodNames[i] = null;
+            messages[i] = null;
+            dataNames[i] = null;
+            data[i] = null;
+        }
+        nextIndex = 0;
+        size = 0;
+        droppedEntries = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * renders the entries in the format of the former log string, one 'method: name' line followed by
+     * the text line for each entry
+     *
+     * @return the trace as string
+     */
+    public synchronized String render() {
+        StringBuilder sb = new StringBuilder();
+        if (droppedEntries > 0) {
+            sb.append("(").append(droppedEntries).append(" older entries dropped)\n");
+        }
+        int index = (nextIndex - size + capacity) % capacity;
+        for (int i = 0; i < size; i++) {
+            sb.append("method: ").append(methodNames[index]).append("\n");
+            sb.append(renderText(messages[index], dataNames[index], data[index])).append("\n");
+            index = (index + 1) % capacity;
+        }
+        return sb.toString();
+    }
+
+    private static String renderText(String message, String dataName, byte[] dataValue) {
+        if (dataName == null) return String.valueOf(message);
+        if (message == null) return printData(dataName, dataValue);
+        return message + printData(dataName, dataValue);
+    }
+}
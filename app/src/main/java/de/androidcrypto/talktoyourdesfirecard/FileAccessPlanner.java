@@ -0,0 +1,440 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class runs a set of file operations in the selected application with as few authentications as
+ * possible. The operations are planned on the access rights of the file settings:
+ * - an operation with free access (0x0E) runs without authentication in Plain communication mode
+ * - the operations of the authenticated key run before any other key is authenticated
+ * - then the key that has the access right for most of the pending operations is authenticated next
+ * (authenticateAesEv2NonFirst within the transaction, see AuthenticationManager)
+ * The order of the operations on the same file is kept when one of them is a write, so a read after a
+ * write returns the written data. Operations on different files may run in another order than given.
+ * <p>
+ * Usage (e.g. in onTagDiscovered, after selectApplicationByAid):
+ * AuthenticationManager authenticationManager = new AuthenticationManager(desfireEv3);
+ * authenticationManager.setKey((byte) 1, key1);
+ * authenticationManager.setKey((byte) 3, key3);
+ * FileAccessPlanner.Operation readName = FileAccessPlanner.Operation.readData((byte) 0, 0, 32);
+ * FileAccessPlanner.Operation readBalance = FileAccessPlanner.Operation.getValue((byte) 2);
+ * FileAccessPlanner planner = new FileAccessPlanner(desfireEv3, authenticationManager);
+ * boolean success = planner.execute(Arrays.asList(readName, readBalance));
+ * byte[] name = readName.getData();
+ * Note: the writes to Backup, Value and Record files are committed before the next key is authenticated
+ * and after the last operation, so an authentication never falls into an open transaction.
+ * <p>
+ * The class is not thread safe.
+ */
+
+public class FileAccessPlanner {
+
+    private static final byte NO_AUTHENTICATION = (byte) -1;
+
+    public enum Type {
+        READ_DATA, WRITE_DATA, READ_RECORDS, WRITE_RECORD, GET_VALUE, CREDIT, DEBIT
+    }
+
+    public enum Status {
+        PENDING, SUCCESS, FAILED
+    }
+
+    public static class Operation {
+        private final Type type;
+        private final byte fileNumber;
+        private final int offset; // offset in the file or the first record
+        private final int length; // data length, number of records or value
+        private final byte[] data;
+        private Status status = Status.PENDING;
+        private byte keyNumber = NO_AUTHENTICATION;
+        private byte[] resultData;
+        private int resultValue = -1;
+        private byte[] errorCode;
+        private String errorCodeReason = "";
+
+        private Operation(Type type, byte fileNumber, int offset, int length, byte[] data) {
+            this.type = type;
+            this.fileNumber = fileNumber;
+            this.offset = offset;
+            this.length = length;
+            this.data = (data == null) ? null : data.clone();
+        }
+
+        public static Operation readData(byte fileNumber, int offset, int length) {
+            return new Operation(Type.READ_DATA, fileNumber, offset, length, null);
+        }
+
+        public static Operation writeData(byte fileNumber, int offset, byte[] data) {
+            return new Operation(Type.WRITE_DATA, fileNumber, offset, 0, data);
+        }
+
+        /**
+         * @param numberOfRecords | 0 reads all records
+         */
+        public static Operation readRecords(byte fileNumber, int offsetRecord, int numberOfRecords) {
+            return new Operation(Type.READ_RECORDS, fileNumber, offsetRecord, numberOfRecords, null);
+        }
+
+        public static Operation writeRecord(byte fileNumber, int offset, byte[] data) {
+            return new Operation(Type.WRITE_RECORD, fileNumber, offset, 0, data);
+        }
+
+        public static Operation getValue(byte fileNumber) {
+            return new Operation(Type.GET_VALUE, fileNumber, 0, 0, null);
+        }
+
+        public static Operation credit(byte fileNumber, int value) {
+            return new Operation(Type.CREDIT, fileNumber, 0, value, null);
+        }
+
+        public static Operation debit(byte fileNumber, int value) {
+            return new Operation(Type.DEBIT, fileNumber, 0, value, null);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public byte getFileNumber() {
+            return fileNumber;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the key number of the authentication the operation ran with, -1 = without authentication
+         */
+        public byte getKeyNumber() {
+            return keyNumber;
+        }
+
+        /**
+         * @return the data of READ_DATA and READ_RECORDS
+         */
+        public byte[] getData() {
+            return resultData;
+        }
+
+        /**
+         * @return the value of GET_VALUE
+         */
+        public int getValue() {
+            return resultValue;
+        }
+
+        public byte[] getErrorCode() {
+            return errorCode;
+        }
+
+        public String getErrorCodeReason() {
+            return errorCodeReason;
+        }
+
+        boolean isWrite() {
+            return (type == Type.WRITE_DATA) || (type == Type.WRITE_RECORD) || (type == Type.CREDIT) || (type == Type.DEBIT);
+        }
+
+        AuthenticationManager.Access getAccess() {
+            switch (type) {
+                case WRITE_DATA:
+                case WRITE_RECORD:
+                    return AuthenticationManager.Access.WRITE;
+                case CREDIT:
+                    return AuthenticationManager.Access.READ_WRITE;
+                default:
+                    // GetValue and Debit are allowed with the Read, Write and Read&Write key of a Value file
+                    return AuthenticationManager.Access.READ;
+            }
+        }
+    }
+
+    /**
+     * a step of the plan: the operations that run with one authentication
+     */
+    public static class Step {
+        private final byte keyNumber;
+        private final List<Operation> operations = new ArrayList<>();
+
+        private Step(byte keyNumber) {
+            this.keyNumber = keyNumber;
+        }
+
+        /**
+         * @return the key number to authenticate, -1 = the operations have free access
+         */
+        public byte getKeyNumber() {
+            return keyNumber;
+        }
+
+        public List<Operation> getOperations() {
+            return operations;
+        }
+    }
+
+    private final DesfireEv3 desfireEv3;
+    private final AuthenticationManager authenticationManager;
+    private int numberOfAuthentications = 0;
+    private int numberOfCommits = 0;
+
+    /**
+     * @param desfireEv3            | the session with the selected application
+     * @param authenticationManager | holds the keys of the application
+     */
+    public FileAccessPlanner(DesfireEv3 desfireEv3, AuthenticationManager authenticationManager) {
+        this.desfireEv3 = desfireEv3;
+        this.authenticationManager = authenticationManager;
+    }
+
+    /**
+     * plans the operations without running them, an operation without access (no key with the access
+     * right is set in the AuthenticationManager or the file is not available) is not in the plan
+     *
+     * @param operations | the operations in the order of the caller
+     * @return the steps in the order they are run
+     */
+    public List<Step> plan(List<Operation> operations) {
+        List<Step> steps = new ArrayList<>();
+        if ((desfireEv3 == null) || (authenticationManager == null) || (operations == null)) return steps;
+        List<Operation> pending = new ArrayList<>();
+        List<byte[]> pendingKeyNumbers = new ArrayList<>();
+        for (Operation operation : operations) {
+            byte[] keyNumbers = getAvailableKeyNumbers(operation);
+            if (keyNumbers.length == 0) continue;
+            pending.add(operation);
+            pendingKeyNumbers.add(keyNumbers);
+        }
+        byte currentKeyNumber = authenticationManager.isTransactionActive() ? desfireEv3.getKeyNumberUsedForAuthentication() : NO_AUTHENTICATION;
+        while (!pending.isEmpty()) {
+            boolean[] isReady = getReadyOperations(pending);
+            // free access first, then the authenticated key, then the key with access to most of the ready operations
+            byte keyNumber = NO_AUTHENTICATION;
+            if (!hasKeyNumber(pendingKeyNumbers, isReady, AuthenticationManager.ACCESS_FREE)) {
+                if ((currentKeyNumber != NO_AUTHENTICATION) && (hasKeyNumber(pendingKeyNumbers, isReady, currentKeyNumber))) {
+                    keyNumber = currentKeyNumber;
+                } else {
+                    keyNumber = getKeyNumberWithMostAccess(pendingKeyNumbers, isReady);
+                }
+            }
+            byte stepKeyNumber = (keyNumber == NO_AUTHENTICATION) ? AuthenticationManager.ACCESS_FREE : keyNumber;
+            Step step = (steps.isEmpty() || (steps.get(steps.size() - 1).keyNumber != keyNumber)) ? new Step(keyNumber) : steps.remove(steps.size() - 1);
+            for (int i = 0, j = 0; i < isReady.length; i++) {
+                if ((isReady[i]) && (contains(pendingKeyNumbers.get(j), stepKeyNumber))) {
+                    step.operations.add(pending.remove(j));
+                    pendingKeyNumbers.remove(j);
+                } else {
+                    j++;
+                }
+            }
+            steps.add(step);
+            if (keyNumber != NO_AUTHENTICATION) currentKeyNumber = keyNumber;
+        }
+        return steps;
+    }
+
+    /**
+     * plans and runs the operations, the result of each operation is in the operation
+     *
+     * @param operations | the operations in the order of the caller
+     * @return TRUE when all operations are successful
+     * Note: check the status, errorCode and errorCodeReason of each operation in case of failure
+     */
+    public boolean execute(List<Operation> operations) {
+        if ((desfireEv3 == null) || (authenticationManager == null) || (operations == null)) return false;
+        List<Step> steps = plan(operations);
+        List<Operation> uncommittedWrites = new ArrayList<>();
+        for (Step step : steps) {
+            if ((!uncommittedWrites.isEmpty()) && (step.keyNumber != NO_AUTHENTICATION)
+                    && (step.keyNumber != desfireEv3.getKeyNumberUsedForAuthentication())) {
+                commit(uncommittedWrites);
+            }
+            for (Operation operation : step.operations) {
+                // the authentication is skipped while the key is authenticated, after an error status it is done again
+                if ((step.keyNumber != NO_AUTHENTICATION) && (!authenticate(step.keyNumber))) {
+                    setFailure(operation, authenticationManager.getErrorCode(), authenticationManager.getErrorCodeReason());
+                    continue;
+                }
+                operation.keyNumber = step.keyNumber;
+                run(operation);
+                if ((operation.status == Status.SUCCESS) && (operation.isWrite()) && (isTransactionFile(operation.fileNumber))) {
+                    uncommittedWrites.add(operation);
+                }
+            }
+        }
+        if (!uncommittedWrites.isEmpty()) commit(uncommittedWrites);
+        // the operations that are not in the plan have no access
+        boolean success = true;
+        for (Operation operation : operations) {
+            if (operation.status == Status.PENDING) {
+                setFailure(operation, null, "there is no key with the access right " + operation.getAccess() + " to fileNumber " + operation.fileNumber);
+            }
+            if (operation.status != Status.SUCCESS) success = false;
+        }
+        return success;
+    }
+
+    /**
+     * @return the number of authentications run by execute (authenticateAesEv2First or authenticateAesEv2NonFirst)
+     */
+    public int getNumberOfAuthentications() {
+        return numberOfAuthentications;
+    }
+
+    public int getNumberOfCommits() {
+        return numberOfCommits;
+    }
+
+    private boolean authenticate(byte keyNumber) {
+        boolean success = authenticationManager.authenticate(keyNumber);
+        if ((success) && (authenticationManager.getLastMethod() != AuthenticationManager.Method.NONE)) {
+            numberOfAuthentications++;
+        }
+        return success;
+    }
+
+    private void run(Operation operation) {
+        boolean success;
+        switch (operation.type) {
+            case READ_DATA: {
+                operation.resultData = desfireEv3.readFromADataFile(operation.fileNumber, operation.offset, operation.length);
+                success = (operation.resultData != null);
+                break;
+            }
+            case WRITE_DATA: {
+                success = desfireEv3.writeToADataFile(operation.fileNumber, operation.offset, operation.data);
+                break;
+            }
+            case READ_RECORDS: {
+                operation.resultData = desfireEv3.readFromARecordFile(operation.fileNumber, operation.offset, operation.length);
+                success = (operation.resultData != null);
+                break;
+            }
+            case WRITE_RECORD: {
+                success = desfireEv3.writeToARecordFile(operation.fileNumber, operation.offset, operation.data);
+                break;
+            }
+            case GET_VALUE: {
+                operation.resultValue = desfireEv3.readFromAValueFile(operation.fileNumber);
+                // -1 is a valid value as well, the errorCode tells the failure
+                success = Arrays.equals(desfireEv3.getErrorCode(), new byte[]{(byte) 0x91, (byte) 0x00});
+                break;
+            }
+            case CREDIT: {
+                success = desfireEv3.changeAValueFile(operation.fileNumber, operation.length, true);
+                break;
+            }
+            case DEBIT: {
+                success = desfireEv3.changeAValueFile(operation.fileNumber, operation.length, false);
+                break;
+            }
+            default:
+                success = false;
+        }
+        if (success) {
+            operation.status = Status.SUCCESS;
+            operation.errorCode = desfireEv3.getErrorCode();
+            operation.errorCodeReason = desfireEv3.getErrorCodeReason();
+        } else {
+            setFailure(operation, desfireEv3.getErrorCode(), desfireEv3.getErrorCodeReason());
+        }
+    }
+
+    /**
+     * commits the writes to Backup, Value and Record files, on failure the writes are set to FAILED as the
+     * card discards them
+     */
+    private void commit(List<Operation> uncommittedWrites) {
+        numberOfCommits++;
+        boolean isAuthenticated = authenticationManager.isTransactionActive();
+        boolean success = isAuthenticated ? desfireEv3.commitTransactionFull(false) : desfireEv3.commitTransactionPlain();
+        if (!success) {
+            for (Operation operation : uncommittedWrites) {
+                setFailure(operation, desfireEv3.getErrorCode(), "commitTransaction FAILURE: " + desfireEv3.getErrorCodeReason());
+            }
+        }
+        uncommittedWrites.clear();
+    }
+
+    private boolean isTransactionFile(byte fileNumber) {
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) return false;
+        return fileSettings.getFileType() != FileSettings.STANDARD_FILE_TYPE;
+    }
+
+    private static void setFailure(Operation operation, byte[] errorCode, String errorCodeReason) {
+        operation.status = Status.FAILED;
+        operation.errorCode = (errorCode == null) ? new byte[]{(byte) 0x91, (byte) 0x9D} : errorCode.clone();
+        operation.errorCodeReason = errorCodeReason;
+    }
+
+    /**
+     * get the key numbers of the access right to the file for which a key is set, or ACCESS_FREE
+     */
+    private byte[] getAvailableKeyNumbers(Operation operation) {
+        FileSettings fileSettings = (operation == null) ? null : desfireEv3.getApplicationFileSettings(operation.fileNumber);
+        if (fileSettings == null) return new byte[0];
+        byte[] keyNumbers = AuthenticationManager.getAccessKeyNumbers(fileSettings, operation.getAccess());
+        byte[] availableKeyNumbers = new byte[keyNumbers.length];
+        int length = 0;
+        for (byte keyNumber : keyNumbers) {
+            if ((keyNumber == AuthenticationManager.ACCESS_FREE) || (authenticationManager.hasKey(keyNumber))) {
+                availableKeyNumbers[length++] = keyNumber;
+            }
+        }
+        return Arrays.copyOf(availableKeyNumbers, length);
+    }
+
+    /**
+     * an operation is ready when no earlier pending operation on the same file has to run before it
+     * (one of both is a write)
+     */
+    private static boolean[] getReadyOperations(List<Operation> pending) {
+        boolean[] isReady = new boolean[pending.size()];
+        for (int i = 0; i < pending.size(); i++) {
+            isReady[i] = true;
+            Operation operation = pending.get(i);
+            for (int j = 0; j < i; j++) {
+                Operation earlierOperation = pending.get(j);
+                if ((earlierOperation.fileNumber == operation.fileNumber) && ((earlierOperation.isWrite()) || (operation.isWrite()))) {
+                    isReady[i] = false;
+                    break;
+                }
+            }
+        }
+        return isReady;
+    }
+
+    private static boolean hasKeyNumber(List<byte[]> pendingKeyNumbers, boolean[] isReady, byte keyNumber) {
+        for (int i = 0; i < pendingKeyNumbers.size(); i++) {
+            if ((isReady[i]) && (contains(pendingKeyNumbers.get(i), keyNumber))) return true;
+        }
+        return false;
+    }
+
+    private static byte getKeyNumberWithMostAccess(List<byte[]> pendingKeyNumbers, boolean[] isReady) {
+        int[] numberOfOperations = new int[16];
+        for (int i = 0; i < pendingKeyNumbers.size(); i++) {
+            if (!isReady[i]) continue;
+            for (byte keyNumber : pendingKeyNumbers.get(i)) {
+                numberOfOperations[keyNumber]++;
+            }
+        }
+        byte bestKeyNumber = NO_AUTHENTICATION;
+        for (int keyNumber = 0; keyNumber < 14; keyNumber++) {
+            if ((numberOfOperations[keyNumber] > 0) && ((bestKeyNumber == NO_AUTHENTICATION) || (numberOfOperations[keyNumber] > numberOfOperations[bestKeyNumber]))) {
+                bestKeyNumber = (byte) keyNumber;
+            }
+        }
+        return bestKeyNumber;
+    }
+
+    private static boolean contains(byte[] keyNumbers, byte keyNumber) {
+        for (byte number : keyNumbers) {
+            if (number == keyNumber) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,236 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a memory cache for the (decrypted) content of Standard, Backup and Record files, so a
+ * flow that reads the same files on each tap of a card does not need to run the complete (e.g. chained
+ * Full enciphered) read when the content did not change. Each entry is stored with a validity token
+ * that is read from the card with one short command before the cache is used:
+ * - TRANSACTION_MAC_COUNTER: the Transaction MAC counter (TMC) of the Transaction MAC file of the application,
+ * it is increased by each committed transaction in the application
+ * - VALUE: the value of a Value file that the writing application increases on each change of the file content
+ * The cached content is used only when the token on the card is the same as the stored token.
+ * There is no token from the SDM read counter: it counts the SUN reads of the file and does not change
+ * on a write, so a changed content would be served from the cache.
+ * <p>
+ * An entry is keyed by the card UID, the application identifier (AID) and the file number. The cache is
+ * bounded by the sum of the content lengths, the least recently used entries are removed first.
+ * <p>
+ * Usage (e.g. in onTagDiscovered, after select application and authentication):
+ * byte[] content = cache.readFile(desfireEv3, tag.getId(), aid, fileNumber, FileContentCache.ValidityToken.TRANSACTION_MAC_COUNTER, tmacFileNumber);
+ * Note: the token has to change with each change of the file content. A write that is not part of a
+ * committed transaction does not change the Transaction MAC counter, use the VALUE token in this case.
+ * The content is held in memory only as it is the decrypted file content.
+ * <p>
+ * The class is thread safe.
+ */
+
+public class FileContentCache {
+
+    public static final long DEFAULT_MAXIMUM_BYTES = 256 * 1024;
+    private static final String KEY_SEPARATOR = "_";
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+
+    public enum ValidityToken {
+        TRANSACTION_MAC_COUNTER, VALUE
+    }
+
+    private final long maximumBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    private static class Entry {
+        private final byte[] token;
+        private final byte[] content;
+
+        Entry(byte[] token, byte[] content) {
+            this.token = token;
+            this.content = content;
+        }
+    }
+
+    public FileContentCache() {
+        this(DEFAULT_MAXIMUM_BYTES);
+    }
+
+    /**
+     * @param maximumBytes | the maximum sum of the cached content lengths, the least recently used entries get removed
+     */
+    public FileContentCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    /**
+     * reads the content of a Standard, Backup or Record file (all records) of the selected application, the
+     * content is taken from the cache when the validity token on the card is unchanged
+     *
+     * @param desfireEv3            | the session with the selected application and a valid authentication
+     * @param cardUid               | UID of the card
+     * @param applicationIdentifier | AID of the selected application
+     * @param fileNumber            | in range 0..31 AND file is a Standard, Backup or Record file
+     * @param validityToken         | the source of the token
+     * @param tokenFileNumber       | the Transaction MAC file or the Value file that has the token
+     * @return the file content or NULL on failure (check errorCode and errorCodeReason of desfireEv3)
+     * Note: when the token can not be read the file is read from the card and not cached
+     */
+    public byte[] readFile(DesfireEv3 desfireEv3, byte[] cardUid, byte[] applicationIdentifier, byte fileNumber, ValidityToken validityToken, byte tokenFileNumber) {
+        if ((desfireEv3 == null) || (fileNumber < 0) || (fileNumber > 31)) return null;
+        byte[] token = readToken(desfireEv3, validityToken, tokenFileNumber);
+        if (token != null) {
+            byte[] content = get(cardUid, applicationIdentifier, fileNumber, token);
+            if (content != null) return content;
+        }
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) return null;
+        byte[] content;
+        byte fileType = fileSettings.getFileType();
+        if ((fileType == FileSettings.STANDARD_FILE_TYPE) || (fileType == FileSettings.BACKUP_FILE_TYPE)) {
+            content = desfireEv3.readFromADataFile(fileNumber, 0, fileSettings.getFileSizeInt());
+        } else if ((fileType == FileSettings.LINEAR_RECORD_FILE_TYPE) || (fileType == FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
+            content = desfireEv3.readFromARecordFile(fileNumber, 0, 0);
+        } else {
+            return null;
+        }
+        if ((content != null) && (token != null)) {
+            put(cardUid, applicationIdentifier, fileNumber, token, content);
+        }
+        return content;
+    }
+
+    /**
+     * reads the validity token from the card with one command
+     *
+     * @return the token or NULL on failure
+     */
+    public static byte[] readToken(DesfireEv3 desfireEv3, ValidityToken validityToken, byte tokenFileNumber) {
+        if ((desfireEv3 == null) || (validityToken == null)) return null;
+        switch (validityToken) {
+            case TRANSACTION_MAC_COUNTER: {
+                // TMC (4 bytes) || TMV (8 bytes), the TMV is not needed as the TMC changes with each transaction
+                byte[] tmcv = desfireEv3.readFromATransactionMacFile(tokenFileNumber);
+                if ((tmcv == null) || (tmcv.length < 4)) return null;
+                return Arrays.copyOf(tmcv, 4);
+            }
+            case VALUE: {
+                int value = desfireEv3.readFromAValueFile(tokenFileNumber);
+                // -1 is a valid value as well, the errorCode tells the failure
+                if (!Arrays.equals(desfireEv3.getErrorCode(), RESPONSE_OK)) return null;
+                return Utils.intTo4ByteArrayInversed(value);
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the cached content or NULL if the file is not cached or the token is different
+     */
+    public synchronized byte[] get(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber, byte[] token) {
+        String key = getKey(cardUid, applicationIdentifier, fileNumber);
+        if ((key == null) || (token == null)) return null;
+        Entry entry = entries.get(key);
+        if ((entry == null) || (!Arrays.equals(entry.token, token))) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.content.clone();
+    }
+
+    /**
+     * stores the content of a file with its validity token, a content that is larger than the cache is not stored
+     */
+    public synchronized void put(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber, byte[] token, byte[] content) {
+        String key = getKey(cardUid, applicationIdentifier, fileNumber);
+        if ((key == null) || (token == null) || (content == null)) return;
+        remove(key);
+        if (content.length > maximumBytes) return;
+        entries.put(key, new Entry(token.clone(), content.clone()));
+        usedBytes += content.length;
+        // the iteration order is the access order, so the first entries are the least recently used
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ((usedBytes > maximumBytes) && (iterator.hasNext())) {
+            usedBytes -= iterator.next().getValue().content.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * removes the content of one file, e.g. after the file was written in this session
+     */
+    public synchronized void invalidateFile(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        String key = getKey(cardUid, applicationIdentifier, fileNumber);
+        if (key != null) remove(key);
+    }
+
+    /**
+     * removes the content of all files of the application, e.g. after deleteFile
+     */
+    public synchronized void invalidateApplication(byte[] cardUid, byte[] applicationIdentifier) {
+        if ((cardUid == null) || (applicationIdentifier == null)) return;
+        removeKeysStartingWith(bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR);
+    }
+
+    /**
+     * removes all entries of a card, e.g. after formatPicc
+     */
+    public synchronized void invalidateCard(byte[] cardUid) {
+        if (cardUid == null) return;
+        removeKeysStartingWith(bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) usedBytes -= entry.content.length;
+    }
+
+    private void removeKeysStartingWith(String prefix) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                usedBytes -= entry.getValue().content.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * the key is UID || AID || file number, all hex encoded
+     */
+    private static String getKey(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        if ((cardUid == null) || (applicationIdentifier == null)) return null;
+        return bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR + fileNumber;
+    }
+}
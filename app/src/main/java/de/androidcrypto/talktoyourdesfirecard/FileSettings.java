@@ -665,6 +665,13 @@ public class FileSettings {
      * section for getter
      */
 
+    /**
+     * @return the complete response of the getFileSettings command this file settings are build from
+     */
+    public byte[] getCompleteResponse() {
+        return completeResponse;
+    }
+
     public byte getFileNumber() {
         return fileNumber;
     }
@@ -729,6 +736,38 @@ public class FileSettings {
         return recordsExistingInt;
     }
 
+    /**
+     * the lower limit of a Value file, 0 for other file types
+     */
+    public int getValueMinInt() {
+        if (valueMin == null) return 0;
+        return byteArrayLength4InversedToInt(valueMin);
+    }
+
+    /**
+     * the upper limit of a Value file, 0 for other file types
+     */
+    public int getValueMaxInt() {
+        if (valueMax == null) return 0;
+        return byteArrayLength4InversedToInt(valueMax);
+    }
+
+    /**
+     * the limited credit value of a Value file (when the file settings were read by an authenticated key
+     * with access rights), 0 for other file types
+     */
+    public int getValueLimitedCreditInt() {
+        if (valueLimitedCredit == null) return 0;
+        return byteArrayLength4InversedToInt(valueLimitedCredit);
+    }
+
+    /**
+     * @return true when the LimitedCredit command is enabled on a Value file (bit 0 of the limited credit option)
+     */
+    public boolean isValueLimitedCreditEnabled() {
+        return testBit(valueLimitedCreditAvailable, 0);
+    }
+
     public byte getTmkFileOption() {
         return tmkFileOption;
     }
@@ -0,0 +1,274 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+import static de.androidcrypto.talktoyourdesfirecard.Utils.hexStringToByteArray;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * This class is a persistent cache for the file settings of an application on a card. After an
+ * 'select application' the DesfireEv3 class runs a getFileSettings command for each file in the
+ * application (up to 32 commands). As the file layout of a personalized card does not change the
+ * settings can be reused on the next tap of the same card.
+ * <p>
+ * An entry is keyed by the card UID, the application identifier (AID) and a fingerprint of the file
+ * layout (the file IDs returned by getAllFileIds). A card with created or deleted files gets a new
+ * fingerprint, so the old entry is not used. Changes of the file settings are not visible in the
+ * fingerprint, the DesfireEv3 class invalidates the file entry after a successful changeFileSettings
+ * and the application entries after createFile, deleteFile and formatPicc.
+ * <p>
+ * The raw getFileSettings responses are stored, so a cached FileSettings is identical to a FileSettings
+ * read from the card. The number of existing records of a record file is a snapshot of the time the
+ * settings were read.
+ * <p>
+ * Usage (e.g. in onTagDiscovered):
+ * FileSettingsCache cache = new FileSettingsCache(new File(getFilesDir(), "file_settings_cache.properties"));
+ * desfireEv3.setFileSettingsCache(cache, tag.getId());
+ * Note: the card UID of a card with 'random UID' enabled changes on each tap, so the cache will never hit
+ * on these cards unless the real UID is provided.
+ * <p>
+ * The class is thread safe. The changes are kept in memory only, call flush after the card is processed
+ * (e.g. in onPause or when the tag is gone) to write the cache file, so there is no file I/O during a tap.
+ */
+
+public class FileSettingsCache {
+
+    private static final String TAG = FileSettingsCache.class.getName();
+    public static final int DEFAULT_MAXIMUM_ENTRIES = 256;
+    private static final int MAXIMUM_NUMBER_OF_FILES = 32;
+    private static final String KEY_SEPARATOR = "_";
+
+    private final File cacheFile; // null = memory only cache
+    private final LinkedHashMap<String, TreeMap<Integer, byte[]>> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private boolean isChanged = false; // true when the entries differ from the cache file
+
+    /**
+     * builds a memory only cache, the entries are lost when the app is closed
+     */
+    public FileSettingsCache() {
+        this(null, DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    public FileSettingsCache(File cacheFile) {
+        this(cacheFile, DEFAULT_MAXIMUM_ENTRIES);
+    }
+
+    /**
+     * @param cacheFile      | the file that persists the entries, NULL for a memory only cache
+     * @param maximumEntries | the maximum number of cached applications, the least recently used gets removed
+     */
+    public FileSettingsCache(File cacheFile, final int maximumEntries) {
+        this.cacheFile = cacheFile;
+        this.entries = new LinkedHashMap<String, TreeMap<Integer, byte[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TreeMap<Integer, byte[]>> eldest) {
+                return size() > maximumEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * returns the cached file settings of an application
+     *
+     * @param cardUid               | UID of the card
+     * @param applicationIdentifier | AID of the selected application
+     * @param fileIds               | the file IDs of the application (layout fingerprint)
+     * @return an array of 32 file settings indexed by file number or NULL if the application is not cached.
+     * Files that are listed in fileIds but not cached have a NULL element.
+     */
+    public synchronized FileSettings[] get(byte[] cardUid, byte[] applicationIdentifier, byte[] fileIds) {
+        String key = getKey(cardUid, applicationIdentifier, fileIds);
+        if (key == null) return null;
+        TreeMap<Integer, byte[]> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        FileSettings[] fileSettings = new FileSettings[MAXIMUM_NUMBER_OF_FILES];
+        for (Map.Entry<Integer, byte[]> file : entry.entrySet()) {
+            int fileNumber = file.getKey();
+            fileSettings[fileNumber] = new FileSettings((byte) fileNumber, file.getValue().clone());
+        }
+        return fileSettings;
+    }
+
+    /**
+     * stores the file settings of all files of an application, NULL elements are skipped
+     */
+    public synchronized void putAll(byte[] cardUid, byte[] applicationIdentifier, byte[] fileIds, FileSettings[] fileSettings) {
+        String key = getKey(cardUid, applicationIdentifier, fileIds);
+        if ((key == null) || (fileSettings == null)) return;
+        TreeMap<Integer, byte[]> entry = new TreeMap<>();
+        for (FileSettings settings : fileSettings) {
+            if ((settings != null) && (settings.getCompleteResponse() != null)) {
+                entry.put(settings.getFileNumberInt(), settings.getCompleteResponse().clone());
+            }
+        }
+        entries.put(key, entry);
+        isChanged = true;
+    }
+
+    /**
+     * stores the file settings of one file
+     */
+    public synchronized void put(byte[] cardUid, byte[] applicationIdentifier, byte[] fileIds, FileSettings fileSettings) {
+        String key = getKey(cardUid, applicationIdentifier, fileIds);
+        if ((key == null) || (fileSettings == null) || (fileSettings.getCompleteResponse() == null)) return;
+        TreeMap<Integer, byte[]> entry = entries.get(key);
+        if (entry == null) {
+            entry = new TreeMap<>();
+            entries.put(key, entry);
+        }
+        entry.put(fileSettings.getFileNumberInt(), fileSettings.getCompleteResponse().clone());
+        isChanged = true;
+    }
+
+    /**
+     * removes the settings of one file in all cached layouts of the application, e.g. after changeFileSettings
+     */
+    public synchronized void invalidateFile(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        if ((cardUid == null) || (applicationIdentifier == null)) return;
+        String prefix = bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR;
+        for (Map.Entry<String, TreeMap<Integer, byte[]>> entry : entries.entrySet()) {
+            if ((entry.getKey().startsWith(prefix)) && (entry.getValue().remove((int) fileNumber) != null)) {
+                isChanged = true;
+            }
+        }
+    }
+
+    /**
+     * removes all cached layouts of the application, e.g. after createFile or deleteFile
+     */
+    public synchronized void invalidateApplication(byte[] cardUid, byte[] applicationIdentifier) {
+        if ((cardUid == null) || (applicationIdentifier == null)) return;
+        removeKeysStartingWith(bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR);
+    }
+
+    /**
+     * removes all entries of a card, e.g. after formatPicc
+     */
+    public synchronized void invalidateCard(byte[] cardUid) {
+        if (cardUid == null) return;
+        removeKeysStartingWith(bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        isChanged = true;
+    }
+
+    /**
+     * writes the cache file when there are changes since the last flush, a memory only cache does nothing
+     *
+     * @return false when the cache file could not be written
+     */
+    public synchronized boolean flush() {
+        if ((cacheFile == null) || (!isChanged)) return true;
+        if (!save()) return false;
+        isChanged = false;
+        return true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void removeKeysStartingWith(String prefix) {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+                isChanged = true;
+            }
+        }
+    }
+
+    /**
+     * the key is UID || AID || sorted file IDs, all hex encoded
+     */
+    private static String getKey(byte[] cardUid, byte[] applicationIdentifier, byte[] fileIds) {
+        if ((cardUid == null) || (applicationIdentifier == null) || (fileIds == null)) return null;
+        byte[] sortedFileIds = fileIds.clone();
+        Arrays.sort(sortedFileIds);
+        return bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR + bytesToHexNpeUpperCase(sortedFileIds);
+    }
+
+    /**
+     * section for persistence, one property per application: key = fileNumber:settings,fileNumber:settings...
+     */
+
+    private void load() {
+        if ((cacheFile == null) || (!cacheFile.exists())) return;
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(cacheFile)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "could not load the cache file: " + e.getMessage());
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            TreeMap<Integer, byte[]> entry = new TreeMap<>();
+            String value = properties.getProperty(key);
+            try {
+                if (value.length() > 0) {
+                    for (String file : value.split(",")) {
+                        String[] parts = file.split(":");
+                        byte[] fileSettings = hexStringToByteArray(parts[1]);
+                        if (fileSettings == null) throw new IllegalArgumentException("no hex data");
+                        entry.put(Integer.parseInt(parts[0]), fileSettings);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "skipped the corrupted cache entry " + key);
+                continue;
+            }
+            entries.put(key, entry);
+        }
+    }
+
+    private boolean save() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, TreeMap<Integer, byte[]>> entry : entries.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Integer, byte[]> file : entry.getValue().entrySet()) {
+                if (sb.length() > 0) sb.append(",");
+                sb.append(file.getKey()).append(":").append(bytesToHexNpeUpperCase(file.getValue()));
+            }
+            properties.setProperty(entry.getKey(), sb.toString());
+        }
+        try (OutputStream outputStream = new FileOutputStream(cacheFile)) {
+            properties.store(outputStream, "DESFire file settings cache");
+        } catch (IOException e) {
+            Log.e(TAG, "could not write the cache file: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
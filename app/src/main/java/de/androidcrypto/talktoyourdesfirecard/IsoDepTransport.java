@@ -0,0 +1,43 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.nfc.tech.IsoDep;
+
+import java.io.IOException;
+
+/**
+ * This class connects the CardTransport interface to a real tag using the Android IsoDep class
+ */
+
+public class IsoDepTransport implements CardTransport {
+
+    private final IsoDep isoDep;
+
+    public IsoDepTransport(IsoDep isoDep) {
+        if (isoDep == null) throw new IllegalArgumentException("isoDep is NULL");
+        this.isoDep = isoDep;
+    }
+
+    @Override
+    public byte[] transceive(byte[] apdu) throws IOException {
+        return isoDep.transceive(apdu);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isoDep.isConnected();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return isoDep.getMaxTransceiveLength();
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return isoDep.isExtendedLengthApduSupported();
+    }
+
+    public IsoDep getIsoDep() {
+        return isoDep;
+    }
+}
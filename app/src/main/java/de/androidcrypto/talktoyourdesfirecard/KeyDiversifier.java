@@ -0,0 +1,321 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class derives card individual AES-128 keys from a master key with the key diversification
+ * of AN10922, so each card of a fleet gets its own keys while the backend holds the master keys only.
+ * <p>
+ * Steps for a key:
+ * 1 diversification input M = UID || AID || System Identifier (maximum 31 bytes)
+ * 2 D = 0x01 || M, padded with 0x80 00.. to 32 bytes when it is shorter
+ * 3 the diversified key is the CMAC of D with the master key, where the last block is xored with K1
+ * (no padding) or K2 (padding). Different to the standard CMAC, D is always padded to 2 blocks.
+ * see AN10922 Symmetric key diversifications.pdf pages 11 - 14 for AES-128 diversification
+ * <p>
+ * The derived keys are cached in a bounded LRU cache keyed by UID, AID, key number and key version, so
+ * repeated taps of a card do not derive the keys again. deriveAll derives the keys of a batch of cards on
+ * all available cores (e.g. for a backend that prepares the personalization of large batches), these
+ * keys are not cached.
+ * <p>
+ * Usage:
+ * KeyDiversifier keyDiversifier = new KeyDiversifier(masterKey, systemIdentifier);
+ * desfireEv3.selectApplicationByAid(aid);
+ * desfireEv3.authenticateAesEv2First(keyNumber, keyDiversifier, tag.getId(), keyVersion);
+ * Note: the AID is used in the byte order of selectApplicationByAid. The class runs on a plain JVM
+ * (no Android classes) and is thread safe.
+ */
+
+public class KeyDiversifier {
+
+    /**
+     * provides the master key of a key number and key version, e.g. from a key store or HSM export
+     */
+    public interface MasterKeyProvider {
+        byte[] getMasterKey(int keyNumber, int keyVersion);
+    }
+
+    public static final int DEFAULT_KEY_CACHE_SIZE = 10000;
+    public static final int MAXIMUM_DIVERSIFICATION_INPUT_LENGTH = 31;
+    private static final int BLOCK_SIZE = 16;
+    private static final byte DIVERSIFICATION_CONSTANT_AES128 = (byte) 0x01;
+    private static final byte CMAC_CONSTANT = (byte) 0x87;
+    private static final String KEY_SEPARATOR = "_";
+
+    private final MasterKeyProvider masterKeyProvider;
+    private final byte[] systemIdentifier;
+    private final Map<String, byte[]> keyCache;
+    private long hits = 0;
+    private long misses = 0;
+    private ExecutorService executorService;
+
+    private static final ThreadLocal<Cipher> ENCRYPT_CIPHER = new ThreadLocal<>();
+
+    /**
+     * diversifier with one master key for all key numbers and key versions
+     */
+    public KeyDiversifier(final byte[] masterKey, byte[] systemIdentifier) {
+        this(new MasterKeyProvider() {
+            @Override
+            public byte[] getMasterKey(int keyNumber, int keyVersion) {
+                return masterKey;
+            }
+        }, systemIdentifier, DEFAULT_KEY_CACHE_SIZE);
+    }
+
+    /**
+     * @param masterKeyProvider | provides the master key of a key number and key version
+     * @param systemIdentifier  | the System Identifier in the diversification input, may be empty
+     * @param keyCacheSize      | maximum number of derived keys in the cache
+     */
+    public KeyDiversifier(MasterKeyProvider masterKeyProvider, byte[] systemIdentifier, final int keyCacheSize) {
+        if (masterKeyProvider == null) throw new IllegalArgumentException("masterKeyProvider is NULL");
+        this.masterKeyProvider = masterKeyProvider;
+        this.systemIdentifier = (systemIdentifier == null) ? new byte[0] : systemIdentifier.clone();
+        this.keyCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > keyCacheSize;
+            }
+        };
+    }
+
+    /**
+     * returns the diversified key of a card, the key is taken from the cache when it was derived before
+     *
+     * @param uid        | UID of the card
+     * @param aid        | AID of the application (3 bytes)
+     * @param keyNumber  | the key number in the application
+     * @param keyVersion | the key version, a new version uses the master key of this version
+     * @return the diversified key (16 bytes) or NULL when the master key is missing or the input is too long
+     */
+    public byte[] getKey(byte[] uid, byte[] aid, int keyNumber, int keyVersion) {
+        if ((uid == null) || (aid == null)) return null;
+        String cacheKey = bytesToHex(uid) + KEY_SEPARATOR + bytesToHex(aid) + KEY_SEPARATOR + keyNumber + KEY_SEPARATOR + keyVersion;
+        synchronized (keyCache) {
+            byte[] key = keyCache.get(cacheKey);
+            if (key != null) {
+                hits++;
+                return key.clone();
+            }
+            misses++;
+        }
+        byte[] key = deriveKey(uid, aid, keyNumber, keyVersion);
+        if (key == null) return null;
+        synchronized (keyCache) {
+            keyCache.put(cacheKey, key.clone());
+        }
+        return key;
+    }
+
+    /**
+     * derives the keys of a batch of cards on all available cores, the keys are not cached
+     *
+     * @param uids       | the UIDs of the cards
+     * @param aid        | AID of the application (3 bytes)
+     * @param keyNumber  | the key number in the application
+     * @param keyVersion | the key version
+     * @return the diversified keys in the order of the uids, an element is NULL on failure
+     */
+    public List<byte[]> deriveAll(final List<byte[]> uids, final byte[] aid, final int keyNumber, final int keyVersion) throws InterruptedException {
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        final int size = uids.size();
+        List<byte[]> keys = new ArrayList<>(size);
+        if ((size < 2) || (numberOfThreads < 2)) {
+            for (byte[] uid : uids) {
+                keys.add(deriveKey(uid, aid, keyNumber, keyVersion));
+            }
+            return keys;
+        }
+        final byte[][] keyArray = new byte[size][];
+        int chunkSize = (size + numberOfThreads - 1) / numberOfThreads;
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService executor = getExecutorService(numberOfThreads);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        keyArray[i] = deriveKey(uids.get(i), aid, keyNumber, keyVersion);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("derivation failed: " + e.getCause(), e.getCause());
+            }
+        }
+        keys.addAll(Arrays.asList(keyArray));
+        return keys;
+    }
+
+    /**
+     * stops the threads of deriveAll
+     */
+    public synchronized void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
+    /**
+     * removes all derived keys from the cache, the keys are overwritten
+     */
+    public void clear() {
+        synchronized (keyCache) {
+            for (byte[] key : keyCache.values()) {
+                Arrays.fill(key, (byte) 0);
+            }
+            keyCache.clear();
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (keyCache) {
+            return keyCache.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (keyCache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (keyCache) {
+            return misses;
+        }
+    }
+
+    private byte[] deriveKey(byte[] uid, byte[] aid, int keyNumber, int keyVersion) {
+        if ((uid == null) || (aid == null)) return null;
+        byte[] masterKey = masterKeyProvider.getMasterKey(keyNumber, keyVersion);
+        return diversifyAes128(masterKey, getDiversificationInput(uid, aid, systemIdentifier));
+    }
+
+    private synchronized ExecutorService getExecutorService(int numberOfThreads) {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "KeyDiversifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+
+    /**
+     * section for the AN10922 diversification
+     */
+
+    /**
+     * @return UID || AID || System Identifier
+     */
+    public static byte[] getDiversificationInput(byte[] uid, byte[] aid, byte[] systemIdentifier) {
+        if (systemIdentifier == null) systemIdentifier = new byte[0];
+        byte[] diversificationInput = new byte[uid.length + aid.length + systemIdentifier.length];
+        System.arraycopy(uid, 0, diversificationInput, 0, uid.length);
+        System.arraycopy(aid, 0, diversificationInput, uid.length, aid.length);
+        System.arraycopy(systemIdentifier, 0, diversificationInput, uid.length + aid.length, systemIdentifier.length);
+        return diversificationInput;
+    }
+
+    /**
+     * AES-128 key diversification of AN10922
+     *
+     * @param masterKey            | the master key (16 bytes)
+     * @param diversificationInput | M, 1..31 bytes
+     * @return the diversified key (16 bytes) or NULL on failure
+     */
+    public static byte[] diversifyAes128(byte[] masterKey, byte[] diversificationInput) {
+        if ((masterKey == null) || (masterKey.length != BLOCK_SIZE) || (diversificationInput == null)
+                || (diversificationInput.length < 1) || (diversificationInput.length > MAXIMUM_DIVERSIFICATION_INPUT_LENGTH)) {
+            return null;
+        }
+        try {
+            SecretKeySpec keySpec = new SecretKeySpec(masterKey, "AES");
+            // subkeys for the CMAC, L = E(K, 0^128)
+            byte[] k1 = doubleSubKey(encrypt(keySpec, new byte[BLOCK_SIZE]));
+            byte[] k2 = doubleSubKey(k1);
+            // D = 0x01 || M || padding, always 2 blocks
+            byte[] d = new byte[2 * BLOCK_SIZE];
+            d[0] = DIVERSIFICATION_CONSTANT_AES128;
+            System.arraycopy(diversificationInput, 0, d, 1, diversificationInput.length);
+            int length = 1 + diversificationInput.length;
+            boolean isPadded = (length < d.length);
+            if (isPadded) d[length] = (byte) 0x80;
+            byte[] subKey = isPadded ? k2 : k1;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                d[BLOCK_SIZE + i] ^= subKey[i];
+            }
+            // CBC with zero IV, the key is the last cipher block
+            byte[] mac = encrypt(keySpec, Arrays.copyOf(d, BLOCK_SIZE));
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                mac[i] ^= d[BLOCK_SIZE + i];
+            }
+            return encrypt(keySpec, mac);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * AES-ECB with a Cipher of the current thread
+     */
+    private static byte[] encrypt(SecretKeySpec keySpec, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = ENCRYPT_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            ENCRYPT_CIPHER.set(cipher);
+        }
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+        return cipher.doFinal(data);
+    }
+
+    private static byte[] doubleSubKey(byte[] k) {
+        byte[] ret = new byte[k.length];
+        for (int i = 0; i < k.length; i++) {
+            ret[i] = (byte) (k[i] << 1);
+            if ((i + 1 < k.length) && ((k[i + 1] & 0x80) != 0)) {
+                ret[i] |= 0x01;
+            }
+        }
+        if ((k[0] & 0x80) != 0) {
+            ret[ret.length - 1] ^= CMAC_CONSTANT;
+        }
+        return ret;
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02X", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
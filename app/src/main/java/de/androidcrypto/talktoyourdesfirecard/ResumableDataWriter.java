@@ -0,0 +1,354 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+import static de.androidcrypto.talktoyourdesfirecard.Utils.hexStringToByteArray;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class writes large data to a Standard or Backup file across several short taps of the card,
+ * e.g. in a gate or turnstile scenario where the card is in the field for some 100 ms only. The data
+ * is written in segments and the last acknowledged segment is recorded as checkpoint per card UID,
+ * application and file. When the tag is lost the next call of write (on the next tap) selects the
+ * application, authenticates again and continues at the checkpoint instead of writing all data again.
+ * <p>
+ * A checkpoint belongs to one write job (offset and data), a write with other data to the same file
+ * starts from the beginning. The checkpoint is removed when the job is complete.
+ * <p>
+ * On a Standard file the data of an interrupted segment may be written partially, it is written again on
+ * the next tap. As the segments are written to fixed offsets a repeated segment gives the same file content.
+ * <p>
+ * On a Backup file all segments are committed with one commitTransaction after the last segment, so the
+ * file holds either the old or the complete new data. The card discards the uncommitted segments when the
+ * tag is lost, so there is no checkpoint for a Backup file: an interrupted write starts from the beginning
+ * on the next tap and the complete job has to fit into one tap.
+ * <p>
+ * Usage (e.g. in onTagDiscovered):
+ * ResumableDataWriter writer = new ResumableDataWriter(new File(getFilesDir(), "write_checkpoints.properties"));
+ * ResumableDataWriter.Result result = writer.write(desfireEv3, tag.getId(), aid, keyNumber, key, fileNumber, 0, data);
+ * if (result.getStatus() == ResumableDataWriter.Status.INTERRUPTED) showMessage("tap again to continue");
+ * writer.flush(); // when the tag is gone or in onPause
+ * <p>
+ * The class is thread safe. The checkpoints are kept in memory during the tap, call flush after the card
+ * is processed to write the checkpoint file, so there is no file I/O between the segments.
+ */
+
+public class ResumableDataWriter {
+
+    private static final String TAG = ResumableDataWriter.class.getName();
+    public static final int DEFAULT_SEGMENT_LENGTH = 64; // short enough to get acknowledged within a short tap
+    private static final String KEY_SEPARATOR = "_";
+    private static final String VALUE_SEPARATOR = ":";
+    private static final int JOB_ID_LENGTH = 8; // truncated SHA-256 of offset || data
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+    private static final byte[] RESPONSE_PARAMETER_ERROR = new byte[]{(byte) 0x91, (byte) 0xFC}; // failure because of wrong parameter
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF}; // no status from the card
+
+    public enum Status {
+        COMPLETE, // all data is written (and committed on a Backup file)
+        INTERRUPTED, // the card did not answer (e.g. tag lost), the write continues at the checkpoint on the next tap
+        FAILED // the card or the parameters refused the write, the checkpoint is kept (the transaction of a Backup file is aborted)
+    }
+
+    public static class Result {
+        private final Status status;
+        private final int acknowledgedLength;
+        private final int dataLength;
+        private final int numberOfSegments;
+        private final byte[] errorCode;
+        private final String errorCodeReason;
+
+        private Result(Status status, int acknowledgedLength, int dataLength, int numberOfSegments, byte[] errorCode, String errorCodeReason) {
+            this.status = status;
+            this.acknowledgedLength = acknowledgedLength;
+            this.dataLength = dataLength;
+            this.numberOfSegments = numberOfSegments;
+            this.errorCode = (errorCode == null) ? RESPONSE_FAILURE.clone() : errorCode.clone();
+            this.errorCodeReason = (errorCodeReason == null) ? "" : errorCodeReason;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isComplete() {
+            return status == Status.COMPLETE;
+        }
+
+        /**
+         * @return the number of data bytes that are written and acknowledged by the card (in total, over all taps)
+         */
+        public int getAcknowledgedLength() {
+            return acknowledgedLength;
+        }
+
+        public int getDataLength() {
+            return dataLength;
+        }
+
+        /**
+         * @return the number of segments written during this call
+         */
+        public int getNumberOfSegments() {
+            return numberOfSegments;
+        }
+
+        public byte[] getErrorCode() {
+            return errorCode.clone();
+        }
+
+        public String getErrorCodeReason() {
+            return errorCodeReason;
+        }
+
+        @Override
+        public String toString() {
+            return status.name() + " " + acknowledgedLength + "/" + dataLength + " bytes, " + numberOfSegments + " segments"
+                    + ((status == Status.COMPLETE) ? "" : " errorCode: " + bytesToHexNpeUpperCase(errorCode) + " " + errorCodeReason);
+        }
+    }
+
+    private static class Checkpoint {
+        final byte[] jobId;
+        int acknowledgedLength;
+
+        Checkpoint(byte[] jobId, int acknowledgedLength) {
+            this.jobId = jobId;
+            this.acknowledgedLength = acknowledgedLength;
+        }
+    }
+
+    private final File checkpointFile; // null = memory only checkpoints
+    private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+    private int segmentLength = DEFAULT_SEGMENT_LENGTH;
+    private boolean isChanged = false; // true when the checkpoints differ from the checkpoint file
+
+    /**
+     * keeps the checkpoints in memory, they are lost when the app is closed
+     */
+    public ResumableDataWriter() {
+        this(null);
+    }
+
+    /**
+     * @param checkpointFile | the file that persists the checkpoints, NULL for memory only checkpoints
+     */
+    public ResumableDataWriter(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+        load();
+    }
+
+    /**
+     * @param segmentLength | number of data bytes between two checkpoints, a smaller segment gets acknowledged
+     *                      within a shorter tap but needs more commands (and commits on a Backup file)
+     */
+    public synchronized void setSegmentLength(int segmentLength) {
+        if (segmentLength < 1) return;
+        this.segmentLength = segmentLength;
+    }
+
+    /**
+     * writes the data or continues an interrupted write of the same data
+     *
+     * @param desfireEv3            | the session of the tapped card
+     * @param cardUid               | UID of the card, identifies the checkpoint
+     * @param applicationIdentifier | AID of the application, 3 bytes
+     * @param keyNumber             | key with write access to the file
+     * @param key                   | AES key, 16 bytes
+     * @param fileNumber            | in range 0..31 AND file is a Standard or Backup file
+     * @param offset                | position to write the data, starting with 0
+     * @param data                  | the complete data of the write job
+     * @return the result, on INTERRUPTED call write with the same parameters on the next tap
+     */
+    public Result write(DesfireEv3 desfireEv3, byte[] cardUid, byte[] applicationIdentifier, byte keyNumber, byte[] key, byte fileNumber, int offset, byte[] data) {
+        if ((desfireEv3 == null) || (cardUid == null) || (applicationIdentifier == null) || (applicationIdentifier.length != 3)
+                || (key == null) || (data == null) || (data.length == 0) || (offset < 0) || (fileNumber < 0) || (fileNumber > 31)) {
+            return new Result(Status.FAILED, 0, (data == null) ? 0 : data.length, 0, RESPONSE_PARAMETER_ERROR, "a parameter is NULL or out of range");
+        }
+        String checkpointKey = getKey(cardUid, applicationIdentifier, fileNumber);
+        byte[] jobId = getJobId(offset, data);
+        int acknowledgedLength = getAcknowledgedLength(checkpointKey, jobId);
+
+        if (!desfireEv3.selectApplicationByAid(applicationIdentifier)) {
+            return getFailureResult(desfireEv3, acknowledgedLength, data.length, 0, false);
+        }
+        if (!desfireEv3.authenticateAesEv2First(keyNumber, key)) {
+            return getFailureResult(desfireEv3, acknowledgedLength, data.length, 0, false);
+        }
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(fileNumber);
+        if (fileSettings == null) {
+            return new Result(Status.FAILED, acknowledgedLength, data.length, 0, RESPONSE_PARAMETER_ERROR, "the file " + fileNumber + " is not in the application");
+        }
+        if (offset + data.length > fileSettings.getFileSizeInt()) {
+            return new Result(Status.FAILED, acknowledgedLength, data.length, 0, RESPONSE_PARAMETER_ERROR, "offset + data length exceeds the file size");
+        }
+        boolean isBackupFile = fileSettings.getFileType() == FileSettings.BACKUP_FILE_TYPE;
+        if (isBackupFile) acknowledgedLength = 0; // the uncommitted segments of an earlier tap are discarded by the card
+
+        int numberOfSegments = 0;
+        int writtenLength = acknowledgedLength;
+        while (writtenLength < data.length) {
+            int length = Math.min(getSegmentLength(), data.length - writtenLength);
+            byte[] segment = Arrays.copyOfRange(data, writtenLength, writtenLength + length);
+            if (!desfireEv3.writeToADataFile(fileNumber, offset + writtenLength, segment)) {
+                Log.d(TAG, "write interrupted at " + writtenLength + " of " + data.length);
+                return getFailureResult(desfireEv3, acknowledgedLength, data.length, numberOfSegments, isBackupFile);
+            }
+            writtenLength += length;
+            numberOfSegments++;
+            if (!isBackupFile) {
+                acknowledgedLength = writtenLength;
+                putCheckpoint(checkpointKey, jobId, acknowledgedLength);
+            }
+        }
+        if (isBackupFile) {
+            if (!desfireEv3.commitTransactionFull(false)) {
+                return getFailureResult(desfireEv3, acknowledgedLength, data.length, numberOfSegments, false);
+            }
+            acknowledgedLength = writtenLength;
+        }
+        removeCheckpoint(checkpointKey);
+        return new Result(Status.COMPLETE, acknowledgedLength, data.length, numberOfSegments, RESPONSE_OK, "SUCCESS");
+    }
+
+    /**
+     * @return the acknowledged length of the write job on the file, 0 if there is no checkpoint
+     */
+    public synchronized int getCheckpoint(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        Checkpoint checkpoint = checkpoints.get(getKey(cardUid, applicationIdentifier, fileNumber));
+        return (checkpoint == null) ? 0 : checkpoint.acknowledgedLength;
+    }
+
+    /**
+     * removes the checkpoint of a file, the next write starts from the beginning
+     */
+    public synchronized void discard(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        removeCheckpoint(getKey(cardUid, applicationIdentifier, fileNumber));
+    }
+
+    public synchronized void clear() {
+        checkpoints.clear();
+        isChanged = true;
+    }
+
+    /**
+     * writes the checkpoint file when there are changes since the last flush, memory only checkpoints do nothing
+     *
+     * @return false when the checkpoint file could not be written
+     */
+    public synchronized boolean flush() {
+        if ((checkpointFile == null) || (!isChanged)) return true;
+        if (!save()) return false;
+        isChanged = false;
+        return true;
+    }
+
+    public synchronized int size() {
+        return checkpoints.size();
+    }
+
+    /**
+     * a failure without an answer of the card (e.g. TagLostException) is an interruption, any other failure
+     * (including a local 0x91FF, e.g. a wrong response MAC) is a FAILED write
+     *
+     * @param isAbortTransaction | true aborts the uncommitted segments of a Backup file when the card is still there
+     */
+    private Result getFailureResult(DesfireEv3 desfireEv3, int acknowledgedLength, int dataLength, int numberOfSegments, boolean isAbortTransaction) {
+        byte[] errorCode = desfireEv3.getErrorCode().clone();
+        String errorCodeReason = desfireEv3.getErrorCodeReason();
+        boolean isInterrupted = (Arrays.equals(errorCode, RESPONSE_FAILURE)) && (desfireEv3.isTransceiveFailed());
+        if ((!isInterrupted) && (isAbortTransaction)) desfireEv3.abortATransaction(); // fails when the error reset the authentication, the card aborts then
+        return new Result(isInterrupted ? Status.INTERRUPTED : Status.FAILED, acknowledgedLength, dataLength, numberOfSegments, errorCode, errorCodeReason);
+    }
+
+    private synchronized int getSegmentLength() {
+        return segmentLength;
+    }
+
+    private synchronized int getAcknowledgedLength(String checkpointKey, byte[] jobId) {
+        Checkpoint checkpoint = checkpoints.get(checkpointKey);
+        if ((checkpoint == null) || (!Arrays.equals(checkpoint.jobId, jobId))) return 0;
+        return checkpoint.acknowledgedLength;
+    }
+
+    private synchronized void putCheckpoint(String checkpointKey, byte[] jobId, int acknowledgedLength) {
+        checkpoints.put(checkpointKey, new Checkpoint(jobId, acknowledgedLength));
+        isChanged = true;
+    }
+
+    private synchronized void removeCheckpoint(String checkpointKey) {
+        if (checkpoints.remove(checkpointKey) != null) isChanged = true;
+    }
+
+    /**
+     * the key is UID || AID || fileNumber, all hex encoded
+     */
+    private static String getKey(byte[] cardUid, byte[] applicationIdentifier, byte fileNumber) {
+        return bytesToHexNpeUpperCase(cardUid) + KEY_SEPARATOR + bytesToHexNpeUpperCase(applicationIdentifier) + KEY_SEPARATOR + fileNumber;
+    }
+
+    private static byte[] getJobId(int offset, byte[] data) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(Utils.intTo4ByteArrayInversed(offset));
+            messageDigest.update(data);
+            return Arrays.copyOf(messageDigest.digest(), JOB_ID_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on all Android versions, without it each write starts from the beginning
+            Log.e(TAG, "SHA-256 is not available: " + e.getMessage());
+            return new byte[JOB_ID_LENGTH];
+        }
+    }
+
+    /**
+     * section for persistence, one property per file: key = jobId:acknowledgedLength
+     */
+
+    private void load() {
+        if ((checkpointFile == null) || (!checkpointFile.exists())) return;
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(checkpointFile)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "could not load the checkpoint file: " + e.getMessage());
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                String[] parts = properties.getProperty(key).split(VALUE_SEPARATOR);
+                byte[] jobId = hexStringToByteArray(parts[0]);
+                if (jobId == null) throw new IllegalArgumentException("no hex data");
+                checkpoints.put(key, new Checkpoint(jobId, Integer.parseInt(parts[1])));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "skipped the corrupted checkpoint " + key);
+            }
+        }
+    }
+
+    private boolean save() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+            properties.setProperty(entry.getKey(), bytesToHexNpeUpperCase(entry.getValue().jobId) + VALUE_SEPARATOR + entry.getValue().acknowledgedLength);
+        }
+        try (OutputStream outputStream = new FileOutputStream(checkpointFile)) {
+            properties.store(outputStream, "DESFire write checkpoints");
+        } catch (IOException e) {
+            Log.e(TAG, "could not write the checkpoint file: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+}
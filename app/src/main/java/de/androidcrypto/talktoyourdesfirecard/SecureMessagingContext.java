@@ -0,0 +1,316 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import android.util.Log;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class holds the crypto engines for the EV2 secure messaging of one authenticated session.
+ * It is created once after a successful authenticateAesEv2First or authenticateAesEv2NonFirst and
+ * dropped when the authentication data is invalidated.
+ * <p>
+ * Instead of a Cipher.getInstance and a SecretKeySpec for each AES operation (and a new AesCmac with
+ * the subkey calculation for each MAC) the context keeps:
+ * - an AES/CBC encryption and decryption Cipher for SesAuthENCKey, each operation is one init with the
+ * IV and one doFinal over all blocks
+ * - an AES/ECB Cipher for SesAuthMACKey with the precomputed CMAC subkeys K1 and K2, the CMAC chaining
+ * is done in this class because the last block gets the subkey and CmacStream gets its data in parts
+ * <p>
+ * Note: the class is not thread safe, it belongs to one DesfireEv3 session
+ */
+
+public class SecureMessagingContext {
+
+    private static final String TAG = SecureMessagingContext.class.getName();
+    private static final int BLOCK_SIZE = 16;
+    private static final byte CMAC_CONSTANT = (byte) 0x87;
+
+    private final SecretKeySpec encKeySpec;
+    private final Cipher encCipher;
+    private final Cipher decCipher;
+    private final Cipher macCipher;
+    private final byte[] k1;
+    private final byte[] k2;
+    private final byte[] block = new byte[BLOCK_SIZE]; // work buffer
+
+    private SecureMessagingContext(byte[] sesAuthEncKey, byte[] sesAuthMacKey) throws GeneralSecurityException {
+        encKeySpec = new SecretKeySpec(sesAuthEncKey, "AES");
+        encCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        decCipher = Cipher.getInstance("AES/CBC/NoPadding");
+        macCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        macCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sesAuthMacKey, "AES"));
+        // subkeys for the CMAC, L = E(K, 0^128)
+        byte[] l = new byte[BLOCK_SIZE];
+        macCipher.update(l, 0, BLOCK_SIZE, l, 0);
+        k1 = doubleSubKey(l);
+        k2 = doubleSubKey(k1);
+    }
+
+    /**
+     * creates the context for the session keys
+     *
+     * @param sesAuthEncKey | SesAuthENCKey (16 bytes)
+     * @param sesAuthMacKey | SesAuthMACKey (16 bytes)
+     * @return the context or NULL on failure
+     */
+    public static SecureMessagingContext create(byte[] sesAuthEncKey, byte[] sesAuthMacKey) {
+        if ((sesAuthEncKey == null) || (sesAuthEncKey.length != BLOCK_SIZE) || (sesAuthMacKey == null) || (sesAuthMacKey.length != BLOCK_SIZE)) {
+            Log.e(TAG, "sesAuthEncKey or sesAuthMacKey is NULL or not of length 16, aborted");
+            return null;
+        }
+        try {
+            return new SecureMessagingContext(sesAuthEncKey, sesAuthMacKey);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on create: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * AES-CBC encryption with SesAuthENCKey, no padding
+     *
+     * @param iv   | 16 bytes
+     * @param data | length is a multiple of 16
+     * @return the encrypted data or NULL on failure (same as AES.encrypt)
+     */
+    public byte[] encrypt(byte[] iv, byte[] data) {
+        if ((iv == null) || (iv.length != BLOCK_SIZE) || (data == null) || ((data.length % BLOCK_SIZE) != 0)) {
+            Log.e(TAG, "encrypt: iv or data length is invalid, aborted");
+            return null;
+        }
+        try {
+            encCipher.init(Cipher.ENCRYPT_MODE, encKeySpec, new IvParameterSpec(iv));
+            return encCipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on encrypt: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * AES-CBC decryption with SesAuthENCKey, no padding
+     *
+     * @param iv   | 16 bytes
+     * @param data | length is a multiple of 16
+     * @return the decrypted data or NULL on failure (same as AES.decrypt)
+     */
+    public byte[] decrypt(byte[] iv, byte[] data) {
+        if ((iv == null) || (iv.length != BLOCK_SIZE) || (data == null) || ((data.length % BLOCK_SIZE) != 0)) {
+            Log.e(TAG, "decrypt: iv or data length is invalid, aborted");
+            return null;
+        }
+        try {
+            decCipher.init(Cipher.DECRYPT_MODE, encKeySpec, new IvParameterSpec(iv));
+            return decCipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on decrypt: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * pads the data with ISO 9797-M2 (0x80 00.., same as DesfireEv3.paddingWriteData, a complete padding
+     * block is added when the data length is a multiple of 16) in the out buffer and encrypts it there
+     * with one CBC doFinal
+     *
+     * @param iv         | 16 bytes
+     * @param data       | plain data
+     * @param dataOffset | start of the plain data
+     * @param dataLength | length of the plain data
+     * @param out        | buffer for the encrypted data, needs getPaddedLength(dataLength) bytes from outOffset
+     * @param outOffset  | start in out
+     * @return the number of encrypted bytes or -1 on failure
+     */
+    public int encryptPadded(byte[] iv, byte[] data, int dataOffset, int dataLength, byte[] out, int outOffset) {
+        int paddedLength = getPaddedLength(dataLength);
+        if ((iv == null) || (iv.length != BLOCK_SIZE) || (out == null) || (out.length - outOffset < paddedLength)) {
+            Log.e(TAG, "encryptPadded: iv or buffer length is invalid, aborted");
+            return -1;
+        }
+        System.arraycopy(data, dataOffset, out, outOffset, dataLength);
+        out[outOffset + dataLength] = (byte) 0x80;
+        Arrays.fill(out, outOffset + dataLength + 1, outOffset + paddedLength, (byte) 0);
+        try {
+            encCipher.init(Cipher.ENCRYPT_MODE, encKeySpec, new IvParameterSpec(iv));
+            encCipher.doFinal(out, outOffset, paddedLength, out, outOffset);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on encryptPadded: " + e.getMessage());
+            return -1;
+        }
+        return paddedLength;
+    }
+
+    /**
+     * decrypts the data in place with one CBC doFinal and removes the ISO 9797-M2 padding (the padding
+     * is located in the last block only)
+     *
+     * @param iv     | 16 bytes
+     * @param data   | encrypted data, gets overwritten with the decrypted data
+     * @param offset | start of the encrypted data
+     * @param length | length of the encrypted data, a multiple of 16
+     * @return the length of the decrypted data without padding or -1 on failure or wrong padding
+     */
+    public int decryptInPlaceUnpadded(byte[] iv, byte[] data, int offset, int length) {
+        if ((iv == null) || (iv.length != BLOCK_SIZE) || (data == null) || (length < BLOCK_SIZE) || ((length % BLOCK_SIZE) != 0)) {
+            Log.e(TAG, "decryptInPlaceUnpadded: iv or data length is invalid, aborted");
+            return -1;
+        }
+        try {
+            decCipher.init(Cipher.DECRYPT_MODE, encKeySpec, new IvParameterSpec(iv));
+            decCipher.doFinal(data, offset, length, data, offset);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on decryptInPlaceUnpadded: " + e.getMessage());
+            return -1;
+        }
+        return getUnpaddedLength(data, offset, length);
+    }
+
+    /**
+     * @param dataLength | length of the plain data
+     * @return the length after ISO 9797-M2 padding (always 1..16 bytes of padding)
+     */
+    public static int getPaddedLength(int dataLength) {
+        return ((dataLength / BLOCK_SIZE) + 1) * BLOCK_SIZE;
+    }
+
+    /**
+     * searches the ISO 9797-M2 padding (0x80 followed by 0x00 bytes) in the last block of the data
+     *
+     * @return the length of the data without padding or -1 if the padding is missing
+     */
+    public static int getUnpaddedLength(byte[] data, int offset, int length) {
+        int lastBlockStart = offset + length - BLOCK_SIZE;
+        for (int position = offset + length - 1; position >= Math.max(offset, lastBlockStart); position--) {
+            if (data[position] == (byte) 0x80) {
+                return position - offset;
+            }
+            if (data[position] != 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * AES-CMAC (NIST SP 800-38B) with SesAuthMACKey using the precomputed subkeys
+     *
+     * @param input | the MAC input
+     * @return the full 16 bytes CMAC or NULL on failure (same as calculateDiverseKey)
+     */
+    public byte[] cmac(byte[] input) {
+        int length = (input == null) ? 0 : input.length;
+        int numberOfBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        boolean isCompleteLastBlock = (length > 0) && ((length % BLOCK_SIZE) == 0);
+        if (numberOfBlocks == 0) numberOfBlocks = 1;
+        byte[] mac = new byte[BLOCK_SIZE]; // the CBC chain value, starts with zero IV
+        try {
+            for (int blockNumber = 0; blockNumber < numberOfBlocks - 1; blockNumber++) {
+                int offset = blockNumber * BLOCK_SIZE;
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    block[i] = (byte) (mac[i] ^ input[offset + i]);
+                }
+                macCipher.update(block, 0, BLOCK_SIZE, mac, 0);
+            }
+            // last block: complete block xor K1, incomplete block padded with 0x80 00.. xor K2
+            int offset = (numberOfBlocks - 1) * BLOCK_SIZE;
+            byte[] subKey = isCompleteLastBlock ? k1 : k2;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                byte value;
+                if (offset + i < length) {
+                    value = input[offset + i];
+                } else if (offset + i == length) {
+                    value = (byte) 0x80;
+                } else {
+                    value = 0;
+                }
+                block[i] = (byte) (mac[i] ^ value ^ subKey[i]);
+            }
+            macCipher.update(block, 0, BLOCK_SIZE, mac, 0);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Exception on cmac: " + e.getMessage());
+            return null;
+        }
+        return mac;
+    }
+
+    /**
+     * starts an AES-CMAC with SesAuthMACKey over data that arrives in parts (e.g. the frames of a chained
+     * response), the result is the same as cmac over the concatenated parts
+     *
+     * @return the CMAC calculation, feed it with update and get the MAC with doFinal
+     */
+    public CmacStream startCmac() {
+        return new CmacStream();
+    }
+
+    /**
+     * an AES-CMAC calculation in parts, only the last block is held back (it gets the subkey on doFinal),
+     * so the memory does not grow with the data length
+     */
+    public class CmacStream {
+        private final byte[] mac = new byte[BLOCK_SIZE]; // the CBC chain value, starts with zero IV
+        private final byte[] pending = new byte[BLOCK_SIZE];
+        private int pendingLength = 0;
+        private boolean isFailed = false;
+
+        private CmacStream() {
+        }
+
+        public void update(byte[] data, int offset, int length) {
+            for (int position = offset; position < offset + length; position++) {
+                if (pendingLength == BLOCK_SIZE) {
+                    macBlock(null);
+                    pendingLength = 0;
+                }
+                pending[pendingLength++] = data[position];
+            }
+        }
+
+        /**
+         * @return the full 16 bytes CMAC or NULL on failure
+         */
+        public byte[] doFinal() {
+            // last block: complete block xor K1, incomplete block padded with 0x80 00.. xor K2
+            boolean isCompleteLastBlock = (pendingLength == BLOCK_SIZE);
+            if (!isCompleteLastBlock) {
+                pending[pendingLength] = (byte) 0x80;
+                Arrays.fill(pending, pendingLength + 1, BLOCK_SIZE, (byte) 0);
+            }
+            macBlock(isCompleteLastBlock ? k1 : k2);
+            pendingLength = 0;
+            if (isFailed) return null;
+            return mac.clone();
+        }
+
+        private void macBlock(byte[] subKey) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                block[i] = (byte) (mac[i] ^ pending[i] ^ ((subKey == null) ? 0 : subKey[i]));
+            }
+            try {
+                macCipher.update(block, 0, BLOCK_SIZE, mac, 0);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Exception on CmacStream: " + e.getMessage());
+                isFailed = true;
+            }
+        }
+    }
+
+    private static byte[] doubleSubKey(byte[] k) {
+        byte[] ret = new byte[k.length];
+        for (int i = 0; i < k.length; i++) {
+            ret[i] = (byte) (k[i] << 1);
+            if ((i + 1 < k.length) && ((k[i + 1] & 0x80) != 0)) {
+                ret[i] |= 0x01;
+            }
+        }
+        if ((k[0] & 0x80) != 0) {
+            ret[ret.length - 1] ^= CMAC_CONSTANT;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,576 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This class verifies Secure Unique NFC (SUN) messages that an NTAG 424 DNA or DESFire EV3 tag mirrors
+ * into the URL written by DesfireEv3.writeToStandardFileUrlPlain when Secure Dynamic Messaging (SDM)
+ * is enabled (see changeFileSettingsNtag424Dna). It runs on a plain JVM (no Android classes) and is
+ * meant for a backend that validates the taps.
+ * <p>
+ * Steps for each URL:
+ * 1 parse the encrypted PICC data, the encrypted file data (optional) and the MAC from the URL parameters
+ * 2 decrypt the PICC data with the SDMMetaReadKey: PICCDataTag || UID || SDMReadCtr || padding
+ * 3 derive the session keys SesSDMFileReadENCKey (SV1 = C33C..) and SesSDMFileReadMACKey (SV2 = 3CC3..)
+ * from the SDMFileReadKey, UID and SDMReadCtr
+ * 4 verify the (truncated) CMAC over the MAC input
+ * 5 decrypt the encrypted file data with the SesSDMFileReadENCKey
+ * 6 check that the SDMReadCtr is greater than the last accepted counter of this UID (replay protection)
+ * see NTAG 424 DNA and NTAG 424 DNA TagTamper features and hints AN12196.pdf pages 13 - 18
+ * <p>
+ * The class is thread safe. The key material of the SDMFileReadKey of a UID (key and CMAC subkeys) is
+ * cached in a bounded LRU cache, so a KeyProvider that derives a key per UID is called once per tag only.
+ * verifyAll verifies a batch of URLs on all available cores.
+ * Note: the read counter check accepts strictly increasing counters only. When two taps of the same
+ * tag are in one batch the older tap can get reported as REPLAYED_READ_COUNTER.
+ */
+
+public class SunMessageVerifier {
+
+    public enum Status {
+        VALID, INVALID_URL, INVALID_PICC_DATA, INVALID_MAC, INVALID_FILE_DATA, REPLAYED_READ_COUNTER, MISSING_KEY
+    }
+
+    /**
+     * provides the SDM keys, a backend with diversified keys returns the SDMFileReadKey of the UID
+     */
+    public interface KeyProvider {
+        byte[] getSdmMetaReadKey();
+
+        byte[] getSdmFileReadKey(byte[] uid);
+    }
+
+    /**
+     * the names of the URL parameters, e.g. for 'https://sdm.nfcdeveloper.com/tag?picc_data=..&enc=..&cmac=..'
+     * the names are 'picc_data', 'enc' and 'cmac'
+     */
+    public static class UrlTemplate {
+        private final String piccDataParameter;
+        private final String encFileDataParameter;
+        private final String macParameter;
+        private final String macInputParameter;
+
+        /**
+         * @param piccDataParameter    | parameter with the encrypted PICC data (32 hex characters)
+         * @param encFileDataParameter | parameter with the encrypted file data, NULL if not used
+         * @param macParameter         | parameter with the MAC (16 hex characters)
+         * @param macInputParameter    | parameter where the MAC input starts (SDMMACInputOffset), the MAC input
+         *                             runs from the start of this parameter value to the start of the MAC value.
+         *                             NULL when SDMMACInputOffset equals SDMMACOffset (empty MAC input)
+         */
+        public UrlTemplate(String piccDataParameter, String encFileDataParameter, String macParameter, String macInputParameter) {
+            this.piccDataParameter = piccDataParameter;
+            this.encFileDataParameter = encFileDataParameter;
+            this.macParameter = macParameter;
+            this.macInputParameter = macInputParameter;
+        }
+    }
+
+    // encrypted PICC data and encrypted file data, the MAC is calculated over the encrypted file data
+    public static final UrlTemplate DEFAULT_URL_TEMPLATE = new UrlTemplate("picc_data", "enc", "cmac", "enc");
+
+    public static final int DEFAULT_KEY_CACHE_SIZE = 10000;
+    private static final int BLOCK_SIZE = 16;
+    private static final int UID_LENGTH = 7;
+    private static final int READ_COUNTER_LENGTH = 3;
+    private static final byte CMAC_CONSTANT = (byte) 0x87;
+    private static final byte[] LABEL_SDM_ENC = new byte[]{(byte) 0xC3, (byte) 0x3C};
+    private static final byte[] LABEL_SDM_MAC = new byte[]{(byte) 0x3C, (byte) 0xC3};
+
+    private final KeyProvider keyProvider;
+    private final UrlTemplate urlTemplate;
+    private final KeyMaterial metaReadKeyMaterial;
+    private final Map<String, KeyMaterial> fileReadKeyCache;
+    private final Map<String, Integer> lastReadCounters = new ConcurrentHashMap<>();
+    private volatile boolean readCounterCheckEnabled = true;
+    private ExecutorService executorService;
+
+    private static final ThreadLocal<Cipher> ENCRYPT_CIPHER = new ThreadLocal<>();
+    private static final ThreadLocal<Cipher> DECRYPT_CIPHER = new ThreadLocal<>();
+
+    /**
+     * verifier for tags that all use the same keys
+     */
+    public SunMessageVerifier(final byte[] sdmMetaReadKey, final byte[] sdmFileReadKey, UrlTemplate urlTemplate) {
+        this(new KeyProvider() {
+            @Override
+            public byte[] getSdmMetaReadKey() {
+                return sdmMetaReadKey;
+            }
+
+            @Override
+            public byte[] getSdmFileReadKey(byte[] uid) {
+                return sdmFileReadKey;
+            }
+        }, urlTemplate, DEFAULT_KEY_CACHE_SIZE);
+    }
+
+    /**
+     * @param keyProvider  | provides the SDMMetaReadKey and the SDMFileReadKey for a UID
+     * @param urlTemplate  | names of the URL parameters
+     * @param keyCacheSize | maximum number of UIDs in the key cache
+     */
+    public SunMessageVerifier(KeyProvider keyProvider, UrlTemplate urlTemplate, final int keyCacheSize) {
+        if ((keyProvider == null) || (urlTemplate == null)) {
+            throw new IllegalArgumentException("keyProvider or urlTemplate is NULL");
+        }
+        this.keyProvider = keyProvider;
+        this.urlTemplate = urlTemplate;
+        byte[] metaReadKey = keyProvider.getSdmMetaReadKey();
+        this.metaReadKeyMaterial = (metaReadKey == null) ? null : new KeyMaterial(metaReadKey);
+        this.fileReadKeyCache = new LinkedHashMap<String, KeyMaterial>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, KeyMaterial> eldest) {
+                return size() > keyCacheSize;
+            }
+        };
+    }
+
+    public void setReadCounterCheckEnabled(boolean readCounterCheckEnabled) {
+        this.readCounterCheckEnabled = readCounterCheckEnabled;
+    }
+
+    /**
+     * sets the last accepted read counter of a tag, e.g. restored from a database on startup
+     */
+    public void setLastReadCounter(byte[] uid, int readCounter) {
+        lastReadCounters.put(bytesToHex(uid), readCounter);
+    }
+
+    /**
+     * @return the last accepted read counter of the tag or -1 if the tag was not seen before
+     */
+    public int getLastReadCounter(byte[] uid) {
+        Integer readCounter = lastReadCounters.get(bytesToHex(uid));
+        return (readCounter == null) ? -1 : readCounter;
+    }
+
+    /**
+     * verifies one SUN message
+     *
+     * @param url | the complete URL read from the tag
+     * @return the result, check getStatus
+     */
+    public Result verify(String url) {
+        Result result = new Result(url);
+        if (url == null) return result.fail(Status.INVALID_URL, "url is NULL");
+        // step 1 parse the parameters
+        int[] piccDataPosition = findParameterValue(url, urlTemplate.piccDataParameter);
+        int[] macPosition = findParameterValue(url, urlTemplate.macParameter);
+        if ((piccDataPosition == null) || (macPosition == null)) {
+            return result.fail(Status.INVALID_URL, "PICC data or MAC parameter not found");
+        }
+        byte[] encPiccData = hexToBytes(url, piccDataPosition[0], piccDataPosition[1]);
+        byte[] macReceived = hexToBytes(url, macPosition[0], macPosition[1]);
+        if ((encPiccData == null) || (encPiccData.length != BLOCK_SIZE) || (macReceived == null) || (macReceived.length != 8)) {
+            return result.fail(Status.INVALID_URL, "PICC data or MAC is not of correct length or not hex encoded");
+        }
+        byte[] encFileData = null;
+        if (urlTemplate.encFileDataParameter != null) {
+            int[] encFileDataPosition = findParameterValue(url, urlTemplate.encFileDataParameter);
+            if ((encFileDataPosition != null) && (encFileDataPosition[1] > encFileDataPosition[0])) {
+                encFileData = hexToBytes(url, encFileDataPosition[0], encFileDataPosition[1]);
+                if ((encFileData == null) || ((encFileData.length % BLOCK_SIZE) != 0)) {
+                    return result.fail(Status.INVALID_URL, "encrypted file data is not of correct length or not hex encoded");
+                }
+            }
+        }
+        int macInputStart = macPosition[0];
+        if (urlTemplate.macInputParameter != null) {
+            int[] macInputPosition = findParameterValue(url, urlTemplate.macInputParameter);
+            if ((macInputPosition == null) || (macInputPosition[0] > macPosition[0])) {
+                return result.fail(Status.INVALID_URL, "MAC input parameter not found");
+            }
+            macInputStart = macInputPosition[0];
+        }
+        byte[] macInput = url.substring(macInputStart, macPosition[0]).getBytes(StandardCharsets.US_ASCII);
+
+        try {
+            // step 2 decrypt the PICC data
+            if (metaReadKeyMaterial == null) return result.fail(Status.MISSING_KEY, "SDMMetaReadKey is NULL");
+            byte[] piccData = crypt(DECRYPT_CIPHER, Cipher.DECRYPT_MODE, metaReadKeyMaterial.keySpec, encPiccData);
+            byte piccDataTag = piccData[0];
+            boolean isUidMirrored = (piccDataTag & 0x80) != 0;
+            boolean isReadCounterMirrored = (piccDataTag & 0x40) != 0;
+            int uidLength = piccDataTag & 0x0F;
+            if ((!isUidMirrored) || (!isReadCounterMirrored) || (uidLength != UID_LENGTH)) {
+                // session keys and replay protection need the UID and the read counter
+                return result.fail(Status.INVALID_PICC_DATA, "PICC data does not contain UID and read counter (wrong key ?)");
+            }
+            result.piccDataTag = piccDataTag;
+            result.uid = Arrays.copyOfRange(piccData, 1, 1 + UID_LENGTH);
+            byte[] readCounterBytes = Arrays.copyOfRange(piccData, 1 + UID_LENGTH, 1 + UID_LENGTH + READ_COUNTER_LENGTH);
+            result.readCounter = (readCounterBytes[0] & 0xff) | ((readCounterBytes[1] & 0xff) << 8) | ((readCounterBytes[2] & 0xff) << 16);
+
+            // step 3 session keys
+            KeyMaterial fileReadKeyMaterial = getFileReadKeyMaterial(result.uid);
+            if (fileReadKeyMaterial == null) return result.fail(Status.MISSING_KEY, "no SDMFileReadKey for the UID");
+            byte[] sesSdmFileReadEncKey = cmac(fileReadKeyMaterial, getSessionVector(LABEL_SDM_ENC, result.uid, readCounterBytes));
+            KeyMaterial sesSdmFileReadMacKey = new KeyMaterial(cmac(fileReadKeyMaterial, getSessionVector(LABEL_SDM_MAC, result.uid, readCounterBytes)));
+
+            // step 4 verify the MAC, it is truncated to the bytes with odd index
+            byte[] macFull = cmac(sesSdmFileReadMacKey, macInput);
+            byte[] macTruncated = new byte[8];
+            for (int i = 0; i < 8; i++) {
+                macTruncated[i] = macFull[(2 * i) + 1];
+            }
+            if (!MessageDigest.isEqual(macTruncated, macReceived)) {
+                return result.fail(Status.INVALID_MAC, "MAC verification failed");
+            }
+
+            // step 5 decrypt the file data, IV = E(SesSDMFileReadENCKey, SDMReadCtr || 13 zero bytes)
+            if (encFileData != null) {
+                SecretKeySpec sesEncKeySpec = new SecretKeySpec(sesSdmFileReadEncKey, "AES");
+                byte[] ivInput = new byte[BLOCK_SIZE];
+                System.arraycopy(readCounterBytes, 0, ivInput, 0, READ_COUNTER_LENGTH);
+                byte[] iv = crypt(ENCRYPT_CIPHER, Cipher.ENCRYPT_MODE, sesEncKeySpec, ivInput);
+                byte[] fileData = crypt(DECRYPT_CIPHER, Cipher.DECRYPT_MODE, sesEncKeySpec, encFileData);
+                // CBC: xor each block with the previous cipher block
+                for (int i = fileData.length - 1; i >= 0; i--) {
+                    fileData[i] ^= (i < BLOCK_SIZE) ? iv[i] : encFileData[i - BLOCK_SIZE];
+                }
+                result.fileData = fileData;
+            }
+        } catch (GeneralSecurityException e) {
+            return result.fail(Status.INVALID_FILE_DATA, "crypto exception: " + e.getMessage());
+        }
+
+        // step 6 the read counter has to increase
+        if ((readCounterCheckEnabled) && (!acceptReadCounter(bytesToHex(result.uid), result.readCounter))) {
+            return result.fail(Status.REPLAYED_READ_COUNTER, "read counter " + result.readCounter + " is not greater than the last accepted read counter");
+        }
+        result.status = Status.VALID;
+        return result;
+    }
+
+    /**
+     * verifies a batch of SUN messages on all available cores
+     *
+     * @param urls | the URLs
+     * @return the results in the order of the urls
+     */
+    public List<Result> verifyAll(final List<String> urls) throws InterruptedException {
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        final int size = urls.size();
+        List<Result> results = new ArrayList<>(size);
+        if ((size < 2) || (numberOfThreads < 2)) {
+            for (String url : urls) {
+                results.add(verify(url));
+            }
+            return results;
+        }
+        final Result[] resultArray = new Result[size];
+        int chunkSize = (size + numberOfThreads - 1) / numberOfThreads;
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService executor = getExecutorService(numberOfThreads);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        resultArray[i] = verify(urls.get(i));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("verification failed: " + e.getCause(), e.getCause());
+            }
+        }
+        results.addAll(Arrays.asList(resultArray));
+        return results;
+    }
+
+    /**
+     * stops the threads of verifyAll
+     */
+    public synchronized void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutorService(int numberOfThreads) {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SunMessageVerifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executorService;
+    }
+
+    private boolean acceptReadCounter(String uidHex, int readCounter) {
+        while (true) {
+            Integer lastReadCounter = lastReadCounters.get(uidHex);
+            if (lastReadCounter == null) {
+                if (lastReadCounters.putIfAbsent(uidHex, readCounter) == null) return true;
+            } else {
+                if (readCounter <= lastReadCounter) return false;
+                if (lastReadCounters.replace(uidHex, lastReadCounter, readCounter)) return true;
+            }
+        }
+    }
+
+    private KeyMaterial getFileReadKeyMaterial(byte[] uid) {
+        String uidHex = bytesToHex(uid);
+        synchronized (fileReadKeyCache) {
+            KeyMaterial keyMaterial = fileReadKeyCache.get(uidHex);
+            if (keyMaterial != null) return keyMaterial;
+        }
+        byte[] fileReadKey = keyProvider.getSdmFileReadKey(uid);
+        if ((fileReadKey == null) || (fileReadKey.length != BLOCK_SIZE)) return null;
+        KeyMaterial keyMaterial;
+        try {
+            keyMaterial = new KeyMaterial(fileReadKey);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        synchronized (fileReadKeyCache) {
+            fileReadKeyCache.put(uidHex, keyMaterial);
+        }
+        return keyMaterial;
+    }
+
+    /**
+     * SV = label || 0x0001 || 0x0080 || UID || SDMReadCtr, this is 16 bytes when UID and read counter are mirrored
+     */
+    private static byte[] getSessionVector(byte[] label, byte[] uid, byte[] readCounter) {
+        byte[] sessionVector = new byte[BLOCK_SIZE];
+        sessionVector[0] = label[0];
+        sessionVector[1] = label[1];
+        sessionVector[2] = (byte) 0x00;
+        sessionVector[3] = (byte) 0x01;
+        sessionVector[4] = (byte) 0x00;
+        sessionVector[5] = (byte) 0x80;
+        System.arraycopy(uid, 0, sessionVector, 6, UID_LENGTH);
+        System.arraycopy(readCounter, 0, sessionVector, 6 + UID_LENGTH, READ_COUNTER_LENGTH);
+        return sessionVector;
+    }
+
+    /**
+     * section for crypto
+     */
+
+    /**
+     * the key with the CMAC subkeys K1 and K2, immutable so it can be shared between threads
+     */
+    private static class KeyMaterial {
+        private final SecretKeySpec keySpec;
+        private final byte[] k1;
+        private final byte[] k2;
+
+        private KeyMaterial(byte[] key) {
+            if ((key == null) || (key.length != BLOCK_SIZE)) throw new IllegalArgumentException("key is not of length 16");
+            keySpec = new SecretKeySpec(key, "AES");
+            byte[] l;
+            try {
+                l = crypt(ENCRYPT_CIPHER, Cipher.ENCRYPT_MODE, keySpec, new byte[BLOCK_SIZE]);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException(e);
+            }
+            k1 = doubleSubKey(l);
+            k2 = doubleSubKey(k1);
+        }
+    }
+
+    /**
+     * AES-ECB with a Cipher of the current thread
+     */
+    private static byte[] crypt(ThreadLocal<Cipher> cipherHolder, int mode, SecretKeySpec keySpec, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = cipherHolder.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipherHolder.set(cipher);
+        }
+        cipher.init(mode, keySpec);
+        return cipher.doFinal(data);
+    }
+
+    /**
+     * AES-CMAC (NIST SP 800-38B) using the precomputed subkeys
+     */
+    private static byte[] cmac(KeyMaterial keyMaterial, byte[] input) throws GeneralSecurityException {
+        int length = input.length;
+        int numberOfBlocks = Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        boolean isCompleteLastBlock = (length > 0) && ((length % BLOCK_SIZE) == 0);
+        byte[] blocks = new byte[numberOfBlocks * BLOCK_SIZE];
+        System.arraycopy(input, 0, blocks, 0, length);
+        if (!isCompleteLastBlock) blocks[length] = (byte) 0x80;
+        byte[] subKey = isCompleteLastBlock ? keyMaterial.k1 : keyMaterial.k2;
+        int lastBlockStart = (numberOfBlocks - 1) * BLOCK_SIZE;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            blocks[lastBlockStart + i] ^= subKey[i];
+        }
+        // CBC with zero IV, the MAC is the last cipher block
+        byte[] mac = new byte[BLOCK_SIZE];
+        for (int offset = 0; offset < blocks.length; offset += BLOCK_SIZE) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                mac[i] ^= blocks[offset + i];
+            }
+            mac = crypt(ENCRYPT_CIPHER, Cipher.ENCRYPT_MODE, keyMaterial.keySpec, mac);
+        }
+        return mac;
+    }
+
+    private static byte[] doubleSubKey(byte[] k) {
+        byte[] ret = new byte[k.length];
+        for (int i = 0; i < k.length; i++) {
+            ret[i] = (byte) (k[i] << 1);
+            if ((i + 1 < k.length) && ((k[i + 1] & 0x80) != 0)) {
+                ret[i] |= 0x01;
+            }
+        }
+        if ((k[0] & 0x80) != 0) {
+            ret[ret.length - 1] ^= CMAC_CONSTANT;
+        }
+        return ret;
+    }
+
+    /**
+     * section for URL parsing
+     */
+
+    /**
+     * @return start and end index of the parameter value in the url or NULL if the parameter is missing
+     */
+    private static int[] findParameterValue(String url, String parameterName) {
+        if (parameterName == null) return null;
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) return null;
+        int position = queryStart + 1;
+        while (position < url.length()) {
+            int parameterEnd = url.indexOf('&', position);
+            if (parameterEnd < 0) parameterEnd = url.length();
+            int equalsPosition = url.indexOf('=', position);
+            if ((equalsPosition > 0) && (equalsPosition < parameterEnd)
+                    && (url.regionMatches(position, parameterName, 0, parameterName.length()))
+                    && (equalsPosition - position == parameterName.length())) {
+                return new int[]{equalsPosition + 1, parameterEnd};
+            }
+            position = parameterEnd + 1;
+        }
+        return null;
+    }
+
+    private static byte[] hexToBytes(String s, int start, int end) {
+        int length = end - start;
+        if ((length % 2) != 0) return null;
+        byte[] data = new byte[length / 2];
+        for (int i = 0; i < data.length; i++) {
+            int high = Character.digit(s.charAt(start + 2 * i), 16);
+            int low = Character.digit(s.charAt(start + 2 * i + 1), 16);
+            if ((high < 0) || (low < 0)) return null;
+            data[i] = (byte) ((high << 4) | low);
+        }
+        return data;
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02X", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * section for the result
+     */
+
+    public static class Result {
+        private final String url;
+        private Status status;
+        private String statusReason = "";
+        private byte piccDataTag;
+        private byte[] uid;
+        private int readCounter = -1;
+        private byte[] fileData;
+
+        private Result(String url) {
+            this.url = url;
+        }
+
+        private Result fail(Status status, String statusReason) {
+            this.status = status;
+            this.statusReason = statusReason;
+            return this;
+        }
+
+        public boolean isValid() {
+            return status == Status.VALID;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getStatusReason() {
+            return statusReason;
+        }
+
+        public byte getPiccDataTag() {
+            return piccDataTag;
+        }
+
+        /**
+         * @return the UID of the tag or NULL if the PICC data could not get decrypted
+         */
+        public byte[] getUid() {
+            return uid;
+        }
+
+        /**
+         * @return the SDMReadCtr or -1 if the PICC data could not get decrypted
+         */
+        public int getReadCounter() {
+            return readCounter;
+        }
+
+        /**
+         * @return the decrypted file data (including the padding written to the file) or NULL if the
+         * URL has no encrypted file data
+         */
+        public byte[] getFileData() {
+            return fileData;
+        }
+
+        @Override
+        public String toString() {
+            return "status: " + status + " (" + statusReason + ")"
+                    + " uid: " + ((uid == null) ? "null" : bytesToHex(uid))
+                    + " readCounter: " + readCounter
+                    + " fileData: " + ((fileData == null) ? "null" : bytesToHex(fileData));
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static de.androidcrypto.talktoyourdesfirecard.Utils.bytesToHexNpeUpperCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class collects the value changes and record appends of one transaction across several files of
+ * the selected application, e.g. the fare logic of a tap that debits 2 Value files and logs the trip in
+ * a Cyclic Record file:
+ * <p>
+ * ValueTransaction transaction = new ValueTransaction()
+ * .debit(PURSE_FILE_NUMBER, fare)
+ * .credit(BONUS_FILE_NUMBER, points)
+ * .appendRecord(LOG_FILE_NUMBER, logRecord);
+ * ValueTransaction.Result result = transaction.commit(desfireEv3, true);
+ * byte[] tmcv = result.getTransactionMacCounterAndValue(); // when a Transaction MAC file is present
+ * <p>
+ * The operations are validated against the file settings before any command is sent:
+ * - the file exists and has the right file type, the amount is positive
+ * - the authenticated key (or free access) has the access right for the operation
+ * - the changes of a Value file do not exceed the range between the lower and the upper limit
+ * - LimitedCredit is enabled on the Value file
+ * - a record fits into the record size, there is one appendRecord per Record file (the card writes all
+ * WriteRecord commands of a transaction into the same new record)
+ * Then the commands are sent back-to-back and finished with one CommitTransaction. On the first failure
+ * the transaction is aborted, so the card keeps the state before the transaction.
+ * <p>
+ * Note: the authentication is done by the caller before commit, use a key that has the access right to
+ * all files of the transaction. When all files have free access and there is no authentication, the
+ * CommitTransaction and AbortTransaction are sent in Plain. The limited credit value and a full Linear
+ * Record file are checked by the card only, the cached file settings do not show the current value or
+ * number of records.
+ */
+
+public class ValueTransaction {
+
+    private static final byte[] RESPONSE_OK = new byte[]{(byte) 0x91, (byte) 0x00};
+    private static final byte[] RESPONSE_PARAMETER_ERROR = new byte[]{(byte) 0x91, (byte) 0xFC}; // failure because of wrong parameter
+    private static final byte[] RESPONSE_FAILURE = new byte[]{(byte) 0x91, (byte) 0xFF}; // no status from the card
+
+    public enum Type {
+        CREDIT, DEBIT, LIMITED_CREDIT, APPEND_RECORD
+    }
+
+    public enum Status {
+        COMMITTED, // all operations are committed
+        ABORTED, // an operation or the commit failed, the transaction is aborted
+        INVALID // the validation failed, no command was sent
+    }
+
+    private static class Operation {
+        private final Type type;
+        private final byte fileNumber;
+        private final int amount;
+        private final byte[] record;
+
+        Operation(Type type, byte fileNumber, int amount, byte[] record) {
+            this.type = type;
+            this.fileNumber = fileNumber;
+            this.amount = amount;
+            this.record = record;
+        }
+
+        @Override
+        public String toString() {
+            return type.name() + " fileNumber " + fileNumber + ((type == Type.APPEND_RECORD) ? " record length " + record.length : " amount " + amount);
+        }
+    }
+
+    public static class Result {
+        private final Status status;
+        private final int failedOperationIndex;
+        private final List<String> validationErrors;
+        private final byte[] transactionMacCounterAndValue;
+        private final boolean isAbortConfirmed;
+        private final byte[] errorCode;
+        private final String errorCodeReason;
+
+        private Result(Status status, int failedOperationIndex, List<String> validationErrors, byte[] transactionMacCounterAndValue, boolean isAbortConfirmed, byte[] errorCode, String errorCodeReason) {
+            this.status = status;
+            this.failedOperationIndex = failedOperationIndex;
+            this.validationErrors = validationErrors;
+            this.transactionMacCounterAndValue = transactionMacCounterAndValue;
+            this.isAbortConfirmed = isAbortConfirmed;
+            this.errorCode = (errorCode == null) ? RESPONSE_FAILURE.clone() : errorCode.clone();
+            this.errorCodeReason = (errorCodeReason == null) ? "" : errorCodeReason;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isCommitted() {
+            return status == Status.COMMITTED;
+        }
+
+        /**
+         * @return the index of the failed operation, the number of operations when the commit failed, -1 on success or INVALID
+         */
+        public int getFailedOperationIndex() {
+            return failedOperationIndex;
+        }
+
+        public List<String> getValidationErrors() {
+            return validationErrors;
+        }
+
+        /**
+         * @return TMC (4 bytes) || TMV (8 bytes) when requested and a Transaction MAC file is present, otherwise NULL
+         */
+        public byte[] getTransactionMacCounterAndValue() {
+            return transactionMacCounterAndValue;
+        }
+
+        /**
+         * @return true when the card confirmed the AbortTransaction of an ABORTED transaction
+         */
+        public boolean isAbortConfirmed() {
+            return isAbortConfirmed;
+        }
+
+        public byte[] getErrorCode() {
+            return errorCode.clone();
+        }
+
+        public String getErrorCodeReason() {
+            return errorCodeReason;
+        }
+
+        @Override
+        public String toString() {
+            return status.name() + ((status == Status.COMMITTED) ? "" : " errorCode: " + bytesToHexNpeUpperCase(errorCode) + " " + errorCodeReason);
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * section for building the transaction
+     */
+
+    public ValueTransaction credit(byte fileNumber, int amount) {
+        operations.add(new Operation(Type.CREDIT, fileNumber, amount, null));
+        return this;
+    }
+
+    public ValueTransaction debit(byte fileNumber, int amount) {
+        operations.add(new Operation(Type.DEBIT, fileNumber, amount, null));
+        return this;
+    }
+
+    /**
+     * a LimitedCredit is allowed with the Write key, the amount is limited by the card to the sum of the
+     * debits of the last transaction
+     */
+    public ValueTransaction limitedCredit(byte fileNumber, int amount) {
+        operations.add(new Operation(Type.LIMITED_CREDIT, fileNumber, amount, null));
+        return this;
+    }
+
+    /**
+     * appends a record to a Linear or Cyclic Record file
+     *
+     * @param record | the record data, not longer than the record size (a shorter record is filled with 0x00 by the card)
+     */
+    public ValueTransaction appendRecord(byte fileNumber, byte[] record) {
+        operations.add(new Operation(Type.APPEND_RECORD, fileNumber, 0, (record == null) ? null : record.clone()));
+        return this;
+    }
+
+    public int getNumberOfOperations() {
+        return operations.size();
+    }
+
+    /**
+     * section for validation and commit
+     */
+
+    /**
+     * validates the operations against the file settings of the selected application and the authenticated key
+     *
+     * @return the list of validation errors, empty when the transaction is valid
+     */
+    public List<String> validate(DesfireEv3 desfireEv3) {
+        List<String> errors = new ArrayList<>();
+        if (desfireEv3 == null) {
+            errors.add("desfireEv3 is NULL");
+            return errors;
+        }
+        if (operations.isEmpty()) {
+            errors.add("there are no operations");
+            return errors;
+        }
+        if (desfireEv3.getApplicationAllFileIds() == null) {
+            errors.add("the file settings are not available, select the application first");
+            return errors;
+        }
+        boolean isAuthenticated = isAuthenticated(desfireEv3);
+        byte authenticatedKeyNumber = desfireEv3.getKeyNumberUsedForAuthentication();
+        // the running sum of the changes and the range it covers, per Value file
+        Map<Byte, long[]> valueChanges = new HashMap<>();
+        Set<Byte> recordFiles = new HashSet<>();
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            String prefix = "operation " + i + " " + operation.type.name() + ": ";
+            FileSettings settings = desfireEv3.getApplicationFileSettings(operation.fileNumber);
+            if (settings == null) {
+                errors.add(prefix + "the fileNumber " + operation.fileNumber + " is not in the application");
+                continue;
+            }
+            if (!hasAccess(settings, operation.type, isAuthenticated, authenticatedKeyNumber)) {
+                errors.add(prefix + "the authenticated key has no access right to fileNumber " + operation.fileNumber);
+            }
+            if (operation.type == Type.APPEND_RECORD) {
+                if ((settings.getFileType() != FileSettings.LINEAR_RECORD_FILE_TYPE) && (settings.getFileType() != FileSettings.CYCLIC_RECORD_FILE_TYPE)) {
+                    errors.add(prefix + "the fileNumber " + operation.fileNumber + " is not a Record file");
+                    continue;
+                }
+                if ((operation.record == null) || (operation.record.length == 0) || (operation.record.length > settings.getRecordSizeInt())) {
+                    errors.add(prefix + "the record length is 0 or exceeds the record size " + settings.getRecordSizeInt());
+                }
+                if (!recordFiles.add(operation.fileNumber)) {
+                    errors.add(prefix + "there is more than one appendRecord to fileNumber " + operation.fileNumber);
+                }
+                continue;
+            }
+            if (settings.getFileType() != FileSettings.VALUE_FILE_TYPE) {
+                errors.add(prefix + "the fileNumber " + operation.fileNumber + " is not a Value file");
+                continue;
+            }
+            if (operation.amount <= 0) {
+                errors.add(prefix + "the amount is not positive");
+                continue;
+            }
+            if ((operation.type == Type.LIMITED_CREDIT) && (!settings.isValueLimitedCreditEnabled())) {
+                errors.add(prefix + "LimitedCredit is not enabled on fileNumber " + operation.fileNumber);
+            }
+            // the value stays within the limits after each change, so the running sum can not span more than the limits
+            long[] change = valueChanges.get(operation.fileNumber);
+            if (change == null) {
+                change = new long[3]; // sum, minimum of the sum, maximum of the sum
+                valueChanges.put(operation.fileNumber, change);
+            }
+            change[0] += (operation.type == Type.DEBIT) ? -operation.amount : operation.amount;
+            change[1] = Math.min(change[1], change[0]);
+            change[2] = Math.max(change[2], change[0]);
+            long range = (long) settings.getValueMaxInt() - (long) settings.getValueMinInt();
+            if (change[2] - change[1] > range) {
+                errors.add(prefix + "the changes exceed the limits " + settings.getValueMinInt() + ".." + settings.getValueMaxInt() + " of fileNumber " + operation.fileNumber);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * validates the operations, sends them back-to-back and commits the transaction, on failure the transaction is aborted
+     *
+     * @param desfireEv3          | the session with the selected application and the authentication
+     * @param isEnabledReturnTmcv | if true the TransactionMAC counter and value is returned when a Transaction MAC file is present,
+     *                            | this needs an authentication (without authentication the commit is sent in Plain)
+     * @return the result
+     */
+    public Result commit(DesfireEv3 desfireEv3, boolean isEnabledReturnTmcv) {
+        List<String> validationErrors = validate(desfireEv3);
+        if (!validationErrors.isEmpty()) {
+            return new Result(Status.INVALID, -1, validationErrors, null, false, RESPONSE_PARAMETER_ERROR, validationErrors.get(0));
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            boolean success;
+            switch (operation.type) {
+                case CREDIT:
+                    success = desfireEv3.changeAValueFile(operation.fileNumber, operation.amount, true);
+                    break;
+                case DEBIT:
+                    success = desfireEv3.changeAValueFile(operation.fileNumber, operation.amount, false);
+                    break;
+                case LIMITED_CREDIT:
+                    success = desfireEv3.limitedCreditAValueFile(operation.fileNumber, operation.amount);
+                    break;
+                default:
+                    success = desfireEv3.writeToARecordFile(operation.fileNumber, 0, operation.record);
+            }
+            if (!success) {
+                return abort(desfireEv3, i, operation.toString() + " FAILURE: ");
+            }
+        }
+        boolean isAuthenticated = isAuthenticated(desfireEv3);
+        boolean success = isAuthenticated ? desfireEv3.commitTransactionFull(isEnabledReturnTmcv) : desfireEv3.commitTransactionPlain();
+        if (!success) {
+            return abort(desfireEv3, operations.size(), "commitTransaction FAILURE: ");
+        }
+        byte[] tmcv = ((isAuthenticated) && (isEnabledReturnTmcv)) ? desfireEv3.getTransactionMacFileReturnedTmcv() : null;
+        return new Result(Status.COMMITTED, -1, new ArrayList<String>(), (tmcv == null) ? null : tmcv.clone(), false, RESPONSE_OK, "commitTransaction SUCCESS");
+    }
+
+    /**
+     * aborts the transaction, the card ends the authentication on an error status, then the AbortTransaction
+     * is sent in Communication mode Plain (as it is when there was no authentication)
+     */
+    private Result abort(DesfireEv3 desfireEv3, int failedOperationIndex, String reasonPrefix) {
+        // the errorCode array is overwritten by the AbortTransaction, the reason is not updated on a card status error
+        byte[] errorCode = (desfireEv3.getErrorCode() == null) ? null : desfireEv3.getErrorCode().clone();
+        String errorCodeReason = reasonPrefix + EV3.getErrorCode(errorCode);
+        boolean isAbortConfirmed = (isAuthenticated(desfireEv3)) && (desfireEv3.abortATransaction());
+        if (!isAbortConfirmed) isAbortConfirmed = desfireEv3.abortATransactionPlain();
+        return new Result(Status.ABORTED, failedOperationIndex, new ArrayList<String>(), null, isAbortConfirmed, errorCode, errorCodeReason);
+    }
+
+    private static boolean isAuthenticated(DesfireEv3 desfireEv3) {
+        return (desfireEv3.getTransactionIdentifier() != null) && (desfireEv3.getKeyNumberUsedForAuthentication() >= 0);
+    }
+
+    private static boolean hasAccess(FileSettings settings, Type type, boolean isAuthenticated, byte authenticatedKeyNumber) {
+        AuthenticationManager.Access access;
+        switch (type) {
+            case CREDIT:
+                access = AuthenticationManager.Access.READ_WRITE;
+                break;
+            case DEBIT:
+                // Debit is allowed with the Read, Write and Read&Write key
+                access = AuthenticationManager.Access.READ;
+                break;
+            default:
+                access = AuthenticationManager.Access.WRITE;
+        }
+        for (byte keyNumber : AuthenticationManager.getAccessKeyNumbers(settings, access)) {
+            if (keyNumber == AuthenticationManager.ACCESS_FREE) return true;
+            if ((isAuthenticated) && (keyNumber == authenticatedKeyNumber)) return true;
+        }
+        return false;
+    }
+}
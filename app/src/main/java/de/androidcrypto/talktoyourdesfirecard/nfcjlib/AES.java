@@ -32,8 +32,20 @@ public class AES {
 
 	private static final String TAG = AES.class.getName();
 
+	// the key material and data of each operation is logged only when enabled, disabled log
+	// statements do not build any strings
+	private static volatile boolean debugLogging = false;
+
+	public static void setDebugLogging(boolean enabled) {
+		debugLogging = enabled;
+	}
+
+	public static boolean isDebugLogging() {
+		return debugLogging;
+	}
+
 	public static byte[] encrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (debugLogging) Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] cipherText = null;
 
 		try {
@@ -60,7 +72,7 @@ public class AES {
 	 * @return		The plain text, or null on error.
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (debugLogging) Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] plainText = null;
 		try {
 			IvParameterSpec iv = new IvParameterSpec(myIV);
@@ -88,7 +100,7 @@ public class AES {
 	 * @return			the plaintext, or {@code null} on error
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (debugLogging) Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		byte[] plainText = null;
 		try {
 			IvParameterSpec iv = new IvParameterSpec(myIV);
@@ -31,8 +31,20 @@ public class TripleDES {
 
 	private static final String TAG = TripleDES.class.getName();
 
+	// the key material and data of each operation is logged only when enabled, disabled log
+	// statements do not build any strings
+	private static volatile boolean debugLogging = false;
+
+	public static void setDebugLogging(boolean enabled) {
+		debugLogging = enabled;
+	}
+
+	public static boolean isDebugLogging() {
+		return debugLogging;
+	}
+
 	public static byte[] encrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (debugLogging) Log.d(TAG, "encrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
 		byte[] cipherText = null;
 
 		try {
@@ -55,7 +67,7 @@ public class TripleDES {
 	
 	// ciphertext inside msg at offset and with length length
 	public static byte[] decrypt(byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (debugLogging) Log.d(TAG, "decrypt with " + printData("myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		return decrypt(new byte[8], myKey, myMsg, offset, length);
 	}
 
@@ -68,12 +80,12 @@ public class TripleDES {
 	 * @return
 	 */
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
+		if (debugLogging) Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg));
 		return decrypt(myIV, myKey, myMsg, 0, myMsg.length);
 	}
 	
 	public static byte[] decrypt(byte[] myIV, byte[] myKey, byte[] myMsg, int offset, int length) {
-		Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
+		if (debugLogging) Log.d(TAG, "decrypt with " + printData("myIV", myIV) + printData(" myKey", myKey) + printData(" myMsg", myMsg) + " offset: " + offset + " length: " + length);
 		byte[] plainText = null;
 
 		try {
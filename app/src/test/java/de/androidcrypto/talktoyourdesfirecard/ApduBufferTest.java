@@ -0,0 +1,50 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ApduBufferTest {
+
+    @Test
+    public void toApdu_withData_hasLcAndLe() throws Exception {
+        ApduBuffer apduBuffer = new ApduBuffer();
+        byte[] apdu = apduBuffer.start((byte) 0x5A).put(Utils.hexStringToByteArray("A1A2A3")).toApdu(true, true);
+        assertArrayEquals(Utils.hexStringToByteArray("905A000003A1A2A300"), apdu);
+    }
+
+    @Test
+    public void toApdu_withoutData_isHeaderAndLe() throws Exception {
+        ApduBuffer apduBuffer = new ApduBuffer();
+        apduBuffer.start((byte) 0x5A).put(Utils.hexStringToByteArray("A1A2A3")).toApdu(true, true);
+        // a new start discards the data of the previous APDU
+        assertArrayEquals(Utils.hexStringToByteArray("9060000000"), apduBuffer.start((byte) 0x60).toApdu(false, true));
+        assertArrayEquals(Utils.hexStringToByteArray("90AF0000"), apduBuffer.start((byte) 0xAF).toApdu(false, false));
+    }
+
+    @Test
+    public void put_slice_copiesOnlyTheSlice() throws Exception {
+        ApduBuffer apduBuffer = new ApduBuffer();
+        byte[] data = Utils.hexStringToByteArray("0011223344");
+        assertArrayEquals(Utils.hexStringToByteArray("90AF0000021122"), apduBuffer.start((byte) 0xAF).put(data, 1, 2).toApdu(true, false));
+    }
+
+    @Test(expected = IOException.class)
+    public void put_moreThanAShortApdu_throws() throws Exception {
+        new ApduBuffer().start((byte) 0x3D).put(new byte[ApduBuffer.MAXIMUM_DATA_LENGTH + 1]);
+    }
+
+    @Test
+    public void statusBytes_areReadInPlace() {
+        byte[] response = Utils.hexStringToByteArray("01020391AF");
+        assertTrue(ApduBuffer.hasStatus(response, Utils.hexStringToByteArray("91AF")));
+        assertFalse(ApduBuffer.hasStatus(response, Utils.hexStringToByteArray("9100")));
+        assertEquals(0x91AF, ApduBuffer.getStatusWord(response));
+        assertEquals(-1, ApduBuffer.getStatusWord(new byte[1]));
+    }
+}
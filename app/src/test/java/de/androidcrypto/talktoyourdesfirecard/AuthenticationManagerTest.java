@@ -0,0 +1,79 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuthenticationManagerTest {
+
+    private static final byte FILE_NUMBER = (byte) 0;
+
+    private DesfireEv3Simulator simulator;
+    private DesfireEv3 desfireEv3;
+    private AuthenticationManager authenticationManager;
+
+    @Before
+    public void setUp() {
+        simulator = new DesfireEv3Simulator();
+        desfireEv3 = DesfireEv3SimulatorTest.createStandardFile(simulator, FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, 32);
+        authenticationManager = new AuthenticationManager(desfireEv3);
+        for (byte keyNumber = 0; keyNumber < 5; keyNumber++) {
+            authenticationManager.setKey(keyNumber, DesfireEv3SimulatorTest.DEFAULT_KEY);
+        }
+    }
+
+    @Test
+    public void keySwitch_usesNonFirstAndSkipsTheAuthenticatedKey() {
+        assertTrue(authenticationManager.authenticateForAccess(FILE_NUMBER, AuthenticationManager.Access.READ));
+        assertEquals(AuthenticationManager.Method.FIRST, authenticationManager.getLastMethod());
+        assertEquals(3, desfireEv3.getKeyNumberUsedForAuthentication());
+        assertTrue(authenticationManager.authenticateForAccess(FILE_NUMBER, AuthenticationManager.Access.READ));
+        assertEquals(AuthenticationManager.Method.NONE, authenticationManager.getLastMethod());
+        assertTrue(authenticationManager.authenticateForAccess(FILE_NUMBER, AuthenticationManager.Access.WRITE));
+        assertEquals(AuthenticationManager.Method.NON_FIRST, authenticationManager.getLastMethod());
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, 0, DesfireEv3SimulatorTest.testData(32)));
+    }
+
+    @Test
+    public void localFailure_keepsTheTransaction() {
+        assertTrue(authenticationManager.authenticate((byte) 1));
+        // rejected by a sanity check of desfireEv3, no command is sent to the card
+        assertFalse(desfireEv3.writeToADataFile((byte) 40, 0, new byte[1]));
+        assertArrayEquals(Utils.hexStringToByteArray("9100"), desfireEv3.getLastCardStatus());
+        assertTrue(authenticationManager.isTransactionActive());
+        assertTrue(authenticationManager.authenticate((byte) 2));
+        assertEquals(AuthenticationManager.Method.NON_FIRST, authenticationManager.getLastMethod());
+    }
+
+    @Test
+    public void cardError_endsTheTransaction() {
+        assertTrue(authenticationManager.authenticate((byte) 1));
+        // the application has 5 keys, the card answers with an error
+        assertEquals(-1, desfireEv3.getKeyVersion((byte) 10));
+        assertFalse(authenticationManager.isTransactionActive());
+        assertTrue(authenticationManager.authenticate((byte) 2));
+        assertEquals(AuthenticationManager.Method.FIRST, authenticationManager.getLastMethod());
+    }
+
+    @Test
+    public void lostCard_endsTheTransaction() {
+        assertTrue(authenticationManager.authenticate((byte) 1));
+        simulator.setFieldOn(false);
+        assertNull(desfireEv3.readFromADataFile(FILE_NUMBER, 0, 32));
+        assertTrue(desfireEv3.isTransceiveFailed());
+        assertFalse(authenticationManager.isTransactionActive());
+    }
+
+    @Test
+    public void getErrorCode_returnsACopy() {
+        assertFalse(authenticationManager.authenticate((byte) 9));
+        byte[] errorCode = authenticationManager.getErrorCode();
+        errorCode[1] = (byte) 0x00;
+        assertArrayEquals(Utils.hexStringToByteArray("91FC"), authenticationManager.getErrorCode());
+    }
+}
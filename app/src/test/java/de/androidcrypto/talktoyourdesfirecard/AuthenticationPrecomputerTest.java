@@ -0,0 +1,86 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class AuthenticationPrecomputerTest {
+
+    private static final byte[] KEY = DesfireEv3SimulatorTest.DEFAULT_KEY;
+    private static final byte[] WRONG_KEY = Utils.hexStringToByteArray("11111111111111111111111111111111");
+    private static final byte FILE_NUMBER = (byte) 0;
+
+    private AuthenticationPrecomputer precomputer;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        precomputer = new AuthenticationPrecomputer(4);
+        desfireEv3 = DesfireEv3SimulatorTest.createStandardFile(new DesfireEv3Simulator(), FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, 32);
+    }
+
+    @After
+    public void tearDown() {
+        precomputer.shutdown();
+    }
+
+    @Test
+    public void authentication_withThePrecomputer_runsTheSecureMessaging() {
+        precomputer.prepareKey(KEY);
+        desfireEv3.setAuthenticationPrecomputer(precomputer);
+        assertEquals(-1, desfireEv3.getLastAuthenticationGapNanos());
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, KEY));
+        assertTrue(desfireEv3.getLastAuthenticationGapNanos() > 0);
+        byte[] data = DesfireEv3SimulatorTest.testData(32);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, 0, data));
+        assertTrue(desfireEv3.authenticateAesEv2NonFirst((byte) 3, KEY));
+        assertArrayEquals(data, desfireEv3.readFromADataFile(FILE_NUMBER, 0, 32));
+        assertEquals(2, precomputer.getPoolHits() + precomputer.getPoolMisses());
+    }
+
+    @Test
+    public void wrongKey_failsAndDoesNotSpoilTheNextAuthentication() {
+        desfireEv3.setAuthenticationPrecomputer(precomputer);
+        precomputer.prepareKey(WRONG_KEY);
+        assertFalse(desfireEv3.authenticateAesEv2First((byte) 1, WRONG_KEY));
+        // the prepared schedule of the wrong key is not used for another key
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, KEY));
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, 0, new byte[32]));
+    }
+
+    @Test
+    public void preparedKeySchedule_isHandedOutForThePreparedKeyOnly() throws Exception {
+        SecureMessagingContext expected = SecureMessagingContext.create(KEY, KEY);
+        byte[] message = DesfireEv3SimulatorTest.testData(20);
+        precomputer.prepareKey(KEY);
+        // the key is prepared on the background thread, the next schedule is prepared after each take
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((precomputer.getKeyScheduleHits() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+            assertArrayEquals(expected.cmac(message), precomputer.takeKeySchedule(KEY).cmac(message));
+        }
+        assertTrue(precomputer.getKeyScheduleHits() > 0);
+        long misses = precomputer.getKeyScheduleMisses();
+        assertArrayEquals(SecureMessagingContext.create(WRONG_KEY, WRONG_KEY).cmac(message), precomputer.takeKeySchedule(WRONG_KEY).cmac(message));
+        assertEquals(misses + 1, precomputer.getKeyScheduleMisses());
+    }
+
+    @Test
+    public void rndA_isRandomAndDrawnDirectlyAfterShutdown() {
+        byte[] firstRndA = precomputer.takeRndA();
+        byte[] secondRndA = precomputer.takeRndA();
+        assertEquals(16, firstRndA.length);
+        assertFalse(Arrays.equals(firstRndA, secondRndA));
+        precomputer.shutdown();
+        long misses = precomputer.getPoolMisses();
+        assertEquals(16, precomputer.takeRndA().length);
+        assertEquals(misses + 1, precomputer.getPoolMisses());
+    }
+}
@@ -0,0 +1,91 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class CardProfileCompilerTest {
+
+    private static final String PROFILE = "application A1A2A3 keys=5\n"
+            + "key 1 new=11111111111111111111111111111111 version=1\n"
+            + "file 0 standard comm=Full access=1234 size=32\n"
+            + "file 1 backup comm=MACed access=1234 size=32\n"
+            + "file 3 value comm=Full access=1234 min=0 max=1000 value=250 limitedCredit=false\n"
+            + "file 4 cyclic comm=Full access=1234 recordSize=4 records=3\n"
+            + "write 0 offset=0 data=0102\n"
+            + "write 0 offset=2 data=0304\n"
+            + "write 1 offset=0 data=AABB\n"
+            + "record 4 data=01\n"
+            + "record 4 data=02\n"
+            + "record 4 data=03\n"
+            + "record 4 data=04\n";
+    private static final byte[] NEW_KEY = Utils.hexStringToByteArray("11111111111111111111111111111111");
+
+    private static int count(List<String> operations, String prefix) {
+        int count = 0;
+        for (String operation : operations) {
+            if (operation.startsWith(prefix)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void plan_mergesTheWritesAndAuthenticatesEachKeyOnce() {
+        CardProfileCompiler.Plan plan = CardProfileCompiler.compile(CardProfile.parse(PROFILE));
+        assertTrue(plan.getErrors().toString(), plan.isValid());
+        List<String> operations = plan.getOperations();
+        // the two writes to file 0 are one contiguous write
+        assertEquals(2, count(operations, "writeToADataFile"));
+        // a Cyclic Record file with 3 records keeps 2 records, the first 2 records would get overwritten
+        assertEquals(2, count(operations, "writeToARecordFile"));
+        // the Write key 4 for the writes and the application master key for the key change
+        assertEquals(2, count(operations, "authenticateAesEv2First"));
+        assertTrue(operations.get(operations.size() - 1).startsWith("changeApplicationKeyFull key 1"));
+    }
+
+    @Test
+    public void plan_personalizesTheCard() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        assertTrue(CardProfileCompiler.compile(CardProfile.parse(PROFILE)).execute(desfireEv3).isSuccess());
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, NEW_KEY));
+        assertArrayEquals(Utils.hexStringToByteArray("01020304"), desfireEv3.readFromADataFile((byte) 0, 0, 4));
+        assertArrayEquals(Utils.hexStringToByteArray("AABB"), desfireEv3.readFromADataFile((byte) 1, 0, 2));
+        assertEquals(250, desfireEv3.readFromAValueFile((byte) 3));
+        assertArrayEquals(Utils.hexStringToByteArray("0300000004000000"), desfireEv3.readFromARecordFile((byte) 4, 0, 2));
+    }
+
+    @Test
+    public void invalidProfile_isNotExecuted() {
+        CardProfileCompiler.Plan plan = CardProfileCompiler.compile(CardProfile.parse("application A1A2A3 keys=5\nfile 40 standard comm=Full access=1234 size=32\n"));
+        assertFalse(plan.isValid());
+        DesfireEv3Simulator simulator = new DesfireEv3Simulator();
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertFalse(plan.execute(new DesfireEv3(simulator)).isSuccess());
+        assertEquals(transceiveCounter, simulator.getTransceiveCounter());
+    }
+
+    @Test
+    public void getPlan_compilesAProfileOnce() {
+        CardProfileCompiler compiler = new CardProfileCompiler();
+        CardProfileCompiler.Plan plan = compiler.getPlan(PROFILE);
+        assertSame(plan, compiler.getPlan(PROFILE));
+        assertEquals(1, compiler.getMisses());
+        assertEquals(1, compiler.getHits());
+    }
+
+    @Test
+    public void ndefFileData_isPrecomputed() {
+        // NLEN || record header D1 || type length || payload length || 'U' || prefix 04 (https://) || URI
+        assertArrayEquals(Utils.hexStringToByteArray("0012D1010E55046578616D706C652E636F6D2F61"),
+                CardProfileCompiler.buildNdefUrlFileData("https://example.com/a"));
+        assertArrayEquals(Utils.hexStringToByteArray("000F20003A00340406E10401000000"),
+                CardProfileCompiler.buildNdefContainer(Utils.hexStringToByteArray("E104"), 256, true));
+    }
+}
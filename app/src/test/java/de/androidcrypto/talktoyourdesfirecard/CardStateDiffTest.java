@@ -0,0 +1,72 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class CardStateDiffTest {
+
+    private static final String PROFILE = "application A1A2A3 keys=5\n"
+            + "key 1 new=22222222222222222222222222222222\n"
+            + "file 0 standard comm=Plain access=EEEE size=32 data=0102\n"
+            + "file 1 standard comm=Full access=1234 size=64 data=01020304\n";
+    private static final byte[] UNKNOWN_APPLICATION_ID = Utils.hexStringToByteArray("B1B2B3");
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        assertTrue(CardProfileCompiler.compile(CardProfile.parse(PROFILE)).execute(desfireEv3).isSuccess());
+    }
+
+    @Test
+    public void personalizedCard_isUpToDate() {
+        CardStateDiff.Result result = new CardStateDiff(CardProfile.parse(PROFILE)).diff(desfireEv3);
+        assertTrue(result.getErrors().isEmpty());
+        assertTrue(result.getDifferences().isEmpty());
+        assertEquals(0, result.getPlan().getNumberOfSteps());
+    }
+
+    @Test
+    public void newKeyVersion_changesTheKey() {
+        String profile = PROFILE.replace("key 1 new=22222222222222222222222222222222",
+                "key 1 current=22222222222222222222222222222222 new=33333333333333333333333333333333 version=2");
+        CardStateDiff.Result result = new CardStateDiff(CardProfile.parse(profile)).diff(desfireEv3);
+        assertEquals(1, result.getDifferences().size());
+        assertEquals("application A1A2A3: key 1: version 1 instead of 2, change", result.getDifferences().get(0));
+        assertTrue(result.getPlan().execute(desfireEv3).isSuccess());
+        assertTrue(desfireEv3.selectApplicationByAid(Utils.hexStringToByteArray("A1A2A3")));
+        assertEquals(2, desfireEv3.getKeyVersion((byte) 1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, Utils.hexStringToByteArray("33333333333333333333333333333333")));
+    }
+
+    @Test
+    public void newKeyWithVersion0_isAnError() {
+        String profile = PROFILE.replace("new=22222222222222222222222222222222", "new=22222222222222222222222222222222 version=0");
+        CardStateDiff.Result result = new CardStateDiff(CardProfile.parse(profile)).diff(desfireEv3);
+        assertEquals(1, result.getErrors().size());
+    }
+
+    @Test
+    public void unknownApplication_isDeletedWithoutAFormat() {
+        assertTrue(desfireEv3.selectApplicationByAid(new byte[3]));
+        assertTrue(desfireEv3.createApplicationAes(UNKNOWN_APPLICATION_ID, 2));
+        CardStateDiff.Result kept = new CardStateDiff(CardProfile.parse(PROFILE)).diff(desfireEv3);
+        assertEquals(0, kept.getPlan().getNumberOfSteps());
+
+        CardStateDiff.Result result = new CardStateDiff(CardProfile.parse(PROFILE)).setKeepUnknownApplications(false).diff(desfireEv3);
+        assertFalse(result.isFormatRequired());
+        assertEquals("application B1B2B3: not in the profile, delete", result.getDifferences().get(0));
+        assertTrue(result.getPlan().execute(desfireEv3).isSuccess());
+        assertTrue(desfireEv3.selectApplicationByAid(new byte[3]));
+        List<byte[]> applicationIdsList = desfireEv3.getApplicationIdsList();
+        assertEquals(1, applicationIdsList.size());
+        assertEquals("A1A2A3", Utils.bytesToHexNpeUpperCase(applicationIdsList.get(0)));
+    }
+}
@@ -0,0 +1,61 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DesfireCommandMetricsTest {
+
+    private static final byte AUTHENTICATE_EV2_FIRST_COMMAND = (byte) 0x71;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = DesfireEv3SimulatorTest.createStandardFile(new DesfireEv3Simulator(), (byte) 0, DesfireEv3.CommunicationSettings.Full, 128);
+    }
+
+    @Test
+    public void disabledMetrics_recordNothing() {
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(desfireEv3.getMetrics().getSnapshot().getCommands().isEmpty());
+    }
+
+    @Test
+    public void errorCodes_areResolvedWithEv3() {
+        desfireEv3.getMetrics().setEnabled(true);
+        byte[] wrongKey = new byte[16];
+        wrongKey[15] = (byte) 0x01;
+        assertFalse(desfireEv3.authenticateAesEv2First((byte) 1, wrongKey));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        DesfireCommandMetrics.CommandStatistics statistics = desfireEv3.getMetrics().getSnapshot().getCommand(AUTHENTICATE_EV2_FIRST_COMMAND);
+        assertNotNull(statistics);
+        assertEquals(2, statistics.getCalls());
+        assertEquals(Integer.valueOf(1), statistics.getErrorCodes().get(EV3.getErrorCode((byte) 0xAE)));
+        assertEquals(Integer.valueOf(1), statistics.getErrorCodes().get(EV3.getErrorCode((byte) 0x00)));
+    }
+
+    @Test
+    public void cryptoTime_isBookedOnTheCommand() {
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        desfireEv3.getMetrics().setEnabled(true);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, DesfireEv3SimulatorTest.testData(100)));
+        assertNotNull(desfireEv3.readFromADataFile((byte) 0, 0, 100));
+        DesfireCommandMetrics.Snapshot snapshot = desfireEv3.getMetrics().getSnapshot();
+        DesfireCommandMetrics.CommandStatistics write = snapshot.getCommand(WRITE_DATA_FILE_SECURE_COMMAND);
+        // command IV, encryption of the data, command MAC and response MAC
+        assertEquals(1, write.getCalls());
+        assertEquals(4, write.getCryptoOperations());
+        DesfireCommandMetrics.CommandStatistics read = snapshot.getCommand(READ_DATA_FILE_SECURE_COMMAND);
+        assertTrue(read.getCryptoOperations() >= 3);
+        assertNull(snapshot.getCommand(AUTHENTICATE_EV2_FIRST_COMMAND));
+        assertTrue(snapshot.getTotalCryptoNanos() > 0);
+    }
+}
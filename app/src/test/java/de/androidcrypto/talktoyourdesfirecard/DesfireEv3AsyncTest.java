@@ -0,0 +1,80 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DesfireEv3AsyncTest {
+
+    private DesfireEv3Async desfireAsync;
+
+    @Before
+    public void setUp() {
+        desfireAsync = new DesfireEv3Async(new DesfireEv3(new DesfireEv3Simulator()));
+    }
+
+    @After
+    public void tearDown() {
+        desfireAsync.close();
+    }
+
+    @Test
+    public void commands_runInTheOrderOfSubmission() throws Exception {
+        desfireAsync.submit(new DesfireEv3Async.Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) {
+                return desfireEv3.createApplicationAes(DesfireEv3SimulatorTest.APPLICATION_ID, 5);
+            }
+        }, null);
+        Future<DesfireResult<Boolean>> select = desfireAsync.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID, null);
+        Future<DesfireResult<Boolean>> authenticate = desfireAsync.authenticateAesEv2First((byte) 0, DesfireEv3SimulatorTest.DEFAULT_KEY, null);
+        assertTrue(select.get(5, TimeUnit.SECONDS).isSuccess());
+        DesfireResult<Boolean> result = authenticate.get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertArrayEquals(Utils.hexStringToByteArray("9100"), result.getErrorCode());
+    }
+
+    @Test
+    public void onTagLost_keepsTheRunningCommandAndCancelsTheQueuedOnes() throws Exception {
+        final CountDownLatch isRunning = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicReference<DesfireResult<Boolean>> callbackResult = new AtomicReference<>();
+        final CountDownLatch isDelivered = new CountDownLatch(1);
+        Future<DesfireResult<Boolean>> running = desfireAsync.submit(new DesfireEv3Async.Command<Boolean>() {
+            @Override
+            public Boolean run(DesfireEv3 desfireEv3) throws Exception {
+                isRunning.countDown();
+                assertTrue(proceed.await(5, TimeUnit.SECONDS));
+                return desfireEv3.createApplicationAes(DesfireEv3SimulatorTest.APPLICATION_ID, 5);
+            }
+        }, new DesfireEv3Async.Callback<Boolean>() {
+            @Override
+            public void onResult(DesfireResult<Boolean> result) {
+                callbackResult.set(result);
+                isDelivered.countDown();
+            }
+        });
+        Future<DesfireResult<Boolean>> queued = desfireAsync.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID, null);
+        assertTrue(isRunning.await(5, TimeUnit.SECONDS));
+        desfireAsync.onTagLost("Tag was lost.");
+        assertTrue(queued.isCancelled());
+        assertFalse(running.isCancelled());
+        proceed.countDown();
+
+        DesfireResult<Boolean> result = running.get(5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertTrue(isDelivered.await(5, TimeUnit.SECONDS));
+        assertTrue(callbackResult.get().isSuccess());
+        assertEquals(0, desfireAsync.getNumberOfPendingCommands());
+    }
+}
@@ -0,0 +1,95 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * local unit tests of the chunk length that is negotiated with the maximum transceive length of the reader
+ */
+public class DesfireEv3ChunkLengthTest {
+
+    private static final int FILE_SIZE = 256;
+
+    /**
+     * reports another maximum transceive length than the simulator
+     */
+    private static class ReportingTransport implements CardTransport {
+        private final DesfireEv3Simulator simulator;
+        private final int reportedMaxTransceiveLength;
+
+        ReportingTransport(DesfireEv3Simulator simulator, int reportedMaxTransceiveLength) {
+            this.simulator = simulator;
+            this.reportedMaxTransceiveLength = reportedMaxTransceiveLength;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            return simulator.transceive(apdu);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return simulator.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return reportedMaxTransceiveLength;
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return true;
+        }
+    }
+
+    private DesfireEv3Simulator simulator;
+
+    @Before
+    public void setUp() {
+        simulator = new DesfireEv3Simulator();
+        DesfireEv3 desfireEv3 = DesfireEv3SimulatorTest.createApplication(simulator);
+        DesfireEv3.CommunicationSettings[] communicationSettings = DesfireEv3.CommunicationSettings.values();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(desfireEv3.createAStandardFile((byte) i, communicationSettings[i], DesfireEv3SimulatorTest.ACCESS_RIGHTS, FILE_SIZE, false));
+        }
+    }
+
+    @Test
+    public void readerWithoutMaximum_usesTheFallbackChunks() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new ReportingTransport(simulator, 0));
+        // fileNumber || offset || length, 40 data bytes, padding and MAC
+        assertEquals(7 + 40 + 8 + 8, desfireEv3.getMaximumFrameDataLength());
+    }
+
+    @Test
+    public void extendedLengthReader_isCappedAtAShortApdu() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new ReportingTransport(simulator, 65544));
+        assertEquals(255, desfireEv3.getMaximumFrameDataLength());
+        desfireEv3.setMaximumFrameDataLength(1000);
+        assertEquals(255, desfireEv3.getMaximumFrameDataLength());
+    }
+
+    @Test
+    public void smallReader_writesAndReadsAtAnOffset_inAllCommunicationModes() {
+        simulator.setMaxTransceiveLength(40); // the simulator rejects a longer APDU
+        DesfireEv3 desfireEv3 = new DesfireEv3(simulator);
+        assertEquals(34, desfireEv3.getMaximumFrameDataLength());
+        DesfireEv3SimulatorTest.selectAndAuthenticate(desfireEv3);
+        byte[] data = DesfireEv3SimulatorTest.testData(FILE_SIZE - 17);
+        for (byte fileNumber = 0; fileNumber < 3; fileNumber++) {
+            String mode = "fileNumber " + fileNumber;
+            assertTrue(mode, desfireEv3.writeToADataFile(fileNumber, 17, data));
+            assertArrayEquals(mode, data, desfireEv3.readFromADataFile(fileNumber, 17, data.length));
+            // the last chunk ends at the end of the requested range, not at offset + chunks
+            assertArrayEquals(mode, Arrays.copyOfRange(data, 33, 133), desfireEv3.readFromADataFile(fileNumber, 50, 100));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * local unit tests of the frame size negotiation and the chained WriteData command
+ */
+public class DesfireEv3FrameTest {
+
+    static final int FILE_SIZE = 4000;
+
+    private DesfireEv3Simulator simulator;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = new DesfireEv3Simulator();
+        desfireEv3 = DesfireEv3SimulatorTest.createApplication(simulator);
+        // the create methods are limited to MAXIMUM_FILE_SIZE, a larger Standard file is created with a raw command
+        // CreateStdDataFile: fileNumber || communication settings || access rights || file size (LSB)
+        assertArrayEquals(Utils.hexStringToByteArray("9100"), simulator.transceive(Utils.hexStringToByteArray("90CD0000070003" + "1234" + "A00F00" + "00")));
+        DesfireEv3SimulatorTest.selectAndAuthenticate(desfireEv3);
+    }
+
+    @Test
+    public void maximumFrameDataLength_isNegotiatedWithTheReader() {
+        assertEquals(DesfireEv3Simulator.DEFAULT_MAX_TRANSCEIVE_LENGTH - 6, desfireEv3.getMaximumFrameDataLength());
+        desfireEv3.setMaximumFrameDataLength(63);
+        assertEquals(63, desfireEv3.getMaximumFrameDataLength());
+        // Full enciphered: 63 - 8 (MAC) = 55, padded to 48 bytes = 47 data bytes
+        assertEquals(47, desfireEv3.getMaximumReadDataLength((byte) 0));
+    }
+
+    @Test
+    public void chainedWrite_longerThanOneChainedCommand_isSplit() {
+        desfireEv3.setMaximumFrameDataLength(63);
+        byte[] data = DesfireEv3SimulatorTest.testData(FILE_SIZE);
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, data));
+        // 32 frames of 63 bytes carry less than 2016 data bytes, so 3 chained commands are needed
+        long frames = simulator.getTransceiveCounter() - transceiveCounter;
+        assertTrue("frames: " + frames, frames > (FILE_SIZE / 63));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void unchainedWrite_usesOneCommandPerFrame() {
+        desfireEv3.setMaximumFrameDataLength(63);
+        desfireEv3.setChainedWriteEnabled(false);
+        byte[] data = DesfireEv3SimulatorTest.testData(470);
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 10, data));
+        assertEquals(10, simulator.getTransceiveCounter() - transceiveCounter);
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 10, 470));
+    }
+
+    @Test
+    public void readFromAStandardFile_usesTheNegotiatedChunkLength() {
+        byte[] data = DesfireEv3SimulatorTest.testData(600);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, data));
+        byte[] readData = desfireEv3.readFromAStandardFile((byte) 0, 100, 500);
+        assertArrayEquals(desfireEv3.getErrorCodeReason(), Arrays.copyOfRange(data, 100, 600), readData);
+    }
+}
@@ -0,0 +1,59 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+public class DesfireEv3PipelinedReadTest {
+
+    private static final int FILE_SIZE = 600;
+
+    private DesfireEv3 desfireEv3;
+    private byte[] data;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = DesfireEv3SimulatorTest.createApplication(new DesfireEv3Simulator());
+        assertTrue(desfireEv3.createAStandardFile((byte) 0, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.MACed, DesfireEv3SimulatorTest.ACCESS_RIGHTS, FILE_SIZE, false));
+        DesfireEv3SimulatorTest.selectAndAuthenticate(desfireEv3);
+        data = DesfireEv3SimulatorTest.testData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, data));
+        assertTrue(desfireEv3.writeToADataFile((byte) 1, 0, data));
+        desfireEv3.setMaximumFrameDataLength(63);
+        desfireEv3.setPipelinedReadEnabled(true);
+    }
+
+    private Thread getWorkerThread() throws Exception {
+        return desfireEv3.getPipelinedReadExecutor().submit(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }).get();
+    }
+
+    @Test
+    public void reads_shareTheWorkerThreadOfTheSession() throws Exception {
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, FILE_SIZE));
+        Thread workerThread = getWorkerThread();
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 1, 0, FILE_SIZE));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, FILE_SIZE), desfireEv3.readFromADataFile((byte) 0, 10, FILE_SIZE - 10));
+        assertSame(workerThread, getWorkerThread());
+    }
+
+    @Test
+    public void newAuthentication_usesTheNewSessionKeys() {
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, FILE_SIZE));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, FILE_SIZE));
+        assertTrue(desfireEv3.authenticateAesEv2NonFirst((byte) 3, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 1, 0, FILE_SIZE));
+    }
+}
@@ -0,0 +1,114 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DesfireEv3RecordReadTest {
+
+    private static final byte CYCLIC_FILE_NUMBER = (byte) 0;
+    private static final byte EMPTY_FILE_NUMBER = (byte) 1;
+    private static final int RECORD_SIZE = 13;
+    private static final int NUMBER_OF_WRITES = 12;
+
+    private DesfireEv3Simulator simulator;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        simulator = new DesfireEv3Simulator();
+        desfireEv3 = DesfireEv3SimulatorTest.createApplication(simulator);
+        assertTrue(desfireEv3.createACyclicRecordFile(CYCLIC_FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, RECORD_SIZE, 10));
+        assertTrue(desfireEv3.createALinearRecordFile(EMPTY_FILE_NUMBER, DesfireEv3.CommunicationSettings.MACed, DesfireEv3SimulatorTest.ACCESS_RIGHTS, 16, 5));
+        DesfireEv3SimulatorTest.selectAndAuthenticate(desfireEv3);
+        for (int i = 0; i < NUMBER_OF_WRITES; i++) {
+            assertTrue(desfireEv3.writeToARecordFile(CYCLIC_FILE_NUMBER, 0, record(i)));
+            assertTrue(desfireEv3.commitTransactionFull(false));
+        }
+        desfireEv3.setMaximumFrameDataLength(63);
+    }
+
+    private static byte[] record(int number) {
+        byte[] record = new byte[RECORD_SIZE];
+        record[0] = (byte) (number % 3);
+        record[1] = (byte) number;
+        return record;
+    }
+
+    @Test
+    public void records_areDeliveredFromTheNewestToTheOldest() {
+        final List<byte[]> records = new ArrayList<>();
+        DesfireEv3.RecordReadResult result = desfireEv3.readAllRecords(CYCLIC_FILE_NUMBER, null, new DesfireEv3.RecordVisitor() {
+            @Override
+            public boolean onRecord(int recordNumber, byte[] record) {
+                assertEquals(records.size(), recordNumber);
+                records.add(record);
+                return true;
+            }
+        });
+        assertEquals(DesfireEv3.RecordReadResult.VERIFIED, result);
+        // a cyclic file with 10 records keeps the 9 newest records
+        assertEquals(9, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(record(NUMBER_OF_WRITES - 1 - i), records.get(i));
+        }
+    }
+
+    @Test
+    public void latestMatch_stopsAfterTheFirstWindow() {
+        final byte[][] latestRecord = new byte[1][];
+        long transceiveCounter = simulator.getTransceiveCounter();
+        DesfireEv3.RecordReadResult result = desfireEv3.readAllRecords(CYCLIC_FILE_NUMBER, new DesfireEv3.RecordFilter() {
+            @Override
+            public boolean accept(byte[] record) {
+                return record[0] == 1;
+            }
+        }, new DesfireEv3.RecordVisitor() {
+            @Override
+            public boolean onRecord(int recordNumber, byte[] record) {
+                latestRecord[0] = record;
+                return false;
+            }
+        });
+        assertEquals(DesfireEv3.RecordReadResult.STOPPED, result);
+        assertArrayEquals(record(10), latestRecord[0]);
+        // GetFileSettings and one ReadRecords command for the 4 newest records (52 bytes, in Full mode with
+        // padding and MAC the response is chained in 2 frames)
+        assertEquals(transceiveCounter + 3, simulator.getTransceiveCounter());
+    }
+
+    @Test
+    public void emptyFile_keepsTheAuthentication() {
+        DesfireEv3.RecordReadResult result = desfireEv3.readAllRecords(EMPTY_FILE_NUMBER, null, new DesfireEv3.RecordVisitor() {
+            @Override
+            public boolean onRecord(int recordNumber, byte[] record) {
+                throw new AssertionError("the file has no records");
+            }
+        });
+        assertEquals(DesfireEv3.RecordReadResult.EMPTY, result);
+        assertEquals(1, desfireEv3.getKeyNumberUsedForAuthentication());
+        assertNotNull(desfireEv3.getErrorCodeReason(), desfireEv3.readFromARecordFile(CYCLIC_FILE_NUMBER, 0, 1));
+    }
+
+    @Test
+    public void stop_keepsTheAuthentication() {
+        DesfireEv3.RecordReadResult result = desfireEv3.readAllRecords(CYCLIC_FILE_NUMBER, null, new DesfireEv3.RecordVisitor() {
+            @Override
+            public boolean onRecord(int recordNumber, byte[] record) {
+                return recordNumber < 5;
+            }
+        });
+        assertEquals(DesfireEv3.RecordReadResult.STOPPED, result);
+        assertEquals(1, desfireEv3.getKeyNumberUsedForAuthentication());
+        byte[] newestRecord = desfireEv3.readFromARecordFile(CYCLIC_FILE_NUMBER, 0, 1);
+        assertNotNull(desfireEv3.getErrorCodeReason(), newestRecord);
+        assertArrayEquals(record(NUMBER_OF_WRITES - 1), newestRecord);
+    }
+}
@@ -0,0 +1,222 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.nfc.tech.IsoDep;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * local unit tests of DesfireEv3 against the DesfireEv3Simulator, the simulator follows the secure messaging
+ * of the card (CmdCounter, response MAC in MACed and Full mode only, authentication lost on an error)
+ */
+public class DesfireEv3SimulatorTest {
+
+    static final byte[] APPLICATION_ID = Utils.hexStringToByteArray("A1A2A3");
+    static final byte[] ACCESS_RIGHTS = Utils.hexStringToByteArray("1234"); // RW 1 | CAR 2 | R 3 | W 4
+    static final byte[] DEFAULT_KEY = new byte[16];
+
+    private DesfireEv3Simulator simulator;
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        simulator = new DesfireEv3Simulator();
+        desfireEv3 = createApplication(simulator);
+    }
+
+    @Test
+    public void authenticateEv2First_defaultKey_succeeds() {
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DEFAULT_KEY));
+        assertEquals(0, desfireEv3.getCmdCounter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullIsoDep_isRejected() {
+        new DesfireEv3((IsoDep) null);
+    }
+
+    @Test
+    public void authenticateEv2First_wrongKey_fails() {
+        byte[] wrongKey = new byte[16];
+        wrongKey[0] = (byte) 0x01;
+        assertFalse(desfireEv3.authenticateAesEv2First((byte) 1, wrongKey));
+    }
+
+    @Test
+    public void standardFile_writeAndRead_allCommunicationModes() {
+        DesfireEv3.CommunicationSettings[] communicationSettings = DesfireEv3.CommunicationSettings.values();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(desfireEv3.createAStandardFile((byte) i, communicationSettings[i], ACCESS_RIGHTS, 128, false));
+        }
+        selectAndAuthenticate(desfireEv3);
+        byte[] data = testData(100);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(communicationSettings[i].name(), desfireEv3.writeToADataFile((byte) i, 0, data));
+            assertArrayEquals(communicationSettings[i].name(), data, desfireEv3.readFromADataFile((byte) i, 0, 100));
+        }
+    }
+
+    @Test
+    public void plainResponse_afterAuthentication_hasNoMac() throws Exception {
+        assertTrue(desfireEv3.createAStandardFile((byte) 0, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS, 32, false));
+        selectAndAuthenticate(desfireEv3);
+        // ReadData of file 0, offset 0, length 16 in Plain mode
+        byte[] response = simulator.transceive(Utils.hexStringToByteArray("90BD0000070000000010000000"));
+        assertEquals(16 + 2, response.length);
+        assertEquals((byte) 0x91, response[16]);
+        assertEquals((byte) 0x00, response[17]);
+    }
+
+    @Test
+    public void serviceCommand_afterAuthentication_keepsTheSession() {
+        assertTrue(desfireEv3.createAStandardFile((byte) 0, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32, false));
+        selectAndAuthenticate(desfireEv3);
+        byte[] fileIds = desfireEv3.getAllFileIds();
+        assertNotNull(fileIds);
+        assertArrayEquals(new byte[]{(byte) 0x00}, fileIds);
+        assertNotNull(desfireEv3.getFileSettings((byte) 0));
+        byte[] data = testData(32);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, data));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, 32));
+    }
+
+    @Test
+    public void errorResponse_resetsTheAuthentication() throws Exception {
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DEFAULT_KEY));
+        // ReadData of a file that does not exist: the card answers 91F0 and leaves the authenticated state
+        byte[] response = simulator.transceive(Utils.hexStringToByteArray("90BD0000071F0000000010000000"));
+        assertArrayEquals(Utils.hexStringToByteArray("91F0"), response);
+        // a MACed command is rejected now
+        response = simulator.transceive(Utils.hexStringToByteArray("906C0000090100000000000000000000"));
+        assertEquals((byte) 0x91, response[response.length - 2]);
+        assertFalse(response[response.length - 1] == (byte) 0x00);
+    }
+
+    @Test
+    public void chainedResponse_smallFrames_readsAllData() {
+        simulator.setMaxResponseDataLength(16);
+        assertTrue(desfireEv3.createAStandardFile((byte) 0, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 256, false));
+        selectAndAuthenticate(desfireEv3);
+        byte[] data = testData(256);
+        assertTrue(desfireEv3.writeToADataFile((byte) 0, 0, data));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 0, 0, 256));
+    }
+
+    @Test
+    public void backupFile_isChangedOnCommitOnly() {
+        assertTrue(desfireEv3.createABackupFile((byte) 3, DesfireEv3.CommunicationSettings.MACed, ACCESS_RIGHTS, 32));
+        selectAndAuthenticate(desfireEv3);
+        byte[] data = testData(32);
+        assertTrue(desfireEv3.writeToADataFile((byte) 3, 0, data));
+        assertArrayEquals(new byte[32], desfireEv3.readFromADataFile((byte) 3, 0, 32));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 3, 0, 32));
+    }
+
+    @Test
+    public void valueFile_creditAndAbort() {
+        assertTrue(desfireEv3.createAValueFile((byte) 6, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 0, 1000, 10, true));
+        selectAndAuthenticate(desfireEv3);
+        assertTrue(desfireEv3.changeAValueFile((byte) 6, 7, true));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        assertEquals(17, desfireEv3.readFromAValueFile((byte) 6));
+        assertTrue(desfireEv3.changeAValueFile((byte) 6, 5, false));
+        assertTrue(desfireEv3.abortATransaction());
+        assertEquals(17, desfireEv3.readFromAValueFile((byte) 6));
+    }
+
+    @Test
+    public void recordFile_writeCommitAndRead() {
+        assertTrue(desfireEv3.createALinearRecordFile((byte) 9, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32, 5));
+        selectAndAuthenticate(desfireEv3);
+        byte[] record = testData(30);
+        assertTrue(desfireEv3.writeToARecordFile((byte) 9, 0, record));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        byte[] records = desfireEv3.readFromARecordFile((byte) 9, 0, 0);
+        assertNotNull(records);
+        assertEquals(32, records.length);
+        assertArrayEquals(record, Arrays.copyOf(records, 30));
+    }
+
+    @Test
+    public void plainRecordFile_afterAuthentication_returnsAllRecords() {
+        assertTrue(desfireEv3.createALinearRecordFile((byte) 9, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS, 4, 5));
+        selectAndAuthenticate(desfireEv3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(desfireEv3.writeToARecordFile((byte) 9, 0, new byte[]{(byte) i, 0, 0, 0}));
+            assertTrue(desfireEv3.commitTransactionFull(false));
+        }
+        // the response in communication mode Plain has no MAC, the records are returned unchanged
+        assertArrayEquals(Utils.hexStringToByteArray("000000000100000002000000"), desfireEv3.readFromARecordFile((byte) 9, 0, 0));
+    }
+
+    @Test
+    public void authenticateEv2NonFirst_continuesTheSession() {
+        assertTrue(desfireEv3.createAStandardFile((byte) 2, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32, false));
+        selectAndAuthenticate(desfireEv3);
+        byte[] data = testData(32);
+        assertTrue(desfireEv3.writeToADataFile((byte) 2, 0, data));
+        byte[] transactionIdentifier = desfireEv3.getTransactionIdentifier().clone();
+        assertTrue(desfireEv3.authenticateAesEv2NonFirst((byte) 1, DEFAULT_KEY));
+        assertArrayEquals(transactionIdentifier, desfireEv3.getTransactionIdentifier());
+        assertArrayEquals(data, desfireEv3.readFromADataFile((byte) 2, 0, 32));
+    }
+
+    @Test
+    public void fieldOff_losesTheTag() {
+        simulator.setFieldOn(false);
+        assertNull(desfireEv3.getAllFileIds());
+    }
+
+    /**
+     * section for the shared fixture of the simulator based tests
+     */
+
+    /**
+     * creates the application APPLICATION_ID with 5 AES keys on the card and selects it
+     *
+     * @param transport | the simulator or a transport in front of it
+     */
+    static DesfireEv3 createApplication(CardTransport transport) {
+        DesfireEv3 desfireEv3 = new DesfireEv3(transport);
+        assertTrue(desfireEv3.createApplicationAes(APPLICATION_ID, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_ID));
+        return desfireEv3;
+    }
+
+    /**
+     * creates the application with one Standard file (ACCESS_RIGHTS) and selects the application again to
+     * get the file settings
+     */
+    static DesfireEv3 createStandardFile(CardTransport transport, byte fileNumber, DesfireEv3.CommunicationSettings communicationSettings, int fileSize) {
+        DesfireEv3 desfireEv3 = createApplication(transport);
+        assertTrue(desfireEv3.createAStandardFile(fileNumber, communicationSettings, ACCESS_RIGHTS, fileSize, false));
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_ID));
+        return desfireEv3;
+    }
+
+    /**
+     * selects the application again after creating files and authenticates with the Read&Write key 1
+     */
+    static void selectAndAuthenticate(DesfireEv3 desfireEv3) {
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_ID));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DEFAULT_KEY));
+    }
+
+    static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,145 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+public class DesfireFileInputStreamTest {
+
+    private static final byte FILE_NUMBER = (byte) 0;
+    private static final int FILE_SIZE = 600;
+    private static final byte READ_DATA_FILE_SECURE_COMMAND = (byte) 0xAD;
+
+    /**
+     * answers the n-th ReadData command with a permission denied error
+     */
+    private static class FailingTransport implements CardTransport {
+        private final DesfireEv3Simulator simulator;
+        private int failingRead = -1;
+        private int numberOfReads = 0;
+
+        FailingTransport(DesfireEv3Simulator simulator) {
+            this.simulator = simulator;
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            if (apdu[1] == READ_DATA_FILE_SECURE_COMMAND) {
+                numberOfReads++;
+                if (numberOfReads == failingRead) return new byte[]{(byte) 0x91, (byte) 0x9D};
+            }
+            return simulator.transceive(apdu);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return simulator.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return simulator.getMaxTransceiveLength();
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+    }
+
+    private FailingTransport transport;
+    private DesfireEv3 desfireEv3;
+    private byte[] data;
+
+    @Before
+    public void setUp() {
+        transport = new FailingTransport(new DesfireEv3Simulator());
+        desfireEv3 = DesfireEv3SimulatorTest.createStandardFile(transport, FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, FILE_SIZE);
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        data = DesfireEv3SimulatorTest.testData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(FILE_NUMBER, 0, data));
+        desfireEv3.setMaximumFrameDataLength(63); // 47 data bytes per chunk
+    }
+
+    private byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void dataFile_isReadWithAndWithoutPrefetch() throws Exception {
+        for (boolean isPrefetch : new boolean[]{false, true}) {
+            try (InputStream inputStream = DesfireFileInputStream.openDataFile(desfireEv3, FILE_NUMBER, 0, FILE_SIZE, isPrefetch)) {
+                assertArrayEquals(data, readAll(inputStream));
+            }
+        }
+    }
+
+    @Test
+    public void outputStream_writesTheDataFile() throws Exception {
+        byte[] newData = new byte[FILE_SIZE];
+        for (int i = 0; i < FILE_SIZE; i++) {
+            newData[i] = (byte) (FILE_SIZE - i);
+        }
+        try (OutputStream outputStream = DesfireFileOutputStream.openDataFile(desfireEv3, FILE_NUMBER, 0)) {
+            outputStream.write(newData);
+        }
+        assertArrayEquals(newData, desfireEv3.readFromADataFile(FILE_NUMBER, 0, FILE_SIZE));
+    }
+
+    @Test
+    public void prefetchStreams_shareTheCardThreadOfTheSession() throws Exception {
+        Callable<Thread> currentThread = new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        };
+        Thread cardThread = null;
+        for (int i = 0; i < 3; i++) {
+            try (InputStream inputStream = DesfireFileInputStream.openDataFile(desfireEv3, FILE_NUMBER, 0, FILE_SIZE, true)) {
+                assertArrayEquals(data, readAll(inputStream));
+            }
+            Thread thread = desfireEv3.getPrefetchExecutor().submit(currentThread).get();
+            if (cardThread != null) assertSame(cardThread, thread);
+            cardThread = thread;
+        }
+    }
+
+    @Test
+    public void failedChunk_stopsThePrefetch() throws Exception {
+        transport.failingRead = 2;
+        int readsBefore = transport.numberOfReads;
+        try (InputStream inputStream = DesfireFileInputStream.openDataFile(desfireEv3, FILE_NUMBER, 0, FILE_SIZE, true)) {
+            try {
+                readAll(inputStream);
+                fail("the second chunk fails");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                inputStream.read();
+                fail("the stream fails after a failed chunk");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(2, transport.numberOfReads - readsBefore);
+    }
+}
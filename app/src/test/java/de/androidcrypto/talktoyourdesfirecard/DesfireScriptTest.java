@@ -0,0 +1,107 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class DesfireScriptTest {
+
+    private static final byte[] APPLICATION_ID = DesfireEv3SimulatorTest.APPLICATION_ID;
+    private static final byte[] ACCESS_RIGHTS = DesfireEv3SimulatorTest.ACCESS_RIGHTS;
+    private static final byte[] ACCESS_RIGHTS_FREE_READ_WRITE = Utils.hexStringToByteArray("E2EE");
+    private static final byte[] DATA = Utils.hexStringToByteArray("010203");
+
+    @Test
+    public void execute_personalizationBatch_writesTheFile() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        DesfireScript script = new DesfireScript()
+                .createApplicationAes(APPLICATION_ID, 5)
+                .selectApplication(APPLICATION_ID)
+                .createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32)
+                .authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY)
+                .writeToADataFile((byte) 1, 0, DATA)
+                .readFromADataFile((byte) 1, 0, 3);
+        assertTrue(script.validate().isEmpty());
+        DesfireScript.Report report = script.execute(desfireEv3);
+        assertTrue(report.toString(), report.isSuccess());
+        List<DesfireScript.StepResult> stepResults = report.getStepResults();
+        assertArrayEquals(DATA, (byte[]) stepResults.get(stepResults.size() - 1).getValue());
+    }
+
+    @Test
+    public void validate_writeWithoutAuthentication_isAnError() {
+        DesfireScript script = new DesfireScript()
+                .createApplicationAes(APPLICATION_ID, 5)
+                .selectApplication(APPLICATION_ID)
+                .createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32)
+                .writeToADataFile((byte) 1, 0, DATA);
+        List<String> errors = script.validate();
+        assertEquals(errors.toString(), 1, errors.size());
+        assertTrue(errors.get(0).startsWith("step 3 "));
+    }
+
+    @Test
+    public void validate_freeAccessFile_needsNoAuthentication() {
+        DesfireScript script = new DesfireScript()
+                .createApplicationAes(APPLICATION_ID, 5)
+                .selectApplication(APPLICATION_ID)
+                .createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.Plain, ACCESS_RIGHTS_FREE_READ_WRITE, 32)
+                .writeToADataFile((byte) 1, 0, DATA)
+                .readFromADataFile((byte) 1, 0, 3);
+        assertTrue(script.validate().isEmpty());
+        DesfireScript.Report report = script.execute(new DesfireEv3(new DesfireEv3Simulator()));
+        assertTrue(report.toString(), report.isSuccess());
+        List<DesfireScript.StepResult> stepResults = report.getStepResults();
+        assertArrayEquals(DATA, (byte[]) stepResults.get(stepResults.size() - 1).getValue());
+    }
+
+    @Test
+    public void validate_keyProtectedFile_needsAnAuthentication() {
+        DesfireScript script = new DesfireScript()
+                .createApplicationAes(APPLICATION_ID, 5)
+                .selectApplication(APPLICATION_ID)
+                .createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32)
+                .writeToADataFile((byte) 1, 0, DATA)
+                // after the change the car key 2 is still needed, the write is free
+                .changeFileSettings((byte) 1, DesfireEv3.CommunicationSettings.Plain, 1, 2, 3, 14)
+                .writeToADataFile((byte) 1, 0, DATA)
+                .commitTransaction();
+        List<String> errors = script.validate();
+        assertEquals(errors.toString(), 3, errors.size());
+        assertTrue(errors.get(0).startsWith("step 3 "));
+        assertTrue(errors.get(1).startsWith("step 4 "));
+        assertTrue(errors.get(2).startsWith("step 6 "));
+    }
+
+    @Test
+    public void customStep_theApplicationIsSelectedAgainAfterwards() {
+        DesfireEv3 desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        DesfireScript script = new DesfireScript()
+                .createApplicationAes(APPLICATION_ID, 5)
+                .selectApplication(APPLICATION_ID)
+                .createAStandardFile((byte) 1, DesfireEv3.CommunicationSettings.Full, ACCESS_RIGHTS, 32)
+                .authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY)
+                .custom("selectMasterApplication", new DesfireScript.CustomOperation() {
+                    @Override
+                    public boolean run(DesfireEv3 desfireEv3) {
+                        return desfireEv3.selectApplicationByAid(new byte[3]);
+                    }
+                })
+                .writeToADataFile((byte) 1, 0, DATA);
+        DesfireScript.Report report = script.execute(desfireEv3);
+        assertTrue(report.toString(), report.isSuccess());
+        List<DesfireScript.StepResult> stepResults = report.getStepResults();
+        DesfireScript.StepResult write = stepResults.get(stepResults.size() - 1);
+        assertEquals("writeToADataFile", write.getName());
+        assertFalse(write.isImplicit());
+        // the implicit selection and authentication run before the write
+        assertTrue(stepResults.get(stepResults.size() - 3).isImplicit());
+        assertTrue(stepResults.get(stepResults.size() - 2).isImplicit());
+        assertArrayEquals(DATA, desfireEv3.readFromADataFile((byte) 1, 0, 3));
+    }
+}
@@ -0,0 +1,107 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DesfireSessionFactoryTest {
+
+    private static final byte[] OTHER_APPLICATION_ID = Utils.hexStringToByteArray("B1B2B3");
+
+    /**
+     * a card with one application and the given Standard files
+     */
+    private static DesfireEv3Simulator createCard(byte[] applicationId, int numberOfFiles) {
+        DesfireEv3Simulator simulator = new DesfireEv3Simulator();
+        DesfireEv3 desfireEv3 = new DesfireEv3(simulator);
+        assertTrue(desfireEv3.createApplicationAes(applicationId, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(applicationId));
+        for (int i = 0; i < numberOfFiles; i++) {
+            assertTrue(desfireEv3.createAStandardFile((byte) i, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, 64, false));
+        }
+        return simulator;
+    }
+
+    @Test
+    public void sessions_keepTheirOwnApplicationState() {
+        DesfireSessionFactory factory = new DesfireSessionFactory();
+        DesfireEv3Simulator firstCard = createCard(DesfireEv3SimulatorTest.APPLICATION_ID, 3);
+        DesfireEv3Simulator secondCard = createCard(OTHER_APPLICATION_ID, 1);
+        DesfireEv3 firstSession = factory.openSession(firstCard, firstCard.getUid());
+        DesfireEv3 secondSession = factory.openSession(secondCard, secondCard.getUid());
+        assertTrue(firstSession.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        assertTrue(firstSession.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(secondSession.selectApplicationByAid(OTHER_APPLICATION_ID));
+        assertArrayEquals(new byte[]{0, 1, 2}, firstSession.getApplicationAllFileIds());
+        assertArrayEquals(new byte[]{0}, secondSession.getApplicationAllFileIds());
+        assertNull(secondSession.getTransactionIdentifier());
+        assertNotNull(firstSession.getTransactionIdentifier());
+        assertTrue(firstSession.writeToADataFile((byte) 2, 0, DesfireEv3SimulatorTest.testData(64)));
+        assertEquals(2, factory.getNumberOfOpenedSessions());
+    }
+
+    @Test
+    public void openSession_appliesTheConfiguration() {
+        FileSettingsCache cache = new FileSettingsCache();
+        DesfireSessionFactory factory = new DesfireSessionFactory(cache);
+        factory.setTraceLevel(DesfireTrace.Level.ERROR);
+        factory.setMetricsEnabled(true);
+        DesfireEv3Simulator simulator = createCard(DesfireEv3SimulatorTest.APPLICATION_ID, 3);
+        DesfireEv3 desfireEv3 = factory.openSession(simulator, simulator.getUid());
+        assertEquals(DesfireTrace.Level.ERROR, desfireEv3.getTrace().getLevel());
+        assertTrue(desfireEv3.getMetrics().isEnabled());
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        assertNotNull(desfireEv3.getApplicationFileSettings((byte) 1));
+        // the next session of the card gets the file settings from the shared cache
+        long hits = cache.getHits();
+        desfireEv3 = factory.openSession(simulator, simulator.getUid());
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        assertNotNull(desfireEv3.getApplicationFileSettings((byte) 1));
+        assertTrue(cache.getHits() > hits);
+    }
+
+    @Test
+    public void sessionsOnSeveralThreads_doNotShareTheSecureMessaging() throws Exception {
+        final DesfireSessionFactory factory = new DesfireSessionFactory(new FileSettingsCache());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int reader = 0; reader < 4; reader++) {
+                final DesfireEv3Simulator simulator = createCard(DesfireEv3SimulatorTest.APPLICATION_ID, 1);
+                final byte[] data = DesfireEv3SimulatorTest.testData(40 + reader);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int tap = 0; tap < 20; tap++) {
+                            DesfireEv3 desfireEv3 = factory.openSession(simulator, simulator.getUid());
+                            if (!desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID)) return false;
+                            if (!desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY)) return false;
+                            if (!desfireEv3.writeToADataFile((byte) 0, 0, data)) return false;
+                            byte[] readData = desfireEv3.readFromADataFile((byte) 0, 0, data.length);
+                            if (!Arrays.equals(data, readData)) return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+            assertEquals(80, factory.getNumberOfOpenedSessions());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
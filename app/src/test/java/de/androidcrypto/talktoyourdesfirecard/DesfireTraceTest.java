@@ -0,0 +1,53 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DesfireTraceTest {
+
+    @Test
+    public void add_storesTheByteArrayAndCopiesItWhenEnabled() {
+        DesfireTrace trace = new DesfireTrace("test");
+        assertTrue(trace.isLogcatEnabled());
+        byte[] data = Utils.hexStringToByteArray("0102");
+        trace.add(DesfireTrace.Level.DEBUG, "method", "data", data);
+        data[0] = (byte) 0xFF; // e.g. a buffer that gets decrypted in place
+        assertTrue(trace.render().contains(Utils.printData("data", Utils.hexStringToByteArray("FF02"))));
+
+        trace = new DesfireTrace("test");
+        trace.setDataCopyEnabled(true);
+        data = Utils.hexStringToByteArray("0102");
+        trace.add(DesfireTrace.Level.DEBUG, "method", "data", data);
+        data[0] = (byte) 0xFF;
+        assertTrue(trace.render().contains(Utils.printData("data", Utils.hexStringToByteArray("0102"))));
+    }
+
+    @Test
+    public void disabledLevel_storesNothing() {
+        DesfireTrace trace = new DesfireTrace("test");
+        trace.setLevel(DesfireTrace.Level.INFO);
+        assertFalse(trace.isEnabled(DesfireTrace.Level.DEBUG));
+        trace.add(DesfireTrace.Level.DEBUG, "method", "message");
+        trace.add(DesfireTrace.Level.INFO, "method", "started");
+        assertEquals(1, trace.size());
+        trace.setLevel(DesfireTrace.Level.OFF);
+        trace.add(DesfireTrace.Level.ERROR, "method", "message");
+        assertEquals(1, trace.size());
+    }
+
+    @Test
+    public void fullBuffer_dropsTheOldestEntries() {
+        DesfireTrace trace = new DesfireTrace("test", 2);
+        trace.add(DesfireTrace.Level.DEBUG, "m1", "first");
+        trace.add(DesfireTrace.Level.DEBUG, "m2", "second");
+        trace.add(DesfireTrace.Level.DEBUG, "m3", "third");
+        assertEquals(2, trace.size());
+        String rendered = trace.render();
+        assertFalse(rendered.contains("first"));
+        assertTrue(rendered.startsWith("(1 older entries dropped)"));
+        assertTrue(rendered.contains("method: m3\nthird"));
+    }
+}
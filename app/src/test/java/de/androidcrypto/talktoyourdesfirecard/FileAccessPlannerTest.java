@@ -0,0 +1,64 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class FileAccessPlannerTest {
+
+    // access rights 12E4: Read&Write key 1, Change key 2, free Read access, Write key 4
+    private static final String PROFILE = "application A1A2A3 keys=5\n"
+            + "file 0 standard comm=Full access=12E4 size=32 data=01020304\n"
+            + "file 2 value comm=Full access=12E4 min=0 max=1000 value=100 limitedCredit=true\n";
+    private static final byte STANDARD_FILE_NUMBER = (byte) 0;
+    private static final byte VALUE_FILE_NUMBER = (byte) 2;
+    private static final byte COMMUNICATION_SETTINGS_PLAIN = (byte) 0x00;
+    private static final byte COMMUNICATION_SETTINGS_FULL = (byte) 0x03;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        assertTrue(CardProfileCompiler.compile(CardProfile.parse(PROFILE)).execute(desfireEv3).isSuccess());
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+    }
+
+    @Test
+    public void communicationSettings_followTheAccessOfTheAuthenticatedKey() {
+        FileSettings standardFileSettings = desfireEv3.getApplicationFileSettings(STANDARD_FILE_NUMBER);
+        FileSettings valueFileSettings = desfireEv3.getApplicationFileSettings(VALUE_FILE_NUMBER);
+        assertEquals(COMMUNICATION_SETTINGS_PLAIN, desfireEv3.getCommunicationSettingsForAccess(standardFileSettings, AuthenticationManager.Access.READ));
+        assertEquals(COMMUNICATION_SETTINGS_PLAIN, desfireEv3.getCommunicationSettingsForAccess(valueFileSettings, AuthenticationManager.Access.READ));
+
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 4, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        // the Write key has no read access to a Standard file, but to a Value file (GetValue and Debit)
+        assertEquals(COMMUNICATION_SETTINGS_PLAIN, desfireEv3.getCommunicationSettingsForAccess(standardFileSettings, AuthenticationManager.Access.READ));
+        assertEquals(COMMUNICATION_SETTINGS_FULL, desfireEv3.getCommunicationSettingsForAccess(valueFileSettings, AuthenticationManager.Access.READ));
+        assertEquals(COMMUNICATION_SETTINGS_FULL, desfireEv3.getCommunicationSettingsForAccess(valueFileSettings, AuthenticationManager.Access.WRITE));
+        assertEquals(COMMUNICATION_SETTINGS_FULL, desfireEv3.getCommunicationSettingsForAccess(valueFileSettings, AuthenticationManager.Access.READ_WRITE));
+    }
+
+    @Test
+    public void freeReadsRunFirst_andTheWriteKeyDebitsInOneAuthentication() {
+        AuthenticationManager authenticationManager = new AuthenticationManager(desfireEv3);
+        authenticationManager.setKey((byte) 4, DesfireEv3SimulatorTest.DEFAULT_KEY);
+        FileAccessPlanner.Operation write = FileAccessPlanner.Operation.writeData(STANDARD_FILE_NUMBER, 0, Utils.hexStringToByteArray("0A0B"));
+        FileAccessPlanner.Operation debit = FileAccessPlanner.Operation.debit(VALUE_FILE_NUMBER, 30);
+        FileAccessPlanner.Operation readBalance = FileAccessPlanner.Operation.getValue(VALUE_FILE_NUMBER);
+        FileAccessPlanner.Operation readName = FileAccessPlanner.Operation.readData(STANDARD_FILE_NUMBER, 0, 4);
+        FileAccessPlanner planner = new FileAccessPlanner(desfireEv3, authenticationManager);
+        assertTrue(planner.execute(Arrays.asList(write, debit, readBalance, readName)));
+        assertEquals(1, planner.getNumberOfAuthentications());
+        assertEquals(1, planner.getNumberOfCommits());
+        // the read of file 0 keeps its place after the write
+        assertArrayEquals(Utils.hexStringToByteArray("0A0B0304"), readName.getData());
+        assertEquals(100, readBalance.getValue());
+        assertEquals(70, desfireEv3.readFromAValueFile(VALUE_FILE_NUMBER));
+    }
+}
@@ -0,0 +1,60 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileContentCacheTest {
+
+    private static final byte DATA_FILE_NUMBER = (byte) 0;
+    private static final byte VALUE_FILE_NUMBER = (byte) 1;
+    private static final int FILE_SIZE = 256;
+
+    private DesfireEv3Simulator simulator;
+    private DesfireEv3 desfireEv3;
+    private final FileContentCache cache = new FileContentCache();
+
+    @Before
+    public void setUp() {
+        simulator = new DesfireEv3Simulator();
+        desfireEv3 = DesfireEv3SimulatorTest.createApplication(simulator);
+        assertTrue(desfireEv3.createAStandardFile(DATA_FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, FILE_SIZE, false));
+        assertTrue(desfireEv3.createAValueFile(VALUE_FILE_NUMBER, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, 0, 1000, 0, false));
+        DesfireEv3SimulatorTest.selectAndAuthenticate(desfireEv3);
+    }
+
+    private byte[] readFile() {
+        return cache.readFile(desfireEv3, simulator.getUid(), DesfireEv3SimulatorTest.APPLICATION_ID, DATA_FILE_NUMBER,
+                FileContentCache.ValidityToken.VALUE, VALUE_FILE_NUMBER);
+    }
+
+    @Test
+    public void unchangedToken_servesTheContentWithOneCommand() {
+        byte[] data = DesfireEv3SimulatorTest.testData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(DATA_FILE_NUMBER, 0, data));
+        assertArrayEquals(data, readFile());
+        assertEquals(1, cache.getMisses());
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertArrayEquals(data, readFile());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, simulator.getTransceiveCounter() - transceiveCounter);
+    }
+
+    @Test
+    public void changedToken_readsTheFileAgain() {
+        byte[] data = DesfireEv3SimulatorTest.testData(FILE_SIZE);
+        assertTrue(desfireEv3.writeToADataFile(DATA_FILE_NUMBER, 0, data));
+        assertArrayEquals(data, readFile());
+        // the writing application changes the content and increases the value in the same transaction
+        data[0] ^= (byte) 0xFF;
+        assertTrue(desfireEv3.writeToADataFile(DATA_FILE_NUMBER, 0, data));
+        assertTrue(desfireEv3.changeAValueFile(VALUE_FILE_NUMBER, 1, true));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        assertArrayEquals(data, readFile());
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
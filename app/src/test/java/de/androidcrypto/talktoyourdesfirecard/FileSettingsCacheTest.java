@@ -0,0 +1,119 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class FileSettingsCacheTest {
+
+    private static final int NUMBER_OF_FILES = 10;
+
+    private File cacheFile;
+    private DesfireEv3Simulator simulator;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = File.createTempFile("file_settings_cache", ".properties");
+        assertTrue(cacheFile.delete());
+        simulator = new DesfireEv3Simulator();
+        DesfireEv3 desfireEv3 = DesfireEv3SimulatorTest.createApplication(simulator);
+        for (int i = 0; i < NUMBER_OF_FILES; i++) {
+            assertTrue(desfireEv3.createAStandardFile((byte) i, DesfireEv3.CommunicationSettings.Full, DesfireEv3SimulatorTest.ACCESS_RIGHTS, 64, false));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+    }
+
+    private DesfireEv3 newTap(FileSettingsCache cache) {
+        DesfireEv3 desfireEv3 = new DesfireEv3(simulator);
+        desfireEv3.setFileSettingsCache(cache, simulator.getUid());
+        return desfireEv3;
+    }
+
+    private long selectCommands(DesfireEv3 desfireEv3) {
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        return simulator.getTransceiveCounter() - transceiveCounter;
+    }
+
+    @Test
+    public void secondTap_takesTheFileSettingsFromTheCache() {
+        FileSettingsCache cache = new FileSettingsCache(cacheFile);
+        DesfireEv3 desfireEv3 = newTap(cache);
+        selectCommands(desfireEv3);
+        assertEquals(NUMBER_OF_FILES, countFileSettings(desfireEv3.getApplicationAllFileSettings()));
+
+        DesfireEv3 nextTap = newTap(cache);
+        // select and getFileIds only, the file settings are taken from the cache
+        assertEquals(2, selectCommands(nextTap));
+        assertEquals(NUMBER_OF_FILES, countFileSettings(nextTap.getApplicationAllFileSettings()));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void cacheMiss_readsTheFileSettingsOnFirstUse() {
+        FileSettingsCache cache = new FileSettingsCache(cacheFile);
+        DesfireEv3 desfireEv3 = newTap(cache);
+        // select and getFileIds only
+        assertEquals(2, selectCommands(desfireEv3));
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertNotNull(desfireEv3.getApplicationFileSettings((byte) 3));
+        assertEquals(1, simulator.getTransceiveCounter() - transceiveCounter);
+        assertNull(desfireEv3.getApplicationFileSettings((byte) 20));
+        assertFalse("no file I/O before flush", cacheFile.exists());
+    }
+
+    @Test
+    public void flush_persistsTheEntries() {
+        FileSettingsCache cache = new FileSettingsCache(cacheFile);
+        DesfireEv3 desfireEv3 = newTap(cache);
+        selectCommands(desfireEv3);
+        assertEquals(NUMBER_OF_FILES, countFileSettings(desfireEv3.getApplicationAllFileSettings()));
+        assertTrue(cache.flush());
+        assertTrue(cacheFile.exists());
+
+        FileSettingsCache loadedCache = new FileSettingsCache(cacheFile);
+        DesfireEv3 nextTap = newTap(loadedCache);
+        assertEquals(2, selectCommands(nextTap));
+        long transceiveCounter = simulator.getTransceiveCounter();
+        assertEquals(NUMBER_OF_FILES, countFileSettings(nextTap.getApplicationAllFileSettings()));
+        assertEquals(0, simulator.getTransceiveCounter() - transceiveCounter);
+        assertEquals(1, loadedCache.getHits());
+    }
+
+    @Test
+    public void changeFileSettings_thenWarmSelect_hasNoMissingFileSettings() {
+        FileSettingsCache cache = new FileSettingsCache();
+        DesfireEv3 desfireEv3 = newTap(cache);
+        selectCommands(desfireEv3);
+        assertEquals(NUMBER_OF_FILES, countFileSettings(desfireEv3.getApplicationAllFileSettings()));
+        // key 2 is the change access rights key of ACCESS_RIGHTS
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 2, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(desfireEv3.changeFileSettings((byte) 3, DesfireEv3.CommunicationSettings.Plain, 1, 2, 1, 1));
+
+        DesfireEv3 nextTap = newTap(cache);
+        selectCommands(nextTap);
+        FileSettings[] allFileSettings = nextTap.getApplicationAllFileSettings();
+        assertEquals(NUMBER_OF_FILES, countFileSettings(allFileSettings));
+        assertEquals(0, allFileSettings[3].getCommunicationSettings()); // Plain
+    }
+
+    private static int countFileSettings(FileSettings[] allFileSettings) {
+        int count = 0;
+        for (FileSettings fileSettings : allFileSettings) {
+            if (fileSettings != null) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,109 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class KeyDiversifierTest {
+
+    // AES-128 example of AN10922
+    private static final byte[] MASTER_KEY = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+    private static final byte[] UID = Utils.hexStringToByteArray("04782E21801D80");
+    private static final byte[] AID = Utils.hexStringToByteArray("3042F5");
+    private static final byte[] SYSTEM_IDENTIFIER = Utils.hexStringToByteArray("4E585020416275");
+    private static final byte[] DIVERSIFIED_KEY = Utils.hexStringToByteArray("A8DD63A3B89D54B37CA802473FDA9175");
+
+    /**
+     * a master key per key number and key version, e.g. 0001.. for key number 1 and version 1, the key
+     * number is not part of the diversification input
+     */
+    private static final KeyDiversifier.MasterKeyProvider VERSIONED_MASTER_KEYS = new KeyDiversifier.MasterKeyProvider() {
+        @Override
+        public byte[] getMasterKey(int keyNumber, int keyVersion) {
+            if ((keyVersion < 1) || (keyVersion > 2)) return null;
+            byte[] masterKey = new byte[16];
+            masterKey[0] = (byte) (keyVersion - 1);
+            masterKey[1] = (byte) keyNumber;
+            return masterKey;
+        }
+    };
+
+    @Test
+    public void diversifyAes128_matchesAn10922() {
+        assertArrayEquals(DIVERSIFIED_KEY, KeyDiversifier.diversifyAes128(MASTER_KEY, KeyDiversifier.getDiversificationInput(UID, AID, SYSTEM_IDENTIFIER)));
+        assertArrayEquals(DIVERSIFIED_KEY, new KeyDiversifier(MASTER_KEY, SYSTEM_IDENTIFIER).getKey(UID, AID, 1, 1));
+    }
+
+    @Test
+    public void invalidInput_returnsNull() {
+        assertNull(KeyDiversifier.diversifyAes128(new byte[15], UID));
+        assertNull(KeyDiversifier.diversifyAes128(MASTER_KEY, new byte[0]));
+        assertNull(KeyDiversifier.diversifyAes128(MASTER_KEY, new byte[KeyDiversifier.MAXIMUM_DIVERSIFICATION_INPUT_LENGTH + 1]));
+        assertNull(new KeyDiversifier(VERSIONED_MASTER_KEYS, SYSTEM_IDENTIFIER, 10).getKey(UID, AID, 1, 3));
+    }
+
+    @Test
+    public void getKey_usesTheCache() {
+        KeyDiversifier keyDiversifier = new KeyDiversifier(VERSIONED_MASTER_KEYS, SYSTEM_IDENTIFIER, 2);
+        byte[] key = keyDiversifier.getKey(UID, AID, 1, 1);
+        assertArrayEquals(key, keyDiversifier.getKey(UID, AID, 1, 1));
+        assertEquals(1, keyDiversifier.getMisses());
+        assertEquals(1, keyDiversifier.getHits());
+        assertFalse(Arrays.equals(key, keyDiversifier.getKey(UID, AID, 1, 2)));
+        assertFalse(Arrays.equals(key, keyDiversifier.getKey(UID, AID, 2, 1)));
+        // the cache keeps the 2 recently used keys
+        assertEquals(2, keyDiversifier.size());
+        // a changed returned key does not change the cached key
+        key[0] ^= (byte) 0xFF;
+        assertFalse(Arrays.equals(key, keyDiversifier.getKey(UID, AID, 1, 1)));
+    }
+
+    @Test
+    public void deriveAll_returnsTheKeysInTheOrderOfTheUids() throws Exception {
+        KeyDiversifier keyDiversifier = new KeyDiversifier(MASTER_KEY, SYSTEM_IDENTIFIER);
+        List<byte[]> uids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] uid = UID.clone();
+            uid[6] = (byte) i;
+            uids.add(uid);
+        }
+        try {
+            List<byte[]> keys = keyDiversifier.deriveAll(uids, AID, 1, 1);
+            assertEquals(uids.size(), keys.size());
+            for (int i = 0; i < uids.size(); i++) {
+                assertArrayEquals(keyDiversifier.getKey(uids.get(i), AID, 1, 1), keys.get(i));
+            }
+        } finally {
+            keyDiversifier.shutdown();
+        }
+    }
+
+    @Test
+    public void desfireEv3_authenticatesAndChangesDiversifiedKeys() {
+        DesfireEv3Simulator simulator = new DesfireEv3Simulator();
+        DesfireEv3 desfireEv3 = new DesfireEv3(simulator);
+        byte[] applicationId = DesfireEv3SimulatorTest.APPLICATION_ID;
+        byte[] cardUid = simulator.getUid();
+        KeyDiversifier keyDiversifier = new KeyDiversifier(VERSIONED_MASTER_KEYS, SYSTEM_IDENTIFIER, 10);
+        assertTrue(desfireEv3.createApplicationAes(applicationId, 5));
+        assertTrue(desfireEv3.selectApplicationByAid(applicationId));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(desfireEv3.changeApplicationKeyFull((byte) 1, (byte) 1, keyDiversifier.getKey(cardUid, applicationId, 1, 1), DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(desfireEv3.authenticateAesEv2NonFirst((byte) 1, keyDiversifier, cardUid, 1));
+
+        // rotate key 1 to the master key of version 2
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 0, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        assertTrue(desfireEv3.changeApplicationKeyFull((byte) 1, (byte) 2, keyDiversifier, cardUid, 1));
+        assertEquals(2, desfireEv3.getKeyVersion((byte) 1));
+        assertFalse(desfireEv3.authenticateAesEv2First((byte) 1, keyDiversifier, cardUid, 1));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, keyDiversifier, cardUid, 2));
+    }
+}
@@ -0,0 +1,146 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ResumableDataWriterTest {
+
+    private static final byte[] APPLICATION_ID = DesfireEv3SimulatorTest.APPLICATION_ID;
+    private static final byte FILE_NUMBER = (byte) 1;
+    private static final byte WRITE_DATA_FILE_SECURE_COMMAND = (byte) 0x8D;
+    private static final byte COMMIT_TRANSACTION_COMMAND = (byte) 0xC7;
+
+    /**
+     * loses the tag after a number of APDUs, counts the commits and corrupts the response MAC of a write on request
+     */
+    private static class TestTransport implements CardTransport {
+        private final DesfireEv3Simulator simulator;
+        private int remainingApdus;
+        private boolean isCorruptWriteResponse = false;
+        private int numberOfCommits = 0;
+
+        TestTransport(DesfireEv3Simulator simulator, int remainingApdus) {
+            this.simulator = simulator;
+            this.remainingApdus = remainingApdus;
+            simulator.setFieldOn(true);
+        }
+
+        @Override
+        public byte[] transceive(byte[] apdu) throws IOException {
+            if (--remainingApdus < 0) simulator.setFieldOn(false);
+            byte[] response = simulator.transceive(apdu);
+            if (apdu[1] == COMMIT_TRANSACTION_COMMAND) numberOfCommits++;
+            if ((isCorruptWriteResponse) && (apdu[1] == WRITE_DATA_FILE_SECURE_COMMAND) && (response.length > 2)) {
+                response[0] ^= (byte) 0x01;
+            }
+            return response;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return simulator.isConnected();
+        }
+
+        @Override
+        public int getMaxTransceiveLength() {
+            return simulator.getMaxTransceiveLength();
+        }
+
+        @Override
+        public boolean isExtendedLengthApduSupported() {
+            return false;
+        }
+    }
+
+    private static DesfireEv3Simulator createCard(String fileType) {
+        DesfireEv3Simulator simulator = new DesfireEv3Simulator();
+        String profile = "application A1A2A3 keys=5\nfile 1 " + fileType + " comm=Full access=1234 size=1024\n";
+        assertTrue(CardProfileCompiler.compile(CardProfile.parse(profile)).execute(new DesfireEv3(simulator)).isSuccess());
+        return simulator;
+    }
+
+    private static byte[] readFile(DesfireEv3Simulator simulator, int length) {
+        simulator.setFieldOn(false);
+        simulator.setFieldOn(true);
+        DesfireEv3 desfireEv3 = new DesfireEv3(simulator);
+        assertTrue(desfireEv3.selectApplicationByAid(APPLICATION_ID));
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+        return desfireEv3.readFromADataFile(FILE_NUMBER, 0, length);
+    }
+
+    @Test
+    public void standardFile_continuesAtTheCheckpoint() {
+        DesfireEv3Simulator simulator = createCard("standard");
+        byte[] data = DesfireEv3SimulatorTest.testData(1000);
+        ResumableDataWriter writer = new ResumableDataWriter();
+        ResumableDataWriter.Result result = writer.write(new DesfireEv3(new TestTransport(simulator, 9)), simulator.getUid(),
+                APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, data);
+        assertEquals(ResumableDataWriter.Status.INTERRUPTED, result.getStatus());
+        int checkpoint = writer.getCheckpoint(simulator.getUid(), APPLICATION_ID, FILE_NUMBER);
+        assertTrue(checkpoint > 0);
+        result = writer.write(new DesfireEv3(new TestTransport(simulator, 100)), simulator.getUid(),
+                APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, data);
+        assertTrue(result.isComplete());
+        assertEquals((data.length - checkpoint + 63) / 64, result.getNumberOfSegments());
+        assertArrayEquals(data, readFile(simulator, data.length));
+    }
+
+    @Test
+    public void checkpoints_areWrittenOnFlushOnly() throws Exception {
+        File checkpointFile = File.createTempFile("write_checkpoints", ".properties");
+        assertTrue(checkpointFile.delete());
+        try {
+            DesfireEv3Simulator simulator = createCard("standard");
+            ResumableDataWriter writer = new ResumableDataWriter(checkpointFile);
+            ResumableDataWriter.Result result = writer.write(new DesfireEv3(new TestTransport(simulator, 9)), simulator.getUid(),
+                    APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, DesfireEv3SimulatorTest.testData(1000));
+            assertEquals(ResumableDataWriter.Status.INTERRUPTED, result.getStatus());
+            assertFalse("no file I/O before flush", checkpointFile.exists());
+            assertTrue(writer.flush());
+            int checkpoint = writer.getCheckpoint(simulator.getUid(), APPLICATION_ID, FILE_NUMBER);
+            assertTrue(checkpoint > 0);
+            assertEquals(checkpoint, new ResumableDataWriter(checkpointFile).getCheckpoint(simulator.getUid(), APPLICATION_ID, FILE_NUMBER));
+        } finally {
+            checkpointFile.delete();
+        }
+    }
+
+    @Test
+    public void backupFile_isCommittedOnceAndKeepsTheOldDataOnInterruption() {
+        DesfireEv3Simulator simulator = createCard("backup");
+        byte[] data = DesfireEv3SimulatorTest.testData(300);
+        ResumableDataWriter writer = new ResumableDataWriter();
+        ResumableDataWriter.Result result = writer.write(new DesfireEv3(new TestTransport(simulator, 6)), simulator.getUid(),
+                APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, data);
+        assertEquals(ResumableDataWriter.Status.INTERRUPTED, result.getStatus());
+        assertEquals(0, writer.getCheckpoint(simulator.getUid(), APPLICATION_ID, FILE_NUMBER));
+        assertArrayEquals(new byte[data.length], readFile(simulator, data.length));
+
+        TestTransport transport = new TestTransport(simulator, 100);
+        result = writer.write(new DesfireEv3(transport), simulator.getUid(),
+                APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, data);
+        assertTrue(result.isComplete());
+        assertEquals(5, result.getNumberOfSegments());
+        assertEquals(1, transport.numberOfCommits);
+        assertArrayEquals(data, readFile(simulator, data.length));
+    }
+
+    @Test
+    public void localFailure_isNotAnInterruption() {
+        DesfireEv3Simulator simulator = createCard("standard");
+        TestTransport transport = new TestTransport(simulator, 100);
+        transport.isCorruptWriteResponse = true;
+        DesfireEv3 desfireEv3 = new DesfireEv3(transport);
+        ResumableDataWriter.Result result = new ResumableDataWriter().write(desfireEv3, simulator.getUid(),
+                APPLICATION_ID, (byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY, FILE_NUMBER, 0, DesfireEv3SimulatorTest.testData(100));
+        assertEquals(ResumableDataWriter.Status.FAILED, result.getStatus());
+        assertFalse(desfireEv3.isTransceiveFailed());
+    }
+}
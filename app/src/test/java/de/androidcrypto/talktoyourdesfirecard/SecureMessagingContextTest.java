@@ -0,0 +1,85 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class SecureMessagingContextTest {
+
+    // RFC 4493 test vectors
+    private static final byte[] KEY = Utils.hexStringToByteArray("2b7e151628aed2a6abf7158809cf4f3c");
+    private static final byte[] MESSAGE_40 = Utils.hexStringToByteArray("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e5130c81c46a35ce411");
+    private static final byte[] CMAC_0 = Utils.hexStringToByteArray("bb1d6929e95937287fa37d129b756746");
+    private static final byte[] CMAC_16 = Utils.hexStringToByteArray("070a16b46b4d4144f79bdd9dd04a287c");
+    private static final byte[] CMAC_40 = Utils.hexStringToByteArray("dfa66747de9ae63030ca32611497c827");
+
+    private final SecureMessagingContext context = SecureMessagingContext.create(KEY, KEY);
+
+    @Test
+    public void cmac_matchesRfc4493() {
+        assertArrayEquals(CMAC_0, context.cmac(new byte[0]));
+        assertArrayEquals(CMAC_16, context.cmac(Arrays.copyOf(MESSAGE_40, 16)));
+        assertArrayEquals(CMAC_40, context.cmac(MESSAGE_40));
+    }
+
+    @Test
+    public void cmacStream_inPieces_equalsCmac() {
+        SecureMessagingContext.CmacStream cmacStream = context.startCmac();
+        cmacStream.update(MESSAGE_40, 0, 7);
+        cmacStream.update(MESSAGE_40, 7, 20);
+        cmacStream.update(MESSAGE_40, 27, 13);
+        assertArrayEquals(CMAC_40, cmacStream.doFinal());
+    }
+
+    @Test
+    public void encryptAndDecrypt_matchAesCbc() throws Exception {
+        byte[] iv = Utils.hexStringToByteArray("000102030405060708090a0b0c0d0e0f");
+        byte[] data = Arrays.copyOf(MESSAGE_40, 32);
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(iv));
+        byte[] expected = cipher.doFinal(data);
+        byte[] encrypted = context.encrypt(iv, data);
+        assertArrayEquals(expected, encrypted);
+        assertArrayEquals(data, context.decrypt(iv, encrypted));
+    }
+
+    @Test
+    public void encryptPadded_thenDecryptUnpadded_returnsTheData() {
+        byte[] iv = new byte[16];
+        for (int length = 0; length <= 33; length++) {
+            byte[] data = Arrays.copyOf(MESSAGE_40, length);
+            byte[] encrypted = new byte[SecureMessagingContext.getPaddedLength(length)];
+            assertEquals(encrypted.length, context.encryptPadded(iv, data, 0, length, encrypted, 0));
+            assertEquals(0, encrypted.length % 16);
+            int decryptedLength = context.decryptInPlaceUnpadded(iv, encrypted, 0, encrypted.length);
+            assertEquals(length, decryptedLength);
+            assertArrayEquals(data, Arrays.copyOf(encrypted, decryptedLength));
+        }
+    }
+
+    @Test
+    public void encryptPadded_atAnOffset_equalsEncryptOfThePaddedData() {
+        byte[] iv = Utils.hexStringToByteArray("0f0e0d0c0b0a09080706050403020100");
+        byte[] padded = new byte[32];
+        System.arraycopy(MESSAGE_40, 3, padded, 0, 20);
+        padded[20] = (byte) 0x80;
+        byte[] out = new byte[5 + 32];
+        assertEquals(32, context.encryptPadded(iv, MESSAGE_40, 3, 20, out, 5));
+        assertArrayEquals(context.encrypt(iv, padded), Arrays.copyOfRange(out, 5, 37));
+    }
+
+    @Test
+    public void invalidLengths_areRejected() {
+        assertNull(SecureMessagingContext.create(new byte[15], KEY));
+        assertNull(context.encrypt(new byte[16], new byte[17]));
+        assertEquals(-1, SecureMessagingContext.getUnpaddedLength(new byte[16], 0, 16)); // no 0x80 padding byte
+    }
+}
@@ -0,0 +1,113 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SunMessageVerifierTest {
+
+    // NTAG 424 DNA examples with the default keys (AN12196 and sdm.nfcdeveloper.com)
+    private static final byte[] DEFAULT_KEY = new byte[16];
+    private static final SunMessageVerifier.UrlTemplate PICC_DATA_TEMPLATE = new SunMessageVerifier.UrlTemplate("picc_data", null, "cmac", null);
+    private static final String PICC_DATA_URL = "https://sdm.nfcdeveloper.com/tag?picc_data=EF963FF7828658A599F3041510671E88&cmac=94EED9EE65337086";
+    private static final byte[] PICC_DATA_UID = Utils.hexStringToByteArray("04DE5F1EACC040");
+    private static final String FILE_DATA_URL = "https://sdm.nfcdeveloper.com/tag?picc_data=FDE4AFA99B5C820A2C1BB0F1C792D0EB&enc=94592FDE69FA06E8E3B6CA686A22842B&cmac=C48B89C17A233B2C";
+    private static final byte[] FILE_DATA_UID = Utils.hexStringToByteArray("04958CAA5C5E80");
+
+    @Test
+    public void piccDataAndMac_areVerified() {
+        SunMessageVerifier.Result result = new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, PICC_DATA_TEMPLATE).verify(PICC_DATA_URL);
+        assertEquals(SunMessageVerifier.Status.VALID, result.getStatus());
+        assertArrayEquals(PICC_DATA_UID, result.getUid());
+        assertEquals(61, result.getReadCounter());
+    }
+
+    @Test
+    public void encryptedFileData_isDecrypted() {
+        SunMessageVerifier.Result result = new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, SunMessageVerifier.DEFAULT_URL_TEMPLATE).verify(FILE_DATA_URL);
+        assertEquals(SunMessageVerifier.Status.VALID, result.getStatus());
+        assertArrayEquals(FILE_DATA_UID, result.getUid());
+        assertEquals(1, result.getReadCounter());
+        assertEquals("xxxxxxxxxxxxxxxx", new String(result.getFileData(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void wrongKeysAndChangedMac_areRejected() {
+        byte[] otherKey = Utils.hexStringToByteArray("00112233445566778899AABBCCDDEEFF");
+        assertEquals(SunMessageVerifier.Status.INVALID_PICC_DATA,
+                new SunMessageVerifier(otherKey, DEFAULT_KEY, PICC_DATA_TEMPLATE).verify(PICC_DATA_URL).getStatus());
+        assertEquals(SunMessageVerifier.Status.INVALID_MAC,
+                new SunMessageVerifier(DEFAULT_KEY, otherKey, PICC_DATA_TEMPLATE).verify(PICC_DATA_URL).getStatus());
+        assertEquals(SunMessageVerifier.Status.INVALID_MAC,
+                new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, PICC_DATA_TEMPLATE).verify(PICC_DATA_URL.replace("cmac=94", "cmac=95")).getStatus());
+        assertEquals(SunMessageVerifier.Status.INVALID_URL,
+                new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, PICC_DATA_TEMPLATE).verify(PICC_DATA_URL.replace("&cmac=", "&mac=")).getStatus());
+    }
+
+    @Test
+    public void readCounter_hasToIncrease() {
+        SunMessageVerifier verifier = new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, PICC_DATA_TEMPLATE);
+        assertEquals(-1, verifier.getLastReadCounter(PICC_DATA_UID));
+        assertTrue(verifier.verify(PICC_DATA_URL).isValid());
+        assertEquals(61, verifier.getLastReadCounter(PICC_DATA_UID));
+        assertEquals(SunMessageVerifier.Status.REPLAYED_READ_COUNTER, verifier.verify(PICC_DATA_URL).getStatus());
+
+        verifier = new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, PICC_DATA_TEMPLATE);
+        verifier.setLastReadCounter(PICC_DATA_UID, 61);
+        assertEquals(SunMessageVerifier.Status.REPLAYED_READ_COUNTER, verifier.verify(PICC_DATA_URL).getStatus());
+        verifier.setReadCounterCheckEnabled(false);
+        assertTrue(verifier.verify(PICC_DATA_URL).isValid());
+    }
+
+    @Test
+    public void fileReadKey_isRequestedOncePerUid() {
+        final AtomicInteger numberOfRequests = new AtomicInteger();
+        SunMessageVerifier verifier = new SunMessageVerifier(new SunMessageVerifier.KeyProvider() {
+            @Override
+            public byte[] getSdmMetaReadKey() {
+                return DEFAULT_KEY;
+            }
+
+            @Override
+            public byte[] getSdmFileReadKey(byte[] uid) {
+                numberOfRequests.incrementAndGet();
+                return Arrays.equals(PICC_DATA_UID, uid) ? DEFAULT_KEY : null;
+            }
+        }, PICC_DATA_TEMPLATE, 10);
+        verifier.setReadCounterCheckEnabled(false);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(verifier.verify(PICC_DATA_URL).isValid());
+        }
+        assertEquals(1, numberOfRequests.get());
+        // the key provider has no key for the UID of the other tag
+        assertEquals(SunMessageVerifier.Status.MISSING_KEY, verifier.verify(FILE_DATA_URL.replace("&enc=94592FDE69FA06E8E3B6CA686A22842B", "")).getStatus());
+    }
+
+    @Test
+    public void verifyAll_keepsTheOrderOfTheUrls() throws Exception {
+        SunMessageVerifier verifier = new SunMessageVerifier(DEFAULT_KEY, DEFAULT_KEY, SunMessageVerifier.DEFAULT_URL_TEMPLATE);
+        verifier.setReadCounterCheckEnabled(false);
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            urls.add(((i % 3) == 0) ? FILE_DATA_URL.replace("cmac=C4", "cmac=C5") : FILE_DATA_URL);
+        }
+        try {
+            List<SunMessageVerifier.Result> results = verifier.verifyAll(urls);
+            assertEquals(urls.size(), results.size());
+            for (int i = 0; i < urls.size(); i++) {
+                assertEquals(urls.get(i), results.get(i).getUrl());
+                assertEquals(((i % 3) == 0) ? SunMessageVerifier.Status.INVALID_MAC : SunMessageVerifier.Status.VALID, results.get(i).getStatus());
+            }
+        } finally {
+            verifier.shutdown();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package de.androidcrypto.talktoyourdesfirecard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ValueTransactionTest {
+
+    private static final String PROFILE = "application A1A2A3 keys=5\n"
+            + "file 1 value comm=Full access=EEEE min=0 max=1000 value=100 limitedCredit=false\n"
+            + "file 2 value comm=Full access=1234 min=0 max=1000 value=100 limitedCredit=false\n"
+            + "file 3 linear comm=Full access=1234 recordSize=16 records=2\n";
+    private static final byte FREE_VALUE_FILE_NUMBER = (byte) 1;
+    private static final byte VALUE_FILE_NUMBER = (byte) 2;
+    private static final byte LINEAR_RECORD_FILE_NUMBER = (byte) 3;
+
+    private DesfireEv3 desfireEv3;
+
+    @Before
+    public void setUp() {
+        desfireEv3 = new DesfireEv3(new DesfireEv3Simulator());
+        assertTrue(CardProfileCompiler.compile(CardProfile.parse(PROFILE)).execute(desfireEv3).isSuccess());
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+    }
+
+    private void authenticate() {
+        assertTrue(desfireEv3.authenticateAesEv2First((byte) 1, DesfireEv3SimulatorTest.DEFAULT_KEY));
+    }
+
+    @Test
+    public void freeAccess_isCommittedWithoutAuthentication() {
+        ValueTransaction.Result result = new ValueTransaction()
+                .debit(FREE_VALUE_FILE_NUMBER, 30)
+                .credit(FREE_VALUE_FILE_NUMBER, 10)
+                .commit(desfireEv3, false);
+        assertTrue(result.toString(), result.isCommitted());
+        assertEquals(80, desfireEv3.readFromAValueFile(FREE_VALUE_FILE_NUMBER));
+    }
+
+    @Test
+    public void cardFailureWithoutAuthentication_isAbortedInPlain() {
+        ValueTransaction.Result result = new ValueTransaction()
+                .credit(FREE_VALUE_FILE_NUMBER, 10)
+                .debit(FREE_VALUE_FILE_NUMBER, 500) // below the lower limit of the card
+                .commit(desfireEv3, false);
+        assertEquals(ValueTransaction.Status.ABORTED, result.getStatus());
+        assertEquals(1, result.getFailedOperationIndex());
+        assertTrue(result.isAbortConfirmed());
+        assertEquals(100, desfireEv3.readFromAValueFile(FREE_VALUE_FILE_NUMBER));
+    }
+
+    @Test
+    public void cardFailure_abortsTheTransaction() {
+        authenticate();
+        ValueTransaction.Result result = new ValueTransaction()
+                .credit(VALUE_FILE_NUMBER, 10)
+                .debit(VALUE_FILE_NUMBER, 500)
+                .commit(desfireEv3, false);
+        assertEquals(ValueTransaction.Status.ABORTED, result.getStatus());
+        assertTrue(result.isAbortConfirmed());
+        authenticate();
+        assertEquals(100, desfireEv3.readFromAValueFile(VALUE_FILE_NUMBER));
+    }
+
+    @Test
+    public void clearedLinearRecordFile_isNotRejectedByTheCachedSettings() {
+        authenticate();
+        for (int i = 0; i < 2; i++) {
+            assertTrue(new ValueTransaction().appendRecord(LINEAR_RECORD_FILE_NUMBER, new byte[]{(byte) i}).commit(desfireEv3, false).isCommitted());
+        }
+        // the file settings are read again after the select and show a full file
+        assertTrue(desfireEv3.selectApplicationByAid(DesfireEv3SimulatorTest.APPLICATION_ID));
+        authenticate();
+        FileSettings fileSettings = desfireEv3.getApplicationFileSettings(LINEAR_RECORD_FILE_NUMBER);
+        assertEquals(fileSettings.getRecordsMaxInt(), fileSettings.getRecordsExistingInt());
+        assertTrue(desfireEv3.clearARecordFile(LINEAR_RECORD_FILE_NUMBER));
+        assertTrue(desfireEv3.commitTransactionFull(false));
+        ValueTransaction transaction = new ValueTransaction().appendRecord(LINEAR_RECORD_FILE_NUMBER, new byte[]{(byte) 2});
+        assertTrue(transaction.validate(desfireEv3).isEmpty());
+        assertTrue(transaction.commit(desfireEv3, false).isCommitted());
+    }
+}